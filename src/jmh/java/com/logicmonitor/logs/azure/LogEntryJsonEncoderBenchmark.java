@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.logicmonitor.logs.azure.PayloadWriter.Payload;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the serialization of a batch through the Gson tree, as done before the
+ * {@link LogEntryJsonEncoder}, with the encoder writing to a stream and to pooled buffers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LogEntryJsonEncoderBenchmark {
+
+    private static final Gson GSON = new Gson();
+
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    /**
+     * Whether the messages contain characters to escape: quotes, line breaks and non-ASCII.
+     */
+    @Param({"false", "true"})
+    public boolean escaped;
+
+    private List<LogEntry> entries;
+    private PayloadWriter writer;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() {
+        entries = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            String message = escaped
+                ? "{\"level\": \"Error\",\n\t\"text\": \"caf\u00e9 \u65e5\u672c " + i + "\"}"
+                : "2020-11-05T10:15:30Z sshd[" + i + "]: Accepted publickey for azureuser";
+            LogEntry entry = new LogEntry().message(message).timestamp(1604571330000L + i);
+            entry.getMetadata().put("category", "Administrative");
+            entry.getMetadata().put("operationName", "MICROSOFT.STORAGE/STORAGEACCOUNTS/WRITE");
+            entry.getMetadata().put("resultType", "Success");
+            entry.putLmResourceIdItem(LogEventAdapter.LM_RESOURCE_PROPERTY,
+                "/subscriptions/00000000-0000-0000-0000-000000000000/resourceGroups/group"
+                    + "/providers/Microsoft.Storage/storageAccounts/account" + (i % 10));
+            entries.add(entry);
+        }
+        writer = new PayloadWriter(new ByteBufferPool(ByteBufferPool.DEFAULT_BUFFER_SIZE,
+            ByteBufferPool.DEFAULT_MAX_POOLED));
+        out = new ByteArrayOutputStream(1 << 20);
+    }
+
+    @Benchmark
+    public byte[] gsonTree() {
+        JsonArray array = new JsonArray(entries.size());
+        for (LogEntry entry : entries) {
+            JsonObject object = new JsonObject();
+            for (Map.Entry<String, String> metadata : entry.getMetadata().entrySet()) {
+                object.addProperty(metadata.getKey(), metadata.getValue());
+            }
+            object.addProperty(LogEntry.JSON_PROPERTY_MESSAGE, entry.getMessage());
+            object.addProperty(LogEntry.JSON_PROPERTY_TIMESTAMP, entry.getTimestamp());
+            object.add(LogEntry.JSON_PROPERTY_LM_RESOURCE_ID,
+                GSON.toJsonTree(entry.getLmResourceId()));
+            array.add(object);
+        }
+        return GSON.toJson(array).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int encoderToStream() throws IOException {
+        out.reset();
+        LogEntryJsonEncoder encoder = LogEntryJsonEncoder.toStream(out, 8192);
+        encoder.writeArray(entries);
+        encoder.flush();
+        return out.size();
+    }
+
+    @Benchmark
+    public long pooledPayload() {
+        try (Payload payload = writer.write(entries)) {
+            return payload.getLength();
+        }
+    }
+}
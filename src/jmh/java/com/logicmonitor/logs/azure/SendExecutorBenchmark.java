@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import com.logicmonitor.logs.azure.LogIngestClient.IngestResult;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares the throughput of the batches sent on platform threads, the only option on Java 11,
+ * with the virtual threads of Java 21 (see {@link SendExecutors}), against a local stand-in of
+ * the ingestion endpoint answering after a fixed latency. The batches are spread over
+ * {@value #BATCHES} lanes, so up to as many requests can be in flight.<br>
+ * The virtual threads are used only when running on Java 21, with the multi-release classes of
+ * the jmh jar; otherwise both variants send on platform threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(SendExecutorBenchmark.BATCHES)
+public class SendExecutorBenchmark {
+
+    static final int BATCHES = 256;
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    /**
+     * Number of platform threads, ignored by the virtual threads.
+     */
+    @Param({"4", "32"})
+    public int concurrency;
+
+    @Param({"20"})
+    public int latencyMillis;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private LogBatcher batcher;
+    private final Semaphore sent = new Semaphore(0);
+    private final LongAdder failed = new LongAdder();
+
+    @Setup
+    public void setup() throws IOException {
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        server.createContext("/rest" + LogIngestClient.INGEST_PATH, exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                body.transferTo(OutputStream.nullOutputStream());
+                Thread.sleep(latencyMillis);
+                exchange.getResponseHeaders().add("x-request-id", "benchmark");
+                exchange.sendResponseHeaders(202, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        LogIngestClient client = new LogIngestClient(
+            "http://localhost:" + server.getAddress().getPort() + "/rest", "id", "key", null,
+            LogIngestClient.createHttpClient(10000, 10000, false), 0);
+        batcher = new LogBatcher(client,
+            // each entry is a batch
+            new AdaptiveFlushPolicy(Long.MAX_VALUE, 1, 60000, 60000, 1),
+            null, CircuitBreaker.Fallback.DROP, 0, new LogBatcher.BatchCallback() {
+                @Override
+                public void onSuccess(List<LogEntry> entries, IngestResult result) {
+                    sent.release(entries.size());
+                }
+
+                @Override
+                public void onFailure(List<LogEntry> entries, IngestResult result) {
+                    failed.add(entries.size());
+                    sent.release(entries.size());
+                }
+
+                @Override
+                public void onDropped(List<LogEntry> entries) {
+                    sent.release(entries.size());
+                }
+            },
+            SendExecutors.newSendExecutor("lm-logs-sender", concurrency, virtualThreads),
+            BATCHES);
+        if (virtualThreads && !SendExecutors.isVirtualThreadsSupported()) {
+            System.out.println("Virtual threads not supported, sending on platform threads");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        batcher.close(10000);
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        if (failed.sum() > 0) {
+            System.out.println(failed.sum() + " entries failed");
+        }
+    }
+
+    @Benchmark
+    public void sendBatches() throws InterruptedException {
+        for (int i = 0; i < BATCHES; i++) {
+            batcher.add(new LogEntry()
+                .message("2020-11-05T10:15:30Z sshd[" + i + "]: Accepted publickey for azureuser")
+                .timestamp(1604571330000L + i)
+                .putLmResourceIdItem(LogEventAdapter.LM_RESOURCE_PROPERTY, "resource-" + i));
+        }
+        sent.acquire(BATCHES);
+    }
+}
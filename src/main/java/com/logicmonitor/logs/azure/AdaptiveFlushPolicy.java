@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a batch of log entries is flushed.<br>
+ * A batch is flushed when it reaches the maximum size in bytes or entries, or when its linger
+ * expires. The linger is tuned within the configured bounds after each flush:
+ * <ul>
+ * <li>from the fill ratio of the batches flushed by the linger, it's set to the time needed to
+ * fill the batches to {@value #TARGET_FILL} of their maximum size. When the batches cannot be
+ * filled within the maximum linger (a quiet hub), it's set to the minimum, so the logs are not
+ * delayed for nothing.
+ * <li>from the ingestion latency, it's never shorter than the time the sender needs to complete
+ * a request (latency / parallelism), flushing more often would only queue the batches.
+ * </ul>
+ * While the forwarder catches up on the Event Hub (see {@link LagMonitor}), the linger aims for
+ * full batches, so the backlog is sent in fewer requests.
+ */
+public class AdaptiveFlushPolicy {
+
+    /**
+     * Parameter: maximum size of a batch in bytes (default 1 MiB).
+     */
+    public static final String PARAMETER_BATCH_MAX_BYTES = "LogBatchMaxBytes";
+    /**
+     * Parameter: maximum number of entries in a batch (default 1000).
+     */
+    public static final String PARAMETER_BATCH_MAX_ENTRIES = "LogBatchMaxEntries";
+    /**
+     * Parameter: minimum linger of a batch in milliseconds (default 100).
+     */
+    public static final String PARAMETER_BATCH_MIN_LINGER = "LogBatchMinLinger";
+    /**
+     * Parameter: maximum linger of a batch in milliseconds (default 5000).
+     */
+    public static final String PARAMETER_BATCH_MAX_LINGER = "LogBatchMaxLinger";
+
+    public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_MIN_LINGER = 100;
+    public static final long DEFAULT_MAX_LINGER = 5000;
+
+    /**
+     * Fill ratio the linger aims for.
+     */
+    public static final double TARGET_FILL = 0.5;
+    /**
+     * Fill ratio the linger aims for while catching up.
+     */
+    public static final double CATCH_UP_FILL = 1.0;
+    /**
+     * Weight of the newest sample in the moving averages.
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private final long maxBytes;
+    private final int maxEntries;
+    private final long minLingerNanos;
+    private final long maxLingerNanos;
+    private final int parallelism;
+
+    private double fillRate = -1;
+    private double latencyNanos = -1;
+    private volatile long lingerNanos;
+    private volatile boolean catchUp;
+
+    /**
+     * Creates the policy.
+     *
+     * @param maxBytes maximum size of a batch in bytes
+     * @param maxEntries maximum number of entries in a batch
+     * @param minLingerMillis minimum linger in milliseconds
+     * @param maxLingerMillis maximum linger in milliseconds
+     * @param parallelism number of batches sent concurrently
+     */
+    public AdaptiveFlushPolicy(long maxBytes, int maxEntries, long minLingerMillis,
+        long maxLingerMillis, int parallelism) {
+        this.maxBytes = Math.max(1, maxBytes);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.minLingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minLingerMillis));
+        this.maxLingerNanos = Math.max(minLingerNanos,
+            TimeUnit.MILLISECONDS.toNanos(maxLingerMillis));
+        this.parallelism = Math.max(1, parallelism);
+        this.lingerNanos = minLingerNanos;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Checks whether a batch has reached its maximum size.
+     *
+     * @param entries number of entries
+     * @param bytes size in bytes
+     * @return true if the batch must be flushed
+     */
+    public boolean isFull(int entries, long bytes) {
+        return entries >= maxEntries || bytes >= maxBytes;
+    }
+
+    /**
+     * Checks whether adding an entry would exceed the maximum size in bytes.
+     *
+     * @param entries number of entries
+     * @param bytes size in bytes
+     * @param entryBytes size of the added entry
+     * @return true if the batch must be flushed before adding the entry
+     */
+    public boolean wouldOverflow(int entries, long bytes, long entryBytes) {
+        return entries > 0 && bytes + entryBytes > maxBytes;
+    }
+
+    /**
+     * Gets the current linger.
+     *
+     * @return linger in nanoseconds
+     */
+    public long getLingerNanos() {
+        return lingerNanos;
+    }
+
+    /**
+     * Switches the catch-up mode, the next tuning aims for full batches when true.
+     *
+     * @param catchUp true while the forwarder is behind the Event Hub
+     */
+    public synchronized void setCatchUp(boolean catchUp) {
+        this.catchUp = catchUp;
+        updateLinger();
+    }
+
+    public boolean isCatchUp() {
+        return catchUp;
+    }
+
+    /**
+     * Gets the moving average of the ingestion latency.
+     *
+     * @return latency in nanoseconds, 0 if no request completed yet
+     */
+    public synchronized long getLatencyNanos() {
+        return Math.max(0, Math.round(latencyNanos));
+    }
+
+    /**
+     * Tunes the linger after a batch was flushed.
+     *
+     * @param entries number of entries
+     * @param bytes size in bytes
+     * @param ageNanos time since the first entry was added to the batch
+     */
+    public synchronized void onFlush(int entries, long bytes, long ageNanos) {
+        double fill = Math.min(1.0, Math.max((double) entries / maxEntries,
+            (double) bytes / maxBytes));
+        double rate = fill / Math.max(1, ageNanos);
+        fillRate = fillRate < 0 ? rate : SMOOTHING * rate + (1 - SMOOTHING) * fillRate;
+        updateLinger();
+    }
+
+    /**
+     * Tunes the linger after a batch was sent.
+     *
+     * @param requestNanos latency of the ingestion request
+     */
+    public synchronized void onSend(long requestNanos) {
+        latencyNanos = latencyNanos < 0 ? requestNanos
+            : SMOOTHING * requestNanos + (1 - SMOOTHING) * latencyNanos;
+        updateLinger();
+    }
+
+    private void updateLinger() {
+        double linger = minLingerNanos;
+        if (fillRate > 0) {
+            double timeToFill = (catchUp ? CATCH_UP_FILL : TARGET_FILL) / fillRate;
+            if (timeToFill <= maxLingerNanos) {
+                linger = timeToFill;
+            }
+        }
+        if (latencyNanos > 0) {
+            linger = Math.max(linger, latencyNanos / parallelism);
+        }
+        lingerNanos = Math.max(minLingerNanos, Math.min(maxLingerNanos, Math.round(linger)));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("linger %d ms, latency %d ms%s",
+            TimeUnit.NANOSECONDS.toMillis(lingerNanos),
+            TimeUnit.NANOSECONDS.toMillis(getLatencyNanos()), catchUp ? ", catching up" : "");
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Logging handler publishing the records to another handler on a background thread.<br>
+ * The records are queued in a {@link RingBuffer}, so the logging thread only creates the record
+ * while the formatting and the console I/O run on the drain thread. When the buffer is full a
+ * record at or above {@link Level#WARNING} is published by the logging thread, ahead of the queued
+ * ones, and the others are dropped and counted; the drops are reported by the drain thread.
+ */
+public class AsyncLogHandler extends Handler {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * Time the drain thread sleeps when the buffer is empty, unless woken up by a record.
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Handler delegate;
+    private final RingBuffer<LogRecord> buffer;
+    private final Thread drainThread;
+    private final LongAdder dropped = new LongAdder();
+    private long reportedDrops;
+    private volatile boolean idle;
+    private volatile boolean closed;
+
+    /**
+     * Creates the handler and starts its drain thread.
+     *
+     * @param delegate the handler publishing the records
+     * @param bufferSize maximum number of queued records
+     */
+    public AsyncLogHandler(Handler delegate, int bufferSize) {
+        this.delegate = delegate;
+        this.buffer = new RingBuffer<>(bufferSize);
+        setLevel(delegate.getLevel());
+        drainThread = new Thread(this::drain, "lm-logs-logging");
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        if (!buffer.offer(record)) {
+            if (record.getLevel().intValue() >= Level.WARNING.intValue()) {
+                delegate.publish(record);
+            } else {
+                dropped.increment();
+            }
+            return;
+        }
+        if (idle) {
+            LockSupport.unpark(drainThread);
+        }
+    }
+
+    private void drain() {
+        while (!closed || !buffer.isEmpty()) {
+            LogRecord record = buffer.poll();
+            if (record != null) {
+                delegate.publish(record);
+                continue;
+            }
+            reportDrops();
+            delegate.flush();
+            idle = true;
+            // a record queued before the flag was set would wait for the next wake up
+            if (buffer.isEmpty() && !closed) {
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+            idle = false;
+        }
+        reportDrops();
+        delegate.flush();
+    }
+
+    private void reportDrops() {
+        long drops = dropped.sum();
+        if (drops > reportedDrops) {
+            delegate.publish(new LogRecord(Level.WARNING, "Dropped " + (drops - reportedDrops)
+                + " log records, the logging buffer is full"));
+            reportedDrops = drops;
+        }
+    }
+
+    /**
+     * Gets the number of records dropped since the buffer was full.
+     *
+     * @return the count
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public int getQueued() {
+        return buffer.size();
+    }
+
+    /**
+     * Waits until the queued records are published, at most one second.
+     */
+    @Override
+    public void flush() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (!buffer.isEmpty() && drainThread.isAlive() && System.nanoTime() < deadline) {
+            LockSupport.unpark(drainThread);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        delegate.flush();
+    }
+
+    /**
+     * Publishes the queued records, then closes the delegate.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(drainThread);
+        try {
+            drainThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of direct byte buffers of a fixed size.<br>
+ * The direct buffers are expensive to allocate and are freed only by the garbage collector, so
+ * they are reused: a released buffer is kept for the next acquisition, unless the pool already
+ * holds its maximum number of buffers.
+ */
+public class ByteBufferPool {
+
+    /**
+     * Default size of a buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Default maximum number of pooled buffers.
+     */
+    public static final int DEFAULT_MAX_POOLED = 64;
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final LongAdder allocated = new LongAdder();
+
+    /**
+     * Creates the pool.
+     *
+     * @param bufferSize size of a buffer in bytes
+     * @param maxPooled maximum number of buffers kept in the pool
+     */
+    public ByteBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Gets a cleared buffer from the pool, allocating it when the pool is empty.
+     *
+     * @return the buffer
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            allocated.increment();
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     *
+     * @param buffer the buffer, it must not be used anymore
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            buffers.add(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the number of buffers in the pool.
+     *
+     * @return the number of pooled buffers
+     */
+    public int getPooled() {
+        return pooled.get();
+    }
+
+    /**
+     * Gets the number of buffers allocated since the creation of the pool.
+     *
+     * @return the number of allocated buffers
+     */
+    public long getAllocated() {
+        return allocated.sum();
+    }
+}
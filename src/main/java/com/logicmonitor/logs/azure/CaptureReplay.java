@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.logicmonitor.logs.azure.LoggingUtils.log;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import com.logicmonitor.logs.azure.InvocationCapture.CapturedInvocation;
+
+/**
+ * Replays the invocations recorded by {@link InvocationCapture}.<br>
+ * Usage: {@code CaptureReplay [--speed=<factor>] [--concurrency=<n>] [--send] <file|directory>...}
+ * <ul>
+ * <li>{@code --speed} 1 keeps the original pace, 10 replays ten times faster, 0 (default) replays
+ * as fast as possible
+ * <li>{@code --concurrency} maximum number of concurrent invocations (default number of processors)
+ * <li>{@code --send} sends the entries to LogicMonitor, otherwise only
+ * {@link LogEventForwarder#processEvents} runs
+ * </ul>
+ */
+public class CaptureReplay {
+
+    private final double speed;
+    private final int concurrency;
+    private final LogEventForwarder forwarder;
+
+    /**
+     * Creates the replay.
+     *
+     * @param speed pace factor, 0 to replay as fast as possible
+     * @param concurrency maximum number of concurrent invocations
+     * @param forwarder forwarder sending the entries, or null to only process the events
+     */
+    public CaptureReplay(double speed, int concurrency, LogEventForwarder forwarder) {
+        this.speed = speed;
+        this.concurrency = Math.max(1, concurrency);
+        this.forwarder = forwarder;
+    }
+
+    public static void main(String[] args) throws Exception {
+        double speed = 0;
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        boolean send = false;
+        List<Path> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--speed=")) {
+                speed = Double.parseDouble(arg.substring("--speed=".length()));
+            } else if (arg.startsWith("--concurrency=")) {
+                concurrency = Integer.parseInt(arg.substring("--concurrency=".length()));
+            } else if (arg.equals("--send")) {
+                send = true;
+            } else if (Files.isDirectory(Paths.get(arg))) {
+                files.addAll(InvocationCapture.listCaptureFiles(Paths.get(arg)));
+            } else {
+                files.add(Paths.get(arg));
+            }
+        }
+        CaptureReplay replay = new CaptureReplay(speed, concurrency,
+            send ? new LogEventForwarder() : null);
+        for (Path file : files) {
+            ReplayResult result = replay.replay(InvocationCapture.read(file));
+            log(Level.INFO, "Replayed " + file + ": " + result);
+        }
+    }
+
+    /**
+     * Replays the invocations, waiting until the last one completes.
+     *
+     * @param invocations captured invocations
+     * @return the replay statistics
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public ReplayResult replay(List<CapturedInvocation> invocations) throws InterruptedException {
+        List<CapturedInvocation> ordered = new ArrayList<>(invocations);
+        ordered.sort(Comparator.comparingLong(CapturedInvocation::getStartTime));
+        ReplayResult result = new ReplayResult();
+        if (ordered.isEmpty()) {
+            return result;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        Semaphore inFlight = new Semaphore(concurrency);
+        long firstStart = ordered.get(0).getStartTime();
+        long replayStart = System.nanoTime();
+        try {
+            for (CapturedInvocation invocation : ordered) {
+                if (speed > 0) {
+                    long dueNanos = replayStart + TimeUnit.MILLISECONDS.toNanos(
+                        Math.round((invocation.getStartTime() - firstStart) / speed));
+                    long waitNanos = dueNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    } else {
+                        result.lateNanos.addAndGet(-waitNanos);
+                    }
+                }
+                inFlight.acquire();
+                executor.execute(() -> {
+                    try {
+                        result.add(invocation, replayInvocation(invocation));
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        result.elapsedNanos = System.nanoTime() - replayStart;
+        result.originalMillis = ordered.get(ordered.size() - 1).getStartTime()
+            + ordered.get(ordered.size() - 1).getDurationMillis() - firstStart;
+        return result;
+    }
+
+    /**
+     * Replays one invocation.
+     *
+     * @param invocation the invocation
+     * @return the replay duration in nanoseconds
+     */
+    private long replayInvocation(CapturedInvocation invocation) {
+        long start = System.nanoTime();
+        try {
+            if (forwarder != null) {
+                forwarder.forwardEvents(invocation.getEvents(), StandaloneForwarder
+                    .createExecutionContext("replay-" + invocation.getInvocationId()));
+            } else {
+                LogEventForwarder.processEvents(invocation.getEvents());
+            }
+        } catch (RuntimeException e) {
+            log(Level.SEVERE, String.format("[%s] Replay failed: %s",
+                invocation.getInvocationId(), e.getMessage()));
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Statistics of a replay.
+     */
+    public static class ReplayResult {
+
+        private final List<Long> originalDurations = new ArrayList<>();
+        private final List<Long> replayDurations = new ArrayList<>();
+        private final AtomicLong lateNanos = new AtomicLong();
+        private long events;
+        private long elapsedNanos;
+        private long originalMillis;
+
+        private synchronized void add(CapturedInvocation invocation, long durationNanos) {
+            originalDurations.add(invocation.getDurationMillis());
+            replayDurations.add(TimeUnit.NANOSECONDS.toMillis(durationNanos));
+            events += invocation.getEvents() != null ? invocation.getEvents().size() : 0;
+        }
+
+        public synchronized int getInvocations() {
+            return replayDurations.size();
+        }
+
+        public synchronized long getEvents() {
+            return events;
+        }
+
+        /**
+         * Gets the total time the replay started the invocations after their due time, i.e. how
+         * much the replay couldn't keep the requested pace.
+         *
+         * @return milliseconds
+         */
+        public long getLateMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(lateNanos.get());
+        }
+
+        private static long percentile(List<Long> values, double percentile) {
+            if (values.isEmpty()) {
+                return 0;
+            }
+            List<Long> sorted = new ArrayList<>(values);
+            Collections.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%d invocations, %d events in %d ms (captured span %d ms, late %d ms), "
+                    + "duration p50/p99 %d/%d ms (captured %d/%d ms)",
+                getInvocations(), events, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                originalMillis, getLateMillis(),
+                percentile(replayDurations, 50), percentile(replayDurations, 99),
+                percentile(originalDurations, 50), percentile(originalDurations, 99));
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.logicmonitor.logs.azure.LoggingUtils.log;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+
+/**
+ * Circuit breaker protecting the log ingestion endpoint.<br>
+ * The results of the calls are counted in a rolling window of one-second buckets. The circuit:
+ * <ul>
+ * <li>opens when the window holds at least the minimum number of calls and the rate of failed
+ * or slow calls reaches its threshold; the calls are then rejected without being attempted.
+ * <li>becomes half-open after the open duration and lets one trial call through.
+ * <li>closes when the trial call succeeds, or opens again when it fails.
+ * </ul>
+ * Each permitted call gets a permit number, returned with its result, so only the result of the
+ * trial call decides the half-open circuit: the calls started before it opened may still
+ * complete.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Parameter: rate of failed calls opening the circuit, from 0 to 1 (default 0.5).
+     */
+    public static final String PARAMETER_FAILURE_RATE = "LogCircuitFailureRate";
+    /**
+     * Parameter: rate of slow calls opening the circuit, from 0 to 1 (default 0.8).
+     */
+    public static final String PARAMETER_SLOW_CALL_RATE = "LogCircuitSlowCallRate";
+    /**
+     * Parameter: latency in milliseconds from which a call is slow (default 5000).
+     */
+    public static final String PARAMETER_SLOW_CALL_MILLIS = "LogCircuitSlowCallMillis";
+    /**
+     * Parameter: length of the rolling window in seconds (default 30).
+     */
+    public static final String PARAMETER_WINDOW_SECONDS = "LogCircuitWindowSeconds";
+    /**
+     * Parameter: minimum number of calls in the window before the circuit can open (default 10).
+     */
+    public static final String PARAMETER_MINIMUM_CALLS = "LogCircuitMinimumCalls";
+    /**
+     * Parameter: time in seconds the circuit stays open before a trial call (default 30).
+     */
+    public static final String PARAMETER_OPEN_SECONDS = "LogCircuitOpenSeconds";
+    /**
+     * Parameter: what happens to the logs while the circuit is open, DROP or BUFFER (default
+     * DROP).
+     */
+    public static final String PARAMETER_FALLBACK = "LogCircuitFallback";
+    /**
+     * Parameter: maximum number of log entries buffered while the circuit is open (default
+     * 10000).
+     */
+    public static final String PARAMETER_BUFFER_SIZE = "LogCircuitBufferSize";
+
+    public static final double DEFAULT_FAILURE_RATE = 0.5;
+    public static final double DEFAULT_SLOW_CALL_RATE = 0.8;
+    public static final long DEFAULT_SLOW_CALL_MILLIS = 5000;
+    public static final int DEFAULT_WINDOW_SECONDS = 30;
+    public static final int DEFAULT_MINIMUM_CALLS = 10;
+    public static final long DEFAULT_OPEN_SECONDS = 30;
+    public static final int DEFAULT_BUFFER_SIZE = 10000;
+
+    /**
+     * Permit of a rejected call.
+     */
+    public static final long REJECTED = -1;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * What happens to the logs rejected by an open circuit.
+     */
+    public enum Fallback {
+        /**
+         * The logs are dropped and counted.
+         */
+        DROP,
+        /**
+         * The logs are buffered up to a limit and sent once the circuit closes.
+         */
+        BUFFER
+    }
+
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final int minimumCalls;
+    private final long openNanos;
+    private final LongSupplier clock;
+
+    private final long[] bucketSeconds;
+    private final int[] calls;
+    private final int[] failures;
+    private final int[] slowCalls;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private long permits;
+    private long trialPermit = REJECTED;
+    private long rejectedCalls;
+
+    /**
+     * Creates the circuit breaker.
+     *
+     * @param failureRateThreshold rate of failed calls opening the circuit
+     * @param slowCallRateThreshold rate of slow calls opening the circuit
+     * @param slowCallMillis latency from which a call is slow
+     * @param windowSeconds length of the rolling window
+     * @param minimumCalls minimum number of calls in the window before the circuit can open
+     * @param openSeconds time the circuit stays open before a trial call
+     */
+    public CircuitBreaker(double failureRateThreshold, double slowCallRateThreshold,
+        long slowCallMillis, int windowSeconds, int minimumCalls, long openSeconds) {
+        this(failureRateThreshold, slowCallRateThreshold, slowCallMillis, windowSeconds,
+            minimumCalls, openSeconds, System::nanoTime);
+    }
+
+    CircuitBreaker(double failureRateThreshold, double slowCallRateThreshold,
+        long slowCallMillis, int windowSeconds, int minimumCalls, long openSeconds,
+        LongSupplier clock) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.minimumCalls = Math.max(1, minimumCalls);
+        this.openNanos = TimeUnit.SECONDS.toNanos(openSeconds);
+        this.clock = clock;
+        int buckets = Math.max(1, windowSeconds);
+        this.bucketSeconds = new long[buckets];
+        this.calls = new int[buckets];
+        this.failures = new int[buckets];
+        this.slowCalls = new int[buckets];
+    }
+
+    /**
+     * Gets the state, moving an expired open circuit to half-open.
+     *
+     * @return the state
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= openNanos) {
+            transition(State.HALF_OPEN, "trying a call");
+        }
+        return state;
+    }
+
+    /**
+     * Checks whether a call is permitted.
+     *
+     * @return the permit of the call, its result must be then recorded with it, or
+     *     {@value #REJECTED} if the call is rejected
+     */
+    public synchronized long tryAcquire() {
+        switch (getState()) {
+            case CLOSED:
+                return ++permits;
+            case HALF_OPEN:
+                if (trialPermit == REJECTED) {
+                    trialPermit = ++permits;
+                    return trialPermit;
+                }
+                // fall through
+            default:
+                rejectedCalls++;
+                return REJECTED;
+        }
+    }
+
+    /**
+     * Records the result of a permitted call.
+     *
+     * @param permit the permit of the call
+     * @param success true if the call succeeded
+     * @param latencyNanos latency of the call
+     */
+    public synchronized void onResult(long permit, boolean success, long latencyNanos) {
+        boolean slow = latencyNanos >= slowCallNanos;
+        if (state == State.HALF_OPEN) {
+            if (permit != trialPermit) {
+                // a call permitted before the circuit opened, the window is cleared or reset
+                return;
+            }
+            trialPermit = REJECTED;
+            if (success && !slow) {
+                clearWindow();
+                transition(State.CLOSED, "trial call succeeded");
+            } else {
+                open("trial call " + (success ? "was slow" : "failed"));
+            }
+            return;
+        }
+        int bucket = currentBucket();
+        calls[bucket]++;
+        if (!success) {
+            failures[bucket]++;
+        }
+        if (slow) {
+            slowCalls[bucket]++;
+        }
+        if (state == State.CLOSED) {
+            checkThresholds();
+        }
+    }
+
+    /**
+     * Gets the number of calls rejected by the circuit.
+     *
+     * @return the number of rejected calls
+     */
+    public synchronized long getRejectedCalls() {
+        return rejectedCalls;
+    }
+
+    private void checkThresholds() {
+        long now = currentSecond();
+        int totalCalls = 0;
+        int totalFailures = 0;
+        int totalSlowCalls = 0;
+        for (int i = 0; i < calls.length; i++) {
+            if (now - bucketSeconds[i] < calls.length) {
+                totalCalls += calls[i];
+                totalFailures += failures[i];
+                totalSlowCalls += slowCalls[i];
+            }
+        }
+        if (totalCalls < minimumCalls) {
+            return;
+        }
+        double failureRate = (double) totalFailures / totalCalls;
+        double slowCallRate = (double) totalSlowCalls / totalCalls;
+        if (failureRate >= failureRateThreshold || slowCallRate >= slowCallRateThreshold) {
+            open(String.format("%d calls in %d s, failure rate %.2f, slow call rate %.2f",
+                totalCalls, calls.length, failureRate, slowCallRate));
+        }
+    }
+
+    private void open(String reason) {
+        openedAt = clock.getAsLong();
+        transition(State.OPEN, reason);
+    }
+
+    private void transition(State newState, String reason) {
+        State previous = state;
+        state = newState;
+        log(newState == State.OPEN ? Level.WARNING : Level.INFO,
+            String.format("Circuit to LogicMonitor ingestion %s -> %s: %s", previous, newState,
+                reason));
+    }
+
+    private int currentBucket() {
+        long second = currentSecond();
+        int bucket = (int) Math.floorMod(second, (long) calls.length);
+        if (bucketSeconds[bucket] != second) {
+            bucketSeconds[bucket] = second;
+            calls[bucket] = 0;
+            failures[bucket] = 0;
+            slowCalls[bucket] = 0;
+        }
+        return bucket;
+    }
+
+    private void clearWindow() {
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = 0;
+            failures[i] = 0;
+            slowCalls[i] = 0;
+        }
+    }
+
+    private long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(clock.getAsLong());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "circuit " + state + " (" + rejectedCalls + " rejected calls)";
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Stable hash of the content of a log entry: its resource ID, timestamp, message and selected
+ * metadata, serialized as length-prefixed UTF-8 into a buffer reused by each thread and hashed
+ * with XXH64. The same record, resent by a retry or redelivered by the Event Hub, gets the same
+ * hash on any instance; it can be added to the metadata of the entry
+ * ({@value #METADATA_CONTENT_HASH}) to filter the duplicates, and the {@link Deduplicator}
+ * suppresses the recent ones.
+ */
+public class ContentHash {
+
+    /**
+     * Parameter: adds the content hash to the metadata of the entries (default true).
+     */
+    public static final String PARAMETER_CONTENT_HASH = "LogContentHash";
+    /**
+     * Parameter: comma separated metadata keys included in the content hash (default
+     * "category,_type,log_level,activity_type").
+     */
+    public static final String PARAMETER_CONTENT_HASH_KEYS = "LogContentHashKeys";
+
+    public static final String DEFAULT_KEYS = String.join(",", LogEventAdapter.LM_CATEGORY,
+        LogEventAdapter.LM_EVENTSOURCE, LogEventAdapter.LM_SEVERITY,
+        LogEventAdapter.LM_ACTIVITY_TYPE);
+
+    public static final String METADATA_CONTENT_HASH = "content_hash";
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class,
+        ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class,
+        ByteOrder.LITTLE_ENDIAN);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<Encoder> ENCODERS = ThreadLocal.withInitial(Encoder::new);
+
+    private final List<String> keys;
+    private final boolean metadata;
+
+    /**
+     * Creates the hash.
+     *
+     * @param keys metadata keys included in the hash
+     * @param metadata adds the hash to the metadata of the entries when true
+     */
+    public ContentHash(List<String> keys, boolean metadata) {
+        this.keys = List.copyOf(keys);
+        this.metadata = metadata;
+    }
+
+    /**
+     * Parses the metadata keys included in the hash.
+     *
+     * @param keys comma separated keys
+     * @return the keys, empty when null
+     */
+    public static List<String> parseKeys(String keys) {
+        return keys == null ? List.of() : Arrays.stream(keys.split(",")).map(String::trim)
+            .filter(key -> !key.isEmpty()).collect(Collectors.toList());
+    }
+
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * Hashes the content of a log entry, and adds the hash to its metadata when enabled.
+     *
+     * @param entry the log entry
+     * @param resourceId ID of its resource
+     * @return the hash
+     */
+    public long apply(LogEntry entry, String resourceId) {
+        long hash = hash(entry, resourceId);
+        if (metadata && entry.getMetadata() != null) {
+            entry.getMetadata().put(METADATA_CONTENT_HASH, toHex(hash));
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes the content of a log entry.
+     *
+     * @param entry the log entry
+     * @param resourceId ID of its resource
+     * @return the hash
+     */
+    public long hash(LogEntry entry, String resourceId) {
+        Encoder encoder = ENCODERS.get();
+        encoder.length = 0;
+        encoder.writeString(resourceId);
+        encoder.writeLong(entry.getTimestamp() != null ? entry.getTimestamp() : -1);
+        encoder.writeString(entry.getMessage());
+        for (String key : keys) {
+            encoder.writeString(key);
+            encoder.writeString(entry.getMetadata() != null ? entry.getMetadata().get(key)
+                : null);
+        }
+        return xxHash64(encoder.bytes, 0, encoder.length, 0);
+    }
+
+    /**
+     * Hashes the UTF-8 bytes of a string with XXH64, without allocating.
+     *
+     * @param value the string
+     * @return the hash
+     */
+    public static long hash(String value) {
+        Encoder encoder = ENCODERS.get();
+        encoder.length = 0;
+        encoder.writeString(value);
+        // after the length prefix
+        return xxHash64(encoder.bytes, 4, encoder.length - 4, 0);
+    }
+
+    /**
+     * Counts the UTF-8 bytes of a string, the unpaired surrogates as one byte like
+     * {@link String#getBytes}.
+     *
+     * @param value the string
+     * @return the number of bytes
+     */
+    public static int utf8Length(String value) {
+        int length = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x800) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // 4 bytes for the 2 chars
+                    length += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    length += 2;
+                }
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Formats a hash as 16 hexadecimal digits.
+     *
+     * @param hash the hash
+     * @return the digits
+     */
+    public static String toHex(long hash) {
+        char[] digits = new char[16];
+        for (int i = 15; i >= 0; i--) {
+            digits[i] = HEX[(int) (hash & 0xF)];
+            hash >>>= 4;
+        }
+        return new String(digits);
+    }
+
+    /**
+     * Computes the XXH64 hash of bytes.
+     *
+     * @param bytes the bytes
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @param seed the seed
+     * @return the hash
+     */
+    public static long xxHash64(byte[] bytes, int offset, int length, long seed) {
+        int position = offset;
+        int end = offset + length;
+        long hash;
+        if (length >= 32) {
+            long v1 = seed + PRIME1 + PRIME2;
+            long v2 = seed + PRIME2;
+            long v3 = seed;
+            long v4 = seed - PRIME1;
+            do {
+                v1 = round(v1, (long) LONG.get(bytes, position));
+                v2 = round(v2, (long) LONG.get(bytes, position + 8));
+                v3 = round(v3, (long) LONG.get(bytes, position + 16));
+                v4 = round(v4, (long) LONG.get(bytes, position + 24));
+                position += 32;
+            } while (position <= end - 32);
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12)
+                + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = seed + PRIME5;
+        }
+        hash += length;
+        while (position <= end - 8) {
+            hash ^= round(0, (long) LONG.get(bytes, position));
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+            position += 8;
+        }
+        if (position <= end - 4) {
+            hash ^= ((int) INT.get(bytes, position) & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+            position += 4;
+        }
+        while (position < end) {
+            hash ^= (bytes[position] & 0xFF) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+            position++;
+        }
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long round(long accumulator, long input) {
+        return Long.rotateLeft(accumulator + input * PRIME2, 31) * PRIME1;
+    }
+
+    private static long mergeRound(long accumulator, long value) {
+        return (accumulator ^ round(0, value)) * PRIME1 + PRIME4;
+    }
+
+    @Override
+    public String toString() {
+        return "content hash of the resource ID, timestamp, message and " + keys;
+    }
+
+    /**
+     * Growable buffer of the serialized content.
+     */
+    private static final class Encoder {
+
+        private byte[] bytes = new byte[1024];
+        private int length;
+
+        private void ensure(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            }
+        }
+
+        void writeLong(long value) {
+            ensure(length + 8);
+            LONG.set(bytes, length, value);
+            length += 8;
+        }
+
+        /**
+         * Writes the UTF-8 length and bytes of a string, -1 for null, without allocating.
+         */
+        void writeString(String value) {
+            if (value == null) {
+                ensure(length + 4);
+                INT.set(bytes, length, -1);
+                length += 4;
+                return;
+            }
+            ensure(length + 4 + value.length() * 3);
+            int start = length + 4;
+            int position = start;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    bytes[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[position++] = (byte) (0xC0 | c >> 6);
+                    bytes[position++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    bytes[position++] = (byte) (0xF0 | codePoint >> 18);
+                    bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    bytes[position++] = (byte) (0x80 | codePoint & 0x3F);
+                } else if (Character.isSurrogate(c)) {
+                    // unpaired, as encoded by String.getBytes
+                    bytes[position++] = '?';
+                } else {
+                    bytes[position++] = (byte) (0xE0 | c >> 12);
+                    bytes[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    bytes[position++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+            INT.set(bytes, length, position - start);
+            length = position;
+        }
+    }
+}
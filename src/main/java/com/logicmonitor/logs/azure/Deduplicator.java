@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Suppresses the log entries already delivered recently by this instance, such as the events
+ * redelivered by the Event Hub after a failed invocation.<br>
+ * The entries are identified by their {@link ContentHash}. The hashes are recorded once the
+ * entries are delivered, so an entry shed, dropped or failed is sent again when redelivered. The
+ * recent hashes are kept in a fixed table of buckets of {@value #WAYS} slots, a hash replacing
+ * the oldest one of its bucket, so the memory is bounded and the table is updated without locks.
+ * A hash may be evicted before its duplicate arrives, or a duplicate may arrive before the
+ * delivery of its original: it's then sent again. Conversely, distinct entries with the same
+ * content, e.g. identical records of a resource within the same second, are suppressed like
+ * duplicates, hence the suppression is disabled by default.
+ */
+public class Deduplicator {
+
+    /**
+     * Parameter: number of recent content hashes kept to suppress the duplicates, 0 to only
+     * compute the hashes (default 0).
+     */
+    public static final String PARAMETER_DEDUP_SIZE = "LogDedupSize";
+
+    public static final int DEFAULT_SIZE = 0;
+
+    /**
+     * Number of slots of a bucket.
+     */
+    public static final int WAYS = 4;
+
+    private final ContentHash contentHash;
+    private final AtomicLongArray slots;
+    private final int buckets;
+    private final AtomicLong entries = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * Creates the deduplicator.
+     *
+     * @param contentHash hash of the entries
+     * @param size number of recent hashes kept, rounded up to a power of 2, 0 for none
+     */
+    public Deduplicator(ContentHash contentHash, int size) {
+        this.contentHash = contentHash;
+        this.buckets = size <= 0 ? 0
+            : Integer.highestOneBit(Math.max(WAYS, size) * 2 - 1) / WAYS;
+        this.slots = new AtomicLongArray(buckets * WAYS);
+    }
+
+    public ContentHash getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Hashes a log entry and checks whether it was delivered recently. It's recorded once
+     * delivered, by {@link #addDelivered}.
+     *
+     * @param entry the log entry
+     * @param resourceId ID of its resource
+     * @return false when the entry is a recent duplicate
+     */
+    public boolean check(LogEntry entry, String resourceId) {
+        entries.incrementAndGet();
+        long hash = contentHash.apply(entry, resourceId);
+        if (buckets == 0) {
+            return true;
+        }
+        // 0 marks the empty slots
+        long key = hash != 0 ? hash : 1;
+        if (!contains(key)) {
+            entry.setDedupKey(key);
+            return true;
+        }
+        suppressed.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Records the delivered log entries, their redeliveries are suppressed.
+     *
+     * @param delivered the log entries
+     */
+    public void addDelivered(List<LogEntry> delivered) {
+        for (LogEntry entry : delivered) {
+            if (entry.getDedupKey() != 0) {
+                add(entry.getDedupKey());
+            }
+        }
+    }
+
+    private boolean contains(long key) {
+        int base = getBase(key);
+        for (int i = 0; i < WAYS; i++) {
+            if (slots.get(base + i) == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int getBase(long key) {
+        return ((int) (key ^ key >>> 32) & (buckets - 1)) * WAYS;
+    }
+
+    /**
+     * Records a hash.
+     *
+     * @param hash the hash
+     * @return false when the hash is recent
+     */
+    protected boolean add(long hash) {
+        // 0 marks the empty slots
+        long key = hash != 0 ? hash : 1;
+        if (contains(key)) {
+            return false;
+        }
+        int base = getBase(key);
+        // the newest first, the oldest falls out
+        for (int i = WAYS - 1; i > 0; i--) {
+            slots.set(base + i, slots.get(base + i - 1));
+        }
+        slots.set(base, key);
+        return true;
+    }
+
+    /**
+     * Gets the number of recent hashes kept.
+     *
+     * @return the capacity of the table
+     */
+    public int getSize() {
+        return buckets * WAYS;
+    }
+
+    /**
+     * Gets the number of entries hashed.
+     *
+     * @return the number of entries
+     */
+    public long getEntries() {
+        return entries.get();
+    }
+
+    /**
+     * Gets the number of duplicates suppressed.
+     *
+     * @return the number of entries
+     */
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "suppressed " + suppressed.get() + " duplicates of " + entries.get()
+            + " entries in " + getSize() + " recent hashes";
+    }
+}
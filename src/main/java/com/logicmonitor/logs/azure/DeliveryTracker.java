@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import com.logicmonitor.logs.azure.InvocationTracer.Stage;
+import com.logicmonitor.logs.azure.InvocationTracer.Trace;
+import com.logicmonitor.logs.azure.LogIngestClient.IngestResult;
+
+/**
+ * Tracks the delivery of the log entries of each invocation.<br>
+ * The entries are tagged with the {@link Delivery} of their invocation when they are submitted,
+ * all at once or as they are produced until the delivery is sealed.
+ * As the batches are sent, dropped or failed, the counts of the deliveries of their entries are
+ * updated, and the future of a delivery is completed once all its entries are resolved. The
+ * batches mix entries of concurrent invocations, so each one gets its own counts. The resolved
+ * entries are credited back to the {@link MemoryBudget}.
+ */
+public class DeliveryTracker implements LogBatcher.BatchCallback {
+
+    /**
+     * Parameter: time in milliseconds an invocation waits for the delivery of its logs (default
+     * 0, the invocation doesn't wait).
+     */
+    public static final String PARAMETER_DELIVERY_TIMEOUT = "LogDeliveryTimeout";
+
+    private final MemoryBudget budget;
+    private final Map<String, Delivery> pending = new ConcurrentHashMap<>();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+
+    /**
+     * Creates the tracker.
+     *
+     * @param budget memory budget of the entries, may be null
+     */
+    public DeliveryTracker(MemoryBudget budget) {
+        this.budget = budget;
+    }
+
+    public MemoryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Registers the delivery of an invocation and tags its entries.
+     *
+     * @param invocationId ID of the invocation
+     * @param entries the log entries of the invocation
+     * @return the delivery, completed when all the entries are resolved
+     */
+    public Delivery register(String invocationId, List<LogEntry> entries) {
+        Delivery delivery = open(invocationId);
+        entries.forEach(delivery::add);
+        seal(delivery);
+        return delivery;
+    }
+
+    /**
+     * Registers the delivery of an invocation whose entries are added as they are produced.
+     * The delivery can't complete before it's sealed.
+     *
+     * @param invocationId ID of the invocation
+     * @return the delivery
+     */
+    public Delivery open(String invocationId) {
+        Delivery delivery = new Delivery(invocationId);
+        pending.put(delivery.getKey(), delivery);
+        return delivery;
+    }
+
+    /**
+     * Seals a delivery once all its entries were added, it's completed when they're resolved.
+     *
+     * @param delivery the delivery
+     */
+    public void seal(Delivery delivery) {
+        if (delivery.sealed.compareAndSet(false, true)) {
+            // resolves the count the delivery was opened with
+            resolve(delivery, 1);
+        }
+    }
+
+    /**
+     * Gets the number of invocations whose delivery is in progress.
+     *
+     * @return the number of pending deliveries
+     */
+    public int getPendingDeliveries() {
+        return pending.size();
+    }
+
+    public long getDeliveredEntries() {
+        return delivered.sum();
+    }
+
+    public long getFailedEntries() {
+        return failed.sum();
+    }
+
+    public long getRetriedEntries() {
+        return retried.sum();
+    }
+
+    @Override
+    public void onSuccess(List<LogEntry> entries, IngestResult result) {
+        resolve(entries, true, result);
+    }
+
+    @Override
+    public void onFailure(List<LogEntry> entries, IngestResult result) {
+        resolve(entries, false, result);
+    }
+
+    @Override
+    public void onDropped(List<LogEntry> entries) {
+        resolve(entries, false, null);
+    }
+
+    /**
+     * Resolves the entries of a batch.
+     *
+     * @param entries the entries
+     * @param success true if delivered
+     * @param result result of the request, null if not sent
+     */
+    private void resolve(List<LogEntry> entries, boolean success, IngestResult result) {
+        boolean retry = result != null && result.getAttempts() > 1;
+        (success ? delivered : failed).add(entries.size());
+        if (retry) {
+            retried.add(entries.size());
+        }
+        // the entries of an invocation are usually adjacent: counts them together
+        Delivery current = null;
+        int count = 0;
+        for (LogEntry entry : entries) {
+            Delivery delivery = entry.getDelivery();
+            if (delivery != current) {
+                resolve(current, count, success, entries.size(), result);
+                current = delivery;
+                count = 0;
+            }
+            count++;
+        }
+        resolve(current, count, success, entries.size(), result);
+        if (budget != null) {
+            budget.release(entries);
+        }
+    }
+
+    private void resolve(Delivery delivery, int count, boolean success, int batchSize,
+        IngestResult result) {
+        if (delivery == null || count == 0) {
+            return;
+        }
+        if (success && result.getRequestId() != null) {
+            delivery.requestId = result.getRequestId();
+        }
+        (success ? delivery.delivered : delivery.failed).addAndGet(count);
+        if (result != null && result.getAttempts() > 1) {
+            delivery.retried.addAndGet(count);
+        }
+        Trace trace = delivery.trace;
+        if (trace != null && result != null) {
+            long end = System.nanoTime();
+            trace.record(Stage.SEND, end - result.getLatencyNanos(), end, count,
+                result.getPayloadBytes() * count / batchSize);
+        }
+        resolve(delivery, count);
+    }
+
+    private void resolve(Delivery delivery, int count) {
+        if (delivery.pending.addAndGet(-count) == 0) {
+            pending.remove(delivery.getKey(), delivery);
+            delivery.complete();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d pending deliveries, %d delivered, %d failed, %d retried entries",
+            pending.size(), delivered.sum(), failed.sum(), retried.sum())
+            + (budget != null ? ", " + budget : "");
+    }
+
+    /**
+     * Delivery of the log entries of one invocation.
+     */
+    public static class Delivery {
+
+        private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+        private final String invocationId;
+        private final String key;
+        private final AtomicInteger entries = new AtomicInteger();
+        private final long start = System.nanoTime();
+        /**
+         * Entries not resolved yet, plus one until the delivery is sealed.
+         */
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final AtomicBoolean sealed = new AtomicBoolean();
+        private final AtomicInteger delivered = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger retried = new AtomicInteger();
+        private final CompletableFuture<Delivery> future = new CompletableFuture<>();
+        private volatile long latencyNanos;
+        private volatile String requestId;
+        private volatile Trace trace;
+
+        Delivery(String invocationId) {
+            this.invocationId = invocationId;
+            // the invocation ID may be missing or reused by a replay
+            this.key = invocationId + "#" + SEQUENCE.incrementAndGet();
+        }
+
+        /**
+         * Adds an entry before it's submitted, the delivery must not be sealed.
+         *
+         * @param entry the log entry
+         */
+        public void add(LogEntry entry) {
+            entries.incrementAndGet();
+            pending.incrementAndGet();
+            entry.setDelivery(this);
+        }
+
+        private void complete() {
+            latencyNanos = System.nanoTime() - start;
+            future.complete(this);
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        /**
+         * Sets the trace recording the sending of the entries, before they're submitted.
+         *
+         * @param trace the trace, may be null
+         */
+        public void setTrace(Trace trace) {
+            this.trace = trace;
+        }
+
+        public String getInvocationId() {
+            return invocationId;
+        }
+
+        public int getEntries() {
+            return entries.get();
+        }
+
+        /**
+         * Gets the ID of the last request that delivered entries.
+         *
+         * @return the request ID, null if no entry was delivered
+         */
+        public String getRequestId() {
+            return requestId;
+        }
+
+        public int getDelivered() {
+            return delivered.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * Gets the number of entries sent in a batch that had to be retried.
+         *
+         * @return the number of retried entries
+         */
+        public int getRetried() {
+            return retried.get();
+        }
+
+        /**
+         * Gets the time from the registration to the resolution of the last entry.
+         *
+         * @return latency in nanoseconds, 0 while pending
+         */
+        public long getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        /**
+         * Gets the future completed when all the entries are resolved.
+         *
+         * @return the future
+         */
+        public CompletableFuture<Delivery> getFuture() {
+            return future;
+        }
+
+        public boolean isSuccess() {
+            return future.isDone() && failed.get() == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d delivered, %d failed, %d retried", delivered.get(),
+                entries.get(), failed.get(), retried.get());
+        }
+    }
+}
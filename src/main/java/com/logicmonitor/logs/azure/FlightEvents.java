@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JDK Flight Recorder events of the forwarding stages, so they show up in the recordings next to
+ * the Gson and OkHttp frames.<br>
+ * A stage creates its event, calls {@link Event#begin()} before and sets the fields only when
+ * {@link Event#shouldCommit()} is true. While no recording runs, the events aren't instrumented
+ * and the JIT removes their allocation, so they cost nothing. The events have no stack trace, and
+ * the ones per event or record are only recorded above a threshold (see the settings in
+ * {@code jfr/lm-logs-azure.jfc}).
+ */
+public final class FlightEvents {
+
+    /**
+     * Prefix of the event names.
+     */
+    public static final String PREFIX = "com.logicmonitor.logs.azure.";
+    public static final String CATEGORY = "LogicMonitor Logs";
+
+    private FlightEvents() {
+    }
+
+    @Name(PREFIX + "Invocation")
+    @Label("Invocation")
+    @Description("Events of an invocation transformed and submitted to the batchers")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class InvocationEvent extends Event {
+
+        @Label("Invocation ID")
+        String invocationId;
+
+        @Label("Partition")
+        String partition;
+
+        @Label("Events")
+        int events;
+
+        @Label("Entries")
+        int entries;
+
+        @Label("Enqueue Lag")
+        @Description("Milliseconds since the oldest event was enqueued, -1 if unknown")
+        long enqueueLagMillis;
+    }
+
+    @Name(PREFIX + "Decode")
+    @Label("Decode")
+    @Description("Event parsed into its records")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    @Threshold("1 ms")
+    public static final class DecodeEvent extends Event {
+
+        @Label("Records")
+        int records;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name(PREFIX + "MetadataExtraction")
+    @Label("Metadata Extraction")
+    @Description("Record transformed into a log entry with its resource ID and metadata")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    @Threshold("1 ms")
+    public static final class MetadataExtractionEvent extends Event {
+
+        @Label("Category")
+        String category;
+
+        @Label("Type")
+        @Description("Source of the record, i.e. its resource type")
+        String type;
+
+        @Label("Metadata")
+        int metadata;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name(PREFIX + "Scrub")
+    @Label("Scrub")
+    @Description("Message scrubbed by the scrub pattern")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    @Threshold("1 ms")
+    public static final class ScrubEvent extends Event {
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+
+        @Label("Scrubbed")
+        @DataAmount
+        long scrubbedBytes;
+    }
+
+    @Name(PREFIX + "BatchBuild")
+    @Label("Batch Build")
+    @Description("Batch of log entries serialized into the request payload")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class BatchBuildEvent extends Event {
+
+        @Label("Entries")
+        int entries;
+
+        @Label("Payload Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name(PREFIX + "Send")
+    @Label("HTTP Send")
+    @Description("Attempt of an ingestion request")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class SendEvent extends Event {
+
+        @Label("URL")
+        String url;
+
+        @Label("Attempt")
+        int attempt;
+
+        @Label("Status Code")
+        @Description("HTTP status code, 0 when the request failed")
+        int statusCode;
+
+        @Label("Payload Size")
+        @DataAmount
+        long bytes;
+
+        @Label("Request ID")
+        String requestId;
+    }
+}
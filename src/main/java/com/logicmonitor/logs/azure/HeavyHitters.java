@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.logicmonitor.logs.azure.LoggingUtils.log;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the resources, categories and types sending the most log volume.<br>
+ * The UTF-8 size of the messages is counted by key in a Count-Min sketch, a fixed array of
+ * counters per row, each key hashed with XXH64 to one counter of each row; the estimate of a key is the minimum of its
+ * counters, never lower than its volume and higher by at most the volume of the colliding keys.
+ * A key whose estimate exceeds the smallest of the top ones becomes a candidate; the candidates
+ * are pruned to the top ones when they're twice as many. The counters are updated without locks.
+ * <br>
+ * Every interval, the top keys of each dimension are logged and the counts restart, so the
+ * summary shows the recent volume. The updates racing with the restart may be lost.
+ */
+public class HeavyHitters {
+
+    /**
+     * Parameter: number of top keys reported per dimension, 0 to disable (default 10).
+     */
+    public static final String PARAMETER_HEAVY_HITTERS_TOP = "LogHeavyHittersTop";
+    /**
+     * Parameter: interval of the summaries in milliseconds (default 300000).
+     */
+    public static final String PARAMETER_HEAVY_HITTERS_INTERVAL = "LogHeavyHittersInterval";
+    /**
+     * Parameter: number of counters per row of the sketch (default 2048).
+     */
+    public static final String PARAMETER_HEAVY_HITTERS_WIDTH = "LogHeavyHittersWidth";
+
+    public static final int DEFAULT_TOP = 10;
+    public static final long DEFAULT_INTERVAL = 300_000;
+    public static final int DEFAULT_WIDTH = 2048;
+
+    /**
+     * Number of rows of the sketch.
+     */
+    public static final int DEPTH = 4;
+
+    private static final long[] SEEDS = {
+        0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+    };
+
+    public enum Dimension {
+        RESOURCE,
+        CATEGORY,
+        TYPE
+    }
+
+    private final int top;
+    private final long intervalNanos;
+    private final int width;
+    private final AtomicLongArray counters;
+    private final Map<Dimension, TopKeys> tops = new EnumMap<>(Dimension.class);
+    private final AtomicLong nextReport;
+    private final AtomicLong total = new AtomicLong();
+
+    /**
+     * Creates the tracker.
+     *
+     * @param top number of top keys per dimension
+     * @param intervalMillis interval of the summaries in milliseconds, 0 for none
+     * @param width number of counters per row of the sketch, rounded up to a power of 2
+     */
+    public HeavyHitters(int top, long intervalMillis, int width) {
+        this.top = Math.max(1, top);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.width = Integer.highestOneBit(Math.max(2, width) * 2 - 1);
+        this.counters = new AtomicLongArray(DEPTH * Dimension.values().length * this.width);
+        for (Dimension dimension : Dimension.values()) {
+            tops.put(dimension, new TopKeys());
+        }
+        this.nextReport = new AtomicLong(System.nanoTime() + intervalNanos);
+    }
+
+    /**
+     * Counts the message of a log entry by resource, category and type, and logs the summary
+     * when the interval elapsed.
+     *
+     * @param entry the log entry
+     * @param resourceId ID of its resource
+     */
+    public void add(LogEntry entry, String resourceId) {
+        long size = entry.getMessage() != null ? ContentHash.utf8Length(entry.getMessage()) : 0;
+        add(Dimension.RESOURCE, resourceId, size);
+        add(Dimension.CATEGORY, entry.getMetadata().get(LogEventAdapter.LM_CATEGORY), size);
+        add(Dimension.TYPE, entry.getMetadata().get(LogEventAdapter.LM_EVENTSOURCE), size);
+        total.addAndGet(size);
+        if (intervalNanos > 0) {
+            long next = nextReport.get();
+            long now = System.nanoTime();
+            if (now - next >= 0 && nextReport.compareAndSet(next, now + intervalNanos)) {
+                log(Level.INFO, () -> "Heavy hitters: " + this);
+                reset();
+            }
+        }
+    }
+
+    /**
+     * Counts the volume of a key.
+     *
+     * @param dimension dimension of the key
+     * @param key the key, ignored when null
+     * @param weight its volume
+     */
+    public void add(Dimension dimension, String key, long weight) {
+        if (key == null || weight <= 0) {
+            return;
+        }
+        long hash = ContentHash.hash(key);
+        int base = dimension.ordinal() * DEPTH * width;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate,
+                counters.addAndGet(base + row * width + index(hash, row), weight));
+        }
+        tops.get(dimension).offer(key, estimate);
+    }
+
+    /**
+     * Estimates the volume of a key.
+     *
+     * @param dimension dimension of the key
+     * @param key the key
+     * @return the estimate, at least the volume counted
+     */
+    public long estimate(Dimension dimension, String key) {
+        long hash = ContentHash.hash(key);
+        int base = dimension.ordinal() * DEPTH * width;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.get(base + row * width + index(hash, row)));
+        }
+        return estimate;
+    }
+
+    private int index(long hash, int row) {
+        long mixed = (hash + SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+        return (int) ((mixed ^ (mixed >>> 31)) & (width - 1));
+    }
+
+    /**
+     * Gets the top keys of a dimension.
+     *
+     * @param dimension the dimension
+     * @return the keys with their estimates, from the largest
+     */
+    public List<Map.Entry<String, Long>> getTop(Dimension dimension) {
+        return tops.get(dimension).candidates.keySet().stream()
+            .map(key -> Map.entry(key, estimate(dimension, key)))
+            .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+            .limit(top)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Gets the volume counted since the last summary.
+     *
+     * @return the total UTF-8 size of the messages
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * Restarts the counts.
+     */
+    public void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        tops.values().forEach(TopKeys::clear);
+        total.set(0);
+    }
+
+    @Override
+    public String toString() {
+        long all = Math.max(1, total.get());
+        StringBuilder builder = new StringBuilder().append(total.get()).append(" bytes");
+        for (Dimension dimension : Dimension.values()) {
+            builder.append(", ").append(dimension.name().toLowerCase(Locale.ROOT)).append(' ')
+                .append(getTop(dimension).stream()
+                    .map(key -> String.format("%s %d (%d%%)", key.getKey(), key.getValue(),
+                        key.getValue() * 100 / all))
+                    .collect(Collectors.joining(", ", "{", "}")));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Candidates of the top keys of a dimension.
+     */
+    private final class TopKeys {
+
+        private final Map<String, AtomicLong> candidates = new ConcurrentHashMap<>();
+        private final AtomicBoolean pruning = new AtomicBoolean();
+        /**
+         * Smallest estimate of the top keys once there are enough candidates.
+         */
+        private volatile long threshold;
+
+        void offer(String key, long estimate) {
+            AtomicLong candidate = candidates.get(key);
+            if (candidate != null) {
+                // a top key, without locking
+                candidate.accumulateAndGet(estimate, Math::max);
+                return;
+            }
+            if (estimate <= threshold) {
+                return;
+            }
+            candidates.putIfAbsent(key, new AtomicLong(estimate));
+            if (candidates.size() > top * 2 && pruning.compareAndSet(false, true)) {
+                try {
+                    prune();
+                } finally {
+                    pruning.set(false);
+                }
+            }
+        }
+
+        private void prune() {
+            List<Map.Entry<String, Long>> sorted = candidates.entrySet().stream()
+                .map(candidate -> Map.entry(candidate.getKey(), candidate.getValue().get()))
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .collect(Collectors.toList());
+            if (sorted.size() <= top) {
+                return;
+            }
+            for (Map.Entry<String, Long> candidate : sorted.subList(top, sorted.size())) {
+                candidates.remove(candidate.getKey());
+            }
+            threshold = sorted.get(top - 1).getValue();
+        }
+
+        void clear() {
+            candidates.clear();
+            threshold = 0;
+        }
+    }
+}
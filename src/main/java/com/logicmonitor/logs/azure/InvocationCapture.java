@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.logicmonitor.logs.azure.LoggingUtils.log;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Records raw invocation batches for a later replay.<br>
+ * Each sampled invocation is appended as one JSON line ({@link CapturedInvocation}) to a gzipped
+ * file in the capture directory. The records are queued and written by a background thread, so
+ * the invocation is never blocked; when the queue is full, by number of records or by size of
+ * their events, the record is dropped. The files are rotated after reaching the maximum size and
+ * the oldest ones are deleted.
+ */
+public class InvocationCapture implements Closeable {
+
+    /**
+     * Parameter: directory of the capture files, the capture is disabled when not set.
+     */
+    public static final String PARAMETER_CAPTURE_DIRECTORY = "LogCaptureDirectory";
+    /**
+     * Parameter: fraction of invocations to capture, from 0 to 1 (default 1).
+     */
+    public static final String PARAMETER_CAPTURE_SAMPLE_RATE = "LogCaptureSampleRate";
+    /**
+     * Parameter: maximum size of a capture file in bytes (default 100 MB).
+     */
+    public static final String PARAMETER_CAPTURE_MAX_FILE_SIZE = "LogCaptureMaxFileSize";
+    /**
+     * Parameter: maximum number of capture files kept (default 10).
+     */
+    public static final String PARAMETER_CAPTURE_MAX_FILES = "LogCaptureMaxFiles";
+    /**
+     * Parameter: maximum heap size in bytes of the events queued for writing (default 32 MB).
+     */
+    public static final String PARAMETER_CAPTURE_MAX_QUEUE_BYTES = "LogCaptureMaxQueueBytes";
+
+    public static final double DEFAULT_SAMPLE_RATE = 1.0;
+    public static final long DEFAULT_MAX_FILE_SIZE = 100L * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 10;
+    public static final long DEFAULT_MAX_QUEUE_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * Name prefix of the capture files.
+     */
+    public static final String FILE_PREFIX = "capture-";
+    /**
+     * Name suffix of the capture files.
+     */
+    public static final String FILE_SUFFIX = ".jsonl.gz";
+
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final DateTimeFormatter FILE_TIMESTAMP =
+        DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+    private static final Gson GSON = new Gson();
+
+    private final Path directory;
+    private final double sampleRate;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final long maxQueueBytes;
+
+    private final BlockingQueue<CapturedInvocation> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong captured = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean closed;
+
+    private CountingOutputStream fileStream;
+    private Writer fileWriter;
+    private int fileSequence;
+
+    public InvocationCapture(Path directory, double sampleRate, long maxFileSize, int maxFiles)
+        throws IOException {
+        this(directory, sampleRate, maxFileSize, maxFiles, DEFAULT_MAX_QUEUE_BYTES);
+    }
+
+    /**
+     * Creates the capture and starts its writer.
+     *
+     * @param directory directory of the capture files, created when needed
+     * @param sampleRate fraction of invocations to capture
+     * @param maxFileSize size of a file in bytes before it's rotated
+     * @param maxFiles number of files kept
+     * @param maxQueueBytes heap size in bytes of the events queued for writing
+     * @throws IOException when the directory cannot be created
+     */
+    public InvocationCapture(Path directory, double sampleRate, long maxFileSize, int maxFiles,
+        long maxQueueBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.sampleRate = sampleRate;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = Math.max(1, maxFiles);
+        this.maxQueueBytes = maxQueueBytes;
+        writerThread = new Thread(this::writeRecords, "lm-logs-capture");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Decides whether the current invocation should be captured.
+     *
+     * @return true if the invocation is sampled
+     */
+    public boolean isSampled() {
+        return !closed && (sampleRate >= 1.0
+            || ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    /**
+     * Queues the invocation for writing, without blocking.
+     *
+     * @param invocation the invocation record
+     * @return true if queued, false if dropped because the queue is full
+     */
+    public boolean record(CapturedInvocation invocation) {
+        long size = invocation.estimateSize();
+        if (!closed && queuedBytes.addAndGet(size) <= maxQueueBytes) {
+            if (queue.offer(invocation)) {
+                return true;
+            }
+        }
+        queuedBytes.addAndGet(-size);
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Gets the heap size of the events queued for writing.
+     *
+     * @return size in bytes
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * Gets the number of written invocations.
+     *
+     * @return the count
+     */
+    public long getCapturedCount() {
+        return captured.get();
+    }
+
+    /**
+     * Gets the number of invocations dropped because the queue was full.
+     *
+     * @return the count
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void writeRecords() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                CapturedInvocation invocation = queue.poll(1, TimeUnit.SECONDS);
+                if (invocation == null) {
+                    continue;
+                }
+                queuedBytes.addAndGet(-invocation.estimateSize());
+                try {
+                    write(invocation);
+                    // make the record readable before the file is finished
+                    if (queue.isEmpty()) {
+                        fileWriter.flush();
+                    }
+                } catch (IOException e) {
+                    dropped.incrementAndGet();
+                    log(Level.WARNING, "Unable to write the invocation capture: " + e.getMessage());
+                    closeFile();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeFile();
+        }
+    }
+
+    private void write(CapturedInvocation invocation) throws IOException {
+        if (fileWriter == null || fileStream.getCount() >= maxFileSize) {
+            rotate();
+        }
+        GSON.toJson(invocation, fileWriter);
+        fileWriter.write('\n');
+        captured.incrementAndGet();
+    }
+
+    private void rotate() throws IOException {
+        closeFile();
+        String timestamp = FILE_TIMESTAMP.format(ZonedDateTime.now(ZoneOffset.UTC));
+        Path file = directory.resolve(
+            String.format("%s%s-%03d%s", FILE_PREFIX, timestamp, fileSequence++ % 1000, FILE_SUFFIX));
+        fileStream = new CountingOutputStream(Files.newOutputStream(file));
+        fileWriter = new BufferedWriter(new OutputStreamWriter(
+            new GZIPOutputStream(fileStream, 64 * 1024, true), StandardCharsets.UTF_8));
+        deleteOldFiles();
+    }
+
+    private void deleteOldFiles() throws IOException {
+        List<Path> files = listCaptureFiles(directory);
+        for (int i = 0; i < files.size() - maxFiles; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+
+    private void closeFile() {
+        if (fileWriter != null) {
+            try {
+                fileWriter.close();
+            } catch (IOException e) {
+                log(Level.WARNING, "Unable to close the invocation capture: " + e.getMessage());
+            }
+            fileWriter = null;
+            fileStream = null;
+        }
+    }
+
+    /**
+     * Stops accepting records and waits until the queued ones are written.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Lists the capture files in the directory, ordered from the oldest.
+     *
+     * @param directory the capture directory
+     * @return the capture files
+     * @throws IOException when the directory cannot be read
+     */
+    public static List<Path> listCaptureFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(file -> file.getFileName().toString().startsWith(FILE_PREFIX))
+                .filter(file -> file.getFileName().toString().endsWith(FILE_SUFFIX))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Reads the invocations from a capture file. A file truncated by a crash is read up to the
+     * last complete record.
+     *
+     * @param file the capture file
+     * @return the invocations in the order they were written
+     * @throws IOException when the file cannot be read
+     */
+    public static List<CapturedInvocation> read(Path file) throws IOException {
+        List<CapturedInvocation> invocations = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    invocations.add(GSON.fromJson(line, CapturedInvocation.class));
+                }
+            }
+        } catch (EOFException | JsonSyntaxException e) {
+            log(Level.WARNING, "Capture file " + file + " is truncated: " + e.getMessage());
+        }
+        return invocations;
+    }
+
+    /**
+     * One captured invocation.
+     */
+    public static class CapturedInvocation {
+
+        private String invocationId;
+        private long startTime;
+        private long durationMillis;
+        private int entries;
+        private List<String> events;
+
+        public CapturedInvocation() {
+        }
+
+        public CapturedInvocation(String invocationId, long startTime, long durationMillis,
+            int entries, List<String> events) {
+            this.invocationId = invocationId;
+            this.startTime = startTime;
+            this.durationMillis = durationMillis;
+            this.entries = entries;
+            this.events = events;
+        }
+
+        public String getInvocationId() {
+            return invocationId;
+        }
+
+        /**
+         * Gets the invocation start.
+         *
+         * @return epoch milliseconds
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /**
+         * Gets the number of log entries produced by the invocation.
+         *
+         * @return the count
+         */
+        public int getEntries() {
+            return entries;
+        }
+
+        public List<String> getEvents() {
+            return events;
+        }
+
+        /**
+         * Estimates the heap retained by the events.
+         *
+         * @return size in bytes, two per character
+         */
+        long estimateSize() {
+            long size = 0;
+            if (events != null) {
+                for (String event : events) {
+                    size += event != null ? 2L * event.length() : 0;
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Counts the bytes written to the file, i.e. after the compression.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
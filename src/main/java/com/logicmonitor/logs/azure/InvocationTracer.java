@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.logicmonitor.logs.azure.LoggingUtils.log;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Traces a sample of the invocations stage by stage.<br>
+ * A sampled invocation gets a {@link Trace} accumulating one span per {@link Stage}: the time from
+ * the first item to the end of the last one, the number of items and their size in bytes, and the
+ * shape of the payload, i.e. the number of records by category and type. When the delivery of the
+ * invocation completes, the spans are written to a preallocated ring, overwriting the oldest ones,
+ * and the trace is logged if it took longer than the threshold. The invocations not sampled only
+ * cost the sampling, which is reduced while the forwarder catches up on the Event Hub.
+ */
+public class InvocationTracer {
+
+    /**
+     * Parameter: fraction of the invocations traced, from 0 to 1 (default 0.01).
+     */
+    public static final String PARAMETER_TRACE_SAMPLE_RATE = "LogTraceSampleRate";
+    /**
+     * Parameter: duration in milliseconds from which a traced invocation is logged (default 10000).
+     */
+    public static final String PARAMETER_TRACE_SLOW_MILLIS = "LogTraceSlowMillis";
+    /**
+     * Parameter: number of spans kept in the ring (default 4096).
+     */
+    public static final String PARAMETER_TRACE_BUFFER_SIZE = "LogTraceBufferSize";
+
+    public static final double DEFAULT_SAMPLE_RATE = 0.01;
+    public static final long DEFAULT_SLOW_MILLIS = 10_000;
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    /**
+     * Maximum number of payload shapes counted by a trace.
+     */
+    public static final int MAX_SHAPES = 32;
+    /**
+     * Divisor of the sample rate while catching up.
+     */
+    public static final int CATCH_UP_DIVISOR = 10;
+
+    public enum Stage {
+        /**
+         * The invocation, until its entries are submitted.
+         */
+        FORWARD,
+        DECODE,
+        FILTER,
+        ENRICH,
+        SCRUB,
+        /**
+         * Charging the memory budget and routing the entries to their batcher.
+         */
+        SUBMIT,
+        /**
+         * The requests of the batches containing the entries, the bytes are their share of the
+         * payloads.
+         */
+        SEND
+    }
+
+    private static final int START = 0;
+    private static final int END = 1;
+    private static final int COUNT = 2;
+    private static final int BYTES = 3;
+
+    private final double sampleRate;
+    private final long slowNanos;
+    private final Span[] ring;
+    private final AtomicLong position = new AtomicLong();
+    private final AtomicLong traceIds = new AtomicLong();
+    private volatile boolean catchUp;
+
+    /**
+     * Creates the tracer.
+     *
+     * @param sampleRate fraction of the invocations traced
+     * @param slowMillis duration in milliseconds from which a trace is logged
+     * @param bufferSize number of spans kept
+     */
+    public InvocationTracer(double sampleRate, long slowMillis, int bufferSize) {
+        this.sampleRate = sampleRate;
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMillis);
+        this.ring = new Span[Math.max(1, bufferSize)];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Span();
+        }
+    }
+
+    /**
+     * Starts the trace of an invocation when it's sampled.
+     *
+     * @param invocationId ID of the invocation
+     * @return the trace, null when not sampled
+     */
+    public Trace start(String invocationId) {
+        double rate = catchUp ? sampleRate / CATCH_UP_DIVISOR : sampleRate;
+        if (rate <= 0 || rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate) {
+            return null;
+        }
+        return new Trace(traceIds.incrementAndGet(), invocationId);
+    }
+
+    /**
+     * Switches the catch-up mode, tracing fewer invocations when true.
+     *
+     * @param catchUp true while the forwarder is behind the Event Hub
+     */
+    public void setCatchUp(boolean catchUp) {
+        this.catchUp = catchUp;
+    }
+
+    private void write(Trace trace, Stage stage, long[] values) {
+        Span span = ring[(int) (position.getAndIncrement() % ring.length)];
+        synchronized (span) {
+            span.traceId = trace.id;
+            span.invocationId = trace.invocationId;
+            span.stage = stage;
+            span.startNanos = values[START] - trace.start;
+            span.endNanos = values[END] - trace.start;
+            span.count = values[COUNT];
+            span.bytes = values[BYTES];
+        }
+    }
+
+    /**
+     * Gets the spans kept in the ring, from the oldest.
+     *
+     * @return copies of the spans
+     */
+    public List<Span> getSpans() {
+        long end = position.get();
+        List<Span> spans = new ArrayList<>();
+        for (long i = Math.max(0, end - ring.length); i < end; i++) {
+            Span span = ring[(int) (i % ring.length)];
+            synchronized (span) {
+                if (span.stage != null) {
+                    spans.add(span.copy());
+                }
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * Gets the spans of a trace kept in the ring.
+     *
+     * @param traceId ID of the trace
+     * @return copies of the spans
+     */
+    public List<Span> getSpans(long traceId) {
+        return getSpans().stream().filter(span -> span.traceId == traceId)
+            .collect(Collectors.toList());
+    }
+
+    @Override
+    public String toString() {
+        return "tracing " + sampleRate + " of the invocations, " + Math.min(position.get(),
+            ring.length) + " spans";
+    }
+
+    /**
+     * Trace of one invocation, its spans are recorded from any thread.
+     */
+    public final class Trace {
+
+        private final long id;
+        private final String invocationId;
+        private final long start = System.nanoTime();
+        /**
+         * Start, end, count and bytes of each stage.
+         */
+        private final long[][] stages = new long[Stage.values().length][4];
+        private final boolean[] recorded = new boolean[Stage.values().length];
+        private final Map<String, Integer> shapes = new HashMap<>();
+        private long end;
+        private boolean finished;
+
+        Trace(long id, String invocationId) {
+            this.id = id;
+            this.invocationId = invocationId;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getInvocationId() {
+            return invocationId;
+        }
+
+        /**
+         * Records items processed by a stage.
+         *
+         * @param stage the stage
+         * @param startNanos start of the processing, from {@link System#nanoTime()}
+         * @param endNanos end of the processing
+         * @param count number of items
+         * @param bytes size of the items in bytes
+         */
+        public synchronized void record(Stage stage, long startNanos, long endNanos, long count,
+            long bytes) {
+            long[] values = stages[stage.ordinal()];
+            if (!recorded[stage.ordinal()]) {
+                recorded[stage.ordinal()] = true;
+                values[START] = startNanos;
+                values[END] = endNanos;
+            }
+            values[START] = Math.min(values[START], startNanos);
+            values[END] = Math.max(values[END], endNanos);
+            values[COUNT] += count;
+            values[BYTES] += bytes;
+        }
+
+        /**
+         * Counts a record by the shape of the payload.
+         *
+         * @param shape e.g. the category and type of the record
+         */
+        public synchronized void shape(String shape) {
+            if (shapes.size() < MAX_SHAPES || shapes.containsKey(shape)) {
+                shapes.merge(shape, 1, Integer::sum);
+            }
+        }
+
+        /**
+         * Ends the trace, writing its spans to the ring, and logs it when slow.
+         */
+        public void finish() {
+            List<long[]> spans = new ArrayList<>();
+            List<Stage> spanStages = new ArrayList<>();
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                end = System.nanoTime();
+                for (Stage stage : Stage.values()) {
+                    if (recorded[stage.ordinal()]) {
+                        spanStages.add(stage);
+                        spans.add(stages[stage.ordinal()].clone());
+                    }
+                }
+            }
+            for (int i = 0; i < spans.size(); i++) {
+                write(this, spanStages.get(i), spans.get(i));
+            }
+            if (end - start >= slowNanos) {
+                log(Level.WARNING, () -> "Slow invocation " + this);
+            }
+        }
+
+        /**
+         * Gets the duration of the trace.
+         *
+         * @return nanoseconds, until now if not finished
+         */
+        public synchronized long getDurationNanos() {
+            return (finished ? end : System.nanoTime()) - start;
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder builder = new StringBuilder(invocationId).append(" trace ").append(id)
+                .append(": ").append(TimeUnit.NANOSECONDS.toMillis(getDurationNanos()))
+                .append(" ms");
+            for (Stage stage : Stage.values()) {
+                long[] values = stages[stage.ordinal()];
+                if (recorded[stage.ordinal()]) {
+                    builder.append(", ").append(stage).append(' ')
+                        .append(TimeUnit.NANOSECONDS.toMillis(values[START] - start)).append('-')
+                        .append(TimeUnit.NANOSECONDS.toMillis(values[END] - start))
+                        .append(" ms ").append(values[COUNT]).append(" items ")
+                        .append(values[BYTES]).append(" bytes");
+                }
+            }
+            if (!shapes.isEmpty()) {
+                builder.append(", shapes ").append(shapes.entrySet().stream()
+                    .sorted(Map.Entry.<String, Integer>comparingByValue(Comparator.reverseOrder()))
+                    .map(shape -> shape.getKey() + " " + shape.getValue())
+                    .collect(Collectors.joining(", ", "{", "}")));
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Span of a stage in the ring, its times are relative to the start of the trace.
+     */
+    public static final class Span {
+
+        private long traceId;
+        private String invocationId;
+        private Stage stage;
+        private long startNanos;
+        private long endNanos;
+        private long count;
+        private long bytes;
+
+        Span copy() {
+            Span copy = new Span();
+            copy.traceId = traceId;
+            copy.invocationId = invocationId;
+            copy.stage = stage;
+            copy.startNanos = startNanos;
+            copy.endNanos = endNanos;
+            copy.count = count;
+            copy.bytes = bytes;
+            return copy;
+        }
+
+        public long getTraceId() {
+            return traceId;
+        }
+
+        public String getInvocationId() {
+            return invocationId;
+        }
+
+        public Stage getStage() {
+            return stage;
+        }
+
+        public long getStartNanos() {
+            return startNanos;
+        }
+
+        public long getEndNanos() {
+            return endNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return invocationId + " " + stage + " " + startNanos + "-" + endNanos + " ns, "
+                + count + " items, " + bytes + " bytes";
+        }
+    }
+}
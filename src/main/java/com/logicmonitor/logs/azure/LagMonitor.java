@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.logicmonitor.logs.azure.LoggingUtils.log;
+import static com.logicmonitor.logs.azure.LoggingUtils.logRepeated;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Measures how far the forwarder is behind the Event Hub.<br>
+ * For each invocation, the lag is the time since the oldest event was enqueued (from the
+ * {@link SystemProperty} bound by the trigger) and the time since the oldest log was emitted
+ * (from the time of the entries). The last lag of each partition is kept and logged, rate
+ * limited, as a metric; it can also be added to the metadata of the entries.<br>
+ * When the enqueue lag of a partition reaches the catch-up threshold, the listeners switch to the
+ * catch-up mode, e.g. fuller batches and less tracing, until the lag of every partition falls
+ * below half the threshold. A partition not invoked within the threshold, e.g. moved to another
+ * instance, no longer counts.
+ */
+public class LagMonitor {
+
+    /**
+     * Parameter: enqueue lag in milliseconds from which the forwarder catches up, 0 to disable
+     * (default 60000).
+     */
+    public static final String PARAMETER_LAG_CATCH_UP_MILLIS = "LogLagCatchUpMillis";
+    /**
+     * Parameter: adds the partition and the enqueue lag to the metadata of the entries (default
+     * false).
+     */
+    public static final String PARAMETER_LAG_METADATA = "LogLagMetadata";
+
+    public static final long DEFAULT_CATCH_UP_MILLIS = 60_000;
+
+    public static final String METADATA_PARTITION = "eventhub_partition";
+    public static final String METADATA_ENQUEUE_LAG = "eventhub_lag_ms";
+
+    /**
+     * Maximum number of partitions kept, they're cleared when reached.
+     */
+    public static final int MAX_PARTITIONS = 1024;
+
+    /**
+     * Entry timestamps below this value are in seconds, the others in milliseconds.
+     */
+    private static final long MAX_EPOCH_SECONDS = 100_000_000_000L;
+
+    private final long catchUpMillis;
+    private final boolean metadata;
+    private final ConcurrentMap<String, PartitionLag> partitions = new ConcurrentHashMap<>();
+    /**
+     * Enqueue lag of the last invocation of each partition, guarded by this.
+     */
+    private final Map<String, PartitionLag> startLags = new HashMap<>();
+    private final List<Consumer<Boolean>> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean catchingUp;
+
+    /**
+     * Creates the monitor.
+     *
+     * @param catchUpMillis enqueue lag in milliseconds from which the forwarder catches up, 0 to
+     * disable
+     * @param metadata adds the lag to the metadata of the entries when true
+     */
+    public LagMonitor(long catchUpMillis, boolean metadata) {
+        this.catchUpMillis = catchUpMillis;
+        this.metadata = metadata;
+    }
+
+    /**
+     * Adds a listener of the catch-up mode.
+     *
+     * @param listener receives true when the catch-up starts, false when it ends
+     */
+    public void addListener(Consumer<Boolean> listener) {
+        listeners.add(listener);
+    }
+
+    public boolean isCatchingUp() {
+        return catchingUp;
+    }
+
+    /**
+     * Starts measuring the lag of an invocation, from the metadata of its events.
+     *
+     * @param properties system properties of the events, may be null
+     * @param context partition of the events, may be null
+     * @param nowMillis current time in epoch milliseconds
+     * @return the lag of the invocation
+     */
+    public InvocationLag start(SystemProperty[] properties, PartitionContext context,
+        long nowMillis) {
+        InvocationLag lag = new InvocationLag(context != null ? context.getPartitionId() : null,
+            nowMillis);
+        if (properties != null) {
+            for (SystemProperty property : properties) {
+                if (property != null) {
+                    lag.addEvent(property);
+                }
+            }
+        }
+        if (lag.oldestEnqueued != Long.MAX_VALUE) {
+            updateCatchUp(lag.partitionId != null ? lag.partitionId : "-",
+                nowMillis - lag.oldestEnqueued, nowMillis);
+        }
+        return lag;
+    }
+
+    /**
+     * Records the enqueue lag of a partition, and switches the catch-up mode by the largest lag of
+     * the partitions.
+     */
+    private synchronized void updateCatchUp(String partitionId, long enqueueLag,
+        long nowMillis) {
+        if (catchUpMillis <= 0) {
+            return;
+        }
+        if (startLags.size() >= MAX_PARTITIONS && !startLags.containsKey(partitionId)) {
+            startLags.clear();
+        }
+        startLags.put(partitionId, new PartitionLag(enqueueLag, -1, -1, null, nowMillis));
+        startLags.values().removeIf(lag -> nowMillis - lag.getTimeMillis() > catchUpMillis);
+        Map.Entry<String, PartitionLag> max = startLags.entrySet().stream()
+            .max(Comparator.comparingLong(partition -> partition.getValue().getEnqueueLagMillis()))
+            .orElseThrow();
+        long maxLag = max.getValue().getEnqueueLagMillis();
+        boolean catchUp = catchingUp ? maxLag >= catchUpMillis / 2 : maxLag >= catchUpMillis;
+        if (catchUp != catchingUp) {
+            catchingUp = catchUp;
+            log(catchUp ? Level.WARNING : Level.INFO, (catchUp ? "Catching up" : "Caught up")
+                + ", the events of partition " + max.getKey() + " were enqueued " + maxLag
+                + " ms ago");
+            listeners.forEach(listener -> listener.accept(catchUp));
+        }
+    }
+
+    /**
+     * Records the lag of an invocation once its entries were submitted.
+     *
+     * @param lag the lag of the invocation
+     */
+    public void finish(InvocationLag lag) {
+        String partitionId = lag.partitionId != null ? lag.partitionId : "-";
+        if (partitions.size() >= MAX_PARTITIONS && !partitions.containsKey(partitionId)) {
+            partitions.clear();
+        }
+        partitions.put(partitionId, new PartitionLag(lag.getEnqueueLagMillis(),
+            lag.getEventLagMillis(), lag.lastSequenceNumber, lag.lastOffset, lag.nowMillis));
+        logRepeated(Level.INFO, "lag", () -> "Lag: " + this);
+    }
+
+    /**
+     * Gets the last lag of the partitions.
+     *
+     * @return the lag by partition ID, "-" when unknown
+     */
+    public Map<String, PartitionLag> getPartitions() {
+        return new TreeMap<>(partitions);
+    }
+
+    @Override
+    public String toString() {
+        return (catchingUp ? "catching up, " : "") + "partitions " + getPartitions().entrySet()
+            .stream().map(partition -> partition.getKey() + ": " + partition.getValue())
+            .collect(Collectors.joining(", ", "{", "}"));
+    }
+
+    /**
+     * Parses an enqueued time of the Event Hub.
+     *
+     * @param time ISO date time, in UTC if without offset
+     * @return epoch milliseconds, -1 if not valid
+     */
+    static long parseTime(String time) {
+        if (time == null || time.isBlank()) {
+            return -1;
+        }
+        try {
+            return Instant.parse(time).toEpochMilli();
+        } catch (DateTimeException e) {
+            // the bindings don't always keep the zone
+        }
+        try {
+            return OffsetDateTime.parse(time).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            // without an offset
+        }
+        try {
+            return LocalDateTime.parse(time).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Lag of one invocation.
+     */
+    public final class InvocationLag {
+
+        private final String partitionId;
+        private final long nowMillis;
+        private long oldestEnqueued = Long.MAX_VALUE;
+        private long oldestEvent = Long.MAX_VALUE;
+        private int events;
+        private long firstSequenceNumber = -1;
+        private long lastSequenceNumber = -1;
+        private String lastOffset;
+
+        InvocationLag(String partitionId, long nowMillis) {
+            this.partitionId = partitionId;
+            this.nowMillis = nowMillis;
+        }
+
+        private void addEvent(SystemProperty property) {
+            events++;
+            long enqueued = parseTime(property.getEnqueuedTimeUtc());
+            if (enqueued >= 0) {
+                oldestEnqueued = Math.min(oldestEnqueued, enqueued);
+            }
+            Long sequenceNumber = property.getSequenceNumber();
+            if (sequenceNumber != null) {
+                if (firstSequenceNumber < 0) {
+                    firstSequenceNumber = sequenceNumber;
+                }
+                lastSequenceNumber = Math.max(lastSequenceNumber, sequenceNumber);
+            }
+            if (property.getOffset() != null) {
+                lastOffset = property.getOffset();
+            }
+        }
+
+        /**
+         * Records the time of an entry, and adds the lag to its metadata when enabled. Called by
+         * one thread at a time.
+         *
+         * @param entry the log entry
+         */
+        public void onEntry(LogEntry entry) {
+            Long timestamp = entry.getTimestamp();
+            if (timestamp != null && timestamp > 0) {
+                // the adapter sets seconds, or milliseconds when the event has no valid time
+                long millis = timestamp < MAX_EPOCH_SECONDS ? timestamp * 1000 : timestamp;
+                oldestEvent = Math.min(oldestEvent, millis);
+            }
+            if (metadata && entry.getMetadata() != null) {
+                if (partitionId != null) {
+                    entry.getMetadata().put(METADATA_PARTITION, partitionId);
+                }
+                long enqueueLag = getEnqueueLagMillis();
+                if (enqueueLag >= 0) {
+                    entry.getMetadata().put(METADATA_ENQUEUE_LAG, Long.toString(enqueueLag));
+                }
+            }
+        }
+
+        public String getPartitionId() {
+            return partitionId;
+        }
+
+        public int getEvents() {
+            return events;
+        }
+
+        /**
+         * Gets the time since the oldest event was enqueued.
+         *
+         * @return milliseconds, -1 if unknown
+         */
+        public long getEnqueueLagMillis() {
+            return oldestEnqueued != Long.MAX_VALUE ? Math.max(0, nowMillis - oldestEnqueued) : -1;
+        }
+
+        /**
+         * Gets the time since the oldest entry was emitted.
+         *
+         * @return milliseconds, -1 if unknown
+         */
+        public long getEventLagMillis() {
+            return oldestEvent != Long.MAX_VALUE ? Math.max(0, nowMillis - oldestEvent) : -1;
+        }
+
+        @Override
+        public String toString() {
+            return "partition " + partitionId + ", " + events + " events, sequence "
+                + firstSequenceNumber + "-" + lastSequenceNumber + ", enqueue lag "
+                + getEnqueueLagMillis() + " ms, event lag " + getEventLagMillis() + " ms";
+        }
+    }
+
+    /**
+     * Last lag measured on a partition.
+     */
+    public static final class PartitionLag {
+
+        private final long enqueueLagMillis;
+        private final long eventLagMillis;
+        private final long sequenceNumber;
+        private final String offset;
+        private final long timeMillis;
+
+        public PartitionLag(long enqueueLagMillis, long eventLagMillis, long sequenceNumber,
+            String offset, long timeMillis) {
+            this.enqueueLagMillis = enqueueLagMillis;
+            this.eventLagMillis = eventLagMillis;
+            this.sequenceNumber = sequenceNumber;
+            this.offset = offset;
+            this.timeMillis = timeMillis;
+        }
+
+        public long getEnqueueLagMillis() {
+            return enqueueLagMillis;
+        }
+
+        public long getEventLagMillis() {
+            return eventLagMillis;
+        }
+
+        public long getSequenceNumber() {
+            return sequenceNumber;
+        }
+
+        public String getOffset() {
+            return offset;
+        }
+
+        /**
+         * Gets the time of the measure.
+         *
+         * @return epoch milliseconds
+         */
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "enqueue lag " + enqueueLagMillis + " ms, event lag " + eventLagMillis
+                + " ms, sequence " + sequenceNumber;
+        }
+    }
+
+    /**
+     * System properties of an event, bound from the trigger metadata "SystemPropertiesArray". The
+     * fields are named as the metadata.
+     */
+    @SuppressWarnings("checkstyle:MemberName")
+    public static class SystemProperty {
+
+        private String EnqueuedTimeUtc;
+        private Long SequenceNumber;
+        private String Offset;
+        private String PartitionKey;
+
+        public SystemProperty() {
+        }
+
+        public SystemProperty(String enqueuedTimeUtc, Long sequenceNumber, String offset,
+            String partitionKey) {
+            this.EnqueuedTimeUtc = enqueuedTimeUtc;
+            this.SequenceNumber = sequenceNumber;
+            this.Offset = offset;
+            this.PartitionKey = partitionKey;
+        }
+
+        public String getEnqueuedTimeUtc() {
+            return EnqueuedTimeUtc;
+        }
+
+        public Long getSequenceNumber() {
+            return SequenceNumber;
+        }
+
+        public String getOffset() {
+            return Offset;
+        }
+
+        public String getPartitionKey() {
+            return PartitionKey;
+        }
+    }
+
+    /**
+     * Partition of the events, bound from the trigger metadata "PartitionContext".
+     */
+    @SuppressWarnings("checkstyle:MemberName")
+    public static class PartitionContext {
+
+        private String PartitionId;
+        private String EventHubName;
+        private String ConsumerGroup;
+
+        public PartitionContext() {
+        }
+
+        public PartitionContext(String partitionId, String eventHubName, String consumerGroup) {
+            this.PartitionId = partitionId;
+            this.EventHubName = eventHubName;
+            this.ConsumerGroup = consumerGroup;
+        }
+
+        public String getPartitionId() {
+            return PartitionId;
+        }
+
+        public String getEventHubName() {
+            return EventHubName;
+        }
+
+        public String getConsumerGroup() {
+            return ConsumerGroup;
+        }
+    }
+}
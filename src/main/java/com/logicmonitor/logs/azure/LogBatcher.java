@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.logicmonitor.logs.azure.LoggingUtils.log;
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import com.logicmonitor.logs.azure.LogIngestClient.IngestResult;
+
+/**
+ * Accumulates log entries into batches flushed according to the {@link AdaptiveFlushPolicy} and
+ * sends them using the {@link LogIngestClient}.<br>
+ * The entries are split in {@value #PARAMETER_SEND_LANES} lanes by the hash of their resource ID,
+ * each lane has its own batch and sends its batches one at a time, in order, so the logs of a
+ * resource reach LogicMonitor in order. The lanes are sent concurrently by
+ * {@value #PARAMETER_SEND_CONCURRENCY} threads, or by virtual threads on Java 21 (see
+ * {@link SendExecutors}). The result of each batch is reported to the callback.<br>
+ * While the {@link CircuitBreaker} is open, the batches are not sent but dropped or kept in the
+ * backlog of their lane, according to the {@link CircuitBreaker.Fallback}. The backlog is sent
+ * before the newer batches once the circuit closes.
+ */
+public class LogBatcher implements Closeable {
+
+    /**
+     * Parameter: number of batches sent concurrently (default 4).
+     */
+    public static final String PARAMETER_SEND_CONCURRENCY = "LogSendConcurrency";
+
+    /**
+     * Parameter: number of lanes the resources are hashed to (default 16).
+     */
+    public static final String PARAMETER_SEND_LANES = "LogSendLanes";
+
+    public static final int DEFAULT_SEND_CONCURRENCY = 4;
+    public static final int DEFAULT_SEND_LANES = 16;
+
+    /**
+     * Estimated size of an entry without its strings: JSON syntax and timestamp.
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+    /**
+     * Interval between the attempts to send the backlog of a lane while the circuit is open.
+     */
+    private static final long DRAIN_INTERVAL_MILLIS = 1000;
+
+    /**
+     * Receives the result of the sent batches.
+     */
+    public interface BatchCallback {
+
+        void onSuccess(List<LogEntry> entries, IngestResult result);
+
+        void onFailure(List<LogEntry> entries, IngestResult result);
+
+        /**
+         * Receives the entries dropped without being sent, while the circuit is open.
+         *
+         * @param entries the dropped entries
+         */
+        void onDropped(List<LogEntry> entries);
+    }
+
+    private final LogIngestClient client;
+    private final AdaptiveFlushPolicy policy;
+    private final BatchCallback callback;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService sender;
+    private final StripedExecutor lanes;
+    private final Batch[] batches;
+    private final CircuitBreaker breaker;
+    private final CircuitBreaker.Fallback fallback;
+    private final int bufferSize;
+    private final Deque<List<LogEntry>>[] backlogs;
+    private final AtomicBoolean[] drainScheduled;
+    private final AtomicLong bufferedEntries = new AtomicLong();
+    private final AtomicBoolean closing = new AtomicBoolean();
+    private final LongAdder droppedEntries = new LongAdder();
+
+    /**
+     * Creates the batcher.
+     *
+     * @param client client sending the batches
+     * @param policy policy deciding when the batches are flushed
+     * @param callback callback receiving the results
+     * @param concurrency number of batches sent concurrently
+     * @param laneCount number of lanes
+     */
+    public LogBatcher(LogIngestClient client, AdaptiveFlushPolicy policy,
+        BatchCallback callback, int concurrency, int laneCount) {
+        this(client, policy, null, CircuitBreaker.Fallback.DROP, 0, callback, concurrency,
+            laneCount);
+    }
+
+    /**
+     * Creates the batcher protected by a circuit breaker.
+     *
+     * @param client client sending the batches
+     * @param policy policy deciding when the batches are flushed
+     * @param breaker circuit breaker, null to always send
+     * @param fallback what happens to the batches while the circuit is open
+     * @param bufferSize maximum number of entries buffered while the circuit is open
+     * @param callback callback receiving the results
+     * @param concurrency number of batches sent concurrently
+     * @param laneCount number of lanes
+     */
+    public LogBatcher(LogIngestClient client, AdaptiveFlushPolicy policy,
+        CircuitBreaker breaker, CircuitBreaker.Fallback fallback, int bufferSize,
+        BatchCallback callback, int concurrency, int laneCount) {
+        this(client, policy, breaker, fallback, bufferSize, callback,
+            SendExecutors.newSendExecutor("lm-logs-sender", concurrency, false), laneCount);
+    }
+
+    /**
+     * Creates the batcher protected by a circuit breaker, sending on the given executor.
+     *
+     * @param client client sending the batches
+     * @param policy policy deciding when the batches are flushed
+     * @param breaker circuit breaker, null to always send
+     * @param fallback what happens to the batches while the circuit is open
+     * @param bufferSize maximum number of entries buffered while the circuit is open
+     * @param callback callback receiving the results
+     * @param sender executor of the requests (see {@link SendExecutors}), shut down on close
+     * @param laneCount number of lanes
+     */
+    @SuppressWarnings("unchecked")
+    public LogBatcher(LogIngestClient client, AdaptiveFlushPolicy policy,
+        CircuitBreaker breaker, CircuitBreaker.Fallback fallback, int bufferSize,
+        BatchCallback callback, ExecutorService sender, int laneCount) {
+        this.client = client;
+        this.breaker = breaker;
+        this.fallback = fallback;
+        this.bufferSize = bufferSize;
+        this.policy = policy;
+        this.callback = callback;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+            SendExecutors.daemonThreads("lm-logs-batcher"));
+        this.sender = sender;
+        this.lanes = new StripedExecutor(laneCount, sender);
+        this.batches = new Batch[lanes.getLaneCount()];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = new Batch(i);
+        }
+        this.backlogs = new Deque[batches.length];
+        this.drainScheduled = new AtomicBoolean[batches.length];
+        for (int i = 0; i < batches.length; i++) {
+            backlogs[i] = new ArrayDeque<>();
+            drainScheduled[i] = new AtomicBoolean();
+        }
+    }
+
+    public LogIngestClient getClient() {
+        return client;
+    }
+
+    public AdaptiveFlushPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Gets the number of batches queued or being sent in each lane.
+     *
+     * @return the queue depths
+     */
+    public int[] getLaneQueueDepths() {
+        return lanes.getQueueDepths();
+    }
+
+    /**
+     * Adds an entry to the batch of its lane, flushing it when it's full.
+     *
+     * @param entry the log entry
+     */
+    public void add(LogEntry entry) {
+        batches[lanes.laneOf(LogEventForwarder.getResourceId(entry))].add(entry);
+    }
+
+    /**
+     * Flushes the current batches.
+     */
+    public void flush() {
+        for (Batch batch : batches) {
+            batch.flush();
+        }
+    }
+
+    /**
+     * Gets the number of entries buffered while the circuit is open.
+     *
+     * @return the number of buffered entries
+     */
+    public long getBufferedEntries() {
+        return bufferedEntries.get();
+    }
+
+    /**
+     * Gets the number of entries dropped while the circuit is open.
+     *
+     * @return the number of dropped entries
+     */
+    public long getDroppedEntries() {
+        return droppedEntries.sum();
+    }
+
+    /**
+     * Sends the backlog and the batch of a lane, runs in the lane.
+     *
+     * @param lane index of the lane
+     * @param batch the new batch, null to send only the backlog
+     */
+    private void sendInLane(int lane, List<LogEntry> batch) {
+        Deque<List<LogEntry>> backlog = backlogs[lane];
+        if (batch != null) {
+            if (!backlog.isEmpty() && bufferedEntries.get() + batch.size() > bufferSize) {
+                drop(batch);
+            } else {
+                backlog.addLast(batch);
+                bufferedEntries.addAndGet(batch.size());
+            }
+        }
+        List<LogEntry> next;
+        while ((next = backlog.peekFirst()) != null) {
+            long permit = breaker != null ? breaker.tryAcquire() : 0;
+            if (permit == CircuitBreaker.REJECTED) {
+                // no more drains once closing, the backlog is dropped
+                if (fallback == CircuitBreaker.Fallback.BUFFER && !closing.get()) {
+                    scheduleDrain(lane);
+                } else {
+                    List<LogEntry> dropped;
+                    while ((dropped = backlog.pollFirst()) != null) {
+                        bufferedEntries.addAndGet(-dropped.size());
+                        drop(dropped);
+                    }
+                }
+                return;
+            }
+            backlog.pollFirst();
+            bufferedEntries.addAndGet(-next.size());
+            send(next, permit);
+        }
+    }
+
+    private void drop(List<LogEntry> batch) {
+        droppedEntries.add(batch.size());
+        try {
+            callback.onDropped(batch);
+        } catch (RuntimeException e) {
+            log(Level.WARNING, "Batch callback failed: " + e.getMessage());
+        }
+    }
+
+    private void scheduleDrain(int lane) {
+        if (drainScheduled[lane].compareAndSet(false, true)) {
+            scheduler.schedule(() -> {
+                drainScheduled[lane].set(false);
+                lanes.execute(lane, () -> sendInLane(lane, null));
+            }, DRAIN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void send(List<LogEntry> batch, long permit) {
+        IngestResult result = client.send(batch);
+        // the backoff of the retries is not the latency of the endpoint
+        long latency = result.getLatencyNanos() / result.getAttempts();
+        policy.onSend(latency);
+        if (breaker != null) {
+            breaker.onResult(permit, result.isSuccess(), latency);
+        }
+        try {
+            if (result.isSuccess()) {
+                callback.onSuccess(batch, result);
+            } else {
+                callback.onFailure(batch, result);
+            }
+        } catch (RuntimeException e) {
+            log(Level.WARNING, "Batch callback failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Flushes the current batches and waits until the pending batches are sent. The backlogs
+     * buffered while the circuit is open get a last attempt, and are dropped if it's still open.
+     *
+     * @param timeoutMillis maximum time to wait
+     * @return true if all the batches were sent or dropped
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean close(long timeoutMillis) throws InterruptedException {
+        if (!closing.compareAndSet(false, true)) {
+            // already closed, or closing in another thread
+            return lanes.awaitEmpty(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        flush();
+        for (int lane = 0; lane < backlogs.length; lane++) {
+            int current = lane;
+            lanes.execute(lane, () -> sendInLane(current, null));
+        }
+        boolean empty = lanes.awaitEmpty(timeoutMillis, TimeUnit.MILLISECONDS);
+        // the drains scheduled before closing find the backlogs empty
+        scheduler.shutdownNow();
+        sender.shutdown();
+        if (bufferedEntries.get() > 0) {
+            log(Level.WARNING, "Lost " + bufferedEntries.get()
+                + " log entries buffered while the circuit was open");
+        }
+        return empty;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (!close(Long.MAX_VALUE)) {
+                log(Level.WARNING, "Timed out sending the pending log batches");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return policy + ", lane queue depths " + Arrays.toString(getLaneQueueDepths())
+            + (breaker != null ? ", " + breaker + ", " + bufferedEntries.get() + " buffered and "
+            + droppedEntries.sum() + " dropped entries" : "");
+    }
+
+    /**
+     * Estimates the serialized size of an entry.
+     *
+     * @param entry the log entry
+     * @return size in bytes
+     */
+    protected static long estimateSize(LogEntry entry) {
+        long size = ENTRY_OVERHEAD + length(entry.getMessage());
+        for (Map.Entry<String, String> item : entry.getMetadata().entrySet()) {
+            size += length(item.getKey()) + length(item.getValue()) + 6;
+        }
+        for (Map.Entry<String, String> item : entry.getLmResourceId().entrySet()) {
+            size += length(item.getKey()) + length(item.getValue()) + 6;
+        }
+        return size;
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    /**
+     * Batch of a lane.
+     */
+    private class Batch {
+
+        private final int lane;
+        private List<LogEntry> pending = new ArrayList<>();
+        private long pendingBytes;
+        private long batchStart;
+        private long generation;
+
+        Batch(int lane) {
+            this.lane = lane;
+        }
+
+        synchronized void add(LogEntry entry) {
+            long size = estimateSize(entry);
+            if (policy.wouldOverflow(pending.size(), pendingBytes, size)) {
+                flushPending();
+            }
+            if (pending.isEmpty()) {
+                batchStart = System.nanoTime();
+                long current = generation;
+                scheduler.schedule(() -> flushExpired(current), policy.getLingerNanos(),
+                    TimeUnit.NANOSECONDS);
+            }
+            pending.add(entry);
+            pendingBytes += size;
+            if (policy.isFull(pending.size(), pendingBytes)) {
+                flushPending();
+            }
+        }
+
+        synchronized void flush() {
+            if (!pending.isEmpty()) {
+                flushPending();
+            }
+        }
+
+        private synchronized void flushExpired(long expiredGeneration) {
+            // the batch may have been flushed by its size in the meantime
+            if (expiredGeneration == generation && !pending.isEmpty()) {
+                flushPending();
+            }
+        }
+
+        private void flushPending() {
+            List<LogEntry> batch = pending;
+            policy.onFlush(batch.size(), pendingBytes, System.nanoTime() - batchStart);
+            pending = new ArrayList<>();
+            pendingBytes = 0;
+            generation++;
+            // submitted while holding the lock, so the lane receives the batches in order
+            lanes.execute(lane, () -> sendInLane(lane, batch));
+        }
+    }
+}
@@ -33,6 +33,51 @@ public class LogEntry {
 
     private Map<String, String> metadata = new HashMap<>();
 
+    private transient DeliveryTracker.Delivery delivery;
+
+    /**
+     * Gets the delivery of the invocation this entry belongs to.
+     *
+     * @return the delivery, null when it's not tracked
+     */
+    public DeliveryTracker.Delivery getDelivery() {
+        return delivery;
+    }
+
+    public void setDelivery(DeliveryTracker.Delivery delivery) {
+        this.delivery = delivery;
+    }
+
+    private transient long dedupKey;
+
+    /**
+     * Gets the key of this entry in the {@link Deduplicator}, recorded once it's delivered.
+     *
+     * @return the key, 0 when it's not deduplicated
+     */
+    public long getDedupKey() {
+        return dedupKey;
+    }
+
+    public void setDedupKey(long dedupKey) {
+        this.dedupKey = dedupKey;
+    }
+
+    private transient long retainedSize;
+
+    /**
+     * Gets the size charged to the {@link MemoryBudget}.
+     *
+     * @return size in bytes, 0 when it's not charged
+     */
+    public long getRetainedSize() {
+        return retainedSize;
+    }
+
+    public void setRetainedSize(long retainedSize) {
+        this.retainedSize = retainedSize;
+    }
+
 
     public LogEntry message(String message) {
         this.message = message;
@@ -81,6 +126,10 @@ public class LogEntry {
     }
 
     public LogEntry putLmResourceIdItem(String key, String lmResourceIdItem) {
+        if (this.lmResourceId instanceof ResourceIdCache.ResourceId) {
+            // shared with other entries
+            this.lmResourceId = new HashMap<>(this.lmResourceId);
+        }
         this.lmResourceId.put(key, lmResourceIdItem);
         return this;
     }
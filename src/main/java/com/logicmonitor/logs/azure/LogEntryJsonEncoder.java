@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes log entries to the ingestion format, UTF-8 JSON, without reflection.<br>
+ * The output is an array of objects containing the metadata as top-level properties, the message,
+ * the timestamp and the resource ID. The field names are written from precomputed bytes, the
+ * strings without characters to escape are copied in bulk, and the shared resource IDs of the
+ * {@link ResourceIdCache} are encoded once. The bytes are written to a buffer handed to a
+ * {@link BufferSink} when it's full, so a batch can be streamed entry by entry.
+ */
+public class LogEntryJsonEncoder {
+
+    /**
+     * Receives the buffers filled by the encoder.
+     */
+    public interface BufferSink {
+
+        /**
+         * Takes a filled buffer and gives the next one.
+         *
+         * @param full the filled buffer, in write mode
+         * @return a buffer with room for at least 6 bytes
+         * @throws IOException if the output fails
+         */
+        ByteBuffer next(ByteBuffer full) throws IOException;
+    }
+
+    private static final byte[] MESSAGE_FIELD = field(LogEntry.JSON_PROPERTY_MESSAGE, "");
+    private static final byte[] TIMESTAMP_FIELD = field(LogEntry.JSON_PROPERTY_TIMESTAMP, ",");
+    private static final byte[] RESOURCE_ID_FIELD =
+        field(LogEntry.JSON_PROPERTY_LM_RESOURCE_ID, ",");
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The metadata keys come from a small set, so their encoded form is cached.
+     */
+    private static final int MAX_CACHED_KEYS = 1024;
+    private static final Map<String, byte[]> KEYS = new ConcurrentHashMap<>();
+
+    private static final int SCRATCH_SIZE = 512;
+
+    private final BufferSink sink;
+    private final byte[] scratch = new byte[SCRATCH_SIZE];
+    private ByteBuffer buffer;
+    private boolean firstEntry = true;
+
+    /**
+     * Creates the encoder.
+     *
+     * @param buffer the first buffer, in write mode
+     * @param sink receives the filled buffers
+     */
+    public LogEntryJsonEncoder(ByteBuffer buffer, BufferSink sink) {
+        this.buffer = buffer;
+        this.sink = sink;
+    }
+
+    /**
+     * Creates an encoder writing to a stream, through a heap buffer.
+     *
+     * @param out the stream
+     * @param bufferSize size of the buffer
+     * @return the encoder, it must be flushed at the end
+     */
+    public static LogEntryJsonEncoder toStream(OutputStream out, int bufferSize) {
+        return new LogEntryJsonEncoder(ByteBuffer.allocate(Math.max(6, bufferSize)), full -> {
+            out.write(full.array(), full.arrayOffset(), full.position());
+            full.clear();
+            return full;
+        });
+    }
+
+    private static byte[] field(String name, String prefix) {
+        return (prefix + '"' + name + "\":").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Encodes a whole batch.
+     *
+     * @param entries the log entries
+     * @throws IOException if the output fails
+     */
+    public void writeArray(List<LogEntry> entries) throws IOException {
+        beginArray();
+        for (LogEntry entry : entries) {
+            writeEntry(entry);
+        }
+        endArray();
+    }
+
+    public void beginArray() throws IOException {
+        firstEntry = true;
+        writeByte('[');
+    }
+
+    public void endArray() throws IOException {
+        writeByte(']');
+    }
+
+    /**
+     * Encodes an entry of the array.
+     *
+     * @param entry the log entry
+     * @throws IOException if the output fails
+     */
+    public void writeEntry(LogEntry entry) throws IOException {
+        ensure(2);
+        if (!firstEntry) {
+            buffer.put((byte) ',');
+        }
+        firstEntry = false;
+        buffer.put((byte) '{');
+        for (Map.Entry<String, String> metadata : entry.getMetadata().entrySet()) {
+            writeKey(metadata.getKey());
+            writeString(metadata.getValue());
+            writeByte(',');
+        }
+        write(MESSAGE_FIELD);
+        writeString(entry.getMessage());
+        if (entry.getTimestamp() != null) {
+            write(TIMESTAMP_FIELD);
+            writeLong(entry.getTimestamp());
+        }
+        write(RESOURCE_ID_FIELD);
+        writeResourceId(entry.getLmResourceId());
+        writeByte('}');
+    }
+
+    /**
+     * Writes the resource ID object, a shared one from the bytes it keeps.
+     */
+    private void writeResourceId(Map<String, String> resourceId) throws IOException {
+        if (resourceId instanceof ResourceIdCache.ResourceId) {
+            ResourceIdCache.ResourceId shared = (ResourceIdCache.ResourceId) resourceId;
+            byte[] json = shared.getJson();
+            if (json == null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+                LogEntryJsonEncoder encoder = toStream(out, 128);
+                encoder.writeObject(resourceId);
+                encoder.flush();
+                json = out.toByteArray();
+                shared.setJson(json);
+            }
+            write(json);
+        } else {
+            writeObject(resourceId);
+        }
+    }
+
+    private void writeObject(Map<String, String> properties) throws IOException {
+        writeByte('{');
+        boolean first = true;
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            if (!first) {
+                writeByte(',');
+            }
+            first = false;
+            writeKey(property.getKey());
+            writeString(property.getValue());
+        }
+        writeByte('}');
+    }
+
+    /**
+     * Hands the bytes written so far to the sink.
+     *
+     * @throws IOException if the output fails
+     */
+    public void flush() throws IOException {
+        if (buffer.position() > 0) {
+            buffer = sink.next(buffer);
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            buffer = sink.next(buffer);
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        ensure(1);
+        buffer.put((byte) b);
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            ensure(1);
+            int count = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private void writeKey(String key) throws IOException {
+        byte[] bytes = key != null ? KEYS.get(key) : null;
+        if (bytes == null) {
+            if (key == null || !isPlain(key)) {
+                writeString(key);
+                writeByte(':');
+                return;
+            }
+            bytes = field(key, "");
+            if (KEYS.size() < MAX_CACHED_KEYS) {
+                KEYS.put(key, bytes);
+            }
+        }
+        write(bytes);
+    }
+
+    /**
+     * Checks whether a string contains only ASCII characters written as is.
+     */
+    private static boolean isPlain(String value) {
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c >= 0x80 || c == '"' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeLong(long value) throws IOException {
+        // the digits of the negative value, so Long.MIN_VALUE doesn't overflow
+        boolean negative = value < 0;
+        if (!negative) {
+            value = -value;
+        }
+        int start = scratch.length;
+        do {
+            scratch[--start] = (byte) ('0' - (value % 10));
+            value /= 10;
+        } while (value != 0);
+        if (negative) {
+            scratch[--start] = '-';
+        }
+        write(scratch, start, scratch.length - start);
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            write(NULL);
+            return;
+        }
+        writeByte('"');
+        if (isPlain(value)) {
+            writePlain(value);
+        } else {
+            writeEscaped(value);
+        }
+        writeByte('"');
+    }
+
+    @SuppressWarnings("deprecation")
+    private void writePlain(String value) throws IOException {
+        // the characters are ASCII: copied as bytes
+        for (int start = 0, length = value.length(); start < length; start += SCRATCH_SIZE) {
+            int end = Math.min(length, start + SCRATCH_SIZE);
+            value.getBytes(start, end, scratch, 0);
+            write(scratch, 0, end - start);
+        }
+    }
+
+    private void writeEscaped(String value) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                writeAscii(c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (c == '\u2028' || c == '\u2029') {
+                // valid JSON, but not valid JavaScript
+                writeUnicodeEscape(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                ensure(4);
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate: replaced like String.getBytes does
+                writeByte('?');
+            } else {
+                ensure(3);
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private void writeAscii(char c) throws IOException {
+        switch (c) {
+            case '"':
+            case '\\':
+                ensure(2);
+                buffer.put((byte) '\\').put((byte) c);
+                break;
+            case '\n':
+                ensure(2);
+                buffer.put((byte) '\\').put((byte) 'n');
+                break;
+            case '\r':
+                ensure(2);
+                buffer.put((byte) '\\').put((byte) 'r');
+                break;
+            case '\t':
+                ensure(2);
+                buffer.put((byte) '\\').put((byte) 't');
+                break;
+            default:
+                if (c < 0x20) {
+                    writeUnicodeEscape(c);
+                } else {
+                    writeByte(c);
+                }
+        }
+    }
+
+    private void writeUnicodeEscape(char c) throws IOException {
+        ensure(6);
+        buffer.put((byte) '\\').put((byte) 'u')
+            .put(HEX[(c >> 12) & 0xF]).put(HEX[(c >> 8) & 0xF])
+            .put(HEX[(c >> 4) & 0xF]).put(HEX[c & 0xF]);
+    }
+}
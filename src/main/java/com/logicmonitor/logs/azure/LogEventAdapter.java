@@ -14,36 +14,29 @@
 
 package com.logicmonitor.logs.azure;
 
-import static com.logicmonitor.logs.azure.LoggingUtils.log;
 import static com.logicmonitor.logs.azure.JsonParsingUtils.parseJsonSafely;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonSyntaxException;
-import com.jayway.jsonpath.Configuration;
-import com.jayway.jsonpath.JsonPath;
-import com.jayway.jsonpath.ReadContext;
-import com.jayway.jsonpath.spi.json.GsonJsonProvider;
+import com.google.gson.JsonParser;
+import com.logicmonitor.logs.azure.FlightEvents.DecodeEvent;
+import com.logicmonitor.logs.azure.FlightEvents.MetadataExtractionEvent;
+import com.logicmonitor.logs.azure.FlightEvents.ScrubEvent;
+import com.logicmonitor.logs.azure.Quarantine.ErrorType;
 import java.time.Instant;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
 
 import org.apache.commons.lang3.StringEscapeUtils;
@@ -130,27 +123,74 @@ public class LogEventAdapter implements Function<String, List<LogEntry>> {
         AZURE_SEVERITY, LM_SEVERITY,
         AZURE_ACTIVITY_TYPE, LM_ACTIVITY_TYPE,
         AZURE_RESOURCE_ID, LM_AZURE_RESOURCE_ID);
-    private static final Configuration JSONPATH_CONFIG = Configuration.builder().jsonProvider(new GsonJsonProvider()).build();
 
-    private final Pattern scrubPattern;
+    private final RegexGuard scrubGuard;
 
     private final String azureClientId;
 
     private final String azureAccountName;
 
-    private final Set<String> metadataDeepPath;
+    private final MetadataKeyMatcher metadataKeyMatcher;
+
+    private final MetadataFlattener metadataFlattener;
+
+    private final Quarantine quarantine;
+
+    private final ResourceIdCache resourceIdCache;
+
+    private final ResourceIdCache.ResourceId activityLogResourceId;
 
     public LogEventAdapter(String regexScrub, String azureClientId, String azureAccountName, String includeMetadataKeys) throws PatternSyntaxException {
+        this(regexScrub, azureClientId, azureAccountName, includeMetadataKeys,
+            new MetadataFlattener());
+    }
+
+    public LogEventAdapter(String regexScrub, String azureClientId, String azureAccountName,
+        String includeMetadataKeys, MetadataFlattener metadataFlattener)
+        throws PatternSyntaxException {
+        this(regexScrub, azureClientId, azureAccountName, includeMetadataKeys, metadataFlattener,
+            new Quarantine(Quarantine.DEFAULT_SIZE));
+    }
+
+    public LogEventAdapter(String regexScrub, String azureClientId, String azureAccountName,
+        String includeMetadataKeys, MetadataFlattener metadataFlattener, Quarantine quarantine)
+        throws PatternSyntaxException {
+        this(regexScrub, azureClientId, azureAccountName, includeMetadataKeys, metadataFlattener,
+            quarantine, new ResourceIdCache(ResourceIdCache.DEFAULT_MAX_SIZE));
+    }
+
+    public LogEventAdapter(String regexScrub, String azureClientId, String azureAccountName,
+        String includeMetadataKeys, MetadataFlattener metadataFlattener, Quarantine quarantine,
+        ResourceIdCache resourceIdCache) throws PatternSyntaxException {
+        this(regexScrub, azureClientId, azureAccountName, includeMetadataKeys, metadataFlattener,
+            quarantine, resourceIdCache, RegexGuard.DEFAULT_TIMEOUT_MILLIS, 0,
+            RegexGuard.Violation.TRUNCATE);
+    }
+
+    public LogEventAdapter(String regexScrub, String azureClientId, String azureAccountName,
+        String includeMetadataKeys, MetadataFlattener metadataFlattener, Quarantine quarantine,
+        ResourceIdCache resourceIdCache, long scrubTimeoutMillis, long scrubMaxSteps,
+        RegexGuard.Violation onScrubViolation) throws PatternSyntaxException {
         if (regexScrub != null) {
-            scrubPattern = Pattern.compile(regexScrub);
+            scrubGuard = new RegexGuard(Pattern.compile(regexScrub), scrubTimeoutMillis,
+                scrubMaxSteps, onScrubViolation);
         } else {
-            scrubPattern = null;
+            scrubGuard = null;
         }
         this.azureClientId = azureClientId;
         this.azureAccountName = azureAccountName;
-        this.metadataDeepPath = StringUtils.isNotBlank(includeMetadataKeys) ? Arrays.stream(
-                StringUtils.split(includeMetadataKeys, ",")).map(StringUtils::strip)
-            .collect(Collectors.toSet()) : new HashSet<>();
+        this.metadataKeyMatcher = MetadataKeyMatcher.compile(includeMetadataKeys);
+        this.metadataFlattener = metadataFlattener;
+        this.quarantine = quarantine;
+        this.resourceIdCache = resourceIdCache;
+        // the same for all the activity logs
+        Map<String, String> activityLogResourceId = new LinkedHashMap<>();
+        activityLogResourceId.put(LM_CLIENT_ID, azureClientId);
+        activityLogResourceId.put(LM_CLOUD_CATEGORY_KEY, LM_CLOUD_CATEGORY_VALUE);
+        if (StringUtils.isNotBlank(azureAccountName)) {
+            activityLogResourceId.put(LM_AZURE_ACCOUNT, azureAccountName);
+        }
+        this.activityLogResourceId = resourceIdCache.get(activityLogResourceId);
     }
 
     /**
@@ -159,11 +199,33 @@ public class LogEventAdapter implements Function<String, List<LogEntry>> {
      * @return the pattern object
      */
     protected Pattern getScrubPattern() {
-        return scrubPattern;
+        return scrubGuard != null ? scrubGuard.getPattern() : null;
     }
 
     /**
-     * Applies the log transformation.
+     * Gets the guard of the scrub pattern.
+     *
+     * @return the guard, null without a scrub pattern
+     */
+    protected RegexGuard getScrubGuard() {
+        return scrubGuard;
+    }
+
+    protected MetadataFlattener getMetadataFlattener() {
+        return metadataFlattener;
+    }
+
+    protected Quarantine getQuarantine() {
+        return quarantine;
+    }
+
+    protected ResourceIdCache getResourceIdCache() {
+        return resourceIdCache;
+    }
+
+    /**
+     * Applies the log transformation. An event or a record that fails is quarantined, without
+     * affecting the other records.
      *
      * @param jsonString Azure log event as JSON string
      * @return list of log entries
@@ -171,22 +233,67 @@ public class LogEventAdapter implements Function<String, List<LogEntry>> {
     @Override
     public List<LogEntry> apply(String jsonString) {
         List<LogEntry> validLogEntries = new ArrayList<>();
+        decode(jsonString, record -> {
+            if (accept(record)) {
+                addEntry(record.getAsJsonObject(), validLogEntries);
+            }
+        });
+        return validLogEntries;
+    }
+
+    /**
+     * Parses an event into its records, or the event itself when it has no records. An event
+     * that fails is quarantined.
+     *
+     * @param jsonString Azure log event as JSON string
+     * @param records consumer of the records
+     */
+    protected void decode(String jsonString, Consumer<JsonElement> records) {
+        DecodeEvent event = new DecodeEvent();
+        event.begin();
+        JsonElement log;
         try {
-            JsonObject log = (JsonObject) GSON.fromJson(parseJsonSafely(jsonString), JsonObject.class);
-            Optional.ofNullable(log.get(AZURE_RECORDS_PROPERTY))
-                .filter(JsonElement::isJsonArray)
-                .map(JsonElement::getAsJsonArray)
-                .map(records -> StreamSupport.stream(records.spliterator(), true)
-                    .filter(JsonElement::isJsonObject)
-                    .map(JsonElement::getAsJsonObject)
-                )
-                .orElseGet(() -> Stream.of(log))
-                .map(this::createEntry)
-                .forEach(validLogEntries::add);
-        } catch (JsonSyntaxException e) {
-            log(Level.INFO, "Error while processing Json and applying log transformation: " + e.getMessage());
+            log = JsonParser.parseString(jsonString);
+        } catch (RuntimeException e) {
+            quarantine.add(e, jsonString);
+            return;
+        }
+        if (!log.isJsonObject()) {
+            quarantine.add(ErrorType.UNEXPECTED_SHAPE, "The event isn't an object", jsonString);
+            return;
+        }
+        JsonElement recordArray = log.getAsJsonObject().get(AZURE_RECORDS_PROPERTY);
+        int count;
+        if (recordArray != null && recordArray.isJsonArray()) {
+            count = recordArray.getAsJsonArray().size();
+            recordArray.getAsJsonArray().forEach(records);
+        } else {
+            count = 1;
+            records.accept(log);
+        }
+        if (event.shouldCommit()) {
+            event.records = count;
+            event.bytes = jsonString.length();
+            event.commit();
+        }
+    }
+
+    /**
+     * Checks if a record can be transformed, the other records are skipped.
+     *
+     * @param record the record
+     * @return true for an object
+     */
+    protected boolean accept(JsonElement record) {
+        return record.isJsonObject();
+    }
+
+    private void addEntry(JsonObject record, List<LogEntry> entries) {
+        try {
+            entries.add(createEntry(record));
+        } catch (RuntimeException e) {
+            quarantine.add(e, record.toString());
         }
-        return validLogEntries;
     }
 
     /**
@@ -196,20 +303,26 @@ public class LogEventAdapter implements Function<String, List<LogEntry>> {
      * @return log entry
      */
     protected LogEntry createEntry(JsonObject json) {
+        return scrub(enrich(json));
+    }
+
+    /**
+     * Transforms single Azure log object into log entry, without scrubbing the message.
+     *
+     * @param json the log object
+     * @return log entry
+     */
+    protected LogEntry enrich(JsonObject json) {
+        MetadataExtractionEvent extraction = new MetadataExtractionEvent();
+        extraction.begin();
         LogEventMessage event = GSON.fromJson(parseJsonSafely(json.toString()), LogEventMessage.class);
         LogEntry entry = new LogEntry();
-        if ((azureAccountName != null && StringUtils.isNotBlank(azureAccountName)) && (event.getCategory() != null) && (AUDIT_LOG_CATEGORIES.contains(event.getCategory().toLowerCase()))) {
-            //client ID and Azure account for activity logs
-            entry.putLmResourceIdItem(LM_CLIENT_ID, azureClientId);
-            entry.putLmResourceIdItem(LM_CLOUD_CATEGORY_KEY, LM_CLOUD_CATEGORY_VALUE);
-            entry.putLmResourceIdItem(LM_AZURE_ACCOUNT, azureAccountName);
-        } else if ((event.getCategory() != null) && (AUDIT_LOG_CATEGORIES.contains(event.getCategory().toLowerCase()))) {
-            //client ID for activity logs
-            entry.putLmResourceIdItem(LM_CLIENT_ID, azureClientId);
-            entry.putLmResourceIdItem(LM_CLOUD_CATEGORY_KEY, LM_CLOUD_CATEGORY_VALUE);
+        if ((event.getCategory() != null) && (AUDIT_LOG_CATEGORIES.contains(event.getCategory().toLowerCase()))) {
+            //client ID and Azure account, if set, for activity logs
+            entry.lmResourceId(activityLogResourceId);
         } else {
             // resource ID
-            entry.putLmResourceIdItem(LM_RESOURCE_PROPERTY, event.getResourceId());
+            entry.lmResourceId(resourceIdCache.get(LM_RESOURCE_PROPERTY, event.getResourceId()));
         }
 
         // timestamp as epoch
@@ -253,7 +366,7 @@ public class LogEventAdapter implements Function<String, List<LogEntry>> {
         // Add static metadata
         metadata.putAll(REQ_STATIC_METADATA);
         // Add metadata for includeMetadataKeys
-        if (!metadataDeepPath.isEmpty()) {
+        if (!metadataKeyMatcher.isEmpty()) {
             metadata.putAll(addMissingMetadataFromJsonEvent(json));
         }
 
@@ -263,66 +376,47 @@ public class LogEventAdapter implements Function<String, List<LogEntry>> {
         }
 
         entry.setMetadata(metadata);
-        if (scrubPattern != null) {
-            message = scrubPattern.matcher(message).replaceAll("");
-        }
         entry.setMessage(message);
 
+        if (extraction.shouldCommit()) {
+            extraction.category = event.getCategory();
+            extraction.type = metadata.get(LM_EVENTSOURCE);
+            extraction.metadata = metadata.size();
+            extraction.bytes = message.length();
+            extraction.commit();
+        }
         return entry;
     }
 
-    private Map<String, String> addMissingMetadataFromJsonEvent(JsonObject event) {
-
-        Map<String, String> additionalMetadata = new HashMap<>();
-        ReadContext jsonPathContext = JsonPath.using(JSONPATH_CONFIG).parse(event);
-
-        for (String metadataDeepKey : metadataDeepPath) {
-            final String finalMetadataKey =
-                LM_METADATA_RENAME_KEYS.getOrDefault(metadataDeepKey, metadataDeepKey);
-
-            try {
-                final String jsonPath = "$." + metadataDeepKey;
-                Object val = jsonPathContext.read(jsonPath);
-
-                //TODO we need to remove flattening when data sdk handles nested json metadata internally
-                reFlat(finalMetadataKey, (JsonElement) val, additionalMetadata);
-
-            } catch (Exception e) {
-                // skip this key
+    /**
+     * Removes the text matching the scrub pattern from the message.
+     *
+     * @param entry the log entry
+     * @return the same log entry
+     */
+    protected LogEntry scrub(LogEntry entry) {
+        if (scrubGuard != null) {
+            ScrubEvent event = new ScrubEvent();
+            event.begin();
+            String message = entry.getMessage();
+            // within a budget, the pattern is supplied by the user
+            entry.setMessage(scrubGuard.replaceAll(message, ""));
+            if (event.shouldCommit()) {
+                event.bytes = message.length();
+                event.scrubbedBytes = message.length() - entry.getMessage().length();
+                event.commit();
             }
         }
-        return additionalMetadata;
+        return entry;
     }
 
-    private void reFlat(String baseKey, JsonElement node, Map<String, String> flattenedMap) {
-        if (node.isJsonPrimitive()) {
-            // get value as string
-            try {
-                flattenedMap.put(baseKey, node.getAsString());
-            } catch (Exception e) {
-                // value could be int or double or other primitive type
-                flattenedMap.put(baseKey, node.toString());
-            }
-
-        } else if (node.isJsonObject()) {
-
-            // iterate
-            JsonObject jsonObject = (JsonObject) node;
-            String pathPrefix = StringUtils.isBlank(baseKey) ? "" : baseKey + ".";
-
-            jsonObject.entrySet();
-            for (Entry<String, com.google.gson.JsonElement> e : jsonObject.entrySet()) {
-                reFlat(pathPrefix + e.getKey(), e.getValue(), flattenedMap);
-            }
-        } else if (node.isJsonArray()) {
-            //iterate through array
-            JsonArray jsonArray = (JsonArray) node;
-            for (int i = 0; i < jsonArray.size(); i++) {
-                reFlat(baseKey + "." + i, jsonArray.get(i), flattenedMap);
-            }
-        } else if (node.isJsonNull()) {
-            // ignore
-        }
+    private Map<String, String> addMissingMetadataFromJsonEvent(JsonObject event) {
+        Map<String, String> additionalMetadata = new HashMap<>();
+        metadataKeyMatcher.match(event, (path, value) ->
+            //TODO we need to remove flattening when data sdk handles nested json metadata internally
+            metadataFlattener.flatten(LM_METADATA_RENAME_KEYS.getOrDefault(path, path), value,
+                additionalMetadata));
+        return additionalMetadata;
     }
 
     public static String getEventSourceMetadata(LogEventMessage logEventMessage) {
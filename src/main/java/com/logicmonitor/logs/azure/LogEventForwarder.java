@@ -16,32 +16,46 @@ package com.logicmonitor.logs.azure;
 
 import static com.logicmonitor.logs.azure.JsonParsingUtils.removeQuotesAndUnescape;
 import static com.logicmonitor.logs.azure.LoggingUtils.log;
+import static com.logicmonitor.logs.azure.LoggingUtils.logRepeated;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonSyntaxException;
-import com.logicmonitor.sdk.data.Configuration;
-import com.logicmonitor.sdk.data.api.Logs;
+import com.logicmonitor.logs.azure.DeliveryTracker.Delivery;
+import com.logicmonitor.logs.azure.FlightEvents.InvocationEvent;
+import com.logicmonitor.logs.azure.InvocationCapture.CapturedInvocation;
+import com.logicmonitor.logs.azure.InvocationTracer.Stage;
+import com.logicmonitor.logs.azure.InvocationTracer.Trace;
+import com.logicmonitor.logs.azure.LagMonitor.InvocationLag;
+import com.logicmonitor.logs.azure.LogIngestClient.IngestResult;
 import com.microsoft.azure.functions.ExecutionContext;
+import com.microsoft.azure.functions.annotation.BindingName;
 import com.microsoft.azure.functions.annotation.Cardinality;
 import com.microsoft.azure.functions.annotation.EventHubTrigger;
 import com.microsoft.azure.functions.annotation.FunctionName;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.openapitools.client.ApiCallback;
-import org.openapitools.client.ApiException;
-import org.openapitools.client.ApiResponse;
 
 /**
  * Azure Function forwarding Azure logs to LogicMonitor endpoint.<br> It is parametrized using the
@@ -53,8 +67,66 @@ import org.openapitools.client.ApiResponse;
  * <li>{@value #PARAMETER_CONNECT_TIMEOUT} Connection timeout in milliseconds (default 10000)
  * <li>{@value #PARAMETER_READ_TIMEOUT} Read timeout in milliseconds (default 10000)
  * <li>{@value #PARAMETER_DEBUGGING} HTTP client debugging
+ * <li>{@value #PARAMETER_INGEST_URL} REST base URL overriding the one built from the company
+ * <li>{@value #PARAMETER_MAX_RETRIES} Maximum number of retries of a failed request (default 2)
+ * <li>{@value LogBatcher#PARAMETER_SEND_CONCURRENCY} Number of batches sent concurrently
+ * (default 4)
+ * <li>{@value SendExecutors#PARAMETER_VIRTUAL_THREADS} Sends each batch on a virtual thread
+ * instead, on Java 21 or later (default true)
+ * <li>{@value LogBatcher#PARAMETER_SEND_LANES} Number of lanes the resources are hashed to, the
+ * logs of a resource are sent in order (default 16)
+ * <li>{@value DeliveryTracker#PARAMETER_DELIVERY_TIMEOUT} Time in milliseconds an invocation
+ * waits for the delivery of its logs (default 0, it doesn't wait)
+ * <li>{@value MemoryBudget#PARAMETER_MEMORY_BUDGET}, {@value MemoryBudget#PARAMETER_MEMORY_POLICY},
+ * {@value MemoryBudget#PARAMETER_MEMORY_BLOCK_TIMEOUT} Heap budget of the buffered logs (see
+ * {@link MemoryBudget})
+ * <li>{@value CircuitBreaker#PARAMETER_FALLBACK} What happens to the logs while the circuit to
+ * LogicMonitor is open, DROP or BUFFER (see {@link CircuitBreaker} for the other parameters)
+ * <li>{@value AdaptiveFlushPolicy#PARAMETER_BATCH_MAX_BYTES},
+ * {@value AdaptiveFlushPolicy#PARAMETER_BATCH_MAX_ENTRIES},
+ * {@value AdaptiveFlushPolicy#PARAMETER_BATCH_MIN_LINGER},
+ * {@value AdaptiveFlushPolicy#PARAMETER_BATCH_MAX_LINGER} Batching (see
+ * {@link AdaptiveFlushPolicy})
  * <li>{@value #PARAMETER_REGEX_SCRUB} Regex to scrub text from logs
+ * <li>{@value RegexGuard#PARAMETER_SCRUB_TIMEOUT}, {@value RegexGuard#PARAMETER_SCRUB_MAX_STEPS},
+ * {@value RegexGuard#PARAMETER_SCRUB_ON_VIOLATION} Budget of the scrubbing of a message (see
+ * {@link RegexGuard})
  * <li>{@value #PARAMETER_AZURE_CLIENT_ID} Azure Application Client ID
+ * <li>{@value #PARAMETER_INCLUDE_METADATA_KEYS} Keys of the events added to the metadata (see
+ * {@link MetadataKeyMatcher} for the patterns), their values are flattened within the optional
+ * limits of {@value MetadataFlattener#PARAMETER_MAX_DEPTH},
+ * {@value MetadataFlattener#PARAMETER_MAX_KEYS},
+ * {@value MetadataFlattener#PARAMETER_MAX_VALUE_LENGTH} and
+ * {@value MetadataFlattener#PARAMETER_MAX_ARRAY_ELEMENTS}
+ * <li>{@value Quarantine#PARAMETER_QUARANTINE_SIZE},
+ * {@value Quarantine#PARAMETER_QUARANTINE_FILE},
+ * {@value Quarantine#PARAMETER_QUARANTINE_MAX_FILE_SIZE} Events and records that failed to be
+ * transformed (see {@link Quarantine})
+ * <li>{@value ResourceIdCache#PARAMETER_RESOURCE_ID_CACHE_SIZE} Maximum number of resource IDs
+ * shared by the log entries (see {@link ResourceIdCache})
+ * <li>{@value LogRouter#PARAMETER_DESTINATIONS} Other LogicMonitor portals the logs are routed to
+ * by their resource ID prefix (see {@link LogRouter})
+ * <li>{@value LogPipeline#PARAMETER_PIPELINE_BUFFER_SIZE} Number of items buffered by each
+ * stage transforming the events (default 256)
+ * <li>{@value LogPipeline#PARAMETER_PIPELINE_MAX_CONCURRENCY} Maximum number of invocations
+ * transformed concurrently (default 8)
+ * <li>{@value Warmup#PARAMETER_WARMUP}, {@value Warmup#PARAMETER_WARMUP_ITERATIONS} Warmup of
+ * the forwarder when loaded by the Functions host (see {@link Warmup})
+ * <li>{@value InvocationTracer#PARAMETER_TRACE_SAMPLE_RATE},
+ * {@value InvocationTracer#PARAMETER_TRACE_SLOW_MILLIS},
+ * {@value InvocationTracer#PARAMETER_TRACE_BUFFER_SIZE} Sampled tracing of the invocations stage
+ * by stage (see {@link InvocationTracer})
+ * <li>{@value LagMonitor#PARAMETER_LAG_CATCH_UP_MILLIS}, {@value LagMonitor#PARAMETER_LAG_METADATA}
+ * Measure of the Event Hub lag and catch-up mode (see {@link LagMonitor})
+ * <li>{@value HeavyHitters#PARAMETER_HEAVY_HITTERS_TOP},
+ * {@value HeavyHitters#PARAMETER_HEAVY_HITTERS_INTERVAL},
+ * {@value HeavyHitters#PARAMETER_HEAVY_HITTERS_WIDTH} Periodic summary of the resources,
+ * categories and types sending the most log volume (see {@link HeavyHitters})
+ * <li>{@value ContentHash#PARAMETER_CONTENT_HASH}, {@value ContentHash#PARAMETER_CONTENT_HASH_KEYS},
+ * {@value Deduplicator#PARAMETER_DEDUP_SIZE} Content hash of the log entries and suppression of
+ * the duplicates of the recently delivered ones (see {@link Deduplicator})
+ * <li>{@value InvocationCapture#PARAMETER_CAPTURE_DIRECTORY} Directory capturing the invocations
+ * for a replay (see {@link InvocationCapture} for the other capture parameters)
  * </ul>
  */
 public class LogEventForwarder {
@@ -92,6 +164,14 @@ public class LogEventForwarder {
      * Parameter: HTTP client debugging.
      */
     public static final String PARAMETER_DEBUGGING = "LogApiClientDebugging";
+    /**
+     * Parameter: REST base URL overriding 'https://{company}.{domainName}/rest'.
+     */
+    public static final String PARAMETER_INGEST_URL = "LogIngestUrl";
+    /**
+     * Parameter: maximum number of retries of a failed request (default 2).
+     */
+    public static final String PARAMETER_MAX_RETRIES = "LogIngestMaxRetries";
     /**
      * Parameter: Regex to scrub text from logs.
      */
@@ -117,47 +197,167 @@ public class LogEventForwarder {
      * Parameter: domain in the target URL '{company}.{domainName}'.
      */
     public static final String PARAMETER_DOMAIN_NAME = "LM_DOMAIN_NAME";
+    /**
+     * Default domain in the target URL.
+     */
+    public static final String DEFAULT_DOMAIN_NAME = "logicmonitor.com";
+    /**
+     * Default connection and read timeout in milliseconds.
+     */
+    public static final int DEFAULT_TIMEOUT = 10000;
     private static LogEventAdapter adapter;
 
     private static final Gson GSON = new GsonBuilder().registerTypeAdapter(LogEventProperties.class, new LogEventPropertiesDeserializer())
             .create();
 
-    public final Configuration conf = createDataSdkConfig();
+    private static LogRouter router;
+
+    private static DeliveryTracker deliveryTracker;
+
+    private static LogPipeline pipeline;
+
+    private static InvocationTracer tracer;
+
+    private static LagMonitor lagMonitor;
+
+    private static HeavyHitters heavyHitters;
+
+    private static boolean heavyHittersConfigured;
+
+    private static Deduplicator deduplicator;
+
+    private static boolean deduplicatorConfigured;
 
-    private static Logs logs;
+    private static InvocationCapture capture;
 
-    protected static Configuration createDataSdkConfig() {
-        String company = System.getenv(PARAMETER_COMPANY_NAME);
-        String domainName = System.getenv(PARAMETER_DOMAIN_NAME);
+    private static boolean captureConfigured;
+
+    static {
+        // off the first invocation when loaded by the Functions host
+        Warmup.start();
+    }
+
+    /**
+     * Creates the log ingestion client using the environment variables.
+     *
+     * @return LogIngestClient instance
+     */
+    protected static LogIngestClient createIngestClient() {
+        String accessId = null;
+        String accessKey = null;
+        String bearerToken = null;
         try {
             JsonObject authConf = GSON.fromJson(removeQuotesAndUnescape(System.getenv(PARAMETER_LM_AUTH)), JsonObject.class);
-            String accessId = authConf.get(PARAMETER_ACCESS_ID).getAsString();
-            String accessKey = authConf.get(PARAMETER_ACCESS_KEY).getAsString();
-            String bearerToken = authConf.get(PARAMETER_BEARER_TOKEN).getAsString();
-
-            if (StringUtils.isNoneBlank(accessKey, accessId)) {
-                // configure with null bearer token
-                log(Level.FINE, "Using LMv1 for authentication with Logicmonitor.");
-                return new Configuration(company, accessId, accessKey, null, domainName);
-            } else {
-                // configure with just Bearer token
-                log(Level.FINE, "Using bearer token for authentication with Logicmonitor.");
-                return new Configuration(company, null, null, bearerToken, domainName);
-            }
+            accessId = getAuthValue(authConf, PARAMETER_ACCESS_ID);
+            accessKey = getAuthValue(authConf, PARAMETER_ACCESS_KEY);
+            bearerToken = getAuthValue(authConf, PARAMETER_BEARER_TOKEN);
         } catch (Exception e) {
             log(Level.SEVERE,
-                "Unable to configure LM Data SDK config with ENV var LM_AUTH. Log Ingestion will be interrupted. Error : "
+                "Unable to read the authentication from ENV var LM_AUTH. Log Ingestion will be interrupted. Error : "
                     + e.getMessage());
-            return new Configuration();
+        }
+        LogIngestClient client = createIngestClient(getBaseUrl(
+            System.getenv(PARAMETER_COMPANY_NAME), System.getenv(PARAMETER_DOMAIN_NAME),
+            System.getenv(PARAMETER_INGEST_URL)), accessId, accessKey, bearerToken);
+        if (!client.checkAuthentication()) {
+            log(Level.SEVERE, "Neither LMv1 nor bearer token authentication is set in ENV var "
+                + PARAMETER_LM_AUTH + ". Log Ingestion will be interrupted.");
+        }
+        return client;
+    }
+
+    /**
+     * Creates the log ingestion client of a destination (see {@link LogRouter}).
+     *
+     * @param destination the destination
+     * @return LogIngestClient instance
+     */
+    protected static LogIngestClient createIngestClient(LogRouter.Destination destination) {
+        return createIngestClient(getBaseUrl(destination.getCompany(),
+            destination.getDomainName(), destination.getIngestUrl()),
+            destination.getAccessId(), destination.getAccessKey(),
+            destination.getBearerToken());
+    }
 
+    private static String getBaseUrl(String company, String domainName, String ingestUrl) {
+        if (StringUtils.isNotBlank(ingestUrl)) {
+            return ingestUrl.trim();
         }
+        return "https://" + company + "."
+            + StringUtils.defaultIfBlank(domainName, DEFAULT_DOMAIN_NAME) + "/rest";
+    }
+
+    private static LogIngestClient createIngestClient(String baseUrl, String accessId,
+        String accessKey, String bearerToken) {
+        return new LogIngestClient(baseUrl, accessId, accessKey, bearerToken,
+            LogIngestClient.createHttpClient(
+                getProperty(PARAMETER_CONNECT_TIMEOUT, Integer::parseInt, DEFAULT_TIMEOUT),
+                getProperty(PARAMETER_READ_TIMEOUT, Integer::parseInt, DEFAULT_TIMEOUT),
+                getProperty(PARAMETER_DEBUGGING, Boolean::parseBoolean, false)),
+            getProperty(PARAMETER_MAX_RETRIES, Integer::parseInt,
+                LogIngestClient.DEFAULT_MAX_RETRIES));
+    }
+
+    private static String getAuthValue(JsonObject authConf, String name) {
+        return authConf.has(name) && !authConf.get(name).isJsonNull()
+            ? authConf.get(name).getAsString() : null;
     }
 
-    public void setResponseInterface(final ExecutionContext context) {
-        this.responseInterface = new LogIngestResponse(context, context.getLogger());
+    /**
+     * Creates the batch flush policy using the environment variables.
+     *
+     * @return AdaptiveFlushPolicy instance
+     */
+    protected static AdaptiveFlushPolicy createFlushPolicy() {
+        return new AdaptiveFlushPolicy(
+            getProperty(AdaptiveFlushPolicy.PARAMETER_BATCH_MAX_BYTES, Long::parseLong,
+                AdaptiveFlushPolicy.DEFAULT_MAX_BYTES),
+            getProperty(AdaptiveFlushPolicy.PARAMETER_BATCH_MAX_ENTRIES, Integer::parseInt,
+                AdaptiveFlushPolicy.DEFAULT_MAX_ENTRIES),
+            getProperty(AdaptiveFlushPolicy.PARAMETER_BATCH_MIN_LINGER, Long::parseLong,
+                AdaptiveFlushPolicy.DEFAULT_MIN_LINGER),
+            getProperty(AdaptiveFlushPolicy.PARAMETER_BATCH_MAX_LINGER, Long::parseLong,
+                AdaptiveFlushPolicy.DEFAULT_MAX_LINGER),
+            // each lane sends its batches one at a time
+            1);
     }
 
-    public LogIngestResponse responseInterface;
+    /**
+     * Creates the circuit breaker of the ingestion endpoint using the environment variables.
+     *
+     * @return CircuitBreaker instance
+     */
+    protected static CircuitBreaker createCircuitBreaker() {
+        return new CircuitBreaker(
+            getProperty(CircuitBreaker.PARAMETER_FAILURE_RATE, Double::parseDouble,
+                CircuitBreaker.DEFAULT_FAILURE_RATE),
+            getProperty(CircuitBreaker.PARAMETER_SLOW_CALL_RATE, Double::parseDouble,
+                CircuitBreaker.DEFAULT_SLOW_CALL_RATE),
+            getProperty(CircuitBreaker.PARAMETER_SLOW_CALL_MILLIS, Long::parseLong,
+                CircuitBreaker.DEFAULT_SLOW_CALL_MILLIS),
+            getProperty(CircuitBreaker.PARAMETER_WINDOW_SECONDS, Integer::parseInt,
+                CircuitBreaker.DEFAULT_WINDOW_SECONDS),
+            getProperty(CircuitBreaker.PARAMETER_MINIMUM_CALLS, Integer::parseInt,
+                CircuitBreaker.DEFAULT_MINIMUM_CALLS),
+            getProperty(CircuitBreaker.PARAMETER_OPEN_SECONDS, Long::parseLong,
+                CircuitBreaker.DEFAULT_OPEN_SECONDS));
+    }
+
+    /**
+     * Creates the memory budget of the buffered entries using the environment variables.
+     *
+     * @return MemoryBudget instance
+     */
+    protected static MemoryBudget createMemoryBudget() {
+        return new MemoryBudget(
+            getProperty(MemoryBudget.PARAMETER_MEMORY_BUDGET, Long::parseLong,
+                MemoryBudget.getDefaultBudget()),
+            getProperty(MemoryBudget.PARAMETER_MEMORY_POLICY,
+                value -> MemoryBudget.Policy.valueOf(value.toUpperCase(Locale.ROOT)),
+                MemoryBudget.Policy.BLOCK),
+            getProperty(MemoryBudget.PARAMETER_MEMORY_BLOCK_TIMEOUT, Long::parseLong,
+                MemoryBudget.DEFAULT_BLOCK_TIMEOUT));
+    }
 
     /**
      * Gets the log adapter instance (initializes it when needed).
@@ -182,14 +382,246 @@ public class LogEventForwarder {
         return new LogEventAdapter(System.getenv(PARAMETER_REGEX_SCRUB),
             System.getenv(PARAMETER_AZURE_CLIENT_ID),
             System.getenv(PARAMETER_AZURE_ACCOUNT_NAME),
-            System.getenv(PARAMETER_INCLUDE_METADATA_KEYS));
+            System.getenv(PARAMETER_INCLUDE_METADATA_KEYS),
+            createMetadataFlattener(), createQuarantine(), createResourceIdCache(),
+            getProperty(RegexGuard.PARAMETER_SCRUB_TIMEOUT, Long::parseLong,
+                RegexGuard.DEFAULT_TIMEOUT_MILLIS),
+            getProperty(RegexGuard.PARAMETER_SCRUB_MAX_STEPS, Long::parseLong, 0L),
+            getProperty(RegexGuard.PARAMETER_SCRUB_ON_VIOLATION,
+                value -> RegexGuard.Violation.valueOf(value.toUpperCase(Locale.ROOT)),
+                RegexGuard.Violation.TRUNCATE));
+    }
+
+    /**
+     * Creates the cache of the shared resource IDs using the environment variables.
+     *
+     * @return ResourceIdCache instance
+     */
+    protected static ResourceIdCache createResourceIdCache() {
+        return new ResourceIdCache(
+            getProperty(ResourceIdCache.PARAMETER_RESOURCE_ID_CACHE_SIZE, Integer::parseInt,
+                ResourceIdCache.DEFAULT_MAX_SIZE));
     }
 
-    public Logs configureLogs() {
-        if (logs == null) {
-            logs = new Logs(conf, 5, true, responseInterface);
+    /**
+     * Creates the quarantine of the failed events using the environment variables.
+     *
+     * @return Quarantine instance
+     */
+    protected static Quarantine createQuarantine() {
+        Path file = getProperty(Quarantine.PARAMETER_QUARANTINE_FILE, Paths::get, null);
+        String regexScrub = System.getenv(PARAMETER_REGEX_SCRUB);
+        Quarantine quarantine = new Quarantine(
+            getProperty(Quarantine.PARAMETER_QUARANTINE_SIZE, Integer::parseInt,
+                Quarantine.DEFAULT_SIZE),
+            file,
+            getProperty(Quarantine.PARAMETER_QUARANTINE_MAX_FILE_SIZE, Long::parseLong,
+                Quarantine.DEFAULT_MAX_FILE_SIZE),
+            // a payload exceeding the budget is truncated rather than kept unscrubbed
+            regexScrub != null ? new RegexGuard(Pattern.compile(regexScrub),
+                getProperty(RegexGuard.PARAMETER_SCRUB_TIMEOUT, Long::parseLong,
+                    RegexGuard.DEFAULT_TIMEOUT_MILLIS),
+                getProperty(RegexGuard.PARAMETER_SCRUB_MAX_STEPS, Long::parseLong, 0L),
+                RegexGuard.Violation.TRUNCATE) : null);
+        if (file != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(quarantine::close));
         }
-        return logs;
+        return quarantine;
+    }
+
+    /**
+     * Creates the flattener of the included metadata using the environment variables.
+     *
+     * @return MetadataFlattener instance
+     */
+    protected static MetadataFlattener createMetadataFlattener() {
+        return new MetadataFlattener(
+            getProperty(MetadataFlattener.PARAMETER_MAX_DEPTH, Integer::parseInt,
+                MetadataFlattener.DEFAULT_MAX_DEPTH),
+            getProperty(MetadataFlattener.PARAMETER_MAX_KEYS, Integer::parseInt,
+                MetadataFlattener.DEFAULT_MAX_KEYS),
+            getProperty(MetadataFlattener.PARAMETER_MAX_VALUE_LENGTH, Integer::parseInt,
+                MetadataFlattener.DEFAULT_MAX_VALUE_LENGTH),
+            getProperty(MetadataFlattener.PARAMETER_MAX_ARRAY_ELEMENTS, Integer::parseInt,
+                MetadataFlattener.DEFAULT_MAX_ARRAY_ELEMENTS));
+    }
+
+    /**
+     * Gets the invocation capture (initializes it when needed).
+     *
+     * @return InvocationCapture instance, or null when the capture is disabled
+     */
+    protected synchronized static InvocationCapture getCapture() {
+        if (!captureConfigured) {
+            capture = configureCapture();
+            captureConfigured = true;
+        }
+        return capture;
+    }
+
+    /**
+     * Configures the invocation capture using the environment variables.
+     *
+     * @return InvocationCapture instance, or null when the capture is disabled
+     */
+    protected static InvocationCapture configureCapture() {
+        String directory = System.getenv(InvocationCapture.PARAMETER_CAPTURE_DIRECTORY);
+        if (StringUtils.isBlank(directory)) {
+            return null;
+        }
+        try {
+            InvocationCapture capture = new InvocationCapture(Paths.get(directory.trim()),
+                getProperty(InvocationCapture.PARAMETER_CAPTURE_SAMPLE_RATE, Double::parseDouble,
+                    InvocationCapture.DEFAULT_SAMPLE_RATE),
+                getProperty(InvocationCapture.PARAMETER_CAPTURE_MAX_FILE_SIZE, Long::parseLong,
+                    InvocationCapture.DEFAULT_MAX_FILE_SIZE),
+                getProperty(InvocationCapture.PARAMETER_CAPTURE_MAX_FILES, Integer::parseInt,
+                    InvocationCapture.DEFAULT_MAX_FILES),
+                getProperty(InvocationCapture.PARAMETER_CAPTURE_MAX_QUEUE_BYTES, Long::parseLong,
+                    InvocationCapture.DEFAULT_MAX_QUEUE_BYTES));
+            // writes the queued records and the gzip trailer when the host stops
+            Runtime.getRuntime().addShutdownHook(new Thread(capture::close));
+            return capture;
+        } catch (IOException e) {
+            log(Level.SEVERE, "Unable to configure the invocation capture in " + directory
+                + ", the capture is disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public LogBatcher configureBatcher() {
+        return configureRouter().getDefaultBatcher();
+    }
+
+    /**
+     * Configures the router of the log entries to their destination, each one with its batcher
+     * (initializes it when needed).
+     *
+     * @return LogRouter instance
+     */
+    public LogRouter configureRouter() {
+        // the forwarder can be invoked concurrently when running standalone
+        synchronized (LogEventForwarder.class) {
+            if (router == null) {
+                deliveryTracker = new DeliveryTracker(createMemoryBudget());
+                Map<String, LogBatcher> batchers = new LinkedHashMap<>();
+                Map<String, List<String>> prefixes = new LinkedHashMap<>();
+                for (LogRouter.Destination destination : createDestinations()) {
+                    batchers.put(destination.getName(),
+                        createBatcher(createIngestClient(destination)));
+                    prefixes.put(destination.getName(), destination.getResourceIdPrefixes());
+                }
+                router = new LogRouter(createBatcher(createIngestClient()), batchers, prefixes);
+                LogRouter catchingUp = router;
+                InvocationTracer invocationTracer = getTracer();
+                getLagMonitor().addListener(catchUp -> {
+                    catchingUp.getDefaultBatcher().getPolicy().setCatchUp(catchUp);
+                    catchingUp.getBatchers().values()
+                        .forEach(batcher -> batcher.getPolicy().setCatchUp(catchUp));
+                    invocationTracer.setCatchUp(catchUp);
+                });
+                // sends the pending entries when the host or the standalone runner stops
+                Runtime.getRuntime().addShutdownHook(new Thread(router::close));
+            }
+            return router;
+        }
+    }
+
+    /**
+     * Closes the router, sending the pending entries; the next invocation configures a new one
+     * from the environment variables.
+     */
+    protected static void resetRouter() {
+        synchronized (LogEventForwarder.class) {
+            if (router != null) {
+                router.close();
+                router = null;
+            }
+        }
+    }
+
+    /**
+     * Reads the destinations other than the default one from the environment variables.
+     *
+     * @return the destinations, empty when not set or invalid
+     */
+    protected static List<LogRouter.Destination> createDestinations() {
+        try {
+            return LogRouter.Destination.parse(System.getenv(LogRouter.PARAMETER_DESTINATIONS));
+        } catch (RuntimeException e) {
+            log(Level.SEVERE, "Invalid value of " + LogRouter.PARAMETER_DESTINATIONS
+                + ", all the logs are sent to the default destination: " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * Creates the batcher of a destination, with its own flush policy and circuit breaker.
+     *
+     * @param client client of the destination
+     * @return LogBatcher instance
+     */
+    private static LogBatcher createBatcher(LogIngestClient client) {
+        return createBatcher(client, onSent(deliveryTracker, getDeduplicator()));
+    }
+
+    /**
+     * Wraps a batch callback to log the time to the first response of the ingestion, and to
+     * record the delivered entries in the deduplicator.
+     *
+     * @param callback the callback
+     * @param deduplicator the deduplicator, may be null
+     * @return the wrapping callback
+     */
+    private static LogBatcher.BatchCallback onSent(LogBatcher.BatchCallback callback,
+        Deduplicator deduplicator) {
+        return new LogBatcher.BatchCallback() {
+            @Override
+            public void onSuccess(List<LogEntry> entries, IngestResult result) {
+                Warmup.onSend(result);
+                if (deduplicator != null) {
+                    deduplicator.addDelivered(entries);
+                }
+                callback.onSuccess(entries, result);
+            }
+
+            @Override
+            public void onFailure(List<LogEntry> entries, IngestResult result) {
+                Warmup.onSend(result);
+                callback.onFailure(entries, result);
+            }
+
+            @Override
+            public void onDropped(List<LogEntry> entries) {
+                callback.onDropped(entries);
+            }
+        };
+    }
+
+    /**
+     * Creates a batcher using the environment variables, with its own flush policy and circuit
+     * breaker.
+     *
+     * @param client client sending the batches
+     * @param callback callback receiving the results
+     * @return LogBatcher instance
+     */
+    protected static LogBatcher createBatcher(LogIngestClient client,
+        LogBatcher.BatchCallback callback) {
+        return new LogBatcher(client, createFlushPolicy(), createCircuitBreaker(),
+            getProperty(CircuitBreaker.PARAMETER_FALLBACK,
+                value -> CircuitBreaker.Fallback.valueOf(value.toUpperCase(Locale.ROOT)),
+                CircuitBreaker.Fallback.DROP),
+            getProperty(CircuitBreaker.PARAMETER_BUFFER_SIZE, Integer::parseInt,
+                CircuitBreaker.DEFAULT_BUFFER_SIZE),
+            callback,
+            SendExecutors.newSendExecutor("lm-logs-sender",
+                getProperty(LogBatcher.PARAMETER_SEND_CONCURRENCY, Integer::parseInt,
+                    LogBatcher.DEFAULT_SEND_CONCURRENCY),
+                getProperty(SendExecutors.PARAMETER_VIRTUAL_THREADS, Boolean::parseBoolean,
+                    true)),
+            getProperty(LogBatcher.PARAMETER_SEND_LANES, Integer::parseInt,
+                LogBatcher.DEFAULT_SEND_LANES));
     }
 
     /**
@@ -209,11 +641,37 @@ public class LogEventForwarder {
             .ifPresent(setter);
     }
 
+    /**
+     * Reads an environment variable, returning the default value when it is null, empty or
+     * cannot be mapped.
+     *
+     * @param <T> type of the variable
+     * @param name name of the variable
+     * @param mapper function mapping String to the desired type
+     * @param defaultValue value used when the variable is not set
+     * @return the variable value
+     */
+    protected static <T> T getProperty(String name, Function<String, T> mapper, T defaultValue) {
+        try {
+            return Optional.ofNullable(System.getenv(name))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .map(mapper)
+                .orElse(defaultValue);
+        } catch (RuntimeException e) {
+            log(Level.WARNING, "Invalid value of " + name + ", using " + defaultValue + ": "
+                + e.getMessage());
+            return defaultValue;
+        }
+    }
+
     /**
      * The main method of the Azure Log Forwarder, triggered by events consumed from the configured
      * Event Hub.
      *
      * @param logEvents list of JSON strings containing Azure events
+     * @param systemProperties enqueued time, offset and sequence number of each event, may be null
+     * @param partitionContext partition of the events, may be null
      * @param context execution context
      */
     @FunctionName("LogForwarder")
@@ -221,49 +679,317 @@ public class LogEventForwarder {
         @EventHubTrigger(name = "logEvents", eventHubName = "log-hub",
             dataType = "string", cardinality = Cardinality.MANY,
             connection = "LogsEventHubConnectionString") List<String> logEvents,
+        @BindingName("SystemPropertiesArray") LagMonitor.SystemProperty[] systemProperties,
+        @BindingName("PartitionContext") LagMonitor.PartitionContext partitionContext,
         final ExecutionContext context
     ) {
-        setResponseInterface(context);
-        Logs logs = configureLogs();
-        List<LogEntry> logEntries = processEvents(logEvents);
-        if (logEntries.isEmpty()) {
-            log(context, Level.INFO, () -> "No entries to send");
+        Warmup.stop();
+        InvocationLag lag = getLagMonitor().start(systemProperties, partitionContext,
+            System.currentTimeMillis());
+        InvocationCapture capture = getCapture();
+        if (capture == null || !capture.isSampled()) {
+            forwardEvents(logEvents, lag, context);
             return;
         }
+        long startTime = System.currentTimeMillis();
+        long start = System.nanoTime();
+        int entries = 0;
+        try {
+            entries = forwardEvents(logEvents, lag, context);
+        } finally {
+            capture.record(new CapturedInvocation(context.getInvocationId(), startTime,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), entries, logEvents));
+        }
+    }
+
+    /**
+     * Transforms the events into log entries and sends them to LogicMonitor.
+     *
+     * @param logEvents list of JSON strings containing Azure events
+     * @param context execution context
+     * @return number of log entries
+     */
+    protected int forwardEvents(List<String> logEvents, final ExecutionContext context) {
+        return forwardEvents(logEvents, getLagMonitor().start(null, null,
+            System.currentTimeMillis()), context);
+    }
+
+    /**
+     * Transforms the events into log entries and sends them to LogicMonitor, measuring their lag.
+     *
+     * @param logEvents list of JSON strings containing Azure events
+     * @param lag lag of the invocation
+     * @param context execution context
+     * @return number of log entries
+     */
+    protected int forwardEvents(List<String> logEvents, InvocationLag lag,
+        final ExecutionContext context) {
+        long start = System.nanoTime();
+        InvocationEvent event = new InvocationEvent();
+        event.begin();
+        Trace trace = getTracer().start(context.getInvocationId());
+        LogRouter router = configureRouter();
+        Delivery delivery = deliveryTracker.open(context.getInvocationId());
+        delivery.setTrace(trace);
+        if (trace != null) {
+            delivery.getFuture().thenRun(trace::finish);
+        }
+        Submission submission = new Submission(router, delivery, trace, lag, getHeavyHitters(),
+            getDeduplicator());
+        // the entries are submitted while the next events are transformed
+        int count;
+        try {
+            count = getPipeline().process(logEvents, submission, trace).join();
+        } catch (CompletionException e) {
+            log(context, Level.SEVERE, () -> "Transformation of the events failed: "
+                + e.getCause());
+            count = delivery.getEntries();
+        }
+        if (trace != null) {
+            trace.record(Stage.FORWARD, start, System.nanoTime(), logEvents.size(), 0);
+        }
+        if (event.shouldCommit()) {
+            event.invocationId = context.getInvocationId();
+            event.partition = lag.getPartitionId();
+            event.events = logEvents.size();
+            event.entries = count;
+            event.enqueueLagMillis = lag.getEnqueueLagMillis();
+            event.commit();
+        }
+        deliveryTracker.seal(delivery);
+        getLagMonitor().finish(lag);
+        if (count == 0) {
+            log(context, Level.INFO, () -> "No entries to send");
+            return 0;
+        }
+
+        int entries = count;
+        log(context, Level.FINE, () -> "Submitted " + entries + " log entries for devices "
+            + submission.resourceIds + ", " + lag + ", " + router + ", " + deliveryTracker + ", "
+            + getAdapter().getResourceIdCache());
+        if (submission.shed > 0) {
+            log(context, Level.WARNING, () -> "Memory budget full, shed " + submission.shed
+                + " log entries: " + deliveryTracker.getBudget());
+        }
+        if (submission.duplicates > 0) {
+            log(context, Level.INFO, () -> "Suppressed " + submission.duplicates
+                + " duplicate log entries, " + submission.deduplicator);
+        }
+        LogIngestResponse response = new LogIngestResponse(context, context.getLogger());
+        delivery.getFuture().thenAccept(response::onDelivery);
+        awaitDelivery(delivery, context);
+        return count;
+    }
+
+    /**
+     * Gets the pipeline transforming the events (initializes it when needed).
+     *
+     * @return LogPipeline instance
+     */
+    protected synchronized static LogPipeline getPipeline() {
+        if (pipeline == null) {
+            pipeline = new LogPipeline(getAdapter(),
+                getProperty(LogPipeline.PARAMETER_PIPELINE_BUFFER_SIZE, Integer::parseInt,
+                    LogPipeline.DEFAULT_BUFFER_SIZE),
+                getProperty(LogPipeline.PARAMETER_PIPELINE_MAX_CONCURRENCY, Integer::parseInt,
+                    LogPipeline.DEFAULT_MAX_CONCURRENCY));
+        }
+        return pipeline;
+    }
+
+    /**
+     * Gets the tracer of the invocations (initializes it when needed).
+     *
+     * @return InvocationTracer instance
+     */
+    protected synchronized static InvocationTracer getTracer() {
+        if (tracer == null) {
+            tracer = createTracer();
+        }
+        return tracer;
+    }
+
+    /**
+     * Creates the tracer of the invocations using the environment variables.
+     *
+     * @return InvocationTracer instance
+     */
+    protected static InvocationTracer createTracer() {
+        return new InvocationTracer(
+            getProperty(InvocationTracer.PARAMETER_TRACE_SAMPLE_RATE, Double::parseDouble,
+                InvocationTracer.DEFAULT_SAMPLE_RATE),
+            getProperty(InvocationTracer.PARAMETER_TRACE_SLOW_MILLIS, Long::parseLong,
+                InvocationTracer.DEFAULT_SLOW_MILLIS),
+            getProperty(InvocationTracer.PARAMETER_TRACE_BUFFER_SIZE, Integer::parseInt,
+                InvocationTracer.DEFAULT_BUFFER_SIZE));
+    }
+
+    /**
+     * Gets the monitor of the Event Hub lag (initializes it when needed).
+     *
+     * @return LagMonitor instance
+     */
+    protected synchronized static LagMonitor getLagMonitor() {
+        if (lagMonitor == null) {
+            lagMonitor = new LagMonitor(
+                getProperty(LagMonitor.PARAMETER_LAG_CATCH_UP_MILLIS, Long::parseLong,
+                    LagMonitor.DEFAULT_CATCH_UP_MILLIS),
+                getProperty(LagMonitor.PARAMETER_LAG_METADATA, Boolean::parseBoolean, false));
+        }
+        return lagMonitor;
+    }
+
+    /**
+     * Gets the tracker of the heavy hitters (initializes it when needed).
+     *
+     * @return HeavyHitters instance, or null when disabled
+     */
+    protected synchronized static HeavyHitters getHeavyHitters() {
+        if (!heavyHittersConfigured) {
+            int top = getProperty(HeavyHitters.PARAMETER_HEAVY_HITTERS_TOP, Integer::parseInt,
+                HeavyHitters.DEFAULT_TOP);
+            heavyHitters = top <= 0 ? null : new HeavyHitters(top,
+                getProperty(HeavyHitters.PARAMETER_HEAVY_HITTERS_INTERVAL, Long::parseLong,
+                    HeavyHitters.DEFAULT_INTERVAL),
+                getProperty(HeavyHitters.PARAMETER_HEAVY_HITTERS_WIDTH, Integer::parseInt,
+                    HeavyHitters.DEFAULT_WIDTH));
+            heavyHittersConfigured = true;
+        }
+        return heavyHitters;
+    }
+
+    /**
+     * Gets the deduplicator of the log entries (initializes it when needed).
+     *
+     * @return Deduplicator instance, or null when disabled
+     */
+    protected synchronized static Deduplicator getDeduplicator() {
+        if (!deduplicatorConfigured) {
+            deduplicator = createDeduplicator();
+            deduplicatorConfigured = true;
+        }
+        return deduplicator;
+    }
+
+    /**
+     * Creates the deduplicator of the log entries using the environment variables.
+     *
+     * @return Deduplicator instance, or null when the entries are neither hashed nor deduplicated
+     */
+    protected static Deduplicator createDeduplicator() {
+        boolean metadata = getProperty(ContentHash.PARAMETER_CONTENT_HASH, Boolean::parseBoolean,
+            true);
+        int size = getProperty(Deduplicator.PARAMETER_DEDUP_SIZE, Integer::parseInt,
+            Deduplicator.DEFAULT_SIZE);
+        if (!metadata && size <= 0) {
+            return null;
+        }
+        return new Deduplicator(new ContentHash(
+            getProperty(ContentHash.PARAMETER_CONTENT_HASH_KEYS, ContentHash::parseKeys,
+                ContentHash.parseKeys(ContentHash.DEFAULT_KEYS)), metadata), size);
+    }
 
-        log(context, Level.FINE, () -> "Sending " + logEntries.size() +
-            " log entries for devices " + getResourceIds(logEntries));
-        for (LogEntry logEntry : logEntries) {
+    /**
+     * Sink of the pipeline, submitting the entries admitted by the memory budget to the batchers
+     * of their destination, the others are shed. The duplicates of the entries delivered recently
+     * are suppressed.
+     */
+    private static final class Submission implements Consumer<LogEntry> {
+
+        private final LogRouter router;
+        private final Delivery delivery;
+        private final Trace trace;
+        private final InvocationLag lag;
+        private final HeavyHitters heavyHitters;
+        private final Deduplicator deduplicator;
+        private final MemoryBudget budget = deliveryTracker.getBudget();
+        private final Set<String> resourceIds = new HashSet<>();
+        private int shed;
+        private int duplicates;
+
+        Submission(LogRouter router, Delivery delivery, Trace trace, InvocationLag lag,
+            HeavyHitters heavyHitters, Deduplicator deduplicator) {
+            this.router = router;
+            this.delivery = delivery;
+            this.trace = trace;
+            this.lag = lag;
+            this.heavyHitters = heavyHitters;
+            this.deduplicator = deduplicator;
+        }
+
+        @Override
+        public void accept(LogEntry logEntry) {
+            long start = trace != null ? System.nanoTime() : 0;
+            submit(logEntry);
+            if (trace != null) {
+                trace.record(Stage.SUBMIT, start, System.nanoTime(), 1,
+                    MemoryBudget.estimateRetainedSize(logEntry));
+            }
+        }
+
+        private void submit(LogEntry logEntry) {
+            lag.onEntry(logEntry);
+            String resourceId = getResourceId(logEntry);
+            if (deduplicator != null && !deduplicator.check(logEntry, resourceId)) {
+                duplicates++;
+                return;
+            }
+            delivery.add(logEntry);
+            resourceIds.add(resourceId);
+            if (heavyHitters != null) {
+                heavyHitters.add(logEntry, resourceId);
+            }
+            boolean admitted;
             try {
-                Optional<ApiResponse> response = logs.sendLogs(logEntry.getMessage(),
-                    logEntry.getLmResourceId(), logEntry.getMetadata(), logEntry.getTimestamp());
-                if (response != null && response.isPresent()) {
-                    logResponse(context, response.get());
-                }
-            } catch (final Exception e) {
-                log(context, Level.SEVERE,
-                    () -> "Exception occurred while processing the request: " + e.getMessage());
+                admitted = budget.acquire(logEntry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                admitted = false;
+            }
+            if (admitted) {
+                router.add(logEntry);
+            } else {
+                shed++;
+                deliveryTracker.onDropped(List.of(logEntry));
             }
         }
+    }
 
+    /**
+     * Waits for the delivery of the invocation logs, when enabled by
+     * {@value DeliveryTracker#PARAMETER_DELIVERY_TIMEOUT}.
+     *
+     * @param delivery delivery of the invocation
+     * @param context execution context
+     */
+    private static void awaitDelivery(Delivery delivery, final ExecutionContext context) {
+        long timeout = getProperty(DeliveryTracker.PARAMETER_DELIVERY_TIMEOUT, Long::parseLong, 0L);
+        if (timeout <= 0) {
+            return;
+        }
+        try {
+            delivery.getFuture().get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log(context, Level.WARNING, () -> "Logs not delivered within " + timeout + " ms: "
+                + delivery);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log(context, Level.WARNING, () -> "Delivery failed: " + e.getMessage());
+        }
     }
 
     /**
-     * Processes the received events and produces log events.
+     * Processes the received events and produces log events through the pipeline of the
+     * invocations (see {@link LogPipeline}). The events and records that fail are quarantined
+     * (see {@link Quarantine}), the others are processed.
      *
      * @param logEvents list of JSON strings containing Azure events
      * @return the log entries
      */
     protected static List<LogEntry> processEvents(List<String> logEvents) {
         List<LogEntry> validLogEntries = new ArrayList<>();
-        try {
-             logEvents.stream()
-                .map(getAdapter())
-                .flatMap(List::stream)
-                 .forEach(validLogEntries::add);
-        } catch (JsonSyntaxException e) {
-            log(Level.INFO, "Error while processing Json of events : " + e.getMessage() + " :: " +logEvents);
-        }
+        getPipeline().process(logEvents, validLogEntries::add).join();
         return validLogEntries;
     }
 
@@ -275,34 +1001,26 @@ public class LogEventForwarder {
      */
     protected static Set<String> getResourceIds(List<LogEntry> logEntries) {
         return logEntries.stream()
-            .map(LogEntry::getLmResourceId)
-            .map((props) -> {
-                if (props.containsKey(LogEventAdapter.LM_RESOURCE_PROPERTY)) {
-                    return props.get(LogEventAdapter.LM_RESOURCE_PROPERTY);
-                } else {
-                    return props.get(LogEventAdapter.LM_CLIENT_ID);
-                }
-            })
+            .map(LogEventForwarder::getResourceId)
             .collect(Collectors.toSet());
     }
 
-
-
     /**
-     * Logs a response received from LogicMonitor.
+     * Gets the resource ID of a log entry.
      *
-     * @param context execution context
-     * @param response the response to log
+     * @param logEntry log entry
+     * @return the Azure resource ID, or the client ID when it has none
      */
-    private static void logResponse(final ExecutionContext context,
-        ApiResponse<?> response) {
-        log(context, Level.INFO,
-            () -> String.format("Received: status = %d ",
-                response.getStatusCode()));
-        log(context, Level.INFO,
-            () -> "Response body: " + response.getData());
+    protected static String getResourceId(LogEntry logEntry) {
+        Map<String, String> props = logEntry.getLmResourceId();
+        if (props.containsKey(LogEventAdapter.LM_RESOURCE_PROPERTY)) {
+            return props.get(LogEventAdapter.LM_RESOURCE_PROPERTY);
+        } else {
+            return props.get(LogEventAdapter.LM_CLIENT_ID);
+        }
     }
 
+
     /**
      * gets the gradle 'Implementation-Version'.
      *
@@ -330,7 +1048,10 @@ public class LogEventForwarder {
         return getBuildName() + "/" + getBuildVersion();
     }
 
-    class LogIngestResponse implements ApiCallback {
+    /**
+     * Reports the delivery of the logs of one invocation.
+     */
+    class LogIngestResponse {
 
         public static final String JSON_PROPERTY_SUCCESS = "success";
         private Boolean success;
@@ -350,28 +1071,21 @@ public class LogEventForwarder {
             return this;
         }
 
-        @Override
-        public void onFailure(ApiException e, int i, Map map) {
-            log(Level.SEVERE,
-                String.format("[%s][%s] Failed to ingest logs to Logicmonitor. Error = %s",
+        public void onDelivery(Delivery delivery) {
+            if (delivery.getFailed() > 0) {
+                log(Level.SEVERE, () ->
+                    String.format("[%s][%s] Failed to ingest logs to Logicmonitor: %s",
+                        this.getContext().getFunctionName(), this.getContext().getInvocationId(),
+                        delivery));
+            } else {
+                // logged for every request, so rate limited
+                logRepeated(Level.INFO, "ingest-success", () -> String.format(
+                    "[%s][%s] Successfully ingested logs to Logicmonitor: %s in %d ms. "
+                        + "x-request-id=%s",
                     this.getContext().getFunctionName(), this.getContext().getInvocationId(),
-                    e.getMessage()));
-        }
-
-        @Override
-        public void onSuccess(Object o, int i, Map map) {
-            log(Level.INFO, String.format(
-                "[%s][%s] Successfully ingested logs to Logicmonitor. x-request-id=%s",
-                this.getContext().getFunctionName(), this.getContext().getInvocationId(),
-                map.get("x-request-id")));
-        }
-
-        @Override
-        public void onUploadProgress(long bytesWritten, long contentLength, boolean done) {
-        }
-
-        @Override
-        public void onDownloadProgress(long bytesRead, long contentLength, boolean done) {
+                    delivery, TimeUnit.NANOSECONDS.toMillis(delivery.getLatencyNanos()),
+                    delivery.getRequestId()));
+            }
         }
     }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Source of raw Azure log events, each one being a JSON string as delivered by the Event Hub.<br>
+ * The Azure Function receives the events from the Event Hub trigger, the standalone runner reads
+ * them using one of the implementations:
+ * <ul>
+ * <li>{@link ReaderEventSource} newline-delimited events from a reader (e.g. stdin)
+ * <li>{@link MappedFileEventSource} newline-delimited events from a memory-mapped file
+ * </ul>
+ */
+public interface LogEventSource extends Closeable {
+
+    /**
+     * Reads the next batch of events.
+     *
+     * @param maxEvents maximum number of events in the batch
+     * @return list of JSON strings, empty when the source is exhausted
+     * @throws IOException when the events cannot be read
+     */
+    List<String> nextBatch(int maxEvents) throws IOException;
+
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.logicmonitor.logs.azure.LoggingUtils.log;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import com.logicmonitor.logs.azure.FlightEvents.BatchBuildEvent;
+import com.logicmonitor.logs.azure.FlightEvents.SendEvent;
+import com.logicmonitor.logs.azure.PayloadWriter.Payload;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.logging.HttpLoggingInterceptor;
+import okio.BufferedSink;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Sends batches of log entries to the LogicMonitor log ingestion endpoint
+ * ({@value #INGEST_PATH}).<br>
+ * The request is authenticated using LMv1 when the access ID and key are set, otherwise using the
+ * bearer token. Throttled requests (429), server errors (5xx) and I/O failures are retried with an
+ * exponential backoff.<br>
+ * The batches are serialized by the {@link PayloadWriter} into pooled buffers, streamed as the
+ * request body and released once the request completes.
+ */
+public class LogIngestClient {
+
+    /**
+     * Path of the log ingestion endpoint, relative to the REST base URL.
+     */
+    public static final String INGEST_PATH = "/log/ingest";
+    /**
+     * Header containing the request ID.
+     */
+    public static final String HEADER_REQUEST_ID = "x-request-id";
+    /**
+     * Default number of retries of a failed request.
+     */
+    public static final int DEFAULT_MAX_RETRIES = 2;
+
+    private static final MediaType JSON = MediaType.get("application/json");
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final long RETRY_BACKOFF_MILLIS = 250;
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 4000;
+
+    private final String ingestUrl;
+    private final String accessId;
+    private final String accessKey;
+    private final String bearerToken;
+    private final OkHttpClient httpClient;
+    private final int maxRetries;
+    private final PayloadWriter writer;
+
+    /**
+     * Creates the client.
+     *
+     * @param baseUrl REST base URL, e.g. 'https://{company}.logicmonitor.com/rest'
+     * @param accessId LogicMonitor access ID (LMv1)
+     * @param accessKey LogicMonitor access key (LMv1)
+     * @param bearerToken LogicMonitor bearer token, used when the access ID or key is blank
+     * @param httpClient HTTP client
+     * @param maxRetries maximum number of retries of a failed request
+     */
+    public LogIngestClient(String baseUrl, String accessId, String accessKey, String bearerToken,
+        OkHttpClient httpClient, int maxRetries) {
+        this(baseUrl, accessId, accessKey, bearerToken, httpClient, maxRetries,
+            new ByteBufferPool(ByteBufferPool.DEFAULT_BUFFER_SIZE,
+                ByteBufferPool.DEFAULT_MAX_POOLED));
+    }
+
+    /**
+     * Creates the client.
+     *
+     * @param baseUrl REST base URL, e.g. 'https://{company}.logicmonitor.com/rest'
+     * @param accessId LogicMonitor access ID (LMv1)
+     * @param accessKey LogicMonitor access key (LMv1)
+     * @param bearerToken LogicMonitor bearer token, used when the access ID or key is blank
+     * @param httpClient HTTP client
+     * @param maxRetries maximum number of retries of a failed request
+     * @param pool pool of the buffers holding the request bodies
+     */
+    public LogIngestClient(String baseUrl, String accessId, String accessKey, String bearerToken,
+        OkHttpClient httpClient, int maxRetries, ByteBufferPool pool) {
+        this.writer = new PayloadWriter(pool);
+        this.ingestUrl = StringUtils.removeEnd(baseUrl, "/") + INGEST_PATH;
+        this.accessId = accessId;
+        this.accessKey = accessKey;
+        this.bearerToken = bearerToken;
+        this.httpClient = httpClient;
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * Creates the HTTP client.
+     *
+     * @param connectTimeout connection timeout in milliseconds
+     * @param readTimeout read timeout in milliseconds
+     * @param debugging logs the requests and responses when true
+     * @return the HTTP client
+     */
+    public static OkHttpClient createHttpClient(int connectTimeout, int readTimeout,
+        boolean debugging) {
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+            .connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+            .readTimeout(readTimeout, TimeUnit.MILLISECONDS)
+            .writeTimeout(readTimeout, TimeUnit.MILLISECONDS);
+        if (debugging) {
+            builder.addInterceptor(new HttpLoggingInterceptor(message -> log(Level.INFO, message))
+                .setLevel(HttpLoggingInterceptor.Level.BODY));
+        }
+        return builder.build();
+    }
+
+    public String getIngestUrl() {
+        return ingestUrl;
+    }
+
+    /**
+     * Checks that the client is authenticated by LMv1 or a bearer token.
+     *
+     * @return false when neither the access ID and key nor the bearer token are set
+     */
+    public boolean checkAuthentication() {
+        return StringUtils.isNoneBlank(accessId, accessKey) || StringUtils.isNotBlank(bearerToken);
+    }
+
+    /**
+     * Sends the log entries as one request, retrying it when it fails.
+     *
+     * @param entries the log entries
+     * @return result of the last attempt
+     */
+    public IngestResult send(List<LogEntry> entries) {
+        long start = System.nanoTime();
+        BatchBuildEvent build = new BatchBuildEvent();
+        build.begin();
+        try (Payload body = writer.write(entries)) {
+            if (build.shouldCommit()) {
+                build.entries = entries.size();
+                build.bytes = body.getLength();
+                build.commit();
+            }
+            IngestResult result = null;
+            for (int attempt = 1; attempt <= maxRetries + 1; attempt++) {
+                if (attempt > 1 && !sleepBeforeRetry(attempt - 1, result)) {
+                    break;
+                }
+                result = execute(body, attempt, start);
+                if (result.isSuccess() || !result.isRetriable()) {
+                    break;
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Serializes and signs the log entries like a request, without sending it, to warm up the
+     * client.
+     *
+     * @param entries the log entries
+     * @return size of the request body in bytes
+     */
+    public long prepare(List<LogEntry> entries) {
+        try (Payload body = writer.write(entries)) {
+            authorization(body);
+            return body.getLength();
+        }
+    }
+
+    private IngestResult execute(Payload body, int attempt, long start) {
+        SendEvent event = new SendEvent();
+        event.begin();
+        IngestResult result = request(body, attempt, start);
+        if (event.shouldCommit()) {
+            event.url = ingestUrl;
+            event.attempt = attempt;
+            event.statusCode = result.getStatusCode();
+            event.bytes = body.getLength();
+            event.requestId = result.getRequestId();
+            event.commit();
+        }
+        return result;
+    }
+
+    private IngestResult request(Payload body, int attempt, long start) {
+        Request request = new Request.Builder()
+            .url(ingestUrl)
+            .header("Authorization", authorization(body))
+            .header("User-Agent", LogEventForwarder.getUserAgent())
+            .post(new PayloadRequestBody(body))
+            .build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            String error = response.isSuccessful() || response.body() == null
+                ? null : response.body().string();
+            return new IngestResult(response.code(), attempt, response.header(HEADER_REQUEST_ID),
+                response.header("Retry-After"), System.nanoTime() - start, error,
+                body.getLength());
+        } catch (IOException | RuntimeException e) {
+            return new IngestResult(0, attempt, null, null, System.nanoTime() - start,
+                e.toString(), body.getLength());
+        }
+    }
+
+    private static boolean sleepBeforeRetry(int retry, IngestResult previous) {
+        long backoff = Math.min(MAX_RETRY_BACKOFF_MILLIS, RETRY_BACKOFF_MILLIS << (retry - 1));
+        long delay = ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+        if (previous != null && previous.getRetryAfterSeconds() > 0) {
+            delay = Math.min(MAX_RETRY_BACKOFF_MILLIS,
+                TimeUnit.SECONDS.toMillis(previous.getRetryAfterSeconds()));
+        }
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Creates the value of the Authorization header.
+     *
+     * @param body request body
+     * @return LMv1 or bearer authorization
+     */
+    protected String authorization(Payload body) {
+        if (StringUtils.isAnyBlank(accessId, accessKey)) {
+            return "Bearer " + bearerToken;
+        }
+        String epoch = Long.toString(System.currentTimeMillis());
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(accessKey.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM));
+            mac.update(("POST" + epoch).getBytes(StandardCharsets.UTF_8));
+            body.update(mac);
+            byte[] hash = mac.doFinal(INGEST_PATH.getBytes(StandardCharsets.UTF_8));
+            String signature = Base64.getEncoder().encodeToString(
+                toHex(hash).getBytes(StandardCharsets.UTF_8));
+            return "LMv1 " + accessId + ":" + signature + ":" + epoch;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException("Unable to sign the request", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16))
+                .append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Serializes the entries to the ingestion format: a JSON array of objects containing the
+     * message, timestamp, resource ID and the metadata as top-level properties.
+     *
+     * @param entries the log entries
+     * @return UTF-8 JSON
+     */
+    public byte[] serialize(List<LogEntry> entries) {
+        try (Payload payload = writer.write(entries)) {
+            return payload.toByteArray();
+        }
+    }
+
+    /**
+     * Request body streaming a payload, it can be written again by a retry.
+     */
+    private static class PayloadRequestBody extends RequestBody {
+
+        private final Payload payload;
+
+        PayloadRequestBody(Payload payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JSON;
+        }
+
+        @Override
+        public long contentLength() {
+            return payload.getLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            payload.writeTo(sink);
+        }
+    }
+
+    /**
+     * Result of sending one batch.
+     */
+    public static class IngestResult {
+
+        private final int statusCode;
+        private final int attempts;
+        private final String requestId;
+        private final String retryAfter;
+        private final long latencyNanos;
+        private final String error;
+        private final long payloadBytes;
+
+        public IngestResult(int statusCode, int attempts, String requestId, String retryAfter,
+            long latencyNanos, String error) {
+            this(statusCode, attempts, requestId, retryAfter, latencyNanos, error, 0);
+        }
+
+        public IngestResult(int statusCode, int attempts, String requestId, String retryAfter,
+            long latencyNanos, String error, long payloadBytes) {
+            this.statusCode = statusCode;
+            this.attempts = attempts;
+            this.requestId = requestId;
+            this.retryAfter = retryAfter;
+            this.latencyNanos = latencyNanos;
+            this.error = error;
+            this.payloadBytes = payloadBytes;
+        }
+
+        /**
+         * Gets the HTTP status code.
+         *
+         * @return the status code, 0 if no response was received
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * Gets the number of attempts, i.e. the number of retries + 1.
+         *
+         * @return the number of attempts
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        public String getRequestId() {
+            return requestId;
+        }
+
+        /**
+         * Gets the latency including the retries.
+         *
+         * @return the latency in nanoseconds
+         */
+        public long getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        /**
+         * Gets the size of the request body.
+         *
+         * @return bytes, 0 if unknown
+         */
+        public long getPayloadBytes() {
+            return payloadBytes;
+        }
+
+        /**
+         * Gets the response body or exception of a failed request.
+         *
+         * @return the error, null on success
+         */
+        public String getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return statusCode >= 200 && statusCode < 300;
+        }
+
+        /**
+         * Checks whether the request failed transiently: throttled, server error or no response.
+         *
+         * @return true if the request can be retried
+         */
+        public boolean isRetriable() {
+            return statusCode == 0 || statusCode == 429 || statusCode >= 500;
+        }
+
+        private long getRetryAfterSeconds() {
+            try {
+                return retryAfter != null ? Long.parseLong(retryAfter.trim()) : 0;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "status = " + statusCode + ", attempts = " + attempts
+                + ", x-request-id = " + requestId
+                + (error != null ? ", error = " + error : "");
+        }
+    }
+}
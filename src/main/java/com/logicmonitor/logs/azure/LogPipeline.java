@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.logicmonitor.logs.azure.InvocationTracer.Stage;
+import com.logicmonitor.logs.azure.InvocationTracer.Trace;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Transforms the events of an invocation through {@link Flow} stages, each one running
+ * concurrently with a bounded buffer:
+ * <pre>
+ * events -&gt; decode -&gt; filter -&gt; enrich -&gt; scrub -&gt; sink
+ * </pre>
+ * The stages are the steps of {@link LogEventAdapter}. Each stage requests as many items as its
+ * buffer holds, then one per processed item, so a slow stage fills the buffers before it and
+ * finally blocks the submission of the events. The sink receives the first entries while the
+ * next events are still decoded; the forwarder's sink hands them to the {@link LogBatcher}s,
+ * which batch and send them, and whose {@link MemoryBudget} blocks the sink when the sending
+ * falls behind. An item that fails in a stage is quarantined, the others continue. The stages of
+ * a traced invocation are recorded in its {@link Trace}.<br>
+ * Each invocation occupies up to {@value #STAGES} threads, blocked while their next stage is
+ * full, so the number of concurrent invocations is capped and the threads are bounded: the
+ * invocations beyond it wait for a pipeline to complete.
+ */
+public class LogPipeline {
+
+    /**
+     * Parameter: number of items buffered by each stage (default 256).
+     */
+    public static final String PARAMETER_PIPELINE_BUFFER_SIZE = "LogPipelineBufferSize";
+
+    /**
+     * Parameter: maximum number of invocations transformed concurrently (default 8).
+     */
+    public static final String PARAMETER_PIPELINE_MAX_CONCURRENCY = "LogPipelineMaxConcurrency";
+
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+    public static final int DEFAULT_MAX_CONCURRENCY = 8;
+
+    /**
+     * Number of subscribers of an invocation, each one running in a thread of the executor.
+     */
+    public static final int STAGES = 5;
+
+    private final LogEventAdapter adapter;
+    private final Executor executor;
+    private final int bufferSize;
+    private final Semaphore permits;
+
+    /**
+     * Creates the pipeline running on its own executor.
+     *
+     * @param adapter adapter providing the stages
+     * @param bufferSize number of items buffered by each stage
+     */
+    public LogPipeline(LogEventAdapter adapter, int bufferSize) {
+        this(adapter, bufferSize, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * Creates the pipeline running on its own executor.
+     *
+     * @param adapter adapter providing the stages
+     * @param bufferSize number of items buffered by each stage
+     * @param maxConcurrency maximum number of invocations transformed concurrently
+     */
+    public LogPipeline(LogEventAdapter adapter, int bufferSize, int maxConcurrency) {
+        this(adapter, createExecutor(maxConcurrency), bufferSize, maxConcurrency);
+    }
+
+    /**
+     * Creates the pipeline.
+     *
+     * @param adapter adapter providing the stages
+     * @param executor executor of the stages, with at least {@value #STAGES} threads by
+     * concurrent invocation
+     * @param bufferSize number of items buffered by each stage
+     * @param maxConcurrency maximum number of invocations transformed concurrently
+     */
+    public LogPipeline(LogEventAdapter adapter, Executor executor, int bufferSize,
+        int maxConcurrency) {
+        this.adapter = adapter;
+        this.executor = executor;
+        this.bufferSize = Math.max(1, bufferSize);
+        this.permits = new Semaphore(Math.max(1, maxConcurrency));
+    }
+
+    /**
+     * Creates the executor of the stages, whose threads block when a buffer is full: enough
+     * threads for the concurrent invocations, stopped when idle.
+     *
+     * @param maxConcurrency maximum number of invocations transformed concurrently
+     * @return the executor
+     */
+    protected static Executor createExecutor(int maxConcurrency) {
+        int threads = Math.max(1, maxConcurrency) * STAGES;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            SendExecutors.daemonThreads("lm-logs-pipeline"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Gets the number of invocations that can start transforming without waiting.
+     *
+     * @return the number of available permits
+     */
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * Transforms events into log entries. The calling thread waits while the maximum number of
+     * invocations are transformed, then submits the events, blocking while the first stage is
+     * full.
+     *
+     * @param logEvents list of JSON strings containing Azure events
+     * @param sink consumer of the log entries, called by one thread at a time in order
+     * @return future of the number of log entries, completed after the last one is consumed
+     */
+    public CompletableFuture<Integer> process(List<String> logEvents, Consumer<LogEntry> sink) {
+        return process(logEvents, sink, null);
+    }
+
+    /**
+     * Transforms events into log entries, recording the stages in a trace.
+     *
+     * @param logEvents list of JSON strings containing Azure events
+     * @param sink consumer of the log entries, called by one thread at a time in order
+     * @param trace trace of the invocation, may be null
+     * @return future of the number of log entries, completed after the last one is consumed
+     */
+    public CompletableFuture<Integer> process(List<String> logEvents, Consumer<LogEntry> sink,
+        Trace trace) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        Quarantine quarantine = adapter.getQuarantine();
+        StageProcessor<String, JsonElement> decode = new StageProcessor<>(Stage.DECODE, trace,
+            String::length, adapter::decode, (event, e) -> quarantine.add(e, event));
+        StageProcessor<JsonElement, JsonObject> filter = new StageProcessor<>(Stage.FILTER,
+            trace, record -> 0, (record, records) -> {
+                if (adapter.accept(record)) {
+                    records.accept(record.getAsJsonObject());
+                }
+            }, (record, e) -> quarantine.add(e, record.toString()));
+        StageProcessor<JsonObject, LogEntry> enrich = new StageProcessor<>(Stage.ENRICH, trace,
+            record -> 0, (record, entries) -> {
+                LogEntry entry = adapter.enrich(record);
+                if (trace != null) {
+                    trace.shape(getShape(entry));
+                }
+                entries.accept(entry);
+            }, (record, e) -> quarantine.add(e, record.toString()));
+        StageProcessor<LogEntry, LogEntry> scrub = new StageProcessor<>(Stage.SCRUB, trace,
+            entry -> entry.getMessage().length(),
+            (entry, entries) -> entries.accept(adapter.scrub(entry)),
+            (entry, e) -> quarantine.add(e, entry.getMessage()));
+        Sink last = new Sink(sink);
+        last.count.whenComplete((count, error) -> permits.release());
+
+        SubmissionPublisher<String> events = new SubmissionPublisher<>(executor, bufferSize);
+        events.subscribe(decode);
+        decode.subscribe(filter);
+        filter.subscribe(enrich);
+        enrich.subscribe(scrub);
+        scrub.subscribe(last);
+        try {
+            logEvents.forEach(events::submit);
+            events.close();
+        } catch (RuntimeException e) {
+            events.closeExceptionally(e);
+        }
+        return last.count;
+    }
+
+    /**
+     * Gets the shape of an entry traced by the enrich stage.
+     *
+     * @param entry the log entry
+     * @return its category and type
+     */
+    static String getShape(LogEntry entry) {
+        Map<String, String> metadata = entry.getMetadata();
+        return metadata.getOrDefault(LogEventAdapter.LM_CATEGORY, "-") + " "
+            + StringUtils.defaultIfEmpty(metadata.get(LogEventAdapter.LM_EVENTSOURCE), "-");
+    }
+
+    /**
+     * Stage transforming each item into any number of items.
+     *
+     * @param <T> type of the received items
+     * @param <R> type of the published items
+     */
+    private final class StageProcessor<T, R> extends SubmissionPublisher<R>
+        implements Flow.Processor<T, R> {
+
+        private final Stage stage;
+        private final Trace trace;
+        private final ToLongFunction<T> size;
+        private final BiConsumer<T, Consumer<R>> function;
+        private final BiConsumer<T, RuntimeException> onFailure;
+        private Flow.Subscription subscription;
+
+        StageProcessor(Stage stage, Trace trace, ToLongFunction<T> size,
+            BiConsumer<T, Consumer<R>> function, BiConsumer<T, RuntimeException> onFailure) {
+            super(executor, bufferSize);
+            this.stage = stage;
+            this.trace = trace;
+            this.size = size;
+            this.function = function;
+            this.onFailure = onFailure;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(bufferSize);
+        }
+
+        @Override
+        public void onNext(T item) {
+            long start = trace != null ? System.nanoTime() : 0;
+            try {
+                // blocks while the next stage is full
+                function.accept(item, this::submit);
+            } catch (RuntimeException e) {
+                onFailure.accept(item, e);
+            }
+            if (trace != null) {
+                trace.record(stage, start, System.nanoTime(), 1, size.applyAsLong(item));
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            closeExceptionally(error);
+        }
+
+        @Override
+        public void onComplete() {
+            close();
+        }
+    }
+
+    /**
+     * Last stage, passing the log entries to the sink.
+     */
+    private final class Sink implements Flow.Subscriber<LogEntry> {
+
+        private final Consumer<LogEntry> consumer;
+        private final CompletableFuture<Integer> count = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+        private int consumed;
+
+        Sink(Consumer<LogEntry> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(bufferSize);
+        }
+
+        @Override
+        public void onNext(LogEntry entry) {
+            try {
+                consumer.accept(entry);
+                consumed++;
+            } catch (RuntimeException e) {
+                subscription.cancel();
+                count.completeExceptionally(e);
+                return;
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            count.completeExceptionally(error);
+        }
+
+        @Override
+        public void onComplete() {
+            count.complete(consumed);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.logicmonitor.logs.azure.LoggingUtils.log;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Routes the log entries to their destination by the prefix of their resource ID, i.e. the
+ * subscription or the resource group.<br>
+ * Each destination is a LogicMonitor portal with its own {@link LogBatcher}: its own client,
+ * credentials, batching, retries and circuit breaker, so a slow portal doesn't hold back the
+ * others. The entries matching no prefix, like the activity logs without a resource ID, go to the
+ * default destination configured by {@value LogEventForwarder#PARAMETER_COMPANY_NAME} and
+ * {@value LogEventForwarder#PARAMETER_LM_AUTH}. The longest matching prefix wins, the prefixes
+ * are compared ignoring the case as the Azure resource IDs. The route of each resource ID is
+ * cached.
+ */
+public class LogRouter implements Closeable {
+
+    /**
+     * Parameter: JSON array of the destinations other than the default one (see
+     * {@link Destination}).
+     */
+    public static final String PARAMETER_DESTINATIONS = "LogDestinations";
+
+    /**
+     * Name of the default destination.
+     */
+    public static final String DEFAULT_DESTINATION = "default";
+
+    /**
+     * Maximum number of cached routes, the cache is cleared when reached.
+     */
+    public static final int MAX_CACHED_ROUTES = 10_000;
+
+    private final LogBatcher defaultBatcher;
+    private final Map<String, LogBatcher> batchers;
+    private final List<Route> routes;
+    private final ConcurrentMap<String, LogBatcher> cachedRoutes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the router.
+     *
+     * @param defaultBatcher batcher of the default destination
+     * @param batchers batchers of the other destinations by name
+     * @param prefixes resource ID prefixes of the destinations by name
+     */
+    public LogRouter(LogBatcher defaultBatcher, Map<String, LogBatcher> batchers,
+        Map<String, List<String>> prefixes) {
+        this.defaultBatcher = defaultBatcher;
+        this.batchers = new LinkedHashMap<>(batchers);
+        List<Route> routeList = new ArrayList<>();
+        for (Map.Entry<String, List<String>> destination : prefixes.entrySet()) {
+            LogBatcher batcher = batchers.get(destination.getKey());
+            if (batcher == null) {
+                throw new IllegalArgumentException("Unknown destination " + destination.getKey());
+            }
+            for (String prefix : destination.getValue()) {
+                if (StringUtils.isNotBlank(prefix)) {
+                    routeList.add(new Route(normalize(prefix), destination.getKey(), batcher));
+                }
+            }
+        }
+        routeList.sort(Comparator.comparingInt((Route route) -> route.prefix.length()).reversed());
+        this.routes = Collections.unmodifiableList(routeList);
+    }
+
+    /**
+     * Creates the router sending everything to one destination.
+     *
+     * @param defaultBatcher batcher of the default destination
+     * @return the router
+     */
+    public static LogRouter single(LogBatcher defaultBatcher) {
+        return new LogRouter(defaultBatcher, Map.of(), Map.of());
+    }
+
+    private static String normalize(String prefix) {
+        return StringUtils.removeEnd(prefix.strip(), "/").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds an entry to the batcher of its destination.
+     *
+     * @param entry the log entry
+     */
+    public void add(LogEntry entry) {
+        getBatcher(LogEventForwarder.getResourceId(entry)).add(entry);
+    }
+
+    /**
+     * Gets the batcher of a resource.
+     *
+     * @param resourceId the resource ID, may be null
+     * @return the batcher of its destination
+     */
+    public LogBatcher getBatcher(String resourceId) {
+        if (routes.isEmpty() || resourceId == null) {
+            return defaultBatcher;
+        }
+        LogBatcher batcher = cachedRoutes.get(resourceId);
+        if (batcher == null) {
+            batcher = resolve(resourceId);
+            if (cachedRoutes.size() >= MAX_CACHED_ROUTES) {
+                cachedRoutes.clear();
+            }
+            cachedRoutes.put(resourceId, batcher);
+        }
+        return batcher;
+    }
+
+    private LogBatcher resolve(String resourceId) {
+        String id = resourceId.toLowerCase(Locale.ROOT);
+        for (Route route : routes) {
+            // the prefix must end at a segment boundary
+            if (id.startsWith(route.prefix) && (id.length() == route.prefix.length()
+                || id.charAt(route.prefix.length()) == '/')) {
+                return route.batcher;
+            }
+        }
+        return defaultBatcher;
+    }
+
+    /**
+     * Gets the name of the destination of a resource.
+     *
+     * @param resourceId the resource ID, may be null
+     * @return the destination name, {@value #DEFAULT_DESTINATION} when no prefix matches
+     */
+    public String getDestination(String resourceId) {
+        LogBatcher batcher = getBatcher(resourceId);
+        for (Map.Entry<String, LogBatcher> destination : batchers.entrySet()) {
+            if (destination.getValue() == batcher) {
+                return destination.getKey();
+            }
+        }
+        return DEFAULT_DESTINATION;
+    }
+
+    public LogBatcher getDefaultBatcher() {
+        return defaultBatcher;
+    }
+
+    /**
+     * Gets the batchers of the destinations other than the default one.
+     *
+     * @return the batchers by destination name
+     */
+    public Map<String, LogBatcher> getBatchers() {
+        return Collections.unmodifiableMap(batchers);
+    }
+
+    /**
+     * Closes the batchers of all the destinations, sending their pending entries concurrently.
+     */
+    @Override
+    public void close() {
+        List<Thread> closing = new ArrayList<>();
+        for (LogBatcher batcher : batchers.values()) {
+            Thread thread = new Thread(batcher::close, "lm-logs-router-close");
+            thread.start();
+            closing.add(thread);
+        }
+        defaultBatcher.close();
+        for (Thread thread : closing) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (batchers.isEmpty()) {
+            return defaultBatcher.toString();
+        }
+        return DEFAULT_DESTINATION + ": " + defaultBatcher + ", "
+            + batchers.entrySet().stream()
+                .map(destination -> destination.getKey() + ": " + destination.getValue())
+                .collect(Collectors.joining(", "))
+            + ", " + cachedRoutes.size() + " cached routes";
+    }
+
+    /**
+     * Route of a resource ID prefix.
+     */
+    private static final class Route {
+
+        private final String prefix;
+        private final String destination;
+        private final LogBatcher batcher;
+
+        Route(String prefix, String destination, LogBatcher batcher) {
+            this.prefix = prefix;
+            this.destination = destination;
+            this.batcher = batcher;
+        }
+
+        @Override
+        public String toString() {
+            return prefix + " -> " + destination;
+        }
+    }
+
+    /**
+     * Configuration of a destination, an object of the {@value #PARAMETER_DESTINATIONS} array:
+     * <pre>
+     * {"name": "unit-a", "company": "unita", "LM_ACCESS_ID": "...", "LM_ACCESS_KEY": "...",
+     *  "resourceIdPrefixes": ["/subscriptions/0000", "/subscriptions/1111/resourceGroups/rg"]}
+     * </pre>
+     * The authentication takes the keys of {@value LogEventForwarder#PARAMETER_LM_AUTH}. The
+     * optional "domainName" and "ingestUrl" override the URL as
+     * {@value LogEventForwarder#PARAMETER_DOMAIN_NAME} and
+     * {@value LogEventForwarder#PARAMETER_INGEST_URL}.
+     */
+    public static class Destination {
+
+        private final String name;
+        private final String company;
+        private final String domainName;
+        private final String ingestUrl;
+        private final String accessId;
+        private final String accessKey;
+        private final String bearerToken;
+        private final List<String> resourceIdPrefixes;
+
+        public Destination(String name, String company, String domainName, String ingestUrl,
+            String accessId, String accessKey, String bearerToken,
+            List<String> resourceIdPrefixes) {
+            this.name = name;
+            this.company = company;
+            this.domainName = domainName;
+            this.ingestUrl = ingestUrl;
+            this.accessId = accessId;
+            this.accessKey = accessKey;
+            this.bearerToken = bearerToken;
+            this.resourceIdPrefixes = resourceIdPrefixes;
+        }
+
+        /**
+         * Parses the destinations, skipping the invalid ones.
+         *
+         * @param json JSON array of the destinations, may be blank
+         * @return the destinations
+         */
+        public static List<Destination> parse(String json) {
+            List<Destination> destinations = new ArrayList<>();
+            if (StringUtils.isBlank(json)) {
+                return destinations;
+            }
+            JsonArray array = JsonParser.parseString(json).getAsJsonArray();
+            for (JsonElement element : array) {
+                JsonObject destination = element.getAsJsonObject();
+                String name = getString(destination, "name");
+                if (StringUtils.isBlank(name) || DEFAULT_DESTINATION.equals(name)
+                    || destinations.stream().anyMatch(d -> d.name.equals(name))) {
+                    log(Level.SEVERE, "Invalid or duplicate destination name " + name
+                        + ", the destination is ignored");
+                    continue;
+                }
+                List<String> prefixes = new ArrayList<>();
+                JsonElement prefixArray = destination.get("resourceIdPrefixes");
+                if (prefixArray != null && prefixArray.isJsonArray()) {
+                    prefixArray.getAsJsonArray().forEach(prefix -> prefixes.add(
+                        prefix.getAsString()));
+                }
+                destinations.add(new Destination(name.strip(), getString(destination, "company"),
+                    getString(destination, "domainName"), getString(destination, "ingestUrl"),
+                    getString(destination, LogEventForwarder.PARAMETER_ACCESS_ID),
+                    getString(destination, LogEventForwarder.PARAMETER_ACCESS_KEY),
+                    getString(destination, LogEventForwarder.PARAMETER_BEARER_TOKEN),
+                    prefixes));
+            }
+            return destinations;
+        }
+
+        private static String getString(JsonObject object, String name) {
+            JsonElement value = object.get(name);
+            return value != null && !value.isJsonNull() ? value.getAsString() : null;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getCompany() {
+            return company;
+        }
+
+        public String getDomainName() {
+            return domainName;
+        }
+
+        public String getIngestUrl() {
+            return ingestUrl;
+        }
+
+        public String getAccessId() {
+            return accessId;
+        }
+
+        public String getAccessKey() {
+            return accessKey;
+        }
+
+        public String getBearerToken() {
+            return bearerToken;
+        }
+
+        public List<String> getResourceIdPrefixes() {
+            return resourceIdPrefixes;
+        }
+    }
+}
@@ -1,15 +1,35 @@
 package com.logicmonitor.logs.azure;
 
 import com.microsoft.azure.functions.ExecutionContext;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.lang3.StringUtils;
 
 public class LoggingUtils {
     private static final String LOG_LEVEL = "LOG_LEVEL";
+    /**
+     * Publishes the console records on a background thread when not false (default true).
+     */
+    private static final String LOG_ASYNC = "LOG_ASYNC";
+    /**
+     * Number of records queued by the asynchronous logging, the next ones below WARNING are
+     * dropped.
+     */
+    private static final String LOG_BUFFER_SIZE = "LOG_BUFFER_SIZE";
+    /**
+     * Interval in milliseconds a repeated message is logged at most once (default 10000).
+     */
+    private static final String LOG_REPEATED_INTERVAL = "LOG_REPEATED_INTERVAL";
     private static final Level DEFAULT_LOG_LEVEL = Level.WARNING;
+    private static final long DEFAULT_REPEATED_INTERVAL = 10_000;
     private static final Logger LOGGER;
+    private static final RepeatedMessages REPEATED_MESSAGES;
 
     static {
         setupGlobalLogger();
@@ -20,22 +40,65 @@ public class LoggingUtils {
                 Level level = Level.parse(logLevel);
                 LOGGER.setLevel(level);
                 LOGGER.setUseParentHandlers(false);
-                LOGGER.addHandler(new java.util.logging.ConsoleHandler());
-                LOGGER.getHandlers()[0].setLevel(level);
+                LOGGER.addHandler(createHandler(level));
             }
         } catch (IllegalArgumentException e) {
             LOGGER.setLevel(DEFAULT_LOG_LEVEL);
         }
+        REPEATED_MESSAGES = new RepeatedMessages(TimeUnit.MILLISECONDS.toNanos(
+            getLong(LOG_REPEATED_INTERVAL, DEFAULT_REPEATED_INTERVAL)),
+            RepeatedMessages.MAX_KEYS);
     }
 
     private static void setupGlobalLogger() {
         System.setProperty("java.util.logging.SimpleFormatter.format", "%4$s: %5$s%n");
     }
 
+    /**
+     * Creates the console handler, publishing on a background thread unless disabled.
+     * The handler is closed, so the queued records are published, by the shutdown hook of the
+     * log manager.
+     */
+    private static Handler createHandler(Level level) {
+        Handler console = new ConsoleHandler();
+        console.setLevel(level);
+        return isAsync() ? createAsyncHandler(console) : console;
+    }
+
+    private static boolean isAsync() {
+        return !"false".equalsIgnoreCase(StringUtils.strip(System.getenv(LOG_ASYNC)));
+    }
+
+    private static Handler createAsyncHandler(Handler delegate) {
+        return new AsyncLogHandler(delegate,
+            (int) getLong(LOG_BUFFER_SIZE, AsyncLogHandler.DEFAULT_BUFFER_SIZE));
+    }
+
+    private static long getLong(String name, long defaultValue) {
+        try {
+            String value = System.getenv(name);
+            return StringUtils.isNotBlank(value) ? Long.parseLong(value.strip()) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     protected static void log(Level level, String message) {
         LOGGER.log(level, message);
     }
 
+    /**
+     * Logs a message, built only when the level is enabled.
+     *
+     * @param level logging level
+     * @param msgSupplier produces the message to log
+     */
+    protected static void log(Level level, Supplier<String> msgSupplier) {
+        if (LOGGER.isLoggable(level)) {
+            LOGGER.log(level, msgSupplier.get());
+        }
+    }
+
     /**
      * Logs a message with function name and invocation ID.
      *
@@ -48,4 +111,86 @@ public class LoggingUtils {
         LOGGER.log(level, () -> String.format("[%s][%s] %s",
             context.getFunctionName(), context.getInvocationId(), msgSupplier.get()));
     }
+
+    /**
+     * Logs a message repeated for every request at most once per interval, the next ones with
+     * the same key are counted and reported with the following message.
+     *
+     * @param level logging level
+     * @param key identifies the similar messages
+     * @param msgSupplier produces the message to log
+     */
+    protected static void logRepeated(Level level, String key, Supplier<String> msgSupplier) {
+        if (!LOGGER.isLoggable(level)) {
+            return;
+        }
+        long suppressed = REPEATED_MESSAGES.admit(key, System.nanoTime());
+        if (suppressed == 0) {
+            LOGGER.log(level, msgSupplier.get());
+        } else if (suppressed > 0) {
+            LOGGER.log(level, msgSupplier.get() + " (" + suppressed
+                + " similar messages suppressed)");
+        }
+    }
+
+    /**
+     * Rate limiter of the repeated messages: one window per key.
+     */
+    static class RepeatedMessages {
+
+        /**
+         * Maximum number of keys, the windows are reset when reached.
+         */
+        static final int MAX_KEYS = 1024;
+
+        private final long intervalNanos;
+        private final int maxKeys;
+        private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+
+        RepeatedMessages(long intervalNanos, int maxKeys) {
+            this.intervalNanos = intervalNanos;
+            this.maxKeys = maxKeys;
+        }
+
+        /**
+         * Checks if a message can be logged.
+         *
+         * @param key identifies the similar messages
+         * @param now current time in nanoseconds
+         * @return the number of messages suppressed since the last one logged, -1 if this one
+         *     has to be suppressed
+         */
+        long admit(String key, long now) {
+            Window window = windows.get(key);
+            if (window == null) {
+                if (windows.size() >= maxKeys) {
+                    windows.clear();
+                }
+                window = windows.putIfAbsent(key, new Window(now));
+                if (window == null) {
+                    return 0;
+                }
+            }
+            synchronized (window) {
+                if (now - window.start < intervalNanos) {
+                    window.suppressed++;
+                    return -1;
+                }
+                long suppressed = window.suppressed;
+                window.start = now;
+                window.suppressed = 0;
+                return suppressed;
+            }
+        }
+
+        private static final class Window {
+
+            private long start;
+            private long suppressed;
+
+            Window(long start) {
+                this.start = start;
+            }
+        }
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads newline-delimited events from a memory-mapped file.<br>
+ * The file is mapped in windows of {@value #DEFAULT_WINDOW_SIZE} bytes, so captures larger than
+ * the addressable size of a single mapping can be read. A window is remapped at the start of the
+ * first incomplete line, therefore a single event must fit in one window.
+ */
+public class MappedFileEventSource implements LogEventSource {
+
+    /**
+     * Default size of the mapped window.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    public MappedFileEventSource(Path path) throws IOException {
+        this(path, DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedFileEventSource(Path path, int windowSize) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.windowSize = windowSize;
+        this.windowStart = 0;
+        mapWindow(0);
+    }
+
+    @Override
+    public List<String> nextBatch(int maxEvents) throws IOException {
+        List<String> batch = new ArrayList<>(maxEvents);
+        String line;
+        while (batch.size() < maxEvents && (line = nextLine()) != null) {
+            if (!line.isBlank()) {
+                batch.add(line);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Reads the next line, remapping the window when the line crosses its end.
+     *
+     * @return the line without the terminator, or null at the end of the file
+     * @throws IOException when the line does not fit in the window
+     */
+    private String nextLine() throws IOException {
+        while (true) {
+            int lineStart = window.position();
+            int lineEnd = indexOfNewline(lineStart);
+            if (lineEnd >= 0) {
+                window.position(lineEnd + 1);
+                return decode(lineStart, lineEnd);
+            }
+            long absoluteLineStart = windowStart + lineStart;
+            if (windowStart + window.limit() >= fileSize) {
+                // last line without the terminator
+                window.position(window.limit());
+                return lineStart < window.limit() ? decode(lineStart, window.limit()) : null;
+            }
+            if (lineStart == 0) {
+                throw new IOException("Event at offset " + absoluteLineStart
+                    + " exceeds the mapped window of " + windowSize + " bytes");
+            }
+            mapWindow(absoluteLineStart);
+        }
+    }
+
+    private int indexOfNewline(int from) {
+        for (int i = from; i < window.limit(); i++) {
+            if (window.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String decode(int from, int to) {
+        int end = to > from && window.get(to - 1) == '\r' ? to - 1 : to;
+        byte[] bytes = new byte[end - from];
+        window.duplicate().position(from).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void mapWindow(long position) throws IOException {
+        windowStart = position;
+        window = channel.map(MapMode.READ_ONLY, position, Math.min(windowSize, fileSize - position));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds the heap retained by the log entries between their creation and their delivery.<br>
+ * Each entry is charged its estimated retained size when it's submitted and credited back once
+ * its batch is resolved. When the budget is full, the submission is either blocked until enough
+ * memory is released (up to a timeout, then the entry is shed), or the entry is shed at once,
+ * according to the {@link Policy}.
+ */
+public class MemoryBudget {
+
+    /**
+     * Parameter: heap budget of the buffered log entries in bytes (default a quarter of the
+     * maximum heap).
+     */
+    public static final String PARAMETER_MEMORY_BUDGET = "LogMemoryBudget";
+    /**
+     * Parameter: what happens when the budget is full, BLOCK or SHED (default BLOCK).
+     */
+    public static final String PARAMETER_MEMORY_POLICY = "LogMemoryPolicy";
+    /**
+     * Parameter: maximum time in milliseconds an entry is blocked before it's shed (default
+     * 30000).
+     */
+    public static final String PARAMETER_MEMORY_BLOCK_TIMEOUT = "LogMemoryBlockTimeout";
+
+    public static final long DEFAULT_BLOCK_TIMEOUT = 30000;
+
+    /**
+     * Estimated sizes of the objects retained by an entry: object header and fields.
+     */
+    private static final int STRING_OVERHEAD = 40;
+    private static final int MAP_OVERHEAD = 64;
+    private static final int MAP_ENTRY_OVERHEAD = 40;
+    private static final int ENTRY_OVERHEAD = 64;
+
+    public enum Policy {
+        /**
+         * The invocation waits until memory is released.
+         */
+        BLOCK,
+        /**
+         * The entries are dropped.
+         */
+        SHED
+    }
+
+    private final long budget;
+    private final Policy policy;
+    private final long blockTimeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long used;
+    private long maxUsed;
+
+    private final LongAdder blockedNanos = new LongAdder();
+    private final LongAdder shedEntries = new LongAdder();
+
+    /**
+     * Creates the budget.
+     *
+     * @param budget heap budget in bytes
+     * @param policy what happens when the budget is full
+     * @param blockTimeoutMillis maximum time an entry is blocked before it's shed
+     */
+    public MemoryBudget(long budget, Policy policy, long blockTimeoutMillis) {
+        this.budget = Math.max(1, budget);
+        this.policy = policy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+    }
+
+    /**
+     * Gets the default budget: a quarter of the maximum heap.
+     *
+     * @return budget in bytes
+     */
+    public static long getDefaultBudget() {
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * Charges an entry to the budget, blocking or shedding it when the budget is full.
+     *
+     * @param entry the log entry, its retained size is set when it's admitted
+     * @return true if the entry is admitted, false if it's shed
+     * @throws InterruptedException if interrupted while blocked
+     */
+    public boolean acquire(LogEntry entry) throws InterruptedException {
+        long size = estimateRetainedSize(entry);
+        lock.lock();
+        try {
+            if (!fits(size) && policy == Policy.BLOCK) {
+                long start = System.nanoTime();
+                long remaining = blockTimeoutNanos;
+                try {
+                    while (!fits(size) && remaining > 0) {
+                        remaining = released.awaitNanos(remaining);
+                    }
+                } finally {
+                    blockedNanos.add(System.nanoTime() - start);
+                }
+            }
+            if (!fits(size)) {
+                shedEntries.increment();
+                return false;
+            }
+            used += size;
+            maxUsed = Math.max(maxUsed, used);
+        } finally {
+            lock.unlock();
+        }
+        entry.setRetainedSize(size);
+        return true;
+    }
+
+    private boolean fits(long size) {
+        // an entry larger than the budget is admitted alone
+        return used + size <= budget || used == 0;
+    }
+
+    /**
+     * Credits back the entries to the budget.
+     *
+     * @param entries the resolved entries
+     */
+    public void release(Iterable<LogEntry> entries) {
+        long size = 0;
+        for (LogEntry entry : entries) {
+            size += entry.getRetainedSize();
+            entry.setRetainedSize(0);
+        }
+        if (size == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            used = Math.max(0, used - size);
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the bytes currently charged to the budget.
+     *
+     * @return the used bytes
+     */
+    public long getUsed() {
+        lock.lock();
+        try {
+            return used;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the total time the submissions were blocked.
+     *
+     * @return time in nanoseconds
+     */
+    public long getBlockedNanos() {
+        return blockedNanos.sum();
+    }
+
+    public long getShedEntries() {
+        return shedEntries.sum();
+    }
+
+    /**
+     * Estimates the heap retained by an entry: the entry, its strings and maps.
+     *
+     * @param entry the log entry
+     * @return size in bytes
+     */
+    public static long estimateRetainedSize(LogEntry entry) {
+        return ENTRY_OVERHEAD + sizeOf(entry.getMessage()) + sizeOf(entry.getResourceType())
+            + sizeOf(entry.getMetadata())
+            // a shared resource ID isn't retained by the entry
+            + (entry.getLmResourceId() instanceof ResourceIdCache.ResourceId
+                ? 0 : sizeOf(entry.getLmResourceId()));
+    }
+
+    private static long sizeOf(Map<String, String> map) {
+        if (map == null) {
+            return 0;
+        }
+        long size = MAP_OVERHEAD;
+        for (Map.Entry<String, String> item : map.entrySet()) {
+            size += MAP_ENTRY_OVERHEAD + sizeOf(item.getKey()) + sizeOf(item.getValue());
+        }
+        return size;
+    }
+
+    private static long sizeOf(String value) {
+        // two bytes per character, the worst case of the compact strings
+        return value == null ? 0 : STRING_OVERHEAD + 2L * value.length();
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format("memory %d/%d bytes (max %d), blocked %d ms, %d shed entries",
+                used, budget, maxUsed, TimeUnit.NANOSECONDS.toMillis(blockedNanos.sum()),
+                shedEntries.sum());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Flattens the JSON values of the included metadata keys into dotted keys, e.g.
+ * {@code identity.authorization.scope} or {@code tags.0}.<br>
+ * The flattening can be bounded, to protect both the CPU and the metadata cardinality: the objects
+ * deeper than the maximum depth and the arrays larger than the maximum number of elements are
+ * written as one JSON value, the values are truncated to the maximum length, and no key is added
+ * once an entry has the maximum number of flattened keys. The limits are off by default, so the
+ * metadata is the same as without them.
+ */
+public class MetadataFlattener {
+
+    /**
+     * Parameter: maximum nesting depth of the flattened keys, 0 for no limit (default 0).
+     */
+    public static final String PARAMETER_MAX_DEPTH = "LogMetadataMaxDepth";
+    /**
+     * Parameter: maximum number of flattened keys per log entry, 0 for no limit (default 0).
+     */
+    public static final String PARAMETER_MAX_KEYS = "LogMetadataMaxKeys";
+    /**
+     * Parameter: maximum length of a metadata value, 0 for no limit (default 0).
+     */
+    public static final String PARAMETER_MAX_VALUE_LENGTH = "LogMetadataMaxValueLength";
+    /**
+     * Parameter: arrays with more elements are written as one JSON value (default 0, the arrays
+     * are always flattened).
+     */
+    public static final String PARAMETER_MAX_ARRAY_ELEMENTS = "LogMetadataMaxArrayElements";
+
+    public static final int DEFAULT_MAX_DEPTH = 0;
+    public static final int DEFAULT_MAX_KEYS = 0;
+    public static final int DEFAULT_MAX_VALUE_LENGTH = 0;
+    public static final int DEFAULT_MAX_ARRAY_ELEMENTS = 0;
+
+    private final int maxDepth;
+    private final int maxKeys;
+    private final int maxValueLength;
+    private final int maxArrayElements;
+
+    private final LongAdder droppedKeys = new LongAdder();
+    private final LongAdder truncatedValues = new LongAdder();
+
+    public MetadataFlattener() {
+        this(DEFAULT_MAX_DEPTH, DEFAULT_MAX_KEYS, DEFAULT_MAX_VALUE_LENGTH,
+            DEFAULT_MAX_ARRAY_ELEMENTS);
+    }
+
+    /**
+     * Creates the flattener.
+     *
+     * @param maxDepth maximum nesting depth of the keys, deeper values are written as JSON, 0
+     *     for no limit
+     * @param maxKeys maximum number of flattened keys per entry, 0 for no limit
+     * @param maxValueLength maximum length of a value, 0 for no limit
+     * @param maxArrayElements larger arrays are written as JSON, 0 to always flatten them
+     */
+    public MetadataFlattener(int maxDepth, int maxKeys, int maxValueLength,
+        int maxArrayElements) {
+        this.maxDepth = Math.max(0, maxDepth);
+        this.maxKeys = Math.max(0, maxKeys);
+        this.maxValueLength = Math.max(0, maxValueLength);
+        this.maxArrayElements = Math.max(0, maxArrayElements);
+    }
+
+    /**
+     * Flattens a value into the metadata of an entry.
+     *
+     * @param baseKey key of the value, the prefix of the flattened keys
+     * @param node the value
+     * @param metadata the flattened metadata of the entry, its size counts in the maximum keys
+     */
+    public void flatten(String baseKey, JsonElement node, Map<String, String> metadata) {
+        StringBuilder key = new StringBuilder(64).append(baseKey);
+        flatten(key, 0, node, metadata);
+    }
+
+    private void flatten(StringBuilder key, int depth, JsonElement node,
+        Map<String, String> metadata) {
+        if (node == null || node.isJsonNull()) {
+            return;
+        }
+        if (node.isJsonPrimitive()) {
+            put(key, node.getAsString(), metadata);
+        } else if (maxDepth > 0 && depth >= maxDepth) {
+            put(key, node.toString(), metadata);
+        } else if (node.isJsonObject()) {
+            // a blank base key adds no prefix
+            int length = key.length();
+            boolean prefix = StringUtils.isNotBlank(key);
+            JsonObject object = (JsonObject) node;
+            int remaining = object.size();
+            for (Map.Entry<String, JsonElement> member : object.entrySet()) {
+                if (isFull(metadata, remaining--)) {
+                    return;
+                }
+                if (prefix) {
+                    key.append('.');
+                } else {
+                    key.setLength(0);
+                }
+                flatten(key.append(member.getKey()), depth + 1, member.getValue(), metadata);
+                key.setLength(length);
+            }
+        } else if (node.isJsonArray()) {
+            JsonArray array = (JsonArray) node;
+            if (maxArrayElements > 0 && array.size() > maxArrayElements) {
+                put(key, array.toString(), metadata);
+                return;
+            }
+            int length = key.length();
+            for (int i = 0; i < array.size(); i++) {
+                if (isFull(metadata, array.size() - i)) {
+                    return;
+                }
+                flatten(key.append('.').append(i), depth + 1, array.get(i), metadata);
+                key.setLength(length);
+            }
+        }
+    }
+
+    private boolean isFull(Map<String, String> metadata, int skipped) {
+        if (maxKeys > 0 && metadata.size() >= maxKeys) {
+            droppedKeys.add(skipped);
+            return true;
+        }
+        return false;
+    }
+
+    private void put(CharSequence key, String value, Map<String, String> metadata) {
+        if (isFull(metadata, 1)) {
+            return;
+        }
+        if (maxValueLength > 0 && value.length() > maxValueLength) {
+            truncatedValues.increment();
+            int end = maxValueLength;
+            if (Character.isHighSurrogate(value.charAt(end - 1))) {
+                // doesn't split a surrogate pair
+                end--;
+            }
+            value = value.substring(0, end);
+        }
+        metadata.put(key.toString(), value);
+    }
+
+    /**
+     * Gets the number of values and members not flattened since the entries had the maximum
+     * number of keys.
+     *
+     * @return the number of dropped keys
+     */
+    public long getDroppedKeys() {
+        return droppedKeys.sum();
+    }
+
+    public long getTruncatedValues() {
+        return truncatedValues.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("metadata max depth %d, max keys %d, max value length %d, "
+            + "max array elements %d: %d dropped keys, %d truncated values", maxDepth, maxKeys,
+            maxValueLength, maxArrayElements, droppedKeys.sum(), truncatedValues.sum());
+    }
+}
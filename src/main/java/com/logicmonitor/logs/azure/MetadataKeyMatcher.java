@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.logicmonitor.logs.azure.LoggingUtils.log;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Matches the paths of the included metadata keys in the log events.<br>
+ * A pattern is a dotted path whose segments are either:
+ * <ul>
+ * <li> a name, e.g. {@code identity.authorization}, the array elements are named by their index
+ * <li> a glob matching one segment, {@code *} standing for any characters and {@code ?} for one,
+ * e.g. {@code properties.*Id} or {@code tags.*}
+ * <li> {@code **} matching any number of segments, e.g. {@code identity.claims.**}
+ * </ul>
+ * The JSONPath notation of the former keys is accepted too: an optional {@code $} root, quoted
+ * names in brackets, e.g. {@code claims['http://schemas.microsoft.com/identity/claims/scope']},
+ * indices like {@code items[0]}, {@code [*]} and the {@code ..} deep scan. A pattern without
+ * globs keeps its text as the metadata key, as before. The filters, slices and unions aren't
+ * supported: such a pattern is skipped with a warning.<br>
+ * The patterns are compiled into a trie of segments, and an event is matched in a single
+ * traversal following all the patterns at once: only the members matching a prefix of a pattern
+ * are visited. A matched value isn't traversed further, it's flattened as a whole.
+ */
+public class MetadataKeyMatcher {
+
+    private final Node root = new Node(null, false);
+    private final List<Node> start;
+
+    /**
+     * Compiles the patterns.
+     *
+     * @param patterns the patterns, the blank ones are ignored
+     */
+    public MetadataKeyMatcher(Collection<String> patterns) {
+        for (String pattern : patterns) {
+            if (StringUtils.isNotBlank(pattern)) {
+                add(pattern.strip());
+            }
+        }
+        start = closure(List.of(root));
+    }
+
+    /**
+     * Compiles comma separated patterns.
+     *
+     * @param patterns the patterns, may be null
+     * @return the matcher
+     */
+    public static MetadataKeyMatcher compile(String patterns) {
+        return new MetadataKeyMatcher(patterns != null
+            ? List.of(StringUtils.split(patterns, ",")) : List.of());
+    }
+
+    private void add(String pattern) {
+        List<Segment> segments = parse(pattern);
+        if (segments == null) {
+            log(Level.WARNING, "Unsupported metadata key pattern, skipped: " + pattern);
+            return;
+        }
+        Node node = root;
+        boolean literal = true;
+        for (Segment segment : segments) {
+            literal &= segment.literal;
+            node = add(node, segment);
+        }
+        if (node != root) {
+            node.terminal = true;
+            if (literal && node.key == null) {
+                node.key = StringUtils.removeStart(StringUtils.removeStart(pattern, "$"), ".");
+            }
+        }
+    }
+
+    private static Node add(Node node, Segment segment) {
+        if (segment.literal) {
+            return node.names.computeIfAbsent(segment.text, name -> new Node(null, false));
+        }
+        String glob = segment.text;
+        if (glob.equals("**")) {
+            if (node.anyDepth == null) {
+                node.anyDepth = new Node(null, true);
+            }
+            return node.anyDepth;
+        }
+        for (Node child : node.globs) {
+            if (glob.equals(child.glob)) {
+                return child;
+            }
+        }
+        Node child = new Node(glob, false);
+        node.globs.add(child);
+        return child;
+    }
+
+    /**
+     * Parses the segments of a pattern: dotted names and globs, and bracketed quoted names,
+     * indices or {@code *}.
+     *
+     * @param pattern the pattern
+     * @return the segments, null if the pattern isn't supported
+     */
+    static List<Segment> parse(String pattern) {
+        List<Segment> segments = new ArrayList<>();
+        int i = pattern.startsWith("$") ? 1 : 0;
+        boolean dot = i == 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == '.') {
+                if (pattern.startsWith("..", i)) {
+                    segments.add(new Segment("**", false));
+                    i++;
+                }
+                i++;
+                dot = true;
+            } else if (c == '[') {
+                int end = parseBracket(pattern, i + 1, segments);
+                if (end < 0) {
+                    return null;
+                }
+                i = end;
+                dot = false;
+            } else if (dot) {
+                int end = i;
+                while (end < pattern.length() && pattern.charAt(end) != '.'
+                    && pattern.charAt(end) != '[') {
+                    end++;
+                }
+                String name = pattern.substring(i, end).strip();
+                boolean glob = name.indexOf('*') >= 0 || name.indexOf('?') >= 0;
+                if (name.isEmpty() || name.indexOf(']') >= 0) {
+                    return null;
+                }
+                segments.add(new Segment(name, !glob));
+                i = end;
+                dot = false;
+            } else {
+                return null;
+            }
+        }
+        // a trailing dot or nothing but the root
+        return dot || segments.isEmpty() ? null : segments;
+    }
+
+    /**
+     * Parses a bracketed segment: a quoted name, an index or {@code *}.
+     *
+     * @return the index following the closing bracket, -1 if the segment isn't supported
+     */
+    private static int parseBracket(String pattern, int start, List<Segment> segments) {
+        if (start >= pattern.length()) {
+            return -1;
+        }
+        char quote = pattern.charAt(start);
+        if (quote == '\'' || quote == '"') {
+            StringBuilder name = new StringBuilder();
+            for (int i = start + 1; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '\\' && i + 1 < pattern.length()) {
+                    name.append(pattern.charAt(++i));
+                } else if (c == quote) {
+                    if (i + 1 >= pattern.length() || pattern.charAt(i + 1) != ']') {
+                        return -1;
+                    }
+                    segments.add(new Segment(name.toString(), true));
+                    return i + 2;
+                } else {
+                    name.append(c);
+                }
+            }
+            return -1;
+        }
+        int end = pattern.indexOf(']', start);
+        if (end < 0) {
+            return -1;
+        }
+        String index = pattern.substring(start, end).strip();
+        if (index.equals("*")) {
+            segments.add(new Segment("*", false));
+        } else if (!index.isEmpty() && index.chars().allMatch(Character::isDigit)) {
+            segments.add(new Segment(String.valueOf(Integer.parseInt(index)), true));
+        } else {
+            return -1;
+        }
+        return end + 1;
+    }
+
+    public boolean isEmpty() {
+        return !root.terminal && root.names.isEmpty() && root.globs.isEmpty()
+            && root.anyDepth == null;
+    }
+
+    /**
+     * Finds the values matching the patterns.
+     *
+     * @param event the log event
+     * @param consumer receives the path and the value of each match
+     */
+    public void match(JsonObject event, BiConsumer<String, JsonElement> consumer) {
+        if (!isEmpty()) {
+            traverse(event, new StringBuilder(64), start, consumer);
+        }
+    }
+
+    private void traverse(JsonElement value, StringBuilder path, List<Node> states,
+        BiConsumer<String, JsonElement> consumer) {
+        for (Node state : states) {
+            if (state.terminal) {
+                consumer.accept(state.key != null ? state.key : path.toString(), value);
+                return;
+            }
+        }
+        if (value.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> member : ((JsonObject) value).entrySet()) {
+                traverse(member.getKey(), member.getValue(), path, states, consumer);
+            }
+        } else if (value.isJsonArray()) {
+            JsonArray array = (JsonArray) value;
+            for (int i = 0; i < array.size(); i++) {
+                traverse(String.valueOf(i), array.get(i), path, states, consumer);
+            }
+        }
+    }
+
+    private void traverse(String segment, JsonElement value, StringBuilder path,
+        List<Node> states, BiConsumer<String, JsonElement> consumer) {
+        List<Node> next = step(states, segment);
+        if (next.isEmpty()) {
+            return;
+        }
+        int length = path.length();
+        if (length > 0) {
+            path.append('.');
+        }
+        traverse(value, path.append(segment), next, consumer);
+        path.setLength(length);
+    }
+
+    private static List<Node> step(List<Node> states, String segment) {
+        List<Node> next = new ArrayList<>(2);
+        for (Node state : states) {
+            if (state.anyDepthNode) {
+                // ** goes on matching
+                addOnce(next, state);
+            }
+            Node child = state.names.get(segment);
+            if (child != null) {
+                addOnce(next, child);
+            }
+            for (Node glob : state.globs) {
+                if (matchesGlob(glob.glob, segment)) {
+                    addOnce(next, glob);
+                }
+            }
+        }
+        return next.isEmpty() ? next : closure(next);
+    }
+
+    /**
+     * Adds the ** following the nodes, as they match zero segments.
+     */
+    private static List<Node> closure(List<Node> nodes) {
+        List<Node> closure = new ArrayList<>(nodes);
+        for (int i = 0; i < closure.size(); i++) {
+            Node anyDepth = closure.get(i).anyDepth;
+            if (anyDepth != null) {
+                addOnce(closure, anyDepth);
+            }
+        }
+        return closure;
+    }
+
+    private static void addOnce(List<Node> nodes, Node node) {
+        if (!nodes.contains(node)) {
+            nodes.add(node);
+        }
+    }
+
+    /**
+     * Matches a segment against a glob, backtracking to the last * on a mismatch.
+     */
+    static boolean matchesGlob(String glob, String segment) {
+        int g = 0;
+        int s = 0;
+        int star = -1;
+        int starMatch = 0;
+        while (s < segment.length()) {
+            if (g < glob.length()
+                && (glob.charAt(g) == '?' || glob.charAt(g) == segment.charAt(s))) {
+                g++;
+                s++;
+            } else if (g < glob.length() && glob.charAt(g) == '*') {
+                star = g++;
+                starMatch = s;
+            } else if (star >= 0) {
+                g = star + 1;
+                s = ++starMatch;
+            } else {
+                return false;
+            }
+        }
+        while (g < glob.length() && glob.charAt(g) == '*') {
+            g++;
+        }
+        return g == glob.length();
+    }
+
+    /**
+     * Segment of a pattern: a name matched as is, or a glob.
+     */
+    static final class Segment {
+
+        private final String text;
+        private final boolean literal;
+
+        Segment(String text, boolean literal) {
+            this.text = text;
+            this.literal = literal;
+        }
+
+        @Override
+        public String toString() {
+            return literal ? "'" + text + "'" : text;
+        }
+    }
+
+    /**
+     * Node of the trie: one segment of the patterns.
+     */
+    private static final class Node {
+
+        private final String glob;
+        private final boolean anyDepthNode;
+        private final Map<String, Node> names = new HashMap<>();
+        private final List<Node> globs = new ArrayList<>();
+        private Node anyDepth;
+        private boolean terminal;
+        // metadata key of a pattern without globs
+        private String key;
+
+        Node(String glob, boolean anyDepthNode) {
+            this.glob = glob;
+            this.anyDepthNode = anyDepthNode;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.crypto.Mac;
+
+/**
+ * Serializes batches of log entries with the {@link LogEntryJsonEncoder} directly into pooled
+ * direct buffers, without intermediate strings nor byte arrays.
+ */
+public class PayloadWriter {
+
+    private final ByteBufferPool pool;
+
+    public PayloadWriter(ByteBufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Serializes the entries.
+     *
+     * @param entries the log entries
+     * @return the payload, it must be closed to release its buffers
+     */
+    public Payload write(List<LogEntry> entries) {
+        Payload payload = new Payload(pool);
+        try {
+            new LogEntryJsonEncoder(payload.current, full -> payload.next()).writeArray(entries);
+            payload.finish();
+            return payload;
+        } catch (IOException e) {
+            // the buffers are in memory
+            payload.close();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            payload.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Serialized batch held in pooled buffers.
+     */
+    public static class Payload implements Closeable {
+
+        private final ByteBufferPool pool;
+        private final List<ByteBuffer> buffers = new ArrayList<>();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private ByteBuffer current;
+        private long length;
+
+        Payload(ByteBufferPool pool) {
+            this.pool = pool;
+            this.current = pool.acquire();
+            buffers.add(current);
+        }
+
+        /**
+         * Gets the size of the payload.
+         *
+         * @return size in bytes
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Writes the payload to a channel, it can be written several times.
+         *
+         * @param channel the channel
+         * @throws IOException if the channel fails
+         */
+        public void writeTo(WritableByteChannel channel) throws IOException {
+            for (ByteBuffer buffer : buffers) {
+                ByteBuffer data = buffer.duplicate();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+        }
+
+        /**
+         * Feeds the payload to a MAC.
+         *
+         * @param mac the MAC
+         */
+        public void update(Mac mac) {
+            for (ByteBuffer buffer : buffers) {
+                mac.update(buffer.duplicate());
+            }
+        }
+
+        /**
+         * Copies the payload to an array.
+         *
+         * @return the payload bytes
+         */
+        public byte[] toByteArray() {
+            byte[] bytes = new byte[Math.toIntExact(length)];
+            int offset = 0;
+            for (ByteBuffer buffer : buffers) {
+                int remaining = buffer.remaining();
+                buffer.duplicate().get(bytes, offset, remaining);
+                offset += remaining;
+            }
+            return bytes;
+        }
+
+        /**
+         * Releases the buffers to the pool.
+         */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                buffers.forEach(pool::release);
+                buffers.clear();
+            }
+        }
+
+        private void finish() {
+            for (ByteBuffer buffer : buffers) {
+                buffer.flip();
+                length += buffer.remaining();
+            }
+            current = null;
+        }
+
+        private ByteBuffer next() {
+            current = pool.acquire();
+            buffers.add(current);
+            return current;
+        }
+    }
+}
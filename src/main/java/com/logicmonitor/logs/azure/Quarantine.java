@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.logicmonitor.logs.azure.LoggingUtils.log;
+import static com.logicmonitor.logs.azure.LoggingUtils.logRepeated;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * Keeps the events and records that failed to be transformed, so they don't abort the rest of
+ * the invocation.<br>
+ * The failures are classified by {@link ErrorType} and counted. The last ones are kept in memory
+ * and, when a file is set, queued and appended to it as JSON lines by a background thread, so the
+ * pipeline is never blocked by the file; when the queue is full the payload isn't written. The
+ * file is rotated to {@code <file>.1} after reaching the maximum size. The payloads are scrubbed
+ * with the scrub pattern of the messages when one is set, within its budget.
+ */
+public class Quarantine implements Closeable {
+
+    /**
+     * Parameter: number of failed payloads kept in memory (default 100).
+     */
+    public static final String PARAMETER_QUARANTINE_SIZE = "LogQuarantineSize";
+    /**
+     * Parameter: file the failed payloads are appended to, not written when not set.
+     */
+    public static final String PARAMETER_QUARANTINE_FILE = "LogQuarantineFile";
+    /**
+     * Parameter: maximum size of the quarantine file in bytes (default 10 MB).
+     */
+    public static final String PARAMETER_QUARANTINE_MAX_FILE_SIZE = "LogQuarantineMaxFileSize";
+
+    public static final int DEFAULT_SIZE = 100;
+    public static final long DEFAULT_MAX_FILE_SIZE = 10L * 1024 * 1024;
+
+    /**
+     * Maximum length of a kept payload.
+     */
+    public static final int MAX_PAYLOAD_LENGTH = 64 * 1024;
+
+    private static final int QUEUE_CAPACITY = 100;
+
+    private static final Gson GSON = new Gson();
+
+    public enum ErrorType {
+        /**
+         * The payload isn't valid JSON.
+         */
+        MALFORMED_JSON,
+        /**
+         * The JSON doesn't have the expected structure, e.g. an array instead of an object.
+         */
+        UNEXPECTED_SHAPE,
+        /**
+         * A value cannot be converted, e.g. an invalid time.
+         */
+        INVALID_VALUE,
+        /**
+         * Any other failure.
+         */
+        INTERNAL;
+
+        /**
+         * Classifies the cause of a failure.
+         *
+         * @param error the failure
+         * @return the error type
+         */
+        public static ErrorType classify(Throwable error) {
+            if (error instanceof JsonParseException) {
+                // the binding errors are wrapped, the syntax ones are I/O errors
+                Throwable cause = error.getCause();
+                return cause != null && cause != error && !(cause instanceof IOException)
+                    ? classify(cause) : MALFORMED_JSON;
+            } else if (error instanceof IllegalStateException || error instanceof ClassCastException
+                || error instanceof UnsupportedOperationException) {
+                // thrown by the Gson getters on values of another type
+                return UNEXPECTED_SHAPE;
+            } else if (error instanceof DateTimeException
+                || error instanceof IllegalArgumentException) {
+                return INVALID_VALUE;
+            }
+            return INTERNAL;
+        }
+    }
+
+    private final int size;
+    private final Path file;
+    private final long maxFileSize;
+    private final RegexGuard scrubGuard;
+
+    private final Map<ErrorType, LongAdder> counts = new EnumMap<>(ErrorType.class);
+    private final Deque<QuarantinedPayload> payloads = new ArrayDeque<>();
+    private final BlockingQueue<QuarantinedPayload> queue =
+        new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final LongAdder unwritten = new LongAdder();
+    private final Thread writerThread;
+    private volatile boolean closed;
+    private Writer fileWriter;
+    private long fileSize;
+
+    /**
+     * Creates a quarantine kept in memory only.
+     *
+     * @param size number of failed payloads kept
+     */
+    public Quarantine(int size) {
+        this(size, null, DEFAULT_MAX_FILE_SIZE);
+    }
+
+    /**
+     * Creates the quarantine.
+     *
+     * @param size number of failed payloads kept in memory
+     * @param file file the payloads are appended to, may be null
+     * @param maxFileSize maximum size of the file in bytes
+     */
+    public Quarantine(int size, Path file, long maxFileSize) {
+        this(size, file, maxFileSize, null);
+    }
+
+    /**
+     * Creates the quarantine.
+     *
+     * @param size number of failed payloads kept in memory
+     * @param file file the payloads are appended to, may be null
+     * @param maxFileSize maximum size of the file in bytes
+     * @param scrubGuard scrubs the payloads, may be null
+     */
+    public Quarantine(int size, Path file, long maxFileSize, RegexGuard scrubGuard) {
+        this.size = Math.max(0, size);
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.scrubGuard = scrubGuard;
+        for (ErrorType type : ErrorType.values()) {
+            counts.put(type, new LongAdder());
+        }
+        if (file != null) {
+            writerThread = new Thread(this::writePayloads, "lm-logs-quarantine");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        } else {
+            writerThread = null;
+        }
+    }
+
+    /**
+     * Quarantines a payload that failed.
+     *
+     * @param error the failure
+     * @param payload the event or record
+     * @return the error type
+     */
+    public ErrorType add(Throwable error, String payload) {
+        return add(ErrorType.classify(error), String.valueOf(error.getMessage()), payload);
+    }
+
+    /**
+     * Quarantines a payload that failed.
+     *
+     * @param type type of the error
+     * @param error description of the error
+     * @param payload the event or record
+     * @return the error type
+     */
+    public ErrorType add(ErrorType type, String error, String payload) {
+        counts.get(type).increment();
+        logRepeated(Level.INFO, "quarantine-" + type,
+            () -> "Quarantined a payload, " + type + ": " + error);
+        if (size == 0 && file == null) {
+            return type;
+        }
+        if (payload != null && payload.length() > MAX_PAYLOAD_LENGTH) {
+            payload = payload.substring(0, MAX_PAYLOAD_LENGTH);
+        }
+        if (payload != null && scrubGuard != null) {
+            payload = scrubGuard.replaceAll(payload, "");
+        }
+        QuarantinedPayload quarantined = new QuarantinedPayload(System.currentTimeMillis(), type,
+            error, payload);
+        if (size > 0) {
+            synchronized (this) {
+                if (payloads.size() >= size) {
+                    payloads.removeFirst();
+                }
+                payloads.addLast(quarantined);
+            }
+        }
+        if (file != null && (closed || !queue.offer(quarantined))) {
+            unwritten.increment();
+        }
+        return type;
+    }
+
+    private void writePayloads() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                QuarantinedPayload quarantined = queue.poll(1, TimeUnit.SECONDS);
+                if (quarantined != null) {
+                    write(quarantined);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeFile();
+        }
+    }
+
+    private void write(QuarantinedPayload quarantined) {
+        try {
+            if (fileWriter == null || fileSize >= maxFileSize) {
+                rotate();
+            }
+            String line = GSON.toJson(quarantined) + '\n';
+            fileWriter.write(line);
+            // make the payload readable before the next one
+            if (queue.isEmpty()) {
+                fileWriter.flush();
+            }
+            fileSize += line.getBytes(StandardCharsets.UTF_8).length;
+        } catch (IOException e) {
+            unwritten.increment();
+            log(Level.WARNING, "Unable to write the quarantine file " + file + ": "
+                + e.getMessage());
+            closeFile();
+        }
+    }
+
+    private void rotate() throws IOException {
+        closeFile();
+        if (Files.exists(file) && Files.size(file) >= maxFileSize) {
+            Files.move(file, file.resolveSibling(file.getFileName() + ".1"),
+                StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        fileWriter = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        fileSize = Files.size(file);
+    }
+
+    private void closeFile() {
+        if (fileWriter != null) {
+            try {
+                fileWriter.close();
+            } catch (IOException e) {
+                // already reported
+            }
+            fileWriter = null;
+        }
+    }
+
+    /**
+     * Gets the number of payloads quarantined for an error type.
+     *
+     * @param type the error type
+     * @return the count
+     */
+    public long getCount(ErrorType type) {
+        return counts.get(type).sum();
+    }
+
+    /**
+     * Gets the number of payloads not written to the file, because the queue was full or the
+     * writing failed.
+     *
+     * @return the number of payloads
+     */
+    public long getUnwrittenCount() {
+        return unwritten.sum();
+    }
+
+    /**
+     * Stops writing to the file once the queued payloads are written.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (writerThread != null) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Gets the payloads kept in memory, from the oldest.
+     *
+     * @return the payloads
+     */
+    public synchronized List<QuarantinedPayload> getPayloads() {
+        return new ArrayList<>(payloads);
+    }
+
+    @Override
+    public String toString() {
+        return "quarantined " + counts.entrySet().stream()
+            .map(count -> count.getKey() + " " + count.getValue().sum())
+            .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * A quarantined event or record.
+     */
+    public static class QuarantinedPayload {
+
+        private final long time;
+        private final ErrorType type;
+        private final String error;
+        private final String payload;
+
+        public QuarantinedPayload(long time, ErrorType type, String error, String payload) {
+            this.time = time;
+            this.type = type;
+            this.error = error;
+            this.payload = payload;
+        }
+
+        /**
+         * Gets the time of the failure.
+         *
+         * @return epoch milliseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public ErrorType getType() {
+            return type;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Gets the payload, truncated to {@value Quarantine#MAX_PAYLOAD_LENGTH} characters and
+         * scrubbed.
+         *
+         * @return the payload
+         */
+        public String getPayload() {
+            return payload;
+        }
+    }
+}
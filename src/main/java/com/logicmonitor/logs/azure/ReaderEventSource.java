@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Reads newline-delimited events from a character stream, skipping blank lines.
+ */
+public class ReaderEventSource implements LogEventSource {
+
+    private final BufferedReader reader;
+
+    public ReaderEventSource(Reader reader) {
+        this.reader = reader instanceof BufferedReader
+            ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    @Override
+    public List<String> nextBatch(int maxEvents) throws IOException {
+        List<String> batch = new ArrayList<>(maxEvents);
+        String line;
+        while (batch.size() < maxEvents && (line = reader.readLine()) != null) {
+            if (StringUtils.isNotBlank(line)) {
+                batch.add(line);
+            }
+        }
+        return batch;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
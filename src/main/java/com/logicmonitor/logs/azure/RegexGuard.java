@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.logicmonitor.logs.azure.LoggingUtils.logRepeated;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Replaces the matches of a user-supplied pattern within a budget per message, so a pattern
+ * backtracking catastrophically cannot stall the forwarder.<br>
+ * The matcher reads the message through a {@link CharSequence} counting the characters read, the
+ * steps, and checking the time every {@value #CHECK_INTERVAL} steps. When the message exceeds the
+ * time or step budget, or the stack, the matching is interrupted and, depending on the {@link Violation}
+ * policy, the message is truncated after the last replaced match or sent without scrubbing. The
+ * violations are counted and logged.<br>
+ * {@link #main(String[])} validates a pattern against the sample events and synthetic worst
+ * cases before it's deployed.
+ */
+public class RegexGuard {
+
+    /**
+     * Parameter: time budget of the scrubbing of a message in milliseconds, 0 for none (default
+     * 100).
+     */
+    public static final String PARAMETER_SCRUB_TIMEOUT = "LogRegexScrubTimeoutMillis";
+    /**
+     * Parameter: step budget of the scrubbing of a message, i.e. the number of characters read by
+     * the matcher, 0 for none (default 0).
+     */
+    public static final String PARAMETER_SCRUB_MAX_STEPS = "LogRegexScrubMaxSteps";
+    /**
+     * Parameter: what happens to a message exceeding the budget, TRUNCATE or SKIP (default
+     * TRUNCATE).
+     */
+    public static final String PARAMETER_SCRUB_ON_VIOLATION = "LogRegexScrubOnViolation";
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 100;
+
+    /**
+     * Number of steps between the checks of the time.
+     */
+    public static final int CHECK_INTERVAL = 1024;
+
+    /**
+     * Directory of the sample events validating a pattern by default.
+     */
+    public static final String DEFAULT_FIXTURES = "src/test/resources/com/logicmonitor/logs/azure";
+
+    /**
+     * Size of the synthetic worst cases of the validation.
+     */
+    static final int SYNTHETIC_SIZE = 64 * 1024;
+
+    public enum Violation {
+        /**
+         * The message is cut after the last replaced match, the rest isn't sent.
+         */
+        TRUNCATE,
+        /**
+         * The message is sent without scrubbing.
+         */
+        SKIP
+    }
+
+    private final Pattern pattern;
+    private final long timeoutNanos;
+    private final long maxSteps;
+    private final Violation onViolation;
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong violations = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Creates the guard.
+     *
+     * @param pattern the pattern
+     * @param timeoutMillis time budget per message in milliseconds, 0 for none
+     * @param maxSteps step budget per message, 0 for none
+     * @param onViolation what happens to a message exceeding the budget
+     */
+    public RegexGuard(Pattern pattern, long timeoutMillis, long maxSteps, Violation onViolation) {
+        this.pattern = pattern;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+        this.maxSteps = Math.max(0, maxSteps);
+        this.onViolation = onViolation;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Replaces the matches of the pattern within the budget.
+     *
+     * @param input the message
+     * @param replacement the replacement of the matches
+     * @return the message with the matches replaced, truncated or not replaced when the budget is
+     * exceeded
+     */
+    public String replaceAll(String input, String replacement) {
+        messages.incrementAndGet();
+        long start = System.nanoTime();
+        GuardedSequence guarded = new GuardedSequence(input,
+            timeoutNanos > 0 ? start + timeoutNanos : Long.MAX_VALUE,
+            maxSteps > 0 ? maxSteps : Long.MAX_VALUE - 1);
+        Matcher matcher = pattern.matcher(guarded);
+        StringBuilder result = new StringBuilder(input.length());
+        try {
+            while (matcher.find()) {
+                matcher.appendReplacement(result, replacement);
+            }
+            matcher.appendTail(result);
+            updateMaxNanos(start);
+            return result.toString();
+        } catch (BudgetExceededException | StackOverflowError e) {
+            updateMaxNanos(start);
+            // the matcher recurses on some patterns, e.g. alternations in a loop
+            String budget = e instanceof StackOverflowError ? "stack" : e.getMessage();
+            violations.incrementAndGet();
+            logRepeated(Level.WARNING, "regex-guard", () -> "The scrub pattern exceeded its "
+                + budget + " on a message of " + input.length() + " characters, "
+                + (onViolation == Violation.TRUNCATE ? "truncated" : "not scrubbed") + ": "
+                + this);
+            return onViolation == Violation.TRUNCATE ? result.toString() : input;
+        }
+    }
+
+    private void updateMaxNanos(long start) {
+        long elapsed = System.nanoTime() - start;
+        maxNanos.accumulateAndGet(elapsed, Math::max);
+    }
+
+    /**
+     * Gets the number of messages scrubbed.
+     *
+     * @return the number of messages
+     */
+    public long getMessages() {
+        return messages.get();
+    }
+
+    /**
+     * Gets the number of messages that exceeded the budget.
+     *
+     * @return the number of violations
+     */
+    public long getViolations() {
+        return violations.get();
+    }
+
+    /**
+     * Gets the longest time spent on a message.
+     *
+     * @return nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "scrub pattern " + pattern + ": " + messages.get() + " messages, "
+            + violations.get() + " violations, max " + TimeUnit.NANOSECONDS.toMillis(maxNanos.get())
+            + " ms";
+    }
+
+    /**
+     * Validates a scrub pattern before deployment: scrubs the messages of sample events and
+     * synthetic worst cases, printing the time of each, and fails when one exceeds the budget.
+     * The arguments are {@code --pattern=<regex>} (by default the
+     * {@value LogEventForwarder#PARAMETER_REGEX_SCRUB} environment variable),
+     * {@code --timeout=<ms>}, {@code --steps=<n>} and the JSON files or directories of sample
+     * events (by default {@value #DEFAULT_FIXTURES}).
+     *
+     * @param args the arguments
+     * @throws IOException when a sample cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        String regex = System.getenv(LogEventForwarder.PARAMETER_REGEX_SCRUB);
+        long timeout = DEFAULT_TIMEOUT_MILLIS;
+        long steps = 0;
+        List<Path> fixtures = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--timeout=")) {
+                timeout = Long.parseLong(arg.substring("--timeout=".length()));
+            } else if (arg.startsWith("--steps=")) {
+                steps = Long.parseLong(arg.substring("--steps=".length()));
+            } else if (arg.startsWith("--pattern=")) {
+                regex = arg.substring("--pattern=".length());
+            } else {
+                fixtures.add(Paths.get(arg));
+            }
+        }
+        if (StringUtils.isEmpty(regex)) {
+            System.err.println("No pattern, set --pattern=<regex> or "
+                + LogEventForwarder.PARAMETER_REGEX_SCRUB);
+            System.exit(2);
+        }
+        if (fixtures.isEmpty()) {
+            fixtures.add(Paths.get(DEFAULT_FIXTURES));
+        }
+        RegexGuard guard = new RegexGuard(Pattern.compile(regex), timeout, steps,
+            Violation.TRUNCATE);
+        long failed = validate(guard, loadInputs(fixtures), System.out);
+        System.exit(failed > 0 ? 1 : 0);
+    }
+
+    /**
+     * Scrubs the inputs, printing the time of each.
+     *
+     * @param guard guard of the pattern
+     * @param inputs the inputs by name
+     * @param out stream of the report
+     * @return the number of inputs that exceeded the budget
+     */
+    static long validate(RegexGuard guard, Map<String, String> inputs, PrintStream out) {
+        out.println("Validating " + guard.getPattern());
+        long failed = 0;
+        for (Map.Entry<String, String> input : inputs.entrySet()) {
+            long violations = guard.getViolations();
+            long start = System.nanoTime();
+            guard.replaceAll(input.getValue(), "");
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            boolean violated = guard.getViolations() > violations;
+            if (violated) {
+                failed++;
+            }
+            out.printf("%-8s %10d us %10d chars  %s%n", violated ? "EXCEEDED" : "ok", micros,
+                input.getValue().length(), input.getKey());
+        }
+        out.println(failed > 0 ? failed + " of " + inputs.size() + " inputs exceeded the budget"
+            : "All the " + inputs.size() + " inputs within the budget, " + guard);
+        return failed;
+    }
+
+    /**
+     * Loads the messages of the sample events, as transformed by the adapter, and synthetic
+     * worst cases: long runs of the same character and all the messages concatenated, like the
+     * JSON fallback of a large record.
+     *
+     * @param fixtures JSON files or directories of sample events
+     * @return the inputs by name
+     * @throws IOException when a sample cannot be read
+     */
+    static Map<String, String> loadInputs(List<Path> fixtures) throws IOException {
+        LogEventAdapter adapter = new LogEventAdapter(null, "validation", null, null);
+        Map<String, String> inputs = new LinkedHashMap<>();
+        for (Path fixture : fixtures) {
+            List<Path> files;
+            if (Files.isDirectory(fixture)) {
+                try (Stream<Path> list = Files.list(fixture)) {
+                    files = list.filter(file -> file.toString().endsWith(".json")).sorted()
+                        .collect(Collectors.toList());
+                }
+            } else {
+                files = List.of(fixture);
+            }
+            for (Path file : files) {
+                JsonElement json = JsonParser.parseString(
+                    new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+                if (json.isJsonArray()) {
+                    JsonObject event = new JsonObject();
+                    event.add(LogEventAdapter.AZURE_RECORDS_PROPERTY, json);
+                    json = event;
+                }
+                List<LogEntry> entries = adapter.apply(json.toString());
+                for (int i = 0; i < entries.size(); i++) {
+                    inputs.put(file.getFileName() + "[" + i + "]", entries.get(i).getMessage());
+                }
+            }
+        }
+        String large = concatenate(inputs.values(), SYNTHETIC_SIZE);
+        if (!large.isEmpty()) {
+            inputs.put("all the messages concatenated", large);
+        }
+        for (char c : new char[] {'a', '0', ' ', '"', '\\'}) {
+            inputs.put("run of '" + c + "'", StringUtils.repeat(c, SYNTHETIC_SIZE) + "!");
+        }
+        return inputs;
+    }
+
+    /**
+     * Concatenates the messages repeatedly until the result reaches a size.
+     *
+     * @param messages the messages
+     * @param size minimum length of the result
+     * @return the concatenation, empty when all the messages are
+     */
+    static String concatenate(Collection<String> messages, int size) {
+        StringBuilder large = new StringBuilder();
+        int length;
+        do {
+            length = large.length();
+            messages.forEach(large::append);
+            // a pass appending nothing would never reach the size
+        } while (large.length() > length && large.length() < size);
+        return large.toString();
+    }
+
+    /**
+     * Message read by the matcher within the budget.
+     */
+    private static final class GuardedSequence implements CharSequence {
+
+        private final String text;
+        private final long deadline;
+        private final long maxSteps;
+        private long steps;
+        private long nextCheck;
+
+        GuardedSequence(String text, long deadline, long maxSteps) {
+            this.text = text;
+            this.deadline = deadline;
+            this.maxSteps = maxSteps;
+            this.nextCheck = Math.min(CHECK_INTERVAL, maxSteps + 1);
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++steps >= nextCheck) {
+                check();
+            }
+            return text.charAt(index);
+        }
+
+        private void check() {
+            // the next check is at the end of the step budget at the latest
+            nextCheck = Math.min(steps + CHECK_INTERVAL, maxSteps + 1);
+            if (steps > maxSteps) {
+                throw new BudgetExceededException("step budget (" + maxSteps + ")");
+            }
+            if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+                throw new BudgetExceededException("time budget (" + steps + " steps)");
+            }
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * Interrupts the matcher, without a stack trace.
+     */
+    private static final class BudgetExceededException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        BudgetExceededException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
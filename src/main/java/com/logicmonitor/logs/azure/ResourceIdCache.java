@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Canonicalizes the resource ID maps of the log entries.<br>
+ * The entries of a resource share one immutable {@link ResourceId} map instead of each holding
+ * its own copy: all the activity logs have the same client ID map, and a resource log has the same
+ * resource ID as thousands of others. A shared map keeps its encoded JSON, so it's serialized
+ * once. The cache is cleared when it reaches its maximum size; the maps already handed out stay
+ * valid.
+ */
+public class ResourceIdCache {
+
+    /**
+     * Parameter: maximum number of cached resource IDs (default 10000).
+     */
+    public static final String PARAMETER_RESOURCE_ID_CACHE_SIZE = "LogResourceIdCacheSize";
+
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+
+    private final int maxSize;
+    private final ConcurrentMap<String, ConcurrentMap<String, ResourceId>> singles =
+        new ConcurrentHashMap<>();
+    private final ConcurrentMap<ResourceId, ResourceId> maps = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Creates the cache.
+     *
+     * @param maxSize maximum number of cached resource IDs, 0 to disable the caching
+     */
+    public ResourceIdCache(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+    }
+
+    /**
+     * Gets the shared map of a single property, e.g. the Azure resource ID.
+     *
+     * @param key name of the property
+     * @param value value of the property, may be null
+     * @return the immutable map
+     */
+    public ResourceId get(String key, String value) {
+        if (maxSize == 0 || key == null || value == null) {
+            return new ResourceId(new String[] {key}, new String[] {value});
+        }
+        ConcurrentMap<String, ResourceId> values =
+            singles.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        ResourceId id = values.get(value);
+        if (id != null) {
+            hits.increment();
+            return id;
+        }
+        misses.increment();
+        evictIfFull();
+        id = new ResourceId(new String[] {key}, new String[] {value});
+        ResourceId existing = values.putIfAbsent(value, id);
+        return existing != null ? existing : id;
+    }
+
+    /**
+     * Gets the shared map with the same properties.
+     *
+     * @param properties the properties, the null keys or values aren't cached
+     * @return the immutable map, in the order of the properties
+     */
+    public ResourceId get(Map<String, String> properties) {
+        if (properties instanceof ResourceId) {
+            return (ResourceId) properties;
+        }
+        String[] keys = new String[properties.size()];
+        String[] values = new String[keys.length];
+        int i = 0;
+        boolean cacheable = maxSize > 0;
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            keys[i] = property.getKey();
+            values[i++] = property.getValue();
+            cacheable &= property.getKey() != null && property.getValue() != null;
+        }
+        ResourceId id = new ResourceId(keys, values);
+        if (!cacheable) {
+            return id;
+        }
+        ResourceId existing = maps.get(id);
+        if (existing != null) {
+            hits.increment();
+            return existing;
+        }
+        misses.increment();
+        evictIfFull();
+        existing = maps.putIfAbsent(id, id);
+        return existing != null ? existing : id;
+    }
+
+    private void evictIfFull() {
+        if (size() >= maxSize) {
+            singles.clear();
+            maps.clear();
+        }
+    }
+
+    /**
+     * Gets the number of cached resource IDs.
+     *
+     * @return the size
+     */
+    public int size() {
+        int size = maps.size();
+        for (Map<String, ResourceId> values : singles.values()) {
+            size += values.size();
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the ratio of the lookups finding a shared map.
+     *
+     * @return the hit rate, 0 before the first lookup
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("resource IDs %d cached, %.1f%% hits", size(), 100 * getHitRate());
+    }
+
+    /**
+     * Immutable resource ID map, keeping the order of its properties.
+     */
+    public static final class ResourceId extends AbstractMap<String, String> {
+
+        private final String[] keys;
+        private final String[] values;
+        private final int hash;
+        private volatile byte[] json;
+
+        ResourceId(String[] keys, String[] values) {
+            this.keys = keys;
+            this.values = values;
+            int h = 0;
+            for (int i = 0; i < keys.length; i++) {
+                // same as the hash code of the map entries
+                h += (keys[i] == null ? 0 : keys[i].hashCode())
+                    ^ (values[i] == null ? 0 : values[i].hashCode());
+            }
+            hash = h;
+        }
+
+        /**
+         * Gets the JSON object of the map, kept by {@link LogEntryJsonEncoder}.
+         *
+         * @return the UTF-8 bytes, null until encoded
+         */
+        byte[] getJson() {
+            return json;
+        }
+
+        void setJson(byte[] json) {
+            this.json = json;
+        }
+
+        @Override
+        public int size() {
+            return keys.length;
+        }
+
+        @Override
+        public String get(Object key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (key == null ? keys[i] == null : key.equals(keys[i])) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            for (String k : keys) {
+                if (key == null ? k == null : key.equals(k)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new AbstractSet<Map.Entry<String, String>>() {
+
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Iterator<Map.Entry<String, String>>() {
+
+                        private int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < keys.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            if (index >= keys.length) {
+                                throw new NoSuchElementException();
+                            }
+                            int i = index++;
+                            return new SimpleImmutableEntry<>(keys[i], values[i]);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keys.length;
+                }
+            };
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o instanceof ResourceId) {
+                ResourceId other = (ResourceId) o;
+                if (hash != other.hash || keys.length != other.keys.length) {
+                    return false;
+                }
+            }
+            return super.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
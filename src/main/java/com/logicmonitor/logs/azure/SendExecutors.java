@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.logicmonitor.logs.azure;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors running the blocking ingestion requests.<br>
+ * This version, for Java 11, runs them on a fixed pool of platform threads. The jar is
+ * multi-release: on Java 21 or later the version in {@code META-INF/versions/21} runs each batch
+ * on its own virtual thread instead.
+ */
+public final class SendExecutors {
+
+    /**
+     * Parameter: sends the batches on virtual threads on Java 21 or later (default true).
+     */
+    public static final String PARAMETER_VIRTUAL_THREADS = "LogSendVirtualThreads";
+
+    private SendExecutors() {
+    }
+
+    /**
+     * Checks if the runtime can send on virtual threads.
+     *
+     * @return false, the runtime is older than Java 21
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return false;
+    }
+
+    /**
+     * Creates the executor of the requests.
+     *
+     * @param name prefix of the thread names
+     * @param concurrency number of platform threads
+     * @param virtualThreads ignored before Java 21
+     * @return the executor
+     */
+    public static ExecutorService newSendExecutor(String name, int concurrency,
+        boolean virtualThreads) {
+        return Executors.newFixedThreadPool(Math.max(1, concurrency), daemonThreads(name));
+    }
+
+    /**
+     * Creates numbered daemon threads, so they don't prevent the JVM from exiting.
+     *
+     * @param name prefix of the thread names
+     * @return the thread factory
+     */
+    public static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.logicmonitor.logs.azure.LogEventForwarder.getProperty;
+import static com.logicmonitor.logs.azure.LoggingUtils.log;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.microsoft.azure.functions.ExecutionContext;
+
+/**
+ * Runs the forwarder as a standalone JVM, without the Azure Functions host.<br>
+ * The arguments are paths of files containing newline-delimited Event Hub payloads, {@value #STDIN}
+ * (or no arguments) reads the payloads from the standard input. The batches are pushed through
+ * {@link LogEventForwarder#forward}, so the same adapter and sender are used as in the Azure
+ * Function. It uses the forwarder's environment variables, and additionally:
+ * <ul>
+ * <li>{@value #PARAMETER_BATCH_SIZE} number of events per invocation (default {@value #DEFAULT_BATCH_SIZE})
+ * <li>{@value #PARAMETER_CONCURRENCY} number of concurrent invocations (default number of processors)
+ * </ul>
+ */
+public class StandaloneForwarder {
+
+    /**
+     * Parameter: number of events per invocation.
+     */
+    public static final String PARAMETER_BATCH_SIZE = "StandaloneBatchSize";
+    /**
+     * Parameter: number of concurrent invocations.
+     */
+    public static final String PARAMETER_CONCURRENCY = "StandaloneConcurrency";
+    /**
+     * Default number of events per invocation, the same as the Event Hub trigger's maxBatchSize.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    /**
+     * Files of at least this size are memory-mapped.
+     */
+    public static final long MAPPED_FILE_THRESHOLD = 64L * 1024 * 1024;
+    /**
+     * Argument reading the events from the standard input.
+     */
+    public static final String STDIN = "-";
+
+    private static final String FUNCTION_NAME = "LogForwarder";
+
+    private final LogEventForwarder forwarder;
+    private final int batchSize;
+    private final int concurrency;
+    private final AtomicLong invocationCounter = new AtomicLong();
+
+    public StandaloneForwarder(LogEventForwarder forwarder, int batchSize, int concurrency) {
+        this.forwarder = forwarder;
+        this.batchSize = Math.max(1, batchSize);
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    public static void main(String[] args) throws Exception {
+        StandaloneForwarder runner = new StandaloneForwarder(new LogEventForwarder(),
+            getProperty(PARAMETER_BATCH_SIZE, Integer::parseInt, DEFAULT_BATCH_SIZE),
+            getProperty(PARAMETER_CONCURRENCY, Integer::parseInt,
+                Runtime.getRuntime().availableProcessors()));
+        List<String> inputs = args.length > 0 ? List.of(args) : List.of(STDIN);
+        for (String input : inputs) {
+            long start = System.nanoTime();
+            long events;
+            try (LogEventSource source = openSource(input)) {
+                events = runner.run(source);
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            log(Level.INFO, String.format("Forwarded %d events from %s in %d ms",
+                events, input, millis));
+        }
+    }
+
+    /**
+     * Opens the event source for the input argument.
+     *
+     * @param input file path, or {@value #STDIN} for the standard input
+     * @return the event source
+     * @throws IOException when the file cannot be opened
+     */
+    protected static LogEventSource openSource(String input) throws IOException {
+        if (STDIN.equals(input)) {
+            return new ReaderEventSource(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        }
+        Path path = Paths.get(input);
+        if (Files.size(path) >= MAPPED_FILE_THRESHOLD) {
+            return new MappedFileEventSource(path);
+        }
+        return new ReaderEventSource(Files.newBufferedReader(path, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Forwards all events of the source, waiting until the last invocation completes.
+     *
+     * @param source the event source
+     * @return number of forwarded events
+     * @throws IOException when the events cannot be read
+     * @throws InterruptedException when interrupted while waiting for the invocations
+     */
+    public long run(LogEventSource source) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        // bounds the batches read ahead of the invocations
+        Semaphore inFlight = new Semaphore(concurrency * 2);
+        long events = 0;
+        try {
+            List<String> batch;
+            while (!(batch = source.nextBatch(batchSize)).isEmpty()) {
+                inFlight.acquire();
+                List<String> logEvents = batch;
+                ExecutionContext context = createExecutionContext(
+                    "standalone-" + invocationCounter.incrementAndGet());
+                executor.execute(() -> {
+                    try {
+                        forwarder.forward(logEvents, null, null, context);
+                    } catch (RuntimeException e) {
+                        log(Level.SEVERE, String.format("[%s] Invocation failed: %s",
+                            context.getInvocationId(), e.getMessage()));
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+                events += batch.size();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        return events;
+    }
+
+    /**
+     * Creates the execution context of a standalone invocation.<br>
+     * It's a proxy, so it doesn't depend on the contexts added to the interface by the newer
+     * versions of the functions library (they are null).
+     *
+     * @param invocationId the invocation ID
+     * @return the execution context
+     */
+    protected static ExecutionContext createExecutionContext(String invocationId) {
+        Logger logger = Logger.getLogger(FUNCTION_NAME);
+        return (ExecutionContext) Proxy.newProxyInstance(ExecutionContext.class.getClassLoader(),
+            new Class<?>[]{ExecutionContext.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getLogger":
+                        return logger;
+                    case "getInvocationId":
+                        return invocationId;
+                    case "getFunctionName":
+                        return FUNCTION_NAME;
+                    case "toString":
+                        return FUNCTION_NAME + "/" + invocationId;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return null;
+                }
+            });
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.logicmonitor.logs.azure.LoggingUtils.log;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Executes tasks in lanes selected by the hash of a key.<br>
+ * The tasks of a lane are executed one at a time in submission order, while the lanes run
+ * concurrently on the backing executor. The tasks of the same key are thus executed in order.
+ * A lane runs one task per turn on the backing executor, then is queued again behind the other
+ * lanes, so a busy lane doesn't hold a thread while the other lanes wait for one.
+ */
+public class StripedExecutor {
+
+    private final Lane[] lanes;
+    private final Executor executor;
+
+    /**
+     * Creates the executor.
+     *
+     * @param laneCount number of lanes
+     * @param executor backing executor running the lanes
+     */
+    public StripedExecutor(int laneCount, Executor executor) {
+        this.lanes = new Lane[Math.max(1, laneCount)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+        this.executor = executor;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Selects the lane of a key.
+     *
+     * @param key the key, may be null
+     * @return index of the lane
+     */
+    public int laneOf(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        int hash = key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), lanes.length);
+    }
+
+    /**
+     * Executes a task in a lane.
+     *
+     * @param lane index of the lane
+     * @param task the task
+     */
+    public void execute(int lane, Runnable task) {
+        lanes[lane].submit(task);
+    }
+
+    /**
+     * Gets the number of tasks queued or running in a lane.
+     *
+     * @param lane index of the lane
+     * @return the queue depth
+     */
+    public int getQueueDepth(int lane) {
+        return lanes[lane].depth.get();
+    }
+
+    /**
+     * Gets the number of tasks queued or running in each lane.
+     *
+     * @return the queue depths
+     */
+    public int[] getQueueDepths() {
+        int[] depths = new int[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            depths[i] = lanes[i].depth.get();
+        }
+        return depths;
+    }
+
+    /**
+     * Waits until all the lanes are empty.
+     *
+     * @param timeout maximum time to wait
+     * @param unit unit of the timeout
+     * @return true if the lanes are empty
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitEmpty(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Lane lane : lanes) {
+            synchronized (lane) {
+                while (lane.depth.get() > 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(lane, remaining);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lane executing its tasks serially: it's scheduled on the backing executor, one task at a
+     * time, only while it has tasks to run.
+     */
+    private class Lane implements Runnable {
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void submit(Runnable task) {
+            depth.incrementAndGet();
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            Runnable task = tasks.poll();
+            if (task != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log(Level.WARNING, "Lane task failed: " + e.getMessage());
+                } finally {
+                    if (depth.decrementAndGet() == 0) {
+                        synchronized (this) {
+                            notifyAll();
+                        }
+                    }
+                }
+            }
+            scheduled.set(false);
+            // the next task waits for its turn, behind the lanes already scheduled
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.logicmonitor.logs.azure.LogEventForwarder.getProperty;
+import static com.logicmonitor.logs.azure.LoggingUtils.log;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import javax.net.ssl.SSLContext;
+import com.logicmonitor.logs.azure.LogIngestClient.IngestResult;
+
+/**
+ * Moves the cold start work off the first invocation.<br>
+ * When the forwarder is loaded by the Azure Functions host, a background thread initializes the
+ * adapter, the pipeline, the router with its HTTP clients and the TLS context, then transforms the
+ * bundled {@value #EVENTS_RESOURCE} events through the forwarder's pipeline and serializes and
+ * signs them with the default destination's client a number of times, so the hot methods are
+ * compiled before the first logs arrive. Nothing is sent: the synthetic entries are discarded. The
+ * warmup stops when the first invocation arrives, instead of competing with it. The first
+ * ingestion response logs the time to the first send, with or without the warmup, to compare
+ * them. The {@link #main} method runs the same warmup for the class list of the AppCDS archive.
+ */
+public final class Warmup {
+
+    /**
+     * Parameter: warms up the forwarder when loaded by the Azure Functions host (default true).
+     */
+    public static final String PARAMETER_WARMUP = "LogWarmup";
+    /**
+     * Parameter: number of times the bundled events are transformed and serialized (default 20).
+     */
+    public static final String PARAMETER_WARMUP_ITERATIONS = "LogWarmupIterations";
+
+    public static final int DEFAULT_ITERATIONS = 20;
+
+    /**
+     * Newline-delimited events of the synthetic warmup, next to this class.
+     */
+    public static final String EVENTS_RESOURCE = "warmup-events.jsonl";
+
+    /**
+     * Environment variable set by the Azure Functions host.
+     */
+    private static final String FUNCTIONS_WORKER_RUNTIME = "FUNCTIONS_WORKER_RUNTIME";
+
+    private static final long LOADED = System.currentTimeMillis();
+    private static final AtomicBoolean STARTED = new AtomicBoolean();
+    private static final AtomicBoolean STOPPED = new AtomicBoolean();
+    private static final AtomicBoolean FIRST_SEND = new AtomicBoolean();
+    private static volatile long warmupMillis = -1;
+
+    private Warmup() {
+    }
+
+    /**
+     * Starts the warmup on a background thread, once per JVM, if running in the Azure Functions
+     * host and not disabled.
+     */
+    public static void start() {
+        if (System.getenv(FUNCTIONS_WORKER_RUNTIME) == null
+            || !getProperty(PARAMETER_WARMUP, Boolean::parseBoolean, true)
+            || !STARTED.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                run(getProperty(PARAMETER_WARMUP_ITERATIONS, Integer::parseInt,
+                    DEFAULT_ITERATIONS), true);
+            } catch (RuntimeException e) {
+                log(Level.WARNING, "Warmup failed: " + e);
+            }
+        }, "lm-logs-warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops the warmup after its current iteration, when the first invocation arrives.
+     */
+    public static void stop() {
+        STOPPED.set(true);
+    }
+
+    /**
+     * Initializes the forwarder, then runs the synthetic warmup.
+     *
+     * @param iterations number of times the bundled events are processed
+     * @param forwarder warms up the forwarder's pipeline and router when true, otherwise ones
+     * configured without the environment variables
+     * @return number of synthetic entries
+     */
+    static int run(int iterations, boolean forwarder) {
+        long start = System.nanoTime();
+        try {
+            // the providers and the default trust store are loaded once
+            SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            log(Level.WARNING, "Unable to initialize the TLS context: " + e.getMessage());
+        }
+        LogPipeline pipeline;
+        LogIngestClient client;
+        if (forwarder) {
+            pipeline = LogEventForwarder.getPipeline();
+            client = new LogEventForwarder().configureRouter().getDefaultBatcher().getClient();
+        } else {
+            pipeline = new LogPipeline(LogEventForwarder.configureAdapter(),
+                LogPipeline.DEFAULT_BUFFER_SIZE);
+            client = new LogIngestClient("https://localhost/rest", "warmup", "warmup", null,
+                LogIngestClient.createHttpClient(LogEventForwarder.DEFAULT_TIMEOUT,
+                    LogEventForwarder.DEFAULT_TIMEOUT, false), 0);
+        }
+        int entries = exercise(pipeline, client, loadEvents(), iterations, STOPPED::get);
+        warmupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log(Level.INFO, "Warmed up in " + warmupMillis + " ms, " + entries + " synthetic entries"
+            + (STOPPED.get() ? ", stopped by the first invocation" : ""));
+        return entries;
+    }
+
+    /**
+     * Transforms the events through the pipeline, serializes and signs them, without sending.
+     *
+     * @param pipeline the pipeline transforming the events
+     * @param client the client serializing and signing the entries, not sending them
+     * @param events the events
+     * @param iterations maximum number of times the events are processed
+     * @param stopped checked before each iteration, true to stop
+     * @return number of entries
+     */
+    static int exercise(LogPipeline pipeline, LogIngestClient client, List<String> events,
+        int iterations, BooleanSupplier stopped) {
+        int count = 0;
+        for (int i = 0; i < iterations && !stopped.getAsBoolean(); i++) {
+            List<LogEntry> entries = new ArrayList<>();
+            pipeline.process(events, entries::add).join();
+            client.prepare(entries);
+            count += entries.size();
+        }
+        return count;
+    }
+
+    /**
+     * Loads the bundled events.
+     *
+     * @return the events
+     */
+    static List<String> loadEvents() {
+        try (InputStream input = Warmup.class.getResourceAsStream(EVENTS_RESOURCE)) {
+            if (input == null) {
+                throw new IllegalStateException("Missing " + EVENTS_RESOURCE);
+            }
+            return new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))
+                .lines().filter(line -> !line.isBlank()).collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Logs the time to the first response of the ingestion, once per JVM.
+     *
+     * @param result the response
+     */
+    static void onSend(IngestResult result) {
+        if (FIRST_SEND.get() || !FIRST_SEND.compareAndSet(false, true)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long jvmStart = ProcessHandle.current().info().startInstant()
+            .map(Instant::toEpochMilli).orElse(LOADED);
+        String warmup;
+        if (!STARTED.get()) {
+            warmup = "no warmup";
+        } else if (warmupMillis < 0) {
+            warmup = "warmup not done";
+        } else {
+            warmup = "warmed up in " + warmupMillis + " ms";
+        }
+        log(Level.INFO, () -> "First batch sent " + (now - jvmStart)
+            + " ms after the JVM start, " + (now - LOADED) + " ms after the forwarder was loaded ("
+            + warmup + "), status " + result.getStatusCode());
+    }
+
+    /**
+     * Runs the synthetic warmup without the forwarder's configuration, e.g. for the class list of
+     * the AppCDS archive.
+     *
+     * @param args the number of iterations, optional
+     */
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+        long start = System.nanoTime();
+        int entries = run(iterations, false);
+        System.out.println("Warmed up in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms, " + entries
+            + " synthetic entries");
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.logicmonitor.logs.azure;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors running the blocking ingestion requests.<br>
+ * This version, for Java 21 or later, runs each batch on its own virtual thread: a request
+ * blocked on the network only parks its virtual thread, so the number of batches in flight isn't
+ * capped by a pool size but by the lanes of the {@link LogBatcher}. The platform threads of the
+ * Java 11 version are still used when the virtual threads are disabled.
+ */
+public final class SendExecutors {
+
+    /**
+     * Parameter: sends the batches on virtual threads on Java 21 or later (default true).
+     */
+    public static final String PARAMETER_VIRTUAL_THREADS = "LogSendVirtualThreads";
+
+    private SendExecutors() {
+    }
+
+    /**
+     * Checks if the runtime can send on virtual threads.
+     *
+     * @return true
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return true;
+    }
+
+    /**
+     * Creates the executor of the requests.
+     *
+     * @param name prefix of the thread names
+     * @param concurrency number of platform threads, ignored by the virtual threads
+     * @param virtualThreads runs each task on a new virtual thread when true
+     * @return the executor
+     */
+    public static ExecutorService newSendExecutor(String name, int concurrency,
+        boolean virtualThreads) {
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name(name + "-", 1).factory());
+        }
+        return Executors.newFixedThreadPool(Math.max(1, concurrency), daemonThreads(name));
+    }
+
+    /**
+     * Creates numbered daemon threads, so they don't prevent the JVM from exiting.
+     *
+     * @param name prefix of the thread names
+     * @return the thread factory
+     */
+    public static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
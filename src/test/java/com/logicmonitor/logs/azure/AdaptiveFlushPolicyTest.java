@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class AdaptiveFlushPolicyTest {
+
+    protected static final long MAX_BYTES = 1000;
+    protected static final int MAX_ENTRIES = 100;
+    protected static final long MIN_LINGER = 100;
+    protected static final long MAX_LINGER = 5000;
+
+    protected static AdaptiveFlushPolicy createPolicy(int parallelism) {
+        return new AdaptiveFlushPolicy(MAX_BYTES, MAX_ENTRIES, MIN_LINGER, MAX_LINGER,
+            parallelism);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "0,    0,    false",
+        "99,   999,  false",
+        "100,  0,    true",
+        "1,    1000, true",
+    })
+    public void testIsFull(int entries, long bytes, boolean expected) {
+        assertEquals(expected, createPolicy(1).isFull(entries, bytes));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "0,    0,    2000, false",
+        "1,    500,  500,  false",
+        "1,    500,  501,  true",
+    })
+    public void testWouldOverflow(int entries, long bytes, long entryBytes, boolean expected) {
+        assertEquals(expected, createPolicy(1).wouldOverflow(entries, bytes, entryBytes));
+    }
+
+    @Test
+    public void testQuietHubKeepsMinimumLinger() {
+        AdaptiveFlushPolicy policy = createPolicy(1);
+        // 1% filled in 1 second: the target fill would take 50 seconds
+        policy.onFlush(1, 10, TimeUnit.SECONDS.toNanos(1));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(MIN_LINGER), policy.getLingerNanos());
+    }
+
+    @Test
+    public void testBusyHubLingersUntilTargetFill() {
+        AdaptiveFlushPolicy policy = createPolicy(1);
+        // 25% filled in 200 ms: the target fill takes 400 ms
+        policy.onFlush(25, 0, TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(400, TimeUnit.NANOSECONDS.toMillis(policy.getLingerNanos()));
+        // the linger follows the arrival rate
+        for (int i = 0; i < 50; i++) {
+            policy.onFlush(50, 0, TimeUnit.MILLISECONDS.toNanos(200));
+        }
+        assertEquals(200, TimeUnit.NANOSECONDS.toMillis(policy.getLingerNanos()), 1);
+    }
+
+    @Test
+    public void testSlowIngestionRaisesLinger() {
+        AdaptiveFlushPolicy policy = createPolicy(4);
+        policy.onSend(TimeUnit.SECONDS.toNanos(2));
+        assertEquals(2000, TimeUnit.NANOSECONDS.toMillis(policy.getLatencyNanos()));
+        assertEquals(500, TimeUnit.NANOSECONDS.toMillis(policy.getLingerNanos()));
+        policy.onSend(TimeUnit.SECONDS.toNanos(100));
+        assertEquals(MAX_LINGER, TimeUnit.NANOSECONDS.toMillis(policy.getLingerNanos()));
+    }
+
+    @Test
+    public void testCatchUpLingersUntilFull() {
+        AdaptiveFlushPolicy policy = createPolicy(1);
+        // 25% filled in 200 ms: full batches take 800 ms
+        policy.onFlush(25, 0, TimeUnit.MILLISECONDS.toNanos(200));
+        policy.setCatchUp(true);
+        assertEquals(800, TimeUnit.NANOSECONDS.toMillis(policy.getLingerNanos()));
+        assertTrue(policy.toString().endsWith("catching up"), policy.toString());
+        policy.setCatchUp(false);
+        assertEquals(400, TimeUnit.NANOSECONDS.toMillis(policy.getLingerNanos()));
+    }
+
+    @Test
+    public void testLingerWithinBounds() {
+        AdaptiveFlushPolicy policy = createPolicy(1);
+        policy.onFlush(MAX_ENTRIES, MAX_BYTES, 1);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(MIN_LINGER), policy.getLingerNanos());
+        policy.onSend(1);
+        assertFalse(policy.getLingerNanos() < TimeUnit.MILLISECONDS.toNanos(MIN_LINGER));
+        assertTrue(policy.getLingerNanos() <= TimeUnit.MILLISECONDS.toNanos(MAX_LINGER));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class AsyncLogHandlerTest {
+
+    /**
+     * Handler keeping the messages, blocked until released for the records below WARNING.
+     */
+    protected static class CollectingHandler extends Handler {
+
+        protected final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        protected final CountDownLatch released;
+
+        protected CollectingHandler(boolean blocked) {
+            released = new CountDownLatch(blocked ? 1 : 0);
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            try {
+                if (record.getLevel().intValue() < Level.WARNING.intValue()) {
+                    released.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            messages.add(record.getMessage());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testPublish() {
+        CollectingHandler collecting = new CollectingHandler(false);
+        collecting.setLevel(Level.INFO);
+        AsyncLogHandler handler = new AsyncLogHandler(collecting, 128);
+        for (int i = 0; i < 100; i++) {
+            handler.publish(new LogRecord(Level.INFO, "message " + i));
+        }
+        handler.publish(new LogRecord(Level.FINE, "filtered"));
+        handler.close();
+        assertEquals(100, collecting.messages.size());
+        assertEquals("message 0", collecting.messages.get(0));
+        assertEquals("message 99", collecting.messages.get(99));
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        CollectingHandler collecting = new CollectingHandler(true);
+        AsyncLogHandler handler = new AsyncLogHandler(collecting, 4);
+        for (int i = 0; i < 20; i++) {
+            handler.publish(new LogRecord(Level.INFO, "message " + i));
+        }
+        // the drain thread may hold one record while blocked
+        long dropped = handler.getDropped();
+        assertTrue(dropped >= 15 && dropped <= 16, "dropped " + dropped);
+        collecting.released.countDown();
+        handler.close();
+
+        List<String> drops = collecting.messages.stream()
+            .filter(message -> message.startsWith("Dropped"))
+            .collect(Collectors.toList());
+        assertEquals(List.of("Dropped " + dropped + " log records, the logging buffer is full"),
+            drops);
+        assertEquals(20 - dropped + 1, collecting.messages.size());
+    }
+
+    @Test
+    public void testFlush() {
+        CollectingHandler collecting = new CollectingHandler(false);
+        AsyncLogHandler handler = new AsyncLogHandler(collecting, 1024);
+        for (int i = 0; i < 500; i++) {
+            handler.publish(new LogRecord(Level.INFO, "message " + i));
+        }
+        handler.flush();
+        assertEquals(0, handler.getQueued());
+        handler.close();
+        assertEquals(500, collecting.messages.size());
+        handler.publish(new LogRecord(Level.INFO, "closed"));
+        assertEquals(500, collecting.messages.size());
+    }
+
+    @Test
+    public void testWarningWhenFull() throws Exception {
+        CollectingHandler collecting = new CollectingHandler(true);
+        AsyncLogHandler handler = new AsyncLogHandler(collecting, 4);
+        handler.publish(new LogRecord(Level.INFO, "message 0"));
+        // the drain thread holds the first record while blocked
+        while (handler.getQueued() > 0) {
+            Thread.sleep(1);
+        }
+        for (int i = 1; i < 20; i++) {
+            handler.publish(new LogRecord(Level.INFO, "message " + i));
+        }
+        long dropped = handler.getDropped();
+        assertEquals(15, dropped);
+        handler.publish(new LogRecord(Level.WARNING, "warning"));
+        handler.publish(new LogRecord(Level.SEVERE, "severe"));
+        // published by the logging thread while the drain thread is blocked
+        assertEquals(List.of("warning", "severe"), collecting.messages);
+        assertEquals(dropped, handler.getDropped());
+        collecting.released.countDown();
+        handler.close();
+        assertEquals(20 - dropped + 3, collecting.messages.size());
+    }
+
+    @Test
+    public void testRepeatedMessages() {
+        long interval = TimeUnit.SECONDS.toNanos(10);
+        LoggingUtils.RepeatedMessages repeated = new LoggingUtils.RepeatedMessages(interval, 2);
+        assertEquals(0, repeated.admit("a", 0));
+        assertEquals(-1, repeated.admit("a", 1));
+        assertEquals(-1, repeated.admit("a", interval - 1));
+        assertEquals(0, repeated.admit("b", 1));
+        assertEquals(2, repeated.admit("a", interval));
+        assertEquals(0, repeated.admit("a", 2 * interval));
+        // the windows are reset when there are too many keys
+        assertEquals(0, repeated.admit("c", 2 * interval));
+        assertEquals(0, repeated.admit("b", 2));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.logicmonitor.logs.azure.CircuitBreaker.State;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class CircuitBreakerTest {
+
+    protected static final long SLOW_CALL_MILLIS = 1000;
+    protected static final int WINDOW_SECONDS = 10;
+    protected static final int MINIMUM_CALLS = 10;
+    protected static final long OPEN_SECONDS = 30;
+
+    protected final AtomicLong clock = new AtomicLong(TimeUnit.DAYS.toNanos(1));
+
+    protected CircuitBreaker createBreaker() {
+        return new CircuitBreaker(0.5, 0.8, SLOW_CALL_MILLIS, WINDOW_SECONDS, MINIMUM_CALLS,
+            OPEN_SECONDS, clock::get);
+    }
+
+    protected void record(CircuitBreaker breaker, int calls, boolean success, long latencyMillis) {
+        for (int i = 0; i < calls; i++) {
+            long permit = breaker.tryAcquire();
+            assertNotEquals(CircuitBreaker.REJECTED, permit);
+            breaker.onResult(permit, success, TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "10, 0,  10,   CLOSED",
+        "5,  5,  10,   OPEN",
+        "6,  4,  10,   CLOSED",
+        "0,  9,  10,   CLOSED",
+        "10, 0,  2000, OPEN",
+    })
+    public void testThresholds(int successes, int failures, long latencyMillis, State expected) {
+        CircuitBreaker breaker = createBreaker();
+        record(breaker, successes, true, latencyMillis);
+        if (failures > 0) {
+            record(breaker, failures, false, 10);
+        }
+        assertEquals(expected, breaker.getState());
+    }
+
+    @Test
+    public void testWindowExpires() {
+        CircuitBreaker breaker = createBreaker();
+        record(breaker, 9, false, 10);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(WINDOW_SECONDS));
+        record(breaker, 9, false, 10);
+        assertEquals(State.CLOSED, breaker.getState());
+        record(breaker, 1, false, 10);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testOpenRejectsUntilTrial() {
+        CircuitBreaker breaker = createBreaker();
+        record(breaker, MINIMUM_CALLS, false, 10);
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+        assertEquals(1, breaker.getRejectedCalls());
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(OPEN_SECONDS));
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        long trial = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, trial);
+        // a single trial call at a time
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+        breaker.onResult(trial, false, 0);
+        assertEquals(State.OPEN, breaker.getState());
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(OPEN_SECONDS));
+        trial = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, trial);
+        breaker.onResult(trial, true, 0);
+        assertEquals(State.CLOSED, breaker.getState());
+        // the failures before opening are forgotten
+        record(breaker, 1, false, 10);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "true,  CLOSED",
+        "false, OPEN",
+    })
+    public void testOnlyTrialDecides(boolean trialSuccess, State expected) {
+        CircuitBreaker breaker = createBreaker();
+        // calls started before the circuit opens
+        long late1 = breaker.tryAcquire();
+        long late2 = breaker.tryAcquire();
+        record(breaker, MINIMUM_CALLS, false, 10);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(OPEN_SECONDS));
+        long trial = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, trial);
+
+        // their results arrive while the trial is in progress
+        breaker.onResult(late1, true, 0);
+        breaker.onResult(late2, false, 0);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+
+        breaker.onResult(trial, trialSuccess, 0);
+        assertEquals(expected, breaker.getState());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class ContentHashTest {
+
+    protected static LogEntry entry(long timestamp, String message, String category) {
+        LogEntry entry = new LogEntry().timestamp(timestamp).message(message);
+        entry.getMetadata().put(LogEventAdapter.LM_CATEGORY, category);
+        return entry;
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "'',                                       ef46db3751d8e999",
+        "a,                                        d24ec4f1a98c6e5b",
+        "abc,                                      44bc2cf5ad770999",
+        "Nobody inspects the spammish repetition,  fbcea83c8a378bf1",
+    })
+    public void testXxHash64(String input, String expected) {
+        // the harness may pass '' as null
+        byte[] bytes = input != null ? input.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        assertEquals(expected, ContentHash.toHex(ContentHash.xxHash64(bytes, 0, bytes.length, 0)));
+        // at an offset
+        byte[] padded = new byte[bytes.length + 3];
+        System.arraycopy(bytes, 0, padded, 3, bytes.length);
+        assertEquals(expected, ContentHash.toHex(ContentHash.xxHash64(padded, 3, bytes.length, 0)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "plain ascii",
+        "café über",
+        "日本語のログ",
+        "emoji 😀 and lone \ud83d surrogate",
+    })
+    public void testSerializedBytes(String message) {
+        ContentHash contentHash = new ContentHash(List.of(LogEventAdapter.LM_CATEGORY), false);
+        LogEntry entry = entry(1600000000, message, "Administrative");
+        ByteBuffer expected = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        putString(expected, "resource");
+        expected.putLong(1600000000);
+        putString(expected, message);
+        putString(expected, LogEventAdapter.LM_CATEGORY);
+        putString(expected, "Administrative");
+        assertEquals(ContentHash.xxHash64(expected.array(), 0, expected.position(), 0),
+            contentHash.hash(entry, "resource"));
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "plain ascii",
+        "café über",
+        "日本語のログ",
+        "emoji 😀 and lone \ud83d surrogate",
+        "lone low \ude00",
+    })
+    public void testStringHash(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        assertEquals(bytes.length, ContentHash.utf8Length(value));
+        assertEquals(ContentHash.xxHash64(bytes, 0, bytes.length, 0), ContentHash.hash(value));
+    }
+
+    @Test
+    public void testStableContent() {
+        ContentHash contentHash = new ContentHash(
+            ContentHash.parseKeys(ContentHash.DEFAULT_KEYS), true);
+        long hash = contentHash.apply(entry(1, "message", "category"), "resource");
+        assertEquals(hash, contentHash.hash(entry(1, "message", "category"), "resource"));
+        // any field changes it, and moving bytes between fields too
+        assertNotEquals(hash, contentHash.hash(entry(2, "message", "category"), "resource"));
+        assertNotEquals(hash, contentHash.hash(entry(1, "message2", "category"), "resource"));
+        assertNotEquals(hash, contentHash.hash(entry(1, "message", "category2"), "resource"));
+        assertNotEquals(hash, contentHash.hash(entry(1, "message", "category"), "resource2"));
+        assertNotEquals(hash, contentHash.hash(entry(1, "messag", "ecategory"), "resource"));
+        assertNotEquals(hash, contentHash.hash(entry(1, "message", "category"), null));
+        // the metadata not selected doesn't
+        LogEntry other = entry(1, "message", "category");
+        other.getMetadata().put("other", "value");
+        assertEquals(hash, contentHash.hash(other, "resource"));
+    }
+
+    @Test
+    public void testMetadata() {
+        LogEntry entry = entry(1, "message", "category");
+        long hash = new ContentHash(List.of(), true).apply(entry, "resource");
+        assertEquals(ContentHash.toHex(hash),
+            entry.getMetadata().get(ContentHash.METADATA_CONTENT_HASH));
+        assertEquals(16, ContentHash.toHex(1).length());
+
+        LogEntry untagged = entry(1, "message", "category");
+        assertEquals(hash, new ContentHash(List.of(), false).apply(untagged, "resource"));
+        assertFalse(untagged.getMetadata().containsKey(ContentHash.METADATA_CONTENT_HASH));
+    }
+
+    @Test
+    public void testLargeMessage() {
+        ContentHash contentHash = new ContentHash(List.of(), false);
+        String message = "x".repeat(100_000);
+        assertEquals(contentHash.hash(entry(1, message, null), "resource"),
+            contentHash.hash(entry(1, message, null), "resource"));
+        assertNotEquals(contentHash.hash(entry(1, message, null), "resource"),
+            contentHash.hash(entry(1, message + "y", null), "resource"));
+    }
+
+    @Test
+    public void testParseKeys() {
+        assertEquals(List.of("category", "_type", "log_level", "activity_type"),
+            ContentHash.parseKeys(ContentHash.DEFAULT_KEYS));
+        assertEquals(List.of("a", "b"), ContentHash.parseKeys(" a, ,b "));
+        assertEquals(List.of(), ContentHash.parseKeys(null));
+    }
+
+    @Test
+    public void testMissingFields() {
+        ContentHash contentHash = new ContentHash(List.of("missing"), false);
+        assertEquals(contentHash.hash(new LogEntry(), null),
+            contentHash.hash(new LogEntry(), null));
+        assertNotEquals(contentHash.hash(new LogEntry(), null),
+            contentHash.hash(new LogEntry().message(""), null));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class DeduplicatorTest {
+
+    protected static Deduplicator deduplicator(int size) {
+        return new Deduplicator(new ContentHash(
+            ContentHash.parseKeys(ContentHash.DEFAULT_KEYS), true), size);
+    }
+
+    protected static List<LogEntry> entries(int count) {
+        List<LogEntry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(ContentHashTest.entry(1600000000 + i / 10, "message " + i, "category"));
+        }
+        return entries;
+    }
+
+    @Test
+    public void testSuppressesResends() {
+        Deduplicator deduplicator = deduplicator(1024);
+        List<LogEntry> delivered = entries(100);
+        for (LogEntry entry : delivered) {
+            assertTrue(deduplicator.check(entry, "resource"));
+        }
+        deduplicator.addDelivered(delivered);
+        // redelivered, as new entries transformed from the same events
+        for (LogEntry entry : entries(100)) {
+            assertFalse(deduplicator.check(entry, "resource"));
+        }
+        // the same content from another resource
+        assertTrue(deduplicator.check(entries(1).get(0), "resource2"));
+        assertEquals(201, deduplicator.getEntries());
+        assertEquals(100, deduplicator.getSuppressed());
+        assertTrue(deduplicator.toString().startsWith("suppressed 100 duplicates of 201"),
+            deduplicator.toString());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "1,      4",
+        "4,      4",
+        "1000,   1024",
+        "65536,  65536",
+    })
+    public void testSize(int size, int expected) {
+        assertEquals(expected, deduplicator(size).getSize());
+    }
+
+    @Test
+    public void testBounded() {
+        Deduplicator deduplicator = deduplicator(256);
+        for (long hash = 1; hash <= 100_000; hash++) {
+            assertTrue(deduplicator.add(hash * 0x9E3779B97F4A7C15L));
+        }
+        // the oldest ones are evicted, most of the newest are kept
+        int recent = 0;
+        for (long hash = 100_000; hash > 100_000 - 128; hash--) {
+            recent += deduplicator.add(hash * 0x9E3779B97F4A7C15L) ? 0 : 1;
+        }
+        assertTrue(recent > 64, "recent " + recent);
+        assertTrue(deduplicator.add(0x9E3779B97F4A7C15L));
+    }
+
+    @Test
+    public void testBucket() {
+        Deduplicator deduplicator = deduplicator(Deduplicator.WAYS);
+        // a single bucket keeps the last WAYS hashes
+        for (long hash = 1; hash <= Deduplicator.WAYS + 1; hash++) {
+            assertTrue(deduplicator.add(hash));
+        }
+        for (long hash = 2; hash <= Deduplicator.WAYS + 1; hash++) {
+            assertFalse(deduplicator.add(hash));
+        }
+        assertTrue(deduplicator.add(1));
+        // 0 is a valid hash
+        deduplicator = deduplicator(Deduplicator.WAYS);
+        assertTrue(deduplicator.add(0));
+        assertFalse(deduplicator.add(0));
+    }
+
+    @Test
+    public void testNotDelivered() {
+        Deduplicator deduplicator = deduplicator(1024);
+        // shed, dropped or failed
+        for (LogEntry entry : entries(10)) {
+            assertTrue(deduplicator.check(entry, "resource"));
+        }
+        List<LogEntry> redelivered = entries(10);
+        for (LogEntry entry : redelivered) {
+            assertTrue(deduplicator.check(entry, "resource"));
+        }
+        deduplicator.addDelivered(redelivered);
+        for (LogEntry entry : entries(10)) {
+            assertFalse(deduplicator.check(entry, "resource"));
+        }
+        assertEquals(10, deduplicator.getSuppressed());
+    }
+
+    @Test
+    public void testHashOnly() {
+        Deduplicator deduplicator = deduplicator(0);
+        LogEntry entry = entries(1).get(0);
+        assertTrue(deduplicator.check(entry, "resource"));
+        deduplicator.addDelivered(List.of(entry));
+        assertTrue(deduplicator.check(entries(1).get(0), "resource"));
+        assertEquals(0, deduplicator.getSuppressed());
+        assertEquals(0, entry.getDedupKey());
+        assertEquals(16, entry.getMetadata().get(ContentHash.METADATA_CONTENT_HASH).length());
+    }
+
+    @Test
+    public void testConcurrentResends() throws Exception {
+        Deduplicator deduplicator = deduplicator(65536);
+        AtomicInteger sent = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                futures.add(executor.submit(() -> {
+                    for (LogEntry entry : entries(5000)) {
+                        if (deduplicator.check(entry, "resource")) {
+                            sent.incrementAndGet();
+                            deduplicator.addDelivered(List.of(entry));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // each entry at least once, the racing duplicates may be sent
+        assertTrue(sent.get() >= 5000 && sent.get() < 4 * 5000, "sent " + sent);
+        assertEquals(4 * 5000, deduplicator.getEntries());
+        assertEquals(4 * 5000 - sent.get(), deduplicator.getSuppressed());
+    }
+}
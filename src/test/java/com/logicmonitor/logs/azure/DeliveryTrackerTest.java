@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import com.logicmonitor.logs.azure.DeliveryTracker.Delivery;
+import com.logicmonitor.logs.azure.LogIngestClient.IngestResult;
+import org.junit.jupiter.api.Test;
+
+public class DeliveryTrackerTest {
+
+    protected static final IngestResult SUCCESS =
+        new IngestResult(202, 1, "requestId", null, 0, null);
+    protected static final IngestResult RETRIED_SUCCESS =
+        new IngestResult(202, 2, "retriedRequestId", null, 0, null);
+    protected static final IngestResult FAILURE =
+        new IngestResult(500, 3, null, null, 0, "error");
+
+    protected static List<LogEntry> createEntries(int count) {
+        return IntStream.range(0, count)
+            .mapToObj(i -> new LogEntry().message("message " + i).timestamp((long) i))
+            .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testMixedBatches() {
+        DeliveryTracker tracker = new DeliveryTracker(null);
+        List<LogEntry> first = createEntries(3);
+        List<LogEntry> second = createEntries(2);
+        Delivery firstDelivery = tracker.register("first", first);
+        Delivery secondDelivery = tracker.register("second", second);
+        assertEquals(2, tracker.getPendingDeliveries());
+
+        tracker.onSuccess(List.of(first.get(0), second.get(0), first.get(1)), SUCCESS);
+        assertFalse(firstDelivery.getFuture().isDone());
+        assertFalse(secondDelivery.getFuture().isDone());
+
+        tracker.onFailure(List.of(second.get(1)), FAILURE);
+        assertTrue(secondDelivery.getFuture().isDone());
+        assertFalse(secondDelivery.isSuccess());
+        assertEquals(1, secondDelivery.getDelivered());
+        assertEquals(1, secondDelivery.getFailed());
+        assertEquals(1, secondDelivery.getRetried());
+
+        tracker.onSuccess(List.of(first.get(2)), RETRIED_SUCCESS);
+        assertTrue(firstDelivery.isSuccess());
+        assertEquals(3, firstDelivery.getDelivered());
+        assertEquals(1, firstDelivery.getRetried());
+        assertEquals("retriedRequestId", firstDelivery.getRequestId());
+
+        assertEquals(0, tracker.getPendingDeliveries());
+        assertEquals(4, tracker.getDeliveredEntries());
+        assertEquals(1, tracker.getFailedEntries());
+        assertEquals(2, tracker.getRetriedEntries());
+    }
+
+    @Test
+    public void testDropped() {
+        DeliveryTracker tracker = new DeliveryTracker(null);
+        List<LogEntry> entries = createEntries(2);
+        Delivery delivery = tracker.register("dropped", entries);
+        tracker.onDropped(entries);
+        assertTrue(delivery.getFuture().isDone());
+        assertEquals(2, delivery.getFailed());
+        assertEquals(0, delivery.getRetried());
+    }
+
+    @Test
+    public void testEmpty() {
+        Delivery delivery = new DeliveryTracker(null).register("empty", List.of());
+        assertTrue(delivery.isSuccess());
+    }
+
+    @Test
+    public void testConcurrentInvocations() throws Exception {
+        DeliveryTracker tracker = new DeliveryTracker(null);
+        LogBatcher batcher = new LogBatcher(new LogBatcherTest.RecordingClient(),
+            new AdaptiveFlushPolicy(Long.MAX_VALUE, 7, 10, 10, 1), tracker, 4, 4);
+        List<Delivery> deliveries = Collections.synchronizedList(new ArrayList<>());
+        IntStream.range(0, 100).parallel().forEach(invocation -> {
+            List<LogEntry> entries = createEntries(invocation % 10 + 1);
+            entries.forEach(entry -> entry.putLmResourceIdItem(
+                LogEventAdapter.LM_RESOURCE_PROPERTY, "resource-" + invocation % 3));
+            deliveries.add(tracker.register("invocation-" + invocation, entries));
+            entries.forEach(batcher::add);
+        });
+        for (Delivery delivery : deliveries) {
+            delivery.getFuture().get(10, TimeUnit.SECONDS);
+            assertTrue(delivery.isSuccess());
+            assertEquals(delivery.getEntries(), delivery.getDelivered());
+        }
+        assertTrue(batcher.close(10000));
+        assertEquals(0, tracker.getPendingDeliveries());
+        assertEquals(deliveries.stream().mapToInt(Delivery::getEntries).sum(),
+            tracker.getDeliveredEntries());
+    }
+}
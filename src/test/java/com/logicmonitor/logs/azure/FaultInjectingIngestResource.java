@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import com.google.gson.JsonParser;
+import org.glassfish.grizzly.http.server.Request;
+
+/**
+ * Local stand-in of the log ingestion endpoint injecting the faults of the {@link FaultProfile}.
+ */
+@Path("/rest")
+public class FaultInjectingIngestResource {
+
+    static volatile FaultProfile profile = new FaultProfile();
+
+    static final AtomicLong requests = new AtomicLong();
+    static final AtomicLong receivedEntries = new AtomicLong();
+    static final AtomicLong throttled = new AtomicLong();
+    static final AtomicLong serverErrors = new AtomicLong();
+    static final AtomicLong resets = new AtomicLong();
+    static final AtomicLong slowReads = new AtomicLong();
+
+    static void reset(FaultProfile faultProfile) {
+        profile = faultProfile;
+        requests.set(0);
+        receivedEntries.set(0);
+        throttled.set(0);
+        serverErrors.set(0);
+        resets.set(0);
+        slowReads.set(0);
+    }
+
+    @Path("/log/ingest")
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response doPost(InputStream body, @Context Request request)
+        throws IOException, InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        FaultProfile faults = profile;
+        requests.incrementAndGet();
+
+        byte[] bytes;
+        if (faults.nextSlowRead(random)) {
+            slowReads.incrementAndGet();
+            bytes = readSlowly(body, faults.getSlowReadBytesPerSecond());
+        } else {
+            bytes = body.readAllBytes();
+        }
+        Thread.sleep(faults.nextLatencyMillis(random));
+
+        switch (faults.nextFault(random)) {
+            case RESET:
+                resets.incrementAndGet();
+                request.getRequest().getConnection().closeSilently();
+                return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+            case THROTTLE:
+                throttled.incrementAndGet();
+                return Response.status(429).build();
+            case SERVER_ERROR:
+                serverErrors.incrementAndGet();
+                return Response.status(Status.SERVICE_UNAVAILABLE).build();
+            default:
+                receivedEntries.addAndGet(JsonParser.parseString(
+                    new String(bytes, StandardCharsets.UTF_8)).getAsJsonArray().size());
+                return Response
+                    .status(Status.ACCEPTED)
+                    .header("X-Request-ID", UUID.randomUUID().toString())
+                    .build();
+        }
+    }
+
+    private static byte[] readSlowly(InputStream body, int bytesPerSecond)
+        throws IOException, InterruptedException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // chunks of 100 ms
+        byte[] chunk = new byte[Math.max(1, bytesPerSecond / 10)];
+        int read;
+        while ((read = body.read(chunk)) > 0) {
+            bytes.write(chunk, 0, read);
+            Thread.sleep(100);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.util.Locale;
+import java.util.Random;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Faults injected by {@link FaultInjectingIngestResource}.<br>
+ * It's parsed from comma separated settings, e.g.
+ * {@code latency=exponential:20,throttle=0.05,error=0.01,reset=0.01,slowRead=0.02:65536}:
+ * <ul>
+ * <li>{@code latency=<distribution>:<millis>} response latency: fixed, uniform (0 to twice the
+ * mean), exponential (the mean) or lognormal (the median)
+ * <li>{@code throttle=<rate>} fraction of requests answered with 429
+ * <li>{@code error=<rate>} fraction of requests answered with 503
+ * <li>{@code reset=<rate>} fraction of requests whose connection is closed without a response
+ * <li>{@code slowRead=<rate>:<bytes per second>} fraction of requests whose body is read slowly
+ * </ul>
+ */
+public class FaultProfile {
+
+    public enum LatencyDistribution {
+        FIXED, UNIFORM, EXPONENTIAL, LOGNORMAL
+    }
+
+    public enum Fault {
+        NONE, THROTTLE, SERVER_ERROR, RESET
+    }
+
+    private LatencyDistribution latencyDistribution = LatencyDistribution.FIXED;
+    private double latencyMillis;
+    private double throttleRate;
+    private double serverErrorRate;
+    private double resetRate;
+    private double slowReadRate;
+    private int slowReadBytesPerSecond = 64 * 1024;
+
+    public static FaultProfile parse(String settings) {
+        FaultProfile profile = new FaultProfile();
+        for (String setting : StringUtils.split(StringUtils.defaultString(settings), ",")) {
+            String[] nameValue = StringUtils.split(setting.trim(), "=", 2);
+            String[] values = StringUtils.split(nameValue[1], ":");
+            switch (nameValue[0]) {
+                case "latency":
+                    profile.latencyDistribution = LatencyDistribution.valueOf(
+                        values[0].toUpperCase(Locale.ROOT));
+                    profile.latencyMillis = Double.parseDouble(values[1]);
+                    break;
+                case "throttle":
+                    profile.throttleRate = Double.parseDouble(values[0]);
+                    break;
+                case "error":
+                    profile.serverErrorRate = Double.parseDouble(values[0]);
+                    break;
+                case "reset":
+                    profile.resetRate = Double.parseDouble(values[0]);
+                    break;
+                case "slowRead":
+                    profile.slowReadRate = Double.parseDouble(values[0]);
+                    if (values.length > 1) {
+                        profile.slowReadBytesPerSecond = Integer.parseInt(values[1]);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown fault setting: " + setting);
+            }
+        }
+        return profile;
+    }
+
+    public long nextLatencyMillis(Random random) {
+        switch (latencyDistribution) {
+            case UNIFORM:
+                return Math.round(random.nextDouble() * 2 * latencyMillis);
+            case EXPONENTIAL:
+                return Math.round(-latencyMillis * Math.log(1 - random.nextDouble()));
+            case LOGNORMAL:
+                return Math.round(latencyMillis * Math.exp(random.nextGaussian()));
+            default:
+                return Math.round(latencyMillis);
+        }
+    }
+
+    public Fault nextFault(Random random) {
+        double value = random.nextDouble();
+        if ((value -= resetRate) < 0) {
+            return Fault.RESET;
+        } else if ((value -= throttleRate) < 0) {
+            return Fault.THROTTLE;
+        } else if (value - serverErrorRate < 0) {
+            return Fault.SERVER_ERROR;
+        }
+        return Fault.NONE;
+    }
+
+    public boolean nextSlowRead(Random random) {
+        return random.nextDouble() < slowReadRate;
+    }
+
+    public int getSlowReadBytesPerSecond() {
+        return slowReadBytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("latency %s %.1f ms, throttle %.3f, error %.3f, reset %.3f, "
+                + "slow read %.3f at %d B/s", latencyDistribution, latencyMillis, throttleRate,
+            serverErrorRate, resetRate, slowReadRate, slowReadBytesPerSecond);
+    }
+}
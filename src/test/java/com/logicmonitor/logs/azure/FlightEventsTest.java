@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class FlightEventsTest {
+
+    private static final Path PROFILE = Paths.get("jfr", "lm-logs-azure.jfc");
+
+    protected static List<RecordedEvent> record(Runnable runnable) throws IOException {
+        Path file = Files.createTempFile("lm-logs-azure", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String event : List.of("Invocation", "Decode", "MetadataExtraction", "Scrub",
+                "BatchBuild", "Send")) {
+                recording.enable(FlightEvents.PREFIX + event).withoutThreshold();
+            }
+            recording.start();
+            runnable.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    protected static Map<String, List<RecordedEvent>> byName(List<RecordedEvent> events) {
+        return events.stream().filter(event -> event.getEventType().getName()
+            .startsWith(FlightEvents.PREFIX)).collect(Collectors.groupingBy(
+                event -> event.getEventType().getName().substring(FlightEvents.PREFIX.length())));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "Invocation,         0 ms",
+        "Decode,             1 ms",
+        "MetadataExtraction, 1 ms",
+        "Scrub,              1 ms",
+        "BatchBuild,         0 ms",
+        "Send,               0 ms",
+    })
+    public void testProfile(String event, String threshold) throws Exception {
+        Map<String, String> settings = Configuration.create(PROFILE).getSettings();
+        assertEquals("true", settings.get(FlightEvents.PREFIX + event + "#enabled"));
+        assertEquals(threshold, settings.get(FlightEvents.PREFIX + event + "#threshold"));
+    }
+
+    @Test
+    public void testAdapterEvents() throws Exception {
+        LogEventAdapter adapter = new LogEventAdapter("\\d", "clientId", null, null);
+        String event = "{\"records\": [{\"category\": \"Audit\", \"properties\": {\"Msg\": \"a1\"}},"
+            + " {\"properties\": {\"Msg\": \"b22\"}}, 3]}";
+        Map<String, List<RecordedEvent>> events = byName(record(() -> adapter.apply(event)));
+
+        RecordedEvent decode = events.get("Decode").get(0);
+        assertEquals(3, decode.getInt("records"));
+        assertEquals(event.length(), decode.getLong("bytes"));
+        List<RecordedEvent> extractions = events.get("MetadataExtraction");
+        assertEquals(2, extractions.size());
+        assertEquals("Audit", extractions.get(0).getString("category"));
+        assertTrue(extractions.get(0).getInt("metadata") > 0);
+        List<RecordedEvent> scrubs = events.get("Scrub");
+        assertEquals(2, scrubs.size());
+        assertEquals(2, scrubs.get(1).getLong("scrubbedBytes"));
+        assertTrue(scrubs.get(0).getDuration().toNanos() >= 0);
+    }
+
+    @Test
+    public void testSendEvents() throws Exception {
+        LogIngestClient client = new LogIngestClient("http://localhost:1/rest", "id", "key", null,
+            LogIngestClient.createHttpClient(100, 100, false), 1);
+        LogEntry entry = new LogEntry();
+        entry.setMessage("message");
+        Map<String, List<RecordedEvent>> events = byName(record(
+            () -> client.send(List.of(entry))));
+
+        RecordedEvent build = events.get("BatchBuild").get(0);
+        assertEquals(1, build.getInt("entries"));
+        assertTrue(build.getLong("bytes") > 0);
+        Map<Integer, RecordedEvent> sends = events.get("Send").stream()
+            .collect(Collectors.toMap(send -> send.getInt("attempt"), Function.identity()));
+        assertEquals(2, sends.size());
+        assertEquals(0, sends.get(1).getInt("statusCode"));
+        assertEquals(build.getLong("bytes"), sends.get(2).getLong("bytes"));
+        assertEquals(client.getIngestUrl(), sends.get(2).getString("url"));
+    }
+
+    @Test
+    public void testNotRecorded() throws Exception {
+        // the events are dropped without a recording
+        LogEventAdapter adapter = new LogEventAdapter(null, "clientId", null, null);
+        assertEquals(1, adapter.apply("{\"properties\": {\"Msg\": \"message\"}}").size());
+        assertTrue(byName(record(() -> { })).isEmpty());
+    }
+}
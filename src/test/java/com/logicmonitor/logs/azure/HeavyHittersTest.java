@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import com.logicmonitor.logs.azure.HeavyHitters.Dimension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class HeavyHittersTest {
+
+    protected static LogEntry entry(String category, String type, int size) {
+        LogEntry entry = new LogEntry();
+        entry.setMessage("m".repeat(size));
+        if (category != null) {
+            entry.getMetadata().put(LogEventAdapter.LM_CATEGORY, category);
+        }
+        if (type != null) {
+            entry.getMetadata().put(LogEventAdapter.LM_EVENTSOURCE, type);
+        }
+        return entry;
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "5,  256",
+        "10, 2048",
+        "20, 4096",
+    })
+    public void testTopOfSkewedVolume(int top, int width) {
+        HeavyHitters heavyHitters = new HeavyHitters(top, 0, width);
+        Map<String, Long> volumes = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            // the first keys send most of the volume, the others are noise
+            int key = (int) Math.floor(Math.pow(random.nextDouble(), 4) * 5000);
+            long size = 10 + key % 7;
+            heavyHitters.add(Dimension.RESOURCE, "resource" + key, size);
+            volumes.merge("resource" + key, size, Long::sum);
+        }
+        List<String> expected = volumes.entrySet().stream()
+            .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+            .limit(top).map(Map.Entry::getKey).collect(Collectors.toList());
+        List<Map.Entry<String, Long>> actual = heavyHitters.getTop(Dimension.RESOURCE);
+        assertEquals(top, actual.size());
+        // the order of the closest ones may differ
+        assertEquals(expected.get(0), actual.get(0).getKey());
+        assertTrue(actual.stream().map(Map.Entry::getKey).filter(expected::contains).count()
+            >= top - 1, actual.toString());
+        for (Map.Entry<String, Long> key : actual) {
+            assertTrue(key.getValue() >= volumes.get(key.getKey()));
+        }
+    }
+
+    @Test
+    public void testUtf8Size() {
+        HeavyHitters heavyHitters = new HeavyHitters(3, 0, 256);
+        LogEntry entry = new LogEntry();
+        entry.setMessage("日本語");
+        heavyHitters.add(entry, "resource1");
+        assertEquals(9, heavyHitters.getTotal());
+        assertEquals(9, heavyHitters.estimate(Dimension.RESOURCE, "resource1"));
+    }
+
+    @Test
+    public void testSameStringHashCode() {
+        // the keys of the generated names often share their String hash code
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        HeavyHitters heavyHitters = new HeavyHitters(3, 0, 256);
+        heavyHitters.add(Dimension.RESOURCE, "AaAa", 100);
+        heavyHitters.add(Dimension.RESOURCE, "BBBB", 1);
+        assertEquals(1, heavyHitters.estimate(Dimension.RESOURCE, "BBBB"));
+        assertEquals(List.of(Map.entry("AaAa", 100L), Map.entry("BBBB", 1L)),
+            heavyHitters.getTop(Dimension.RESOURCE));
+    }
+
+    @Test
+    public void testNeverUnderestimates() {
+        HeavyHitters heavyHitters = new HeavyHitters(10, 0, 64);
+        Map<String, Long> volumes = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 10_000; i++) {
+            String key = "key" + random.nextInt(1000);
+            heavyHitters.add(Dimension.TYPE, key, i % 100 + 1);
+            volumes.merge(key, (long) (i % 100 + 1), Long::sum);
+        }
+        volumes.forEach((key, volume) ->
+            assertTrue(heavyHitters.estimate(Dimension.TYPE, key) >= volume, key));
+        // the dimensions don't share counters
+        assertEquals(0, heavyHitters.estimate(Dimension.CATEGORY, "key1"));
+    }
+
+    @Test
+    public void testEntries() {
+        HeavyHitters heavyHitters = new HeavyHitters(3, 0, 256);
+        heavyHitters.add(entry("Administrative", "Microsoft.Web/sites", 100), "resource1");
+        heavyHitters.add(entry("Administrative", null, 50), "resource2");
+        heavyHitters.add(entry(null, "Microsoft.Web/sites", 30), null);
+        heavyHitters.add(new LogEntry(), "resource3");
+
+        assertEquals(180, heavyHitters.getTotal());
+        assertEquals(List.of(Map.entry("resource1", 100L), Map.entry("resource2", 50L)),
+            heavyHitters.getTop(Dimension.RESOURCE));
+        assertEquals(List.of(Map.entry("Administrative", 150L)),
+            heavyHitters.getTop(Dimension.CATEGORY));
+        assertEquals(List.of(Map.entry("Microsoft.Web/sites", 130L)),
+            heavyHitters.getTop(Dimension.TYPE));
+        String summary = heavyHitters.toString();
+        assertTrue(summary.startsWith("180 bytes, resource {resource1 100 (55%)"), summary);
+        assertTrue(summary.contains("type {Microsoft.Web/sites 130 (72%)}"), summary);
+
+        heavyHitters.reset();
+        assertEquals(0, heavyHitters.getTotal());
+        assertTrue(heavyHitters.getTop(Dimension.RESOURCE).isEmpty());
+        assertEquals(0, heavyHitters.estimate(Dimension.RESOURCE, "resource1"));
+    }
+
+    @Test
+    public void testInterval() throws Exception {
+        HeavyHitters heavyHitters = new HeavyHitters(3, 500, 256);
+        Thread.sleep(600);
+        // logs the summary and restarts
+        heavyHitters.add(entry("category", "type", 10), "resource");
+        assertEquals(0, heavyHitters.getTotal());
+        heavyHitters.add(entry("category", "type", 10), "resource");
+        assertEquals(10, heavyHitters.getTotal());
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        HeavyHitters heavyHitters = new HeavyHitters(4, 0, 1024);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        heavyHitters.add(entry(null, null, 1 + i % 4), "resource" + i % 8);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(4 * 10_000 / 4 * (1 + 2 + 3 + 4), heavyHitters.getTotal());
+        long sum = 0;
+        for (int i = 0; i < 8; i++) {
+            sum += heavyHitters.estimate(Dimension.RESOURCE, "resource" + i);
+        }
+        assertTrue(sum >= heavyHitters.getTotal());
+        assertEquals(4, heavyHitters.getTop(Dimension.RESOURCE).size());
+    }
+}
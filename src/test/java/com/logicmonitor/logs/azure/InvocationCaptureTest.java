@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.github.stefanbirkner.systemlambda.SystemLambda.withEnvironmentVariable;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import com.logicmonitor.logs.azure.CaptureReplay.ReplayResult;
+import com.logicmonitor.logs.azure.InvocationCapture.CapturedInvocation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class InvocationCaptureTest {
+
+    protected static final String TEST_AZURE_CLIENT_ID = "testClientId";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testCaptureAndRead() throws Exception {
+        List<String> events = TestJsonUtils.mergeJsonStringList("activity_webapp.json",
+            "resource_sql.json", "vm_syslog.json");
+        InvocationCapture capture = new InvocationCapture(tempDir, 1.0,
+            InvocationCapture.DEFAULT_MAX_FILE_SIZE, InvocationCapture.DEFAULT_MAX_FILES);
+        for (int i = 0; i < events.size(); i++) {
+            assertTrue(capture.isSampled());
+            assertTrue(capture.record(new CapturedInvocation("invocation-" + i, 1000L * i, i, 1,
+                List.of(events.get(i)))));
+        }
+        capture.close();
+
+        List<Path> files = InvocationCapture.listCaptureFiles(tempDir);
+        assertEquals(1, files.size());
+        List<CapturedInvocation> invocations = InvocationCapture.read(files.get(0));
+        assertEquals(events.size(), invocations.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals("invocation-" + i, invocations.get(i).getInvocationId());
+            assertEquals(1000L * i, invocations.get(i).getStartTime());
+            assertEquals(List.of(events.get(i)), invocations.get(i).getEvents());
+        }
+        assertEquals(events.size(), capture.getCapturedCount());
+        assertEquals(0, capture.getDroppedCount());
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        String event = TestJsonUtils.getFirstJsonString("resource_db_account.json");
+        InvocationCapture capture = new InvocationCapture(tempDir, 1.0, 1, 3);
+        for (int i = 0; i < 10; i++) {
+            // the compressed header already exceeds the maximum size, so one record per file
+            capture.record(new CapturedInvocation("invocation-" + i, i, 0, 1, List.of(event)));
+        }
+        capture.close();
+
+        List<Path> files = InvocationCapture.listCaptureFiles(tempDir);
+        assertEquals(3, files.size());
+        List<CapturedInvocation> invocations = new ArrayList<>();
+        for (Path file : files) {
+            invocations.addAll(InvocationCapture.read(file));
+        }
+        assertEquals("invocation-9", invocations.get(invocations.size() - 1).getInvocationId());
+    }
+
+    @Test
+    public void testQueueBytes() throws Exception {
+        InvocationCapture capture = new InvocationCapture(tempDir, 1.0,
+            InvocationCapture.DEFAULT_MAX_FILE_SIZE, InvocationCapture.DEFAULT_MAX_FILES, 1000);
+        // the events of an invocation are bounded by their size, not only by their number
+        assertFalse(capture.record(new CapturedInvocation("large", 0, 0, 1,
+            List.of("x".repeat(300), "x".repeat(300)))));
+        assertTrue(capture.record(new CapturedInvocation("small", 0, 0, 1,
+            List.of("x".repeat(100)))));
+        capture.close();
+
+        assertEquals(1, capture.getCapturedCount());
+        assertEquals(1, capture.getDroppedCount());
+        assertEquals(0, capture.getQueuedBytes());
+        List<CapturedInvocation> invocations = InvocationCapture.read(
+            InvocationCapture.listCaptureFiles(tempDir).get(0));
+        assertEquals("small", invocations.get(0).getInvocationId());
+    }
+
+    @Test
+    public void testNotSampled() throws Exception {
+        InvocationCapture capture = new InvocationCapture(tempDir, 0.0,
+            InvocationCapture.DEFAULT_MAX_FILE_SIZE, InvocationCapture.DEFAULT_MAX_FILES);
+        assertFalse(capture.isSampled());
+        capture.close();
+        assertFalse(capture.record(new CapturedInvocation("closed", 0, 0, 0, List.of())));
+        assertTrue(InvocationCapture.listCaptureFiles(tempDir).isEmpty());
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        withEnvironmentVariable(LogEventForwarder.PARAMETER_AZURE_CLIENT_ID, TEST_AZURE_CLIENT_ID)
+            .execute(() -> {
+                List<CapturedInvocation> invocations = List.of(
+                    new CapturedInvocation("first", 1000, 5, 2,
+                        TestJsonUtils.getJsonStringList("activity_webapp.json")),
+                    new CapturedInvocation("second", 1100, 5, 2,
+                        TestJsonUtils.getJsonStringList("resource_sql.json")));
+                ReplayResult result = new CaptureReplay(10, 2, null).replay(invocations);
+                assertEquals(2, result.getInvocations());
+                assertEquals(invocations.get(0).getEvents().size()
+                    + invocations.get(1).getEvents().size(), result.getEvents());
+            });
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import com.logicmonitor.logs.azure.DeliveryTracker.Delivery;
+import com.logicmonitor.logs.azure.InvocationTracer.Span;
+import com.logicmonitor.logs.azure.InvocationTracer.Stage;
+import com.logicmonitor.logs.azure.InvocationTracer.Trace;
+import com.logicmonitor.logs.azure.LogIngestClient.IngestResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class InvocationTracerTest {
+
+    @ParameterizedTest
+    @CsvSource({
+        "0,   0",
+        "1,   1000",
+        "0.5, 500",
+    })
+    public void testSampling(double sampleRate, int expected) {
+        InvocationTracer tracer = new InvocationTracer(sampleRate, 1000, 16);
+        int sampled = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (tracer.start("invocation") != null) {
+                sampled++;
+            }
+        }
+        assertEquals(expected, sampled, 100);
+    }
+
+    @Test
+    public void testCatchUpSampling() {
+        InvocationTracer tracer = new InvocationTracer(1, 1000, 16);
+        tracer.setCatchUp(true);
+        int sampled = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (tracer.start("invocation") != null) {
+                sampled++;
+            }
+        }
+        assertEquals(1000 / InvocationTracer.CATCH_UP_DIVISOR, sampled, 50);
+        tracer.setCatchUp(false);
+        assertNotNull(tracer.start("invocation"));
+    }
+
+    @Test
+    public void testSpans() {
+        InvocationTracer tracer = new InvocationTracer(1, 1000, 16);
+        Trace trace = tracer.start("invocation");
+        long start = System.nanoTime();
+        trace.record(Stage.DECODE, start + 20, start + 30, 1, 100);
+        trace.record(Stage.DECODE, start + 10, start + 25, 1, 50);
+        trace.record(Stage.SEND, start + 40, start + 90, 3, 300);
+        assertTrue(tracer.getSpans().isEmpty());
+        trace.finish();
+        trace.finish();
+
+        Map<Stage, Span> spans = tracer.getSpans(trace.getId()).stream()
+            .collect(Collectors.toMap(Span::getStage, Function.identity()));
+        assertEquals(2, spans.size());
+        Span decode = spans.get(Stage.DECODE);
+        assertEquals(20, decode.getEndNanos() - decode.getStartNanos());
+        assertEquals(2, decode.getCount());
+        assertEquals(150, decode.getBytes());
+        assertEquals("invocation", decode.getInvocationId());
+        Span send = spans.get(Stage.SEND);
+        assertEquals(50, send.getEndNanos() - send.getStartNanos());
+        assertEquals(3, send.getCount());
+    }
+
+    @Test
+    public void testRing() {
+        InvocationTracer tracer = new InvocationTracer(1, 1000, 4);
+        List<Long> traceIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Trace trace = tracer.start("invocation" + i);
+            long now = System.nanoTime();
+            trace.record(Stage.DECODE, now, now, 1, 0);
+            trace.record(Stage.SEND, now, now, 1, 0);
+            trace.finish();
+            traceIds.add(trace.getId());
+        }
+        // the spans of the first traces are overwritten
+        List<Span> spans = tracer.getSpans();
+        assertEquals(4, spans.size());
+        assertEquals("invocation3", spans.get(0).getInvocationId());
+        assertTrue(tracer.getSpans(traceIds.get(0)).isEmpty());
+        assertEquals(2, tracer.getSpans(traceIds.get(4)).size());
+    }
+
+    @Test
+    public void testShapes() {
+        InvocationTracer tracer = new InvocationTracer(1, 0, 4);
+        Trace trace = tracer.start("invocation");
+        for (int i = 0; i < InvocationTracer.MAX_SHAPES * 2; i++) {
+            trace.shape("shape" + i);
+            trace.shape("shape0");
+        }
+        String dump = trace.toString();
+        assertTrue(dump.contains("shapes {shape0 " + (InvocationTracer.MAX_SHAPES * 2 + 1)),
+            dump);
+        assertTrue(dump.contains("shape" + (InvocationTracer.MAX_SHAPES - 1) + " 1"), dump);
+        assertTrue(!dump.contains("shape" + InvocationTracer.MAX_SHAPES + " "), dump);
+        // logged as slow
+        trace.finish();
+    }
+
+    @Test
+    public void testPipeline() throws Exception {
+        InvocationTracer tracer = new InvocationTracer(1, 1000, 64);
+        Trace trace = tracer.start("invocation");
+        LogEventAdapter adapter = new LogEventAdapter(null, "clientId", null, null);
+        List<String> events = LogPipelineTest.events(10, 3);
+        events.add("{\"records\": [1, 2]}");
+        List<LogEntry> entries = new ArrayList<>();
+        new LogPipeline(adapter, 4).process(events, entries::add, trace)
+            .get(10, TimeUnit.SECONDS);
+        trace.finish();
+
+        Map<Stage, Span> spans = tracer.getSpans(trace.getId()).stream()
+            .collect(Collectors.toMap(Span::getStage, Function.identity()));
+        assertEquals(11, spans.get(Stage.DECODE).getCount());
+        assertEquals(events.stream().mapToLong(String::length).sum(),
+            spans.get(Stage.DECODE).getBytes());
+        assertEquals(32, spans.get(Stage.FILTER).getCount());
+        assertEquals(30, spans.get(Stage.ENRICH).getCount());
+        assertEquals(30, spans.get(Stage.SCRUB).getCount());
+        assertTrue(spans.get(Stage.DECODE).getStartNanos()
+            <= spans.get(Stage.SCRUB).getStartNanos());
+        assertTrue(trace.toString().contains("shapes {- - 30}"), trace.toString());
+    }
+
+    @Test
+    public void testSend() {
+        InvocationTracer tracer = new InvocationTracer(1, 1000, 16);
+        DeliveryTracker tracker = new DeliveryTracker(null);
+        Delivery traced = tracker.open("traced");
+        Trace trace = tracer.start("traced");
+        traced.setTrace(trace);
+        traced.getFuture().thenRun(trace::finish);
+        Delivery other = tracker.open("other");
+        List<LogEntry> batch = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            LogEntry entry = new LogEntry();
+            (i < 3 ? traced : other).add(entry);
+            batch.add(entry);
+        }
+        tracker.seal(traced);
+        tracker.seal(other);
+        tracker.onSuccess(batch, new IngestResult(202, 1, "requestId", null,
+            TimeUnit.MILLISECONDS.toNanos(5), null, 400));
+
+        List<Span> spans = tracer.getSpans(trace.getId());
+        assertEquals(1, spans.size());
+        Span send = spans.get(0);
+        assertEquals(Stage.SEND, send.getStage());
+        assertEquals(3, send.getCount());
+        assertEquals(300, send.getBytes());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), send.getEndNanos() - send.getStartNanos());
+        assertNull(tracer.getSpans().stream().filter(span -> "other".equals(
+            span.getInvocationId())).findAny().orElse(null));
+        assertNotNull(traced.getRequestId());
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import com.google.gson.Gson;
+import com.logicmonitor.logs.azure.LagMonitor.InvocationLag;
+import com.logicmonitor.logs.azure.LagMonitor.PartitionContext;
+import com.logicmonitor.logs.azure.LagMonitor.PartitionLag;
+import com.logicmonitor.logs.azure.LagMonitor.SystemProperty;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class LagMonitorTest {
+
+    private static final long NOW = Instant.parse("2024-01-01T00:01:00Z").toEpochMilli();
+
+    protected static SystemProperty[] properties(String... enqueuedTimes) {
+        SystemProperty[] properties = new SystemProperty[enqueuedTimes.length];
+        for (int i = 0; i < enqueuedTimes.length; i++) {
+            properties[i] = new SystemProperty(enqueuedTimes[i], 100L + i,
+                Integer.toString(1000 + i), null);
+        }
+        return properties;
+    }
+
+    protected static LogEntry entry(long timestamp) {
+        LogEntry entry = new LogEntry();
+        entry.setTimestamp(timestamp);
+        return entry;
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "2024-01-01T00:00:00Z,         1704067200000",
+        "2024-01-01T00:00:00.5Z,       1704067200500",
+        "2024-01-01T01:00:00+01:00,    1704067200000",
+        "2024-01-01T00:00:00.123,      1704067200123",
+        "01/01/2024 00:00:00,          -1",
+        "'',                           -1",
+    })
+    public void testParseTime(String time, long expected) {
+        assertEquals(expected, LagMonitor.parseTime(time));
+    }
+
+    @Test
+    public void testInvocationLag() {
+        LagMonitor monitor = new LagMonitor(0, false);
+        InvocationLag lag = monitor.start(properties("2024-01-01T00:00:30Z",
+            "2024-01-01T00:00:10Z", null), new PartitionContext("3", "log-hub", "$Default"), NOW);
+        assertEquals(3, lag.getEvents());
+        assertEquals("3", lag.getPartitionId());
+        assertEquals(50_000, lag.getEnqueueLagMillis());
+        assertEquals(-1, lag.getEventLagMillis());
+        // seconds, then milliseconds
+        lag.onEntry(entry(NOW / 1000 - 20));
+        lag.onEntry(entry(NOW - 90_000));
+        lag.onEntry(new LogEntry());
+        assertEquals(90_000, lag.getEventLagMillis());
+        assertTrue(lag.toString().contains("sequence 100-102"), lag.toString());
+    }
+
+    @Test
+    public void testWithoutMetadata() {
+        InvocationLag lag = new LagMonitor(1000, true).start(null, null, NOW);
+        assertEquals(0, lag.getEvents());
+        assertEquals(-1, lag.getEnqueueLagMillis());
+        LogEntry entry = entry(NOW);
+        lag.onEntry(entry);
+        assertTrue(entry.getMetadata().isEmpty());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "false, 0",
+        "true,  2",
+    })
+    public void testEntryMetadata(boolean metadata, int expected) {
+        InvocationLag lag = new LagMonitor(0, metadata).start(properties("2024-01-01T00:00:00Z"),
+            new PartitionContext("1", null, null), NOW);
+        LogEntry entry = entry(NOW);
+        lag.onEntry(entry);
+        assertEquals(expected, entry.getMetadata().size());
+        if (metadata) {
+            assertEquals("1", entry.getMetadata().get(LagMonitor.METADATA_PARTITION));
+            assertEquals("60000", entry.getMetadata().get(LagMonitor.METADATA_ENQUEUE_LAG));
+        }
+    }
+
+    @Test
+    public void testCatchUp() {
+        LagMonitor monitor = new LagMonitor(10_000, false);
+        List<Boolean> changes = new ArrayList<>();
+        monitor.addListener(changes::add);
+        monitor.start(properties("2024-01-01T00:00:55Z"), null, NOW);
+        assertFalse(monitor.isCatchingUp());
+        monitor.start(properties("2024-01-01T00:00:45Z"), null, NOW);
+        assertTrue(monitor.isCatchingUp());
+        // until the lag falls below half the threshold
+        monitor.start(properties("2024-01-01T00:00:53Z"), null, NOW);
+        assertTrue(monitor.isCatchingUp());
+        monitor.start(properties("2024-01-01T00:00:56Z"), null, NOW);
+        assertFalse(monitor.isCatchingUp());
+        // unknown lag
+        monitor.start(null, null, NOW);
+        assertEquals(List.of(true, false), changes);
+    }
+
+    @Test
+    public void testCatchUpPartitions() {
+        LagMonitor monitor = new LagMonitor(10_000, false);
+        List<Boolean> changes = new ArrayList<>();
+        monitor.addListener(changes::add);
+        PartitionContext lagging = new PartitionContext("0", null, null);
+        PartitionContext current = new PartitionContext("1", null, null);
+        monitor.start(properties("2024-01-01T00:00:45Z"), lagging, NOW);
+        assertTrue(monitor.isCatchingUp());
+        // another partition up to date doesn't end it
+        monitor.start(properties("2024-01-01T00:00:59Z"), current, NOW);
+        assertTrue(monitor.isCatchingUp());
+        monitor.start(properties("2024-01-01T00:00:58Z"), lagging, NOW);
+        assertFalse(monitor.isCatchingUp());
+        monitor.start(properties("2024-01-01T00:00:45Z"), lagging, NOW);
+        assertTrue(monitor.isCatchingUp());
+        // the lagging partition is no longer invoked on this instance
+        monitor.start(properties("2024-01-01T00:01:10Z"), current, NOW + 11_000);
+        assertFalse(monitor.isCatchingUp());
+        assertEquals(List.of(true, false, true, false), changes);
+    }
+
+    @Test
+    public void testCatchUpDisabled() {
+        LagMonitor monitor = new LagMonitor(0, false);
+        monitor.start(properties("2000-01-01T00:00:00Z"), null, NOW);
+        assertFalse(monitor.isCatchingUp());
+    }
+
+    @Test
+    public void testPartitions() {
+        LagMonitor monitor = new LagMonitor(0, false);
+        for (int i = 0; i < 3; i++) {
+            InvocationLag lag = monitor.start(properties("2024-01-01T00:00:0" + i + "Z"),
+                new PartitionContext(Integer.toString(i % 2), null, null), NOW);
+            lag.onEntry(entry(NOW - 1000));
+            monitor.finish(lag);
+        }
+        monitor.finish(monitor.start(null, null, NOW));
+        assertEquals(List.of("-", "0", "1"), new ArrayList<>(monitor.getPartitions().keySet()));
+        PartitionLag partition = monitor.getPartitions().get("0");
+        assertEquals(58_000, partition.getEnqueueLagMillis());
+        assertEquals(1000, partition.getEventLagMillis());
+        assertEquals(100, partition.getSequenceNumber());
+        assertEquals("1000", partition.getOffset());
+        assertEquals(NOW, partition.getTimeMillis());
+        assertTrue(monitor.toString().contains("1: enqueue lag 59000 ms"), monitor.toString());
+
+        for (int i = 0; i < LagMonitor.MAX_PARTITIONS; i++) {
+            monitor.finish(monitor.start(null, new PartitionContext("p" + i, null, null), NOW));
+        }
+        assertTrue(monitor.getPartitions().size() <= LagMonitor.MAX_PARTITIONS);
+    }
+
+    @Test
+    public void testBinding() {
+        // the Functions worker binds the trigger metadata by field name
+        SystemProperty[] properties = new Gson().fromJson("[{\"EnqueuedTimeUtc\":"
+            + "\"2024-01-01T00:00:00Z\",\"SequenceNumber\":7,\"Offset\":\"42\","
+            + "\"PartitionKey\":null}]", SystemProperty[].class);
+        assertEquals("2024-01-01T00:00:00Z", properties[0].getEnqueuedTimeUtc());
+        assertEquals(Long.valueOf(7), properties[0].getSequenceNumber());
+        assertEquals("42", properties[0].getOffset());
+        PartitionContext context = new Gson().fromJson("{\"PartitionId\":\"2\","
+            + "\"EventHubName\":\"log-hub\",\"ConsumerGroup\":\"$Default\"}",
+            PartitionContext.class);
+        assertEquals("2", context.getPartitionId());
+        assertEquals("log-hub", context.getEventHubName());
+        assertEquals("$Default", context.getConsumerGroup());
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import com.logicmonitor.logs.azure.DeliveryTracker.Delivery;
+import com.logicmonitor.logs.azure.LogIngestClient.IngestResult;
+
+/**
+ * Pushes synthetic invocations built from the fixture events at a target rate.<br>
+ * The events of each invocation go through {@link LogEventForwarder#processEvents} and their
+ * entries are added to the {@link LogBatcher} created by the factory, tracked by a
+ * {@link DeliveryTracker}, so the flush policy, the lanes, the circuit breaker and the client are
+ * all exercised. The latency is measured from the time the invocation was scheduled to the
+ * delivery of its last entry, so a saturated sender shows up in the latency instead of hiding in a
+ * lower rate.
+ */
+public class LoadTestDriver {
+
+    private final Function<LogBatcher.BatchCallback, LogBatcher> batcherFactory;
+    private final List<String> fixtureEvents;
+    private final int batchSize;
+    private final double batchesPerSecond;
+    private final int concurrency;
+
+    /**
+     * Creates the driver.
+     *
+     * @param batcherFactory creates the batcher sending to the stand-in with the given callback
+     * @param fixtureEvents events the invocations are built from
+     * @param batchSize number of events per invocation
+     * @param batchesPerSecond number of invocations per second
+     * @param concurrency number of threads transforming the invocations
+     */
+    public LoadTestDriver(Function<LogBatcher.BatchCallback, LogBatcher> batcherFactory,
+        List<String> fixtureEvents, int batchSize, double batchesPerSecond, int concurrency) {
+        this.batcherFactory = batcherFactory;
+        this.fixtureEvents = fixtureEvents;
+        this.batchSize = batchSize;
+        this.batchesPerSecond = batchesPerSecond;
+        this.concurrency = concurrency;
+    }
+
+    public Report run(Duration duration) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        Report report = new Report();
+        DeliveryTracker tracker = new DeliveryTracker(null);
+        LogBatcher batcher = batcherFactory.apply(new CountingCallback(tracker, report));
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / batchesPerSecond);
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        long batch = 0;
+        try {
+            for (long scheduled = start; scheduled < end; scheduled += intervalNanos) {
+                long waitNanos = scheduled - System.nanoTime();
+                if (waitNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+                List<String> events = createBatch(batch);
+                String invocationId = "invocation-" + batch++;
+                long scheduledNanos = scheduled;
+                executor.execute(() -> invoke(batcher, tracker, invocationId, events,
+                    scheduledNanos, report));
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            batcher.close();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        report.batcher = batcher.toString();
+        return report;
+    }
+
+    private List<String> createBatch(long batch) {
+        List<String> events = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            events.add(fixtureEvents.get((int) ((batch * batchSize + i) % fixtureEvents.size())));
+        }
+        return events;
+    }
+
+    private void invoke(LogBatcher batcher, DeliveryTracker tracker, String invocationId,
+        List<String> events, long scheduledNanos, Report report) {
+        List<LogEntry> entries = LogEventForwarder.processEvents(events);
+        report.generatedEntries.addAndGet(entries.size());
+        Delivery delivery = tracker.register(invocationId, entries);
+        // the invocation doesn't wait, the batcher is closed once all are submitted
+        delivery.getFuture().thenAccept(delivered -> {
+            report.acknowledgedEntries.addAndGet(delivered.getDelivered());
+            report.addLatency(System.nanoTime() - scheduledNanos);
+        });
+        entries.forEach(batcher::add);
+    }
+
+    /**
+     * Counts the requests of the batcher and tracks the delivery of their entries.
+     */
+    private static class CountingCallback implements LogBatcher.BatchCallback {
+
+        private final DeliveryTracker tracker;
+        private final Report report;
+
+        CountingCallback(DeliveryTracker tracker, Report report) {
+            this.tracker = tracker;
+            this.report = report;
+        }
+
+        @Override
+        public void onSuccess(List<LogEntry> entries, IngestResult result) {
+            count(result);
+            tracker.onSuccess(entries, result);
+        }
+
+        @Override
+        public void onFailure(List<LogEntry> entries, IngestResult result) {
+            count(result);
+            report.failedRequests.incrementAndGet();
+            tracker.onFailure(entries, result);
+        }
+
+        @Override
+        public void onDropped(List<LogEntry> entries) {
+            report.droppedEntries.addAndGet(entries.size());
+            tracker.onDropped(entries);
+        }
+
+        private void count(IngestResult result) {
+            report.requests.incrementAndGet();
+            report.retries.addAndGet(result.getAttempts() - 1);
+        }
+    }
+
+    /**
+     * Load test results.
+     */
+    public static class Report {
+
+        private final AtomicLong generatedEntries = new AtomicLong();
+        private final AtomicLong acknowledgedEntries = new AtomicLong();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failedRequests = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong droppedEntries = new AtomicLong();
+        private final List<Long> latencies = new ArrayList<>();
+        private long elapsedNanos;
+        private String batcher;
+
+        private synchronized void addLatency(long nanos) {
+            latencies.add(nanos);
+        }
+
+        public long getGeneratedEntries() {
+            return generatedEntries.get();
+        }
+
+        public long getAcknowledgedEntries() {
+            return acknowledgedEntries.get();
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * Gets the number of entries dropped by the batcher while the circuit was open.
+         *
+         * @return the number of entries
+         */
+        public long getDroppedEntries() {
+            return droppedEntries.get();
+        }
+
+        /**
+         * Gets the acknowledged entries per second.
+         *
+         * @return the throughput
+         */
+        public double getThroughput() {
+            return acknowledgedEntries.get() / (elapsedNanos / 1e9);
+        }
+
+        /**
+         * Gets the fraction of the entries that were not acknowledged.
+         *
+         * @return the loss from 0 to 1
+         */
+        public double getLoss() {
+            long generated = generatedEntries.get();
+            return generated > 0 ? 1 - (double) acknowledgedEntries.get() / generated : 0;
+        }
+
+        /**
+         * Gets the end-to-end latency percentile.
+         *
+         * @param percentile the percentile, e.g. 99.9
+         * @return the latency in milliseconds
+         */
+        public synchronized double getLatencyMillis(double percentile) {
+            if (latencies.isEmpty()) {
+                return 0;
+            }
+            long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests (%d failed, %d retries), %d/%d entries acknowledged "
+                    + "(%d dropped by the open circuit) in %.1f s: throughput %.1f entries/s, "
+                    + "loss %.2f%%, latency p50 %.1f ms, p99 %.1f ms, p99.9 %.1f ms; batcher: %s",
+                requests.get(), failedRequests.get(), retries.get(), acknowledgedEntries.get(),
+                generatedEntries.get(), droppedEntries.get(), elapsedNanos / 1e9,
+                getThroughput(), getLoss() * 100, getLatencyMillis(50), getLatencyMillis(99),
+                getLatencyMillis(99.9), batcher);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.logicmonitor.logs.azure.DeliveryTracker.Delivery;
+import com.logicmonitor.logs.azure.LogIngestClient.IngestResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class LogBatcherTest {
+
+    /**
+     * Client recording the batches instead of sending them.
+     */
+    protected static class RecordingClient extends LogIngestClient {
+
+        final List<List<LogEntry>> batches = new CopyOnWriteArrayList<>();
+
+        RecordingClient() {
+            super("http://localhost/rest", "id", "key", null, null, 0);
+        }
+
+        @Override
+        public IngestResult send(List<LogEntry> entries) {
+            batches.add(entries);
+            return new IngestResult(202, 1, "requestId", null, 1000, null);
+        }
+    }
+
+    /**
+     * Callback counting the acknowledged entries.
+     */
+    protected static class CountingCallback implements LogBatcher.BatchCallback {
+
+        final List<LogEntry> succeeded = new CopyOnWriteArrayList<>();
+        final List<LogEntry> dropped = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onSuccess(List<LogEntry> entries, IngestResult result) {
+            succeeded.addAll(entries);
+        }
+
+        @Override
+        public void onFailure(List<LogEntry> entries, IngestResult result) {
+        }
+
+        @Override
+        public void onDropped(List<LogEntry> entries) {
+            dropped.addAll(entries);
+        }
+    }
+
+    protected static LogEntry createEntry(int index) {
+        return createEntry(index, "resource");
+    }
+
+    protected static LogEntry createEntry(int index, String resourceId) {
+        return new LogEntry()
+            .message("message " + index)
+            .timestamp((long) index)
+            .putLmResourceIdItem(LogEventAdapter.LM_RESOURCE_PROPERTY, resourceId);
+    }
+
+    @Test
+    public void testFlushByEntries() throws Exception {
+        RecordingClient client = new RecordingClient();
+        CountingCallback callback = new CountingCallback();
+        LogBatcher batcher = new LogBatcher(client,
+            new AdaptiveFlushPolicy(Long.MAX_VALUE, 10, 60000, 60000, 1), callback, 1, 1);
+        for (int i = 0; i < 25; i++) {
+            batcher.add(createEntry(i));
+        }
+        assertTrue(batcher.close(10000));
+        assertEquals(3, client.batches.size());
+        assertEquals(10, client.batches.get(0).size());
+        assertEquals(10, client.batches.get(1).size());
+        assertEquals(5, client.batches.get(2).size());
+        assertEquals(25, callback.succeeded.size());
+    }
+
+    @Test
+    public void testFlushByBytes() throws Exception {
+        RecordingClient client = new RecordingClient();
+        long entryBytes = LogBatcher.estimateSize(createEntry(0));
+        LogBatcher batcher = new LogBatcher(client,
+            new AdaptiveFlushPolicy(entryBytes * 3, 1000, 60000, 60000, 1),
+            new CountingCallback(), 1, 1);
+        for (int i = 0; i < 7; i++) {
+            batcher.add(createEntry(i));
+        }
+        assertTrue(batcher.close(10000));
+        assertEquals(3, client.batches.size());
+        client.batches.forEach(batch -> assertTrue(batch.size() <= 3));
+    }
+
+    @Test
+    public void testFlushByLinger() throws Exception {
+        RecordingClient client = new RecordingClient();
+        LogBatcher batcher = new LogBatcher(client,
+            new AdaptiveFlushPolicy(Long.MAX_VALUE, 1000, 50, 50, 1), new CountingCallback(), 1, 1);
+        batcher.add(createEntry(0));
+        batcher.add(createEntry(1));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (client.batches.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, client.batches.size());
+        assertEquals(2, client.batches.get(0).size());
+        assertTrue(batcher.close(10000));
+        assertEquals(1, client.batches.size());
+    }
+
+    @Test
+    public void testResourceOrder() throws Exception {
+        // slow sends: the batches of a lane queue up while the other lanes are sent
+        RecordingClient client = new RecordingClient() {
+            @Override
+            public IngestResult send(List<LogEntry> entries) {
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.send(entries);
+            }
+        };
+        LogBatcher batcher = new LogBatcher(client,
+            new AdaptiveFlushPolicy(Long.MAX_VALUE, 3, 60000, 60000, 1), new CountingCallback(),
+            4, 8);
+        for (int i = 0; i < 400; i++) {
+            batcher.add(createEntry(i, "resource-" + i % 10));
+        }
+        assertTrue(batcher.close(10000));
+
+        Map<String, Long> lastTimestamps = new HashMap<>();
+        client.batches.stream().flatMap(List::stream).forEach(entry -> {
+            String resourceId = LogEventForwarder.getResourceId(entry);
+            Long last = lastTimestamps.put(resourceId, entry.getTimestamp());
+            assertTrue(last == null || last < entry.getTimestamp(),
+                "out of order " + resourceId + ": " + last + " > " + entry.getTimestamp());
+        });
+        assertEquals(10, lastTimestamps.size());
+        assertEquals(0, Arrays.stream(batcher.getLaneQueueDepths()).sum());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "DROP,   0, 5",
+        "BUFFER, 5, 0",
+    })
+    public void testOpenCircuitFallback(CircuitBreaker.Fallback fallback, int expectedSent,
+        int expectedDropped) throws Exception {
+        RecordingClient client = new RecordingClient();
+        AtomicLong clock = new AtomicLong();
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 1, 1000, 10, 1, 1, clock::get);
+        breaker.onResult(breaker.tryAcquire(), false, 0);
+        LogBatcher batcher = new LogBatcher(client,
+            new AdaptiveFlushPolicy(Long.MAX_VALUE, 1, 60000, 60000, 1), breaker, fallback, 100,
+            new CountingCallback(), 1, 1);
+        for (int i = 0; i < 5; i++) {
+            batcher.add(createEntry(i));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (batcher.getBufferedEntries() + batcher.getDroppedEntries() < 5
+            && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(client.batches.isEmpty());
+        assertEquals(expectedDropped, batcher.getDroppedEntries());
+
+        // the trial call succeeds and the backlog is sent in order
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (client.batches.size() < expectedSent && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(batcher.close(10000));
+        assertEquals(expectedSent, client.batches.size());
+        for (int i = 0; i < client.batches.size(); i++) {
+            assertEquals(i, (long) client.batches.get(i).get(0).getTimestamp());
+        }
+        assertEquals(0, batcher.getBufferedEntries());
+    }
+
+    @Test
+    public void testCloseWithOpenCircuit() throws Exception {
+        RecordingClient client = new RecordingClient();
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 1, 1000, 10, 1, 1, () -> 0L);
+        breaker.onResult(breaker.tryAcquire(), false, 0);
+        DeliveryTracker tracker = new DeliveryTracker(null);
+        List<LogEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            entries.add(createEntry(i, "resource" + i));
+        }
+        Delivery delivery = tracker.register("invocation", entries);
+        LogBatcher batcher = new LogBatcher(client,
+            new AdaptiveFlushPolicy(Long.MAX_VALUE, 1, 60000, 60000, 1), breaker,
+            CircuitBreaker.Fallback.BUFFER, 100, tracker, 2, 4);
+        entries.forEach(batcher::add);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (batcher.getBufferedEntries() < 5 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(5, batcher.getBufferedEntries());
+
+        // the circuit is still open: the backlogs are dropped, not lost
+        assertTrue(batcher.close(10000));
+        assertTrue(client.batches.isEmpty());
+        assertEquals(0, batcher.getBufferedEntries());
+        assertEquals(5, batcher.getDroppedEntries());
+        assertEquals(5, delivery.getFuture().get(1, TimeUnit.SECONDS).getFailed());
+        assertEquals(0, tracker.getPendingDeliveries());
+    }
+}
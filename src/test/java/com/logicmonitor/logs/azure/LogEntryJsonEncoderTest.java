@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.github.stefanbirkner.systemlambda.SystemLambda.withEnvironmentVariable;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import com.logicmonitor.logs.azure.PayloadWriter.Payload;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class LogEntryJsonEncoderTest {
+
+    protected static byte[] encode(List<LogEntry> entries, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogEntryJsonEncoder encoder = LogEntryJsonEncoder.toStream(out, bufferSize);
+        encoder.writeArray(entries);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    protected static void assertRoundTrip(List<LogEntry> entries, byte[] json) {
+        List<LogEntry> decoded = TestJsonUtils.parseLogEntries(
+            new String(json, StandardCharsets.UTF_8));
+        assertEquals(entries, decoded);
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(entries.get(i).getMetadata(), decoded.get(i).getMetadata());
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "activity_storage_account.json, 6",
+        "resource_db_account.json,      64",
+        "vm_syslog.json,                7",
+        "windows_vm_log.json,           8192",
+    })
+    public void testRoundTrip(String resourceName, int bufferSize) throws Exception {
+        withEnvironmentVariable(LogEventForwarder.PARAMETER_AZURE_CLIENT_ID, "testClientId")
+            .execute(() -> {
+                List<LogEntry> entries = LogEventForwarder.processEvents(
+                    TestJsonUtils.getJsonStringList(resourceName));
+                byte[] json = encode(entries, bufferSize);
+                assertRoundTrip(entries, json);
+                // same bytes as the payloads sent
+                try (Payload payload = new PayloadWriter(new ByteBufferPool(bufferSize, 4))
+                    .write(entries)) {
+                    assertArrayEquals(json, payload.toByteArray());
+                }
+            });
+    }
+
+    @Test
+    public void testEscapedKeys() throws Exception {
+        LogEntry entry = new LogEntry().message(null).timestamp(Long.MIN_VALUE);
+        entry.getMetadata().put("plain", "value");
+        entry.getMetadata().put("quoted \"key\"", "line\nbreak");
+        entry.getMetadata().put("caf\u00e9", null);
+        entry.putLmResourceIdItem("id \\ key", "/subscriptions/\u65e5\u672c");
+        for (int bufferSize : new int[] {6, 7, 16, 1024}) {
+            assertRoundTrip(List.of(entry, entry), encode(List.of(entry, entry), bufferSize));
+        }
+    }
+
+    @Test
+    public void testLongPlainString() throws Exception {
+        StringBuilder message = new StringBuilder();
+        while (message.length() < 5000) {
+            message.append("plain ascii message ").append(message.length()).append(' ');
+        }
+        LogEntry entry = new LogEntry().message(message.toString()).timestamp(1L);
+        assertRoundTrip(List.of(entry), encode(List.of(entry), 100));
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogEntryJsonEncoder encoder = LogEntryJsonEncoder.toStream(out, 1024);
+        List<LogEntry> entries = List.of(
+            new LogEntry().message("first").timestamp(1L),
+            new LogEntry().message("second").timestamp(2L));
+        encoder.beginArray();
+        int size = 0;
+        for (LogEntry entry : entries) {
+            encoder.writeEntry(entry);
+            encoder.flush();
+            assertTrue(out.size() > size);
+            size = out.size();
+        }
+        encoder.endArray();
+        encoder.flush();
+        assertRoundTrip(entries, out.toByteArray());
+    }
+}
@@ -19,19 +19,25 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Application;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
-import com.logicmonitor.sdk.data.Configuration;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.test.JerseyTest;
 import org.glassfish.jersey.test.TestProperties;
@@ -61,8 +67,16 @@ public class LogEventForwarderIntegrationTest extends JerseyTest {
         @POST
         @Produces(MediaType.APPLICATION_JSON)
         @Consumes(MediaType.APPLICATION_JSON)
-        public Response doPost(List<LogEntry> entries) {
-            receivedEntries = entries;
+        public Response doPost(InputStream body) throws IOException {
+            List<LogEntry> entries = TestJsonUtils.parseLogEntries(
+                new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            // the entries of an invocation may be sent in several batches
+            synchronized (LogIngestResource.class) {
+                if (receivedEntries == null) {
+                    receivedEntries = new ArrayList<>();
+                }
+                receivedEntries.addAll(entries);
+            }
 
             return Response
                 .status(Status.ACCEPTED)
@@ -119,11 +133,11 @@ public class LogEventForwarderIntegrationTest extends JerseyTest {
                 .and(LogEventForwarder.PARAMETER_REGEX_SCRUB, regexScrub)
                 .execute(() -> {
                             LogEventAdapter adapter = LogEventForwarder.configureAdapter();
-                            Configuration conf = LogEventForwarder.createDataSdkConfig();
+                            LogIngestClient client = LogEventForwarder.createIngestClient();
                             assertAll(
-                                    () -> assertEquals(companyName,
-                                            conf.getCompany()),
-                                    () -> assertTrue(conf.checkAuthentication()),
+                                    () -> assertEquals("https://" + companyName + ".logicmonitor.com/rest/log/ingest",
+                                            client.getIngestUrl()),
+                                    () -> assertTrue(client.checkAuthentication()),
                                     () -> assertEquals(regexScrub,
                                             regexScrub != null ? adapter.getScrubPattern().pattern() : adapter.getScrubPattern())
                             );
@@ -131,6 +145,53 @@ public class LogEventForwarderIntegrationTest extends JerseyTest {
                 );
     }
 
+    @Test
+    public void testEncoderRoundTrip() throws Exception {
+        withEnvironmentVariable(LogEventForwarder.PARAMETER_AZURE_CLIENT_ID, TEST_AZURE_CLIENT_ID)
+            .execute(() -> {
+                List<LogEntry> entries = LogEventForwarder.processEvents(
+                    TestJsonUtils.mergeJsonStringList("activity_storage_account.json",
+                        "vm_syslog.json", "windows_vm_log.json"));
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                LogEntryJsonEncoder encoder = LogEntryJsonEncoder.toStream(out, 256);
+                encoder.writeArray(entries);
+                encoder.flush();
+
+                Response response = target("rest/log/ingest").request()
+                    .post(Entity.entity(out.toByteArray(), MediaType.APPLICATION_JSON));
+                assertEquals(Status.ACCEPTED.getStatusCode(), response.getStatus());
+                assertEquals(entries, LogIngestResource.receivedEntries);
+                for (int i = 0; i < entries.size(); i++) {
+                    assertEquals(entries.get(i).getMetadata(),
+                        LogIngestResource.receivedEntries.get(i).getMetadata());
+                }
+            });
+    }
+
+    @Test
+    public void testForward() throws Exception {
+        List<String> events = TestJsonUtils.mergeJsonStringList("activity_storage_account.json",
+            "vm_syslog.json", "windows_vm_log.json");
+        withEnvironmentVariable(LogEventForwarder.PARAMETER_LM_AUTH,"{\"LM_ACCESS_ID\": \"id\", \"LM_ACCESS_KEY\" : \"key\", \"LM_BEARER_TOKEN\" : \"\"}")
+                .and(LogEventForwarder.PARAMETER_AZURE_CLIENT_ID, TEST_AZURE_CLIENT_ID)
+                .and(LogEventForwarder.PARAMETER_INGEST_URL, getBaseUri() + "rest")
+                .and(DeliveryTracker.PARAMETER_DELIVERY_TIMEOUT, "10000")
+                .execute(() -> {
+            LogEventForwarder.resetRouter();
+            try {
+                new LogEventForwarder().forward(events, null, null, mockExecutionContext);
+            } finally {
+                LogEventForwarder.resetRouter();
+            }
+            List<String> expected = LogEventForwarder.processEvents(events).stream()
+                .map(LogEntry::getMessage).sorted().collect(Collectors.toList());
+            assertFalse(expected.isEmpty());
+            assertNotNull(LogIngestResource.receivedEntries);
+            assertEquals(expected, LogIngestResource.receivedEntries.stream()
+                .map(LogEntry::getMessage).sorted().collect(Collectors.toList()));
+        });
+    }
+
     @Test
     public void testForwardEmptyList() throws Exception {
         withEnvironmentVariable(LogEventForwarder.PARAMETER_LM_AUTH,"{\"LM_ACCESS_ID\": \"id\", \"LM_ACCESS_KEY\" : \"key\", \"LM_BEARER_TOKEN\" : \"\"}")
@@ -139,7 +200,7 @@ public class LogEventForwarderIntegrationTest extends JerseyTest {
                 .and(LogEventForwarder.PARAMETER_AZURE_ACCOUNT_NAME, TEST_AZURE_ACCOUNT_NAME)
                 .and(LogEventForwarder.PARAMETER_COMPANY_NAME, "localhost")
                 .execute(() -> {
-        new LogEventForwarder().forward(List.of(), mockExecutionContext);
+        new LogEventForwarder().forward(List.of(), null, null, mockExecutionContext);
         assertNull(LogIngestResource.receivedEntries);
     });
     }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import javax.ws.rs.core.Application;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.test.JerseyTest;
+import org.glassfish.jersey.test.TestProperties;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Load test of the send path, from the transformation of the events to the delivery of their logs
+ * by the {@link LogBatcher}, against the local {@link FaultInjectingIngestResource}.<br>
+ * It's skipped unless the system property {@code loadTest} is true, run it using
+ * {@code ./gradlew loadTest}. The load is set by the system properties:
+ * <ul>
+ * <li>{@code loadTest.duration} duration in seconds (default 30)
+ * <li>{@code loadTest.rate} invocations per second (default 50)
+ * <li>{@code loadTest.batchSize} events per invocation (default 64)
+ * <li>{@code loadTest.concurrency} number of threads transforming the invocations (default 8)
+ * <li>{@code loadTest.faults} injected faults, see {@link FaultProfile}
+ * </ul>
+ * The batcher is configured by the same environment variables as the forwarder (batching,
+ * lanes, send concurrency, circuit breaker).
+ */
+public class LogEventForwarderLoadTest extends JerseyTest {
+
+    protected static final String TEST_ID = "testId";
+    protected static final String TEST_KEY = "testKey";
+    protected static final String DEFAULT_FAULTS =
+        "latency=lognormal:20,throttle=0.01,error=0.01,reset=0.005,slowRead=0.01:262144";
+    protected static final String[] FIXTURES = {
+        "activity_storage_account.json", "activity_webapp.json", "resource_db_account.json",
+        "resource_metrics.json", "resource_sql.json", "resource_vault.json", "vm_catalina.json",
+        "vm_syslog.json", "windows_vm_log.json"
+    };
+
+    @Override
+    protected Application configure() {
+        FaultInjectingIngestResource.reset(
+            FaultProfile.parse(System.getProperty("loadTest.faults", DEFAULT_FAULTS)));
+        forceSet(TestProperties.CONTAINER_PORT, "0");
+        return new ResourceConfig(FaultInjectingIngestResource.class);
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        Assume.assumeTrue("Load test is disabled, run ./gradlew loadTest",
+            Boolean.getBoolean("loadTest"));
+
+        LogIngestClient client = new LogIngestClient(getBaseUri() + "rest", TEST_ID, TEST_KEY,
+            null, LogIngestClient.createHttpClient(10000, 10000, false),
+            LogIngestClient.DEFAULT_MAX_RETRIES);
+        List<String> events = TestJsonUtils.mergeJsonStringList(FIXTURES);
+        LoadTestDriver driver = new LoadTestDriver(
+            callback -> LogEventForwarder.createBatcher(client, callback), events,
+            Integer.getInteger("loadTest.batchSize", 64),
+            Double.parseDouble(System.getProperty("loadTest.rate", "50")),
+            Integer.getInteger("loadTest.concurrency", 8));
+
+        LoadTestDriver.Report report = driver.run(
+            Duration.ofSeconds(Long.getLong("loadTest.duration", 30)));
+
+        System.out.println("Faults: " + FaultInjectingIngestResource.profile);
+        System.out.println("Client: " + report);
+        System.out.printf("Server: %d requests, %d entries received, %d throttled, "
+                + "%d server errors, %d resets, %d slow reads%n",
+            FaultInjectingIngestResource.requests.get(),
+            FaultInjectingIngestResource.receivedEntries.get(),
+            FaultInjectingIngestResource.throttled.get(),
+            FaultInjectingIngestResource.serverErrors.get(),
+            FaultInjectingIngestResource.resets.get(),
+            FaultInjectingIngestResource.slowReads.get());
+
+        assertTrue(report.getGeneratedEntries() > 0);
+        assertTrue(report.getRequests() > 0);
+        // every acknowledged entry must have been received, retries may duplicate them
+        assertTrue(report.getAcknowledgedEntries()
+            <= FaultInjectingIngestResource.receivedEntries.get());
+    }
+}
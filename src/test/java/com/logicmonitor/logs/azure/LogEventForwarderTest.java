@@ -26,7 +26,6 @@ import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import com.logicmonitor.sdk.data.Configuration;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 
@@ -57,10 +56,10 @@ public class LogEventForwarderTest {
             .and(LogEventForwarder.PARAMETER_REGEX_SCRUB, regexScrub)
             .execute(() -> {
                 LogEventAdapter adapter = LogEventForwarder.configureAdapter();
-                Configuration conf = LogEventForwarder.createDataSdkConfig();
+                LogIngestClient client = LogEventForwarder.createIngestClient();
                 assertAll(
-                    () -> assertEquals(companyName,
-                            conf.getCompany()),
+                    () -> assertEquals("https://" + companyName + ".logicmonitor.com/rest/log/ingest",
+                            client.getIngestUrl()),
                     () -> assertEquals(regexScrub,
                             regexScrub != null ? adapter.getScrubPattern().pattern() : adapter.getScrubPattern())
                 );
@@ -68,6 +67,24 @@ public class LogEventForwarderTest {
         );
     }
 
+    @ParameterizedTest
+    @CsvSource({
+        "'{\"LM_ACCESS_ID\": \"\", \"LM_ACCESS_KEY\" : \"\", \"LM_BEARER_TOKEN\" : \"\"}',          false",
+        "'{\"LM_ACCESS_ID\": \"id\", \"LM_ACCESS_KEY\" : \"key\", \"LM_BEARER_TOKEN\" : \"\"}',       true",
+        "'{\"LM_ACCESS_ID\": \"\", \"LM_ACCESS_KEY\" : \"\", \"LM_BEARER_TOKEN\" : \"token\"}',     true",
+        "'{\"LM_ACCESS_ID\": \"id\", \"LM_ACCESS_KEY\" : \"key\", \"LM_BEARER_TOKEN\" : \"token\"}',  true",
+        "'{\"LM_ACCESS_ID\": \"id\", \"LM_ACCESS_KEY\" : \"\", \"LM_BEARER_TOKEN\" : \"\"}',         false",
+        "'{\"LM_ACCESS_ID\": \"\", \"LM_ACCESS_KEY\" : \"key\", \"LM_BEARER_TOKEN\" : \"\"}',        false",
+        "'{\"LM_ACCESS_ID\": \"id\", \"LM_ACCESS_KEY\" : \"key\"}',                               true",
+        "not json,                                                                                false",
+    })
+    public void testAuthentication(String lmAuth, boolean expected) throws Exception {
+        withEnvironmentVariable(LogEventForwarder.PARAMETER_COMPANY_NAME, "company")
+            .and(LogEventForwarder.PARAMETER_LM_AUTH, lmAuth)
+            .execute(() -> assertEquals(expected,
+                LogEventForwarder.createIngestClient().checkAuthentication()));
+    }
+
 
     @ParameterizedTest
     @CsvSource({
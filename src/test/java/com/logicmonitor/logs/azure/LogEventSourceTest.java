@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class LogEventSourceTest {
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest
+    @CsvSource({
+        "activity_storage_account.json, 1",
+        "resource_db_account.json,      2",
+        "vm_syslog.json,                64",
+    })
+    public void testReaderEventSource(String resourceName, int batchSize) throws IOException {
+        List<String> events = TestJsonUtils.getJsonStringList(resourceName);
+        String content = "\n" + String.join("\n\n", events) + "\n";
+        try (LogEventSource source = new ReaderEventSource(new StringReader(content))) {
+            assertEquals(events, readAll(source, batchSize));
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "activity_storage_account.json, 1,  1048576",
+        "resource_db_account.json,      2,  2048",
+        "resource_sql.json,             64, 8192",
+        "vm_syslog.json,                3,  4096",
+    })
+    public void testMappedFileEventSource(String resourceName, int batchSize, int windowSize)
+        throws IOException {
+        List<String> events = TestJsonUtils.getJsonStringList(resourceName);
+        Path file = tempDir.resolve(resourceName);
+        // the last event doesn't need the terminator
+        Files.write(file, String.join("\r\n", events).getBytes(StandardCharsets.UTF_8));
+        try (LogEventSource source = new MappedFileEventSource(file, windowSize)) {
+            assertEquals(events, readAll(source, batchSize));
+        }
+    }
+
+    @Test
+    public void testMappedFileEventTooLarge() throws IOException {
+        Path file = tempDir.resolve("large.json");
+        Files.write(file, ("{\"message\":\"" + "x".repeat(100) + "\"}\n")
+            .getBytes(StandardCharsets.UTF_8));
+        try (LogEventSource source = new MappedFileEventSource(file, 64)) {
+            assertThrows(IOException.class, () -> source.nextBatch(1));
+        }
+    }
+
+    @Test
+    public void testMappedFileEmpty() throws IOException {
+        Path file = Files.createFile(tempDir.resolve("empty.json"));
+        try (LogEventSource source = new MappedFileEventSource(file)) {
+            assertTrue(source.nextBatch(10).isEmpty());
+        }
+    }
+
+    private static List<String> readAll(LogEventSource source, int batchSize) throws IOException {
+        List<String> events = new ArrayList<>();
+        List<String> batch;
+        while (!(batch = source.nextBatch(batchSize)).isEmpty()) {
+            assertTrue(batch.size() <= batchSize);
+            events.addAll(batch);
+        }
+        return events;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import com.logicmonitor.logs.azure.Quarantine.ErrorType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class LogPipelineTest {
+
+    protected static String event(int index, int records) {
+        return "{\"records\": [" + IntStream.range(0, records)
+            .mapToObj(record -> "{\"resourceId\": \"/r\", \"properties\": {\"Msg\": \"m" + index
+                + "-" + record + "\"}}")
+            .collect(Collectors.joining(",")) + "]}";
+    }
+
+    protected static List<String> events(int count, int records) {
+        return IntStream.range(0, count).mapToObj(index -> event(index, records))
+            .collect(Collectors.toList());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 256})
+    public void testOrder(int bufferSize) throws Exception {
+        LogEventAdapter adapter = new LogEventAdapter("-", "clientId", null, null);
+        List<String> events = events(50, 3);
+        List<String> messages = new ArrayList<>();
+        int count = new LogPipeline(adapter, bufferSize)
+            .process(events, entry -> messages.add(entry.getMessage()))
+            .get(10, TimeUnit.SECONDS);
+        assertEquals(150, count);
+        assertEquals(events.stream().flatMap(event -> adapter.apply(event).stream())
+            .map(LogEntry::getMessage).collect(Collectors.toList()), messages);
+        assertEquals("m00", messages.get(0));
+    }
+
+    @Test
+    public void testQuarantine() throws Exception {
+        Quarantine quarantine = new Quarantine(10);
+        LogEventAdapter adapter = new LogEventAdapter(null, "clientId", null, null,
+            new MetadataFlattener(), quarantine);
+        List<String> events = List.of(event(0, 1), "{not json", "[1]",
+            "{\"records\": [{\"resourceId\": {}}, 2]}", event(1, 2));
+        List<LogEntry> entries = new ArrayList<>();
+        int count = new LogPipeline(adapter, 4).process(events, entries::add)
+            .get(10, TimeUnit.SECONDS);
+        assertEquals(3, count);
+        assertEquals(3, entries.size());
+        assertEquals(1, quarantine.getCount(ErrorType.MALFORMED_JSON));
+        // the event that isn't an object and the record that can't be bound
+        assertEquals(2, quarantine.getCount(ErrorType.UNEXPECTED_SHAPE));
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        LogEventAdapter adapter = new LogEventAdapter(null, "clientId", null, null);
+        AtomicBoolean submitted = new AtomicBoolean();
+        AtomicBoolean firstBeforeSubmitted = new AtomicBoolean();
+        List<LogEntry> entries = new ArrayList<>();
+        // the buffers hold far fewer entries than the events produce
+        CompletableFuture<Integer> count = new LogPipeline(adapter, 2)
+            .process(events(200, 5), entry -> {
+                if (entries.isEmpty()) {
+                    firstBeforeSubmitted.set(!submitted.get());
+                }
+                entries.add(entry);
+            });
+        submitted.set(true);
+        assertEquals(Integer.valueOf(1000), count.get(10, TimeUnit.SECONDS));
+        assertTrue(firstBeforeSubmitted.get());
+    }
+
+    @Test
+    public void testSinkFailure() {
+        LogEventAdapter adapter = new LogEventAdapter(null, "clientId", null, null);
+        CompletableFuture<Integer> count = new LogPipeline(adapter, 2)
+            .process(events(100, 2), entry -> {
+                throw new IllegalStateException("sink");
+            });
+        CompletionException e = assertThrows(CompletionException.class, count::join);
+        assertEquals("sink", e.getCause().getMessage());
+    }
+
+    @Test
+    public void testMaxConcurrency() throws Exception {
+        LogEventAdapter adapter = new LogEventAdapter(null, "clientId", null, null);
+        LogPipeline pipeline = new LogPipeline(adapter, 2, 1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Integer> first = pipeline.process(events(2, 1), entry -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        assertEquals(0, pipeline.getAvailablePermits());
+        // the second invocation waits for the first one
+        CompletableFuture<Integer> second = CompletableFuture.supplyAsync(
+            () -> pipeline.process(events(2, 1), entry -> { }).join());
+        Thread.sleep(100);
+        assertFalse(second.isDone());
+        release.countDown();
+        assertEquals(Integer.valueOf(2), first.get(10, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(2), second.get(10, TimeUnit.SECONDS));
+        assertEquals(1, pipeline.getAvailablePermits());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        LogEventAdapter adapter = new LogEventAdapter(null, "clientId", null, null);
+        List<LogEntry> entries = new ArrayList<>();
+        assertEquals(Integer.valueOf(0), new LogPipeline(adapter, 2).process(List.of(), entries::add)
+            .get(10, TimeUnit.SECONDS));
+        assertTrue(entries.isEmpty());
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.logicmonitor.logs.azure.LogBatcherTest.CountingCallback;
+import com.logicmonitor.logs.azure.LogBatcherTest.RecordingClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class LogRouterTest {
+
+    protected Map<String, RecordingClient> clients;
+    protected LogRouter router;
+
+    @BeforeEach
+    public void createRouter() {
+        clients = new LinkedHashMap<>();
+        Map<String, LogBatcher> batchers = new LinkedHashMap<>();
+        for (String name : List.of(LogRouter.DEFAULT_DESTINATION, "unit-a", "unit-b")) {
+            RecordingClient client = new RecordingClient();
+            clients.put(name, client);
+            batchers.put(name, new LogBatcher(client,
+                new AdaptiveFlushPolicy(Long.MAX_VALUE, 1000, 60000, 60000, 1),
+                new CountingCallback(), 1, 1));
+        }
+        LogBatcher defaultBatcher = batchers.remove(LogRouter.DEFAULT_DESTINATION);
+        router = new LogRouter(defaultBatcher, batchers, Map.of(
+            "unit-a", List.of("/subscriptions/AAAA/", "/subscriptions/bbbb/resourceGroups/rg-a"),
+            "unit-b", List.of("/subscriptions/bbbb")));
+    }
+
+    @AfterEach
+    public void closeRouter() {
+        router.close();
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "/subscriptions/aaaa/resourceGroups/rg/providers/x,          unit-a",
+        "/SUBSCRIPTIONS/AAAA,                                        unit-a",
+        "/subscriptions/aaaa0/resourceGroups/rg,                     default",
+        "/subscriptions/bbbb/resourceGroups/rg-a/providers/x,        unit-a",
+        "/subscriptions/bbbb/resourceGroups/rg-ab/providers/x,       unit-b",
+        "/subscriptions/bbbb/resourceGroups/rg-b,                    unit-b",
+        "/subscriptions/cccc/resourceGroups/rg-a,                    default",
+        "clientId,                                                   default",
+        "'',                                                         default",
+    })
+    public void testRoute(String resourceId, String expected) {
+        assertEquals(expected, router.getDestination(resourceId));
+        // cached
+        assertEquals(expected, router.getDestination(resourceId));
+    }
+
+    @Test
+    public void testAdd() {
+        router.add(LogBatcherTest.createEntry(0, "/subscriptions/aaaa/resourceGroups/rg"));
+        router.add(LogBatcherTest.createEntry(1, "/subscriptions/bbbb/resourceGroups/rg"));
+        router.add(LogBatcherTest.createEntry(2, "/subscriptions/bbbb/resourceGroups/rg"));
+        router.add(LogBatcherTest.createEntry(3, "/subscriptions/cccc/resourceGroups/rg"));
+        router.close();
+        assertEquals(1, clients.get("unit-a").batches.get(0).size());
+        assertEquals(2, clients.get("unit-b").batches.get(0).size());
+        assertEquals(1, clients.get(LogRouter.DEFAULT_DESTINATION).batches.get(0).size());
+        assertEquals("message 3",
+            clients.get(LogRouter.DEFAULT_DESTINATION).batches.get(0).get(0).getMessage());
+    }
+
+    @Test
+    public void testUnknownDestination() {
+        assertThrows(IllegalArgumentException.class, () -> new LogRouter(
+            router.getDefaultBatcher(), Map.of(), Map.of("unit-c", List.of("/subscriptions"))));
+    }
+
+    @Test
+    public void testParseDestinations() {
+        List<LogRouter.Destination> destinations = LogRouter.Destination.parse("["
+            + "{\"name\": \"unit-a\", \"company\": \"a\", \"LM_ACCESS_ID\": \"id\","
+            + "\"LM_ACCESS_KEY\": \"key\", \"resourceIdPrefixes\": [\"/subscriptions/aaaa\"]},"
+            + "{\"name\": \"unit-b\", \"ingestUrl\": \"http://localhost/rest\","
+            + "\"LM_BEARER_TOKEN\": \"token\"},"
+            + "{\"name\": \"unit-a\"}, {\"name\": \"default\"}, {\"company\": \"c\"}]");
+        assertEquals(2, destinations.size());
+        LogRouter.Destination first = destinations.get(0);
+        assertEquals("unit-a", first.getName());
+        assertEquals("a", first.getCompany());
+        assertEquals("id", first.getAccessId());
+        assertEquals("key", first.getAccessKey());
+        assertNull(first.getBearerToken());
+        assertEquals(List.of("/subscriptions/aaaa"), first.getResourceIdPrefixes());
+        LogRouter.Destination second = destinations.get(1);
+        assertEquals("http://localhost/rest", second.getIngestUrl());
+        assertEquals("token", second.getBearerToken());
+        assertTrue(second.getResourceIdPrefixes().isEmpty());
+
+        assertTrue(LogRouter.Destination.parse(null).isEmpty());
+        assertTrue(LogRouter.Destination.parse(" ").isEmpty());
+    }
+
+    @Test
+    public void testIngestClient() {
+        LogRouter.Destination destination = new LogRouter.Destination("unit-a", "company",
+            "example.com", null, "id", "key", null, List.of());
+        assertEquals("https://company.example.com/rest/log/ingest",
+            LogEventForwarder.createIngestClient(destination).getIngestUrl());
+    }
+}
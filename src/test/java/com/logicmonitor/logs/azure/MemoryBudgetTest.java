@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import com.logicmonitor.logs.azure.MemoryBudget.Policy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class MemoryBudgetTest {
+
+    protected static LogEntry createEntry(String message) {
+        return new LogEntry()
+            .message(message)
+            .timestamp(0L)
+            .putLmResourceIdItem(LogEventAdapter.LM_RESOURCE_PROPERTY, "resource");
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "a,          2",
+        "message,    14",
+        "'message with more characters', 56",
+    })
+    public void testEstimate(String message, long expectedMessageBytes) {
+        long empty = MemoryBudget.estimateRetainedSize(createEntry(null));
+        long size = MemoryBudget.estimateRetainedSize(createEntry(message));
+        assertEquals(40 + expectedMessageBytes, size - empty);
+    }
+
+    @Test
+    public void testShed() throws Exception {
+        LogEntry entry = createEntry("message");
+        long size = MemoryBudget.estimateRetainedSize(entry);
+        MemoryBudget budget = new MemoryBudget(size * 2, Policy.SHED, 0);
+        LogEntry first = createEntry("message");
+        LogEntry second = createEntry("message");
+        assertTrue(budget.acquire(first));
+        assertTrue(budget.acquire(second));
+        assertFalse(budget.acquire(entry));
+        assertEquals(1, budget.getShedEntries());
+        assertEquals(size * 2, budget.getUsed());
+
+        budget.release(List.of(first));
+        assertTrue(budget.acquire(entry));
+        // releasing twice is ignored
+        budget.release(List.of(first));
+        assertEquals(size * 2, budget.getUsed());
+    }
+
+    @Test
+    public void testLargeEntryAdmittedAlone() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1, Policy.SHED, 0);
+        LogEntry entry = createEntry("message");
+        assertTrue(budget.acquire(entry));
+        assertFalse(budget.acquire(createEntry("message")));
+        budget.release(List.of(entry));
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        LogEntry first = createEntry("message");
+        MemoryBudget budget = new MemoryBudget(MemoryBudget.estimateRetainedSize(first),
+            Policy.BLOCK, 10000);
+        assertTrue(budget.acquire(first));
+
+        CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> {
+            try {
+                return budget.acquire(createEntry("message"));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(blocked.isDone());
+        budget.release(List.of(first));
+        assertTrue(blocked.get(10, TimeUnit.SECONDS));
+        assertTrue(budget.getBlockedNanos() >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(0, budget.getShedEntries());
+    }
+
+    @Test
+    public void testBlockTimeout() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1, Policy.BLOCK, 50);
+        assertTrue(budget.acquire(createEntry("message")));
+        assertFalse(budget.acquire(createEntry("message")));
+        assertEquals(1, budget.getShedEntries());
+        assertTrue(budget.getBlockedNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+}
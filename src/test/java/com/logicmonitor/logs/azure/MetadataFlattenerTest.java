@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.github.stefanbirkner.systemlambda.SystemLambda.withEnvironmentVariable;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class MetadataFlattenerTest {
+
+    protected static final String JSON = "{\"a\": \"x\", \"b\": {\"c\": 1, \"d\": [true, null, "
+        + "{\"e\": 2.5}]}, \"f\": {\"g\": {\"h\": {\"i\": \"deep\"}}}}";
+
+    protected static Map<String, String> flatten(MetadataFlattener flattener, String key,
+        String json) {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        flattener.flatten(key, JsonParser.parseString(json), metadata);
+        return metadata;
+    }
+
+    @Test
+    public void testFlatten() {
+        Map<String, String> expected = new HashMap<>();
+        expected.put("p.a", "x");
+        expected.put("p.b.c", "1");
+        expected.put("p.b.d.0", "true");
+        expected.put("p.b.d.2.e", "2.5");
+        expected.put("p.f.g.h.i", "deep");
+        assertEquals(expected, flatten(new MetadataFlattener(), "p", JSON));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "p,   x,          x",
+        "p,   {\"a\":1},  1",
+        "'  ', {\"a\":1}, 1",
+    })
+    public void testBaseKey(String key, String json, String value) {
+        Map<String, String> metadata = flatten(new MetadataFlattener(), key, json);
+        String expectedKey = json.startsWith("{") ? (key.isBlank() ? "a" : key + ".a") : key;
+        assertEquals(Map.of(expectedKey, value), metadata);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "0, p.f.g.h.i, deep",
+        "1, p.f,       '{\"g\":{\"h\":{\"i\":\"deep\"}}}'",
+        "2, p.f.g,     '{\"h\":{\"i\":\"deep\"}}'",
+        "4, p.f.g.h.i, deep",
+    })
+    public void testMaxDepth(int maxDepth, String key, String value) {
+        Map<String, String> metadata = flatten(new MetadataFlattener(maxDepth, 100, 1024, 0),
+            "p", JSON);
+        JsonElement expected = maxDepth == 0 || maxDepth == 4 ? null : JsonParser.parseString(value);
+        assertEquals(expected != null ? expected.toString() : value, metadata.get(key));
+    }
+
+    @Test
+    public void testMaxKeys() {
+        MetadataFlattener flattener = new MetadataFlattener(8, 3, 1024, 0);
+        Map<String, String> metadata = flatten(flattener, "p", JSON);
+        assertEquals(3, metadata.size());
+        assertEquals(Map.of("p.a", "x", "p.b.c", "1", "p.b.d.0", "true"), metadata);
+        // the rest of the array, then b.f
+        assertEquals(3, flattener.getDroppedKeys());
+    }
+
+    @Test
+    public void testUnlimited() {
+        MetadataFlattener flattener = new MetadataFlattener();
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < 200; i++) {
+            json.append(i > 0 ? "," : "").append("\"k").append(i).append("\":").append(i);
+        }
+        String deep = "{\"a\":".repeat(20) + "\"" + "x".repeat(5000) + "\"" + "}".repeat(20);
+        json.append(",\"deep\":").append(deep).append('}');
+        Map<String, String> metadata = flatten(flattener, "p", json.toString());
+        assertEquals(201, metadata.size());
+        assertEquals(5000, metadata.get("p.deep" + ".a".repeat(20)).length());
+        assertEquals(0, flattener.getDroppedKeys());
+        assertEquals(0, flattener.getTruncatedValues());
+    }
+
+    @Test
+    public void testMaxValueLength() {
+        MetadataFlattener flattener = new MetadataFlattener(8, 100, 4, 0);
+        assertEquals(Map.of("p", "abcd"), flatten(flattener, "p", "\"abcdef\""));
+        // doesn't split a surrogate pair
+        assertEquals(Map.of("p", "abc"), flatten(flattener, "p", "\"abc\\ud83d\\ude00\""));
+        assertEquals(Map.of("p", "ab"), flatten(flattener, "p", "\"ab\""));
+        assertEquals(2, flattener.getTruncatedValues());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "0, 3",
+        "2, 1",
+        "3, 3",
+    })
+    public void testMaxArrayElements(int maxArrayElements, int keys) {
+        Map<String, String> metadata = flatten(
+            new MetadataFlattener(8, 100, 1024, maxArrayElements), "p", "[1, \"two\", [3]]");
+        assertEquals(keys, metadata.size());
+        if (keys == 1) {
+            assertEquals("[1,\"two\",[3]]", metadata.get("p"));
+        } else {
+            assertEquals("3", metadata.get("p.2.0"));
+        }
+    }
+
+    @Test
+    public void testAdapterLimits() throws Exception {
+        withEnvironmentVariable(MetadataFlattener.PARAMETER_MAX_KEYS, "2")
+            .and(LogEventForwarder.PARAMETER_INCLUDE_METADATA_KEYS, "identity, resultType")
+            .execute(() -> {
+                LogEntry entry = LogEventForwarder.configureAdapter().createEntry(
+                    TestJsonUtils.getFirstLogEvent("activity_webapp.json"));
+                long flattened = entry.getMetadata().keySet().stream()
+                    .filter(key -> key.startsWith("identity.") || key.equals("resultType"))
+                    .count();
+                assertEquals(2, flattened);
+            });
+    }
+}
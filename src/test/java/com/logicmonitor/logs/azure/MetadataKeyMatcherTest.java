@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.TreeMap;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class MetadataKeyMatcherTest {
+
+    protected static final JsonObject EVENT = JsonParser.parseString("{"
+        + "\"resourceId\": \"/r\", \"level\": \"Error\","
+        + "\"properties\": {\"appId\": \"a\", \"userId\": \"u\", \"name\": \"n\","
+        + "\"inner\": {\"innerId\": \"i\"}},"
+        + "\"tags\": {\"env\": \"prod\", \"team\": \"logs\"},"
+        + "\"identity\": {\"claims\": {\"aud\": \"x\", \"nested\": {\"deep\": \"y\"}}},"
+        + "\"items\": [{\"id\": 1}, {\"id\": 2}],"
+        + "\"claims\": {\"http://schemas.xmlsoap.org/claims/name\": \"c\", \"a*b\": \"s\"}"
+        + "}").getAsJsonObject();
+
+    /**
+     * Gets the matched paths and values, separated by '=' and sorted.
+     */
+    protected static String match(String patterns) {
+        Map<String, String> matches = new TreeMap<>();
+        MetadataKeyMatcher.compile(patterns).match(EVENT,
+            (path, value) -> matches.put(path, value.toString()));
+        return String.join(" ", matches.entrySet().stream()
+            .map(e -> e.getKey() + "=" + e.getValue()).toArray(String[]::new));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+        "level                   | level=\"Error\"",
+        "properties.*Id          | properties.appId=\"a\" properties.userId=\"u\"",
+        "tags.*                  | tags.env=\"prod\" tags.team=\"logs\"",
+        "tags.t?am               | tags.team=\"logs\"",
+        "identity.claims.**      | identity.claims={\"aud\":\"x\",\"nested\":{\"deep\":\"y\"}}",
+        "**.innerId              | properties.inner.innerId=\"i\"",
+        "items.*.id              | items.0.id=1 items.1.id=2",
+        "items.1                 | items.1={\"id\":2}",
+        "missing, tags.none      | ''",
+        "' level , tags.env '    | level=\"Error\" tags.env=\"prod\"",
+        "tags.*, tags.env        | tags.env=\"prod\" tags.team=\"logs\"",
+        "$.level                 | level=\"Error\"",
+        "items[1].id             | items[1].id=2",
+        "items[*].id             | items.0.id=1 items.1.id=2",
+        "$..innerId              | properties.inner.innerId=\"i\"",
+        "identity..deep          | identity.claims.nested.deep=\"y\"",
+    })
+    public void testMatch(String patterns, String expected) {
+        assertEquals(expected != null ? expected : "", match(patterns));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "items[?(@.id > 1)]",
+        "items[0:1]",
+        "tags['env",
+        "tags['env']x",
+        "tags[env]",
+        "tags.",
+        "a..",
+        "$",
+        "$level",
+        "a.b]",
+    })
+    public void testUnsupported(String pattern) {
+        assertNull(MetadataKeyMatcher.parse(pattern), pattern);
+        // skipped, the other patterns still match
+        assertTrue(MetadataKeyMatcher.compile(pattern).isEmpty());
+        assertEquals("level=\"Error\"", match("level, " + pattern));
+    }
+
+    @Test
+    public void testQuotedNames() {
+        // the pattern is the key, as with JSONPath
+        assertEquals("tags['env']=\"prod\"", match("tags['env']"));
+        assertEquals("['tags'][\"team\"]=\"logs\"", match("$['tags'][\"team\"]"));
+        assertEquals("claims['http://schemas.xmlsoap.org/claims/name']=\"c\"",
+            match("claims['http://schemas.xmlsoap.org/claims/name']"));
+        // not a glob
+        assertEquals("claims['a*b']=\"s\"", match("claims['a*b']"));
+        assertEquals("", match("claims['a*']"));
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals("['a', b*, 'c']", MetadataKeyMatcher.parse("a.b*.c").toString());
+        assertEquals("['a', 'b.c', '2']", MetadataKeyMatcher.parse("$.a['b.c'][2]").toString());
+        assertEquals("['a', 'it's', *]", MetadataKeyMatcher.parse("a[\"it's\"][*]").toString());
+        assertEquals("['a'b']", MetadataKeyMatcher.parse("['a\\'b']").toString());
+        assertEquals("[**, 'a']", MetadataKeyMatcher.parse("$..a").toString());
+        assertEquals("['a', '7']", MetadataKeyMatcher.parse("a[ 007 ]").toString());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "*,     anything, true",
+        "*Id,   appId,    true",
+        "*Id,   appid,    false",
+        "a*b*c, aXbYbZc,  true",
+        "a*b*c, aXbYc,    true",
+        "a*b*c, aXcYb,    false",
+        "?,     a,        true",
+        "?,     ab,       false",
+        "a**,   a,        true",
+    })
+    public void testGlob(String glob, String segment, boolean matches) {
+        assertEquals(matches, MetadataKeyMatcher.matchesGlob(glob, segment));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(MetadataKeyMatcher.compile(null).isEmpty());
+        assertTrue(MetadataKeyMatcher.compile(" , ").isEmpty());
+        assertFalse(MetadataKeyMatcher.compile("a").isEmpty());
+    }
+
+    @Test
+    public void testAdapterRenaming() {
+        LogEventAdapter adapter = new LogEventAdapter(null, "clientId", null,
+            "level, properties.*Id, tags.*");
+        Map<String, String> metadata = adapter.createEntry(EVENT).getMetadata();
+        assertEquals("Error", metadata.get(LogEventAdapter.LM_SEVERITY));
+        assertFalse(metadata.containsKey(LogEventAdapter.AZURE_SEVERITY));
+        assertEquals("a", metadata.get("properties.appId"));
+        assertEquals("u", metadata.get("properties.userId"));
+        assertEquals("prod", metadata.get("tags.env"));
+        assertFalse(metadata.containsKey("properties.name"));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.github.stefanbirkner.systemlambda.SystemLambda.withEnvironmentVariable;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.logicmonitor.logs.azure.PayloadWriter.Payload;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class PayloadWriterTest {
+
+    protected static final Gson GSON = new Gson();
+
+    /**
+     * Builds the expected payload using Gson.
+     */
+    protected static JsonArray toJsonTree(List<LogEntry> entries) {
+        JsonArray array = new JsonArray();
+        for (LogEntry entry : entries) {
+            JsonObject object = new JsonObject();
+            for (Map.Entry<String, String> metadata : entry.getMetadata().entrySet()) {
+                object.addProperty(metadata.getKey(), metadata.getValue());
+            }
+            object.addProperty(LogEntry.JSON_PROPERTY_MESSAGE, entry.getMessage());
+            object.addProperty(LogEntry.JSON_PROPERTY_TIMESTAMP, entry.getTimestamp());
+            object.add(LogEntry.JSON_PROPERTY_LM_RESOURCE_ID,
+                GSON.toJsonTree(entry.getLmResourceId()));
+            array.add(object);
+        }
+        return array;
+    }
+
+    protected static JsonElement write(List<LogEntry> entries, int bufferSize) {
+        ByteBufferPool pool = new ByteBufferPool(bufferSize, 4);
+        try (Payload payload = new PayloadWriter(pool).write(entries)) {
+            byte[] bytes = payload.toByteArray();
+            assertEquals(bytes.length, payload.getLength());
+            return JsonParser.parseString(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "activity_storage_account.json, 64",
+        "resource_db_account.json,      64",
+        "vm_syslog.json,                16",
+        "windows_vm_log.json,           65536",
+    })
+    public void testFixtures(String resourceName, int bufferSize) throws Exception {
+        withEnvironmentVariable(LogEventForwarder.PARAMETER_AZURE_CLIENT_ID, "testClientId")
+            .execute(() -> {
+                List<LogEntry> entries = LogEventForwarder.processEvents(
+                    TestJsonUtils.getJsonStringList(resourceName));
+                assertEquals(toJsonTree(entries), write(entries, bufferSize));
+            });
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "plain",
+        "quote \" backslash \\ slash /",
+        "new\nline\r\ttab\b\f",
+        "control \u0000 \u001f \u007f",
+        "latin \u00e9 \u00df, cjk \u65e5\u672c\u8a9e, separators \u2028 \u2029",
+        "emoji \ud83d\ude00 at the end \ud83d\ude80",
+    })
+    public void testEscaping(String message) {
+        LogEntry entry = new LogEntry().message(message).timestamp(1L);
+        entry.getMetadata().put("key \"" + message + "\"", message);
+        entry.putLmResourceIdItem(LogEventAdapter.LM_RESOURCE_PROPERTY, message);
+        for (int bufferSize : new int[] {8, 9, 10, 11, 1024}) {
+            assertEquals(toJsonTree(List.of(entry)), write(List.of(entry), bufferSize));
+        }
+    }
+
+    @Test
+    public void testUnpairedSurrogate() {
+        LogEntry entry = new LogEntry().message("a\uD83Db\uDE00").timestamp(1L);
+        JsonElement json = write(List.of(entry), 64);
+        assertEquals("a?b?", json.getAsJsonArray().get(0).getAsJsonObject()
+            .get(LogEntry.JSON_PROPERTY_MESSAGE).getAsString());
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {0, 1, -1, 9, 10, 1609459200000L, Long.MAX_VALUE, Long.MIN_VALUE})
+    public void testTimestamp(long timestamp) {
+        LogEntry entry = new LogEntry().message("message").timestamp(timestamp);
+        JsonElement json = write(List.of(entry), 32);
+        assertEquals(timestamp, json.getAsJsonArray().get(0).getAsJsonObject()
+            .get(LogEntry.JSON_PROPERTY_TIMESTAMP).getAsLong());
+    }
+
+    @Test
+    public void testBuffersReused() throws Exception {
+        ByteBufferPool pool = new ByteBufferPool(32, 16);
+        PayloadWriter writer = new PayloadWriter(pool);
+        List<LogEntry> entries = List.of(new LogEntry().message("a longer message spanning "
+            + "several buffers of the pool").timestamp(1L));
+        byte[] expected;
+        try (Payload payload = writer.write(entries)) {
+            expected = payload.toByteArray();
+            // written twice, as by a retry
+            for (int i = 0; i < 2; i++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                payload.writeTo(Channels.newChannel(out));
+                assertEquals(new String(expected, StandardCharsets.UTF_8),
+                    out.toString(StandardCharsets.UTF_8));
+            }
+        }
+        long allocated = pool.getAllocated();
+        assertEquals(allocated, pool.getPooled());
+        for (int i = 0; i < 10; i++) {
+            try (Payload payload = writer.write(entries)) {
+                assertEquals(new String(expected, StandardCharsets.UTF_8),
+                    new String(payload.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(allocated, pool.getAllocated());
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static com.github.stefanbirkner.systemlambda.SystemLambda.withEnvironmentVariable;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.MalformedJsonException;
+import com.logicmonitor.logs.azure.Quarantine.ErrorType;
+import com.logicmonitor.logs.azure.Quarantine.QuarantinedPayload;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class QuarantineTest {
+
+    protected static final String RECORD = "{\"time\": \"2020-08-07T09:15:46Z\", "
+        + "\"resourceId\": \"/subscriptions/s/resourceGroups/g/providers/a/b/c\", "
+        + "\"category\": %s, \"properties\": {\"Msg\": \"%s\"}}";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testClassify() {
+        assertEquals(ErrorType.MALFORMED_JSON, ErrorType.classify(
+            new JsonSyntaxException(new MalformedJsonException("unterminated"))));
+        assertEquals(ErrorType.UNEXPECTED_SHAPE, ErrorType.classify(
+            new JsonSyntaxException(new IllegalStateException("expected a string"))));
+        assertEquals(ErrorType.UNEXPECTED_SHAPE, ErrorType.classify(new ClassCastException()));
+        assertEquals(ErrorType.INVALID_VALUE, ErrorType.classify(
+            new DateTimeParseException("invalid time", "x", 0)));
+        assertEquals(ErrorType.INVALID_VALUE, ErrorType.classify(new NumberFormatException()));
+        assertEquals(ErrorType.INTERNAL, ErrorType.classify(new NullPointerException()));
+    }
+
+    @Test
+    public void testBounded() {
+        Quarantine quarantine = new Quarantine(3);
+        for (int i = 0; i < 5; i++) {
+            quarantine.add(new ClassCastException(), "payload " + i);
+        }
+        assertEquals(5, quarantine.getCount(ErrorType.UNEXPECTED_SHAPE));
+        assertEquals(List.of("payload 2", "payload 3", "payload 4"),
+            quarantine.getPayloads().stream().map(QuarantinedPayload::getPayload)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testFile() throws Exception {
+        Path file = directory.resolve("quarantine").resolve("failed.jsonl");
+        Quarantine quarantine = new Quarantine(0, file, 200);
+        for (int i = 0; i < 6; i++) {
+            quarantine.add(new NullPointerException("error " + i), "{\"payload\": " + i + "}");
+        }
+        quarantine.close();
+        assertTrue(quarantine.getPayloads().isEmpty());
+        assertEquals(0, quarantine.getUnwrittenCount());
+        Path rotated = file.resolveSibling("failed.jsonl.1");
+        assertTrue(Files.exists(rotated));
+        List<String> lines = Files.readAllLines(file);
+        assertTrue(Files.readAllLines(rotated).size() + lines.size() <= 6);
+        QuarantinedPayload last = new Gson().fromJson(
+            lines.get(lines.size() - 1), QuarantinedPayload.class);
+        assertEquals(ErrorType.INTERNAL, last.getType());
+        assertEquals("error 5", last.getError());
+        assertEquals(5, JsonParser.parseString(last.getPayload()).getAsJsonObject()
+            .get("payload").getAsInt());
+    }
+
+    @Test
+    public void testScrubbed() throws Exception {
+        Path file = directory.resolve("failed.jsonl");
+        Quarantine quarantine = new Quarantine(1, file, Quarantine.DEFAULT_MAX_FILE_SIZE,
+            new RegexGuard(Pattern.compile("\\d{3}-\\d{4}"), RegexGuard.DEFAULT_TIMEOUT_MILLIS, 0,
+                RegexGuard.Violation.TRUNCATE));
+        quarantine.add(new NullPointerException(), "{\"phone\": \"555-1234\"}");
+        quarantine.close();
+        assertEquals("{\"phone\": \"\"}", quarantine.getPayloads().get(0).getPayload());
+        assertEquals("{\"phone\": \"\"}", new Gson().fromJson(Files.readAllLines(file).get(0),
+            QuarantinedPayload.class).getPayload());
+        // closed, not written any more
+        quarantine.add(new NullPointerException(), "{}");
+        assertEquals(1, quarantine.getUnwrittenCount());
+        assertEquals(1, Files.readAllLines(file).size());
+    }
+
+    @Test
+    public void testIsolation() throws Exception {
+        String records = "{\"records\": [" + String.format(RECORD, "\"Administrative\"", "first")
+            + ", " + String.format(RECORD, "{\"not\": \"a string\"}", "bad")
+            + ", " + String.format(RECORD, "\"Administrative\"", "second") + "]}";
+        withEnvironmentVariable(LogEventForwarder.PARAMETER_AZURE_CLIENT_ID, "testClientId")
+            .execute(() -> {
+                Quarantine quarantine = LogEventForwarder.getAdapter().getQuarantine();
+                long malformed = quarantine.getCount(ErrorType.MALFORMED_JSON);
+                long shape = quarantine.getCount(ErrorType.UNEXPECTED_SHAPE);
+                List<LogEntry> entries = LogEventForwarder.processEvents(List.of(
+                    "{\"records\": [", records, "[1, 2]",
+                    String.format(RECORD, "\"Administrative\"", "third")));
+                assertEquals(List.of("first", "second", "third"), entries.stream()
+                    .map(LogEntry::getMessage).collect(Collectors.toList()));
+                assertEquals(malformed + 1, quarantine.getCount(ErrorType.MALFORMED_JSON));
+                assertEquals(shape + 2, quarantine.getCount(ErrorType.UNEXPECTED_SHAPE));
+            });
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import com.logicmonitor.logs.azure.RegexGuard.Violation;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class RegexGuardTest {
+
+    /**
+     * Backtracks exponentially on a run of 'a' not followed by 'b'.
+     */
+    protected static final String CATASTROPHIC = "((a+)+)+b";
+
+    protected static final String RUN = StringUtils.repeat('a', 40) + "!";
+
+    @ParameterizedTest
+    @CsvSource({
+        "\\d,                  'user 123 from 10.0.0.1', '#'",
+        "[\\w.-]+@[\\w.-]+,    'mail a.b@c.com or x@y',  '<email>'",
+        "(password=)\\S+,      'password=secret done',   '$1***'",
+        "x,                    'no match',               '#'",
+    })
+    public void testReplaceAll(String regex, String input, String replacement) {
+        RegexGuard guard = new RegexGuard(Pattern.compile(regex), 1000, 0, Violation.TRUNCATE);
+        assertEquals(input.replaceAll(regex, replacement), guard.replaceAll(input, replacement));
+        assertEquals(1, guard.getMessages());
+        assertEquals(0, guard.getViolations());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "TRUNCATE",
+        "SKIP",
+    })
+    public void testTimeBudget(Violation onViolation) {
+        RegexGuard guard = new RegexGuard(Pattern.compile(CATASTROPHIC), 20, 0, onViolation);
+        long start = System.nanoTime();
+        String result = guard.replaceAll(RUN, "");
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(onViolation == Violation.TRUNCATE ? "" : RUN, result);
+        assertEquals(1, guard.getViolations());
+        assertTrue(guard.getMaxNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertTrue(guard.toString().contains("1 violations"), guard.toString());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "10,    true",
+        "1000,  true",
+        "5000,  false",
+        "0,     false",
+    })
+    public void testStepBudget(long maxSteps, boolean violated) {
+        String input = StringUtils.repeat("a1", 1000);
+        RegexGuard guard = new RegexGuard(Pattern.compile("\\d"), 0, maxSteps,
+            Violation.TRUNCATE);
+        String result = guard.replaceAll(input, "");
+        String scrubbed = input.replaceAll("\\d", "");
+        assertEquals(violated ? 1 : 0, guard.getViolations());
+        if (violated) {
+            // cut after the last match within the budget
+            assertTrue(scrubbed.startsWith(result), result);
+            assertTrue(result.length() <= maxSteps / 2, result);
+        } else {
+            assertEquals(scrubbed, result);
+        }
+    }
+
+    @Test
+    public void testAdapter() {
+        LogEventAdapter adapter = new LogEventAdapter(CATASTROPHIC, "clientId", null, null,
+            new MetadataFlattener(), new Quarantine(10),
+            new ResourceIdCache(ResourceIdCache.DEFAULT_MAX_SIZE), 20, 0, Violation.SKIP);
+        List<LogEntry> entries = adapter.apply("{\"properties\": {\"Msg\": \"" + RUN + "\"}}");
+        assertEquals(RUN, entries.get(0).getMessage());
+        assertEquals(1, adapter.getScrubGuard().getViolations());
+        assertEquals(CATASTROPHIC, adapter.getScrubPattern().pattern());
+    }
+
+    @Test
+    public void testLoadInputs() throws Exception {
+        Map<String, String> inputs = RegexGuard.loadInputs(List.of(
+            Paths.get(RegexGuard.DEFAULT_FIXTURES)));
+        assertTrue(inputs.keySet().stream().anyMatch(name -> name.startsWith("vm_syslog.json[")),
+            inputs.keySet().toString());
+        assertTrue(inputs.get("all the messages concatenated").length()
+            >= RegexGuard.SYNTHETIC_SIZE);
+        assertEquals(RegexGuard.SYNTHETIC_SIZE + 1, inputs.get("run of 'a'").length());
+    }
+
+    @Test
+    public void testConcatenate() {
+        assertEquals("abcabcabc", RegexGuard.concatenate(List.of("ab", "c"), 7));
+        assertEquals("abc", RegexGuard.concatenate(List.of("ab", "c"), 0));
+        // nothing to repeat
+        assertEquals("", RegexGuard.concatenate(List.of("", ""), 100));
+        assertEquals("", RegexGuard.concatenate(List.of(), 100));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "password=\\S+, false",
+        "'(\\w+\\s?)+$',  true",
+        "'(a|aa)+$',     true",
+    })
+    public void testValidate(String regex, boolean fails) throws Exception {
+        RegexGuard guard = new RegexGuard(Pattern.compile(regex), 50, 0, Violation.TRUNCATE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long failed = RegexGuard.validate(guard, RegexGuard.loadInputs(List.of(
+            Paths.get(RegexGuard.DEFAULT_FIXTURES))), new PrintStream(out, true, "UTF-8"));
+        String report = out.toString(StandardCharsets.UTF_8.name());
+        assertEquals(fails, failed > 0, report);
+        assertEquals(fails, report.contains("EXCEEDED"), report);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class ResourceIdCacheTest {
+
+    @Test
+    public void testSingleProperty() {
+        ResourceIdCache cache = new ResourceIdCache(10);
+        Map<String, String> id = cache.get(LogEventAdapter.LM_RESOURCE_PROPERTY, "/r/1");
+        assertSame(id, cache.get(LogEventAdapter.LM_RESOURCE_PROPERTY, "/r/1"));
+        assertNotSame(id, cache.get(LogEventAdapter.LM_RESOURCE_PROPERTY, "/r/2"));
+        assertEquals(Map.of(LogEventAdapter.LM_RESOURCE_PROPERTY, "/r/1"), id);
+        assertEquals(Map.of(LogEventAdapter.LM_RESOURCE_PROPERTY, "/r/1").hashCode(),
+            id.hashCode());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.size());
+        assertThrows(UnsupportedOperationException.class, () -> id.put("key", "value"));
+    }
+
+    @Test
+    public void testProperties() {
+        ResourceIdCache cache = new ResourceIdCache(10);
+        Map<String, String> properties = new HashMap<>();
+        properties.put(LogEventAdapter.LM_CLIENT_ID, "client");
+        properties.put(LogEventAdapter.LM_CLOUD_CATEGORY_KEY, "category");
+        Map<String, String> id = cache.get(properties);
+        assertSame(id, cache.get(new HashMap<>(properties)));
+        assertEquals(properties, id);
+        assertEquals(id, properties);
+        assertEquals(0.5, cache.getHitRate());
+        // null values are valid, but not cached
+        properties.put(LogEventAdapter.LM_AZURE_ACCOUNT, null);
+        assertNotSame(cache.get(properties), cache.get(properties));
+        assertEquals(properties, cache.get(properties));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 5})
+    public void testMaxSize(int maxSize) {
+        ResourceIdCache cache = new ResourceIdCache(maxSize);
+        for (int i = 0; i < 20; i++) {
+            cache.get(LogEventAdapter.LM_RESOURCE_PROPERTY, "/r/" + i);
+            assertTrue(cache.size() <= maxSize, "size " + cache.size());
+        }
+        assertEquals(maxSize > 0 ? 20 : 0, cache.getMisses());
+    }
+
+    @Test
+    public void testSharedEntries() throws Exception {
+        LogEventAdapter adapter = new LogEventAdapter(null, "testClientId", "account", null);
+        List<LogEntry> entries = adapter.apply("{\"records\": ["
+            + "{\"resourceId\": \"/r/1\"}, {\"resourceId\": \"/r/1\"},"
+            + "{\"category\": \"Administrative\"}, {\"category\": \"Policy\"}]}");
+        assertEquals(4, entries.size());
+        assertSame(entries.get(0).getLmResourceId(), entries.get(1).getLmResourceId());
+        assertSame(entries.get(2).getLmResourceId(), entries.get(3).getLmResourceId());
+        assertEquals(Map.of(LogEventAdapter.LM_CLIENT_ID, "testClientId",
+            LogEventAdapter.LM_CLOUD_CATEGORY_KEY, LogEventAdapter.LM_CLOUD_CATEGORY_VALUE,
+            LogEventAdapter.LM_AZURE_ACCOUNT, "account"), entries.get(2).getLmResourceId());
+
+        // encoded from the bytes kept by the shared map
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            LogEntryJsonEncoder encoder = LogEntryJsonEncoder.toStream(out, 16);
+            encoder.writeArray(entries);
+            encoder.flush();
+            assertEquals(entries, TestJsonUtils.parseLogEntries(
+                new String(out.toByteArray(), StandardCharsets.UTF_8)));
+        }
+
+        // changing an entry doesn't affect the others
+        entries.get(0).putLmResourceIdItem("key", "value");
+        assertEquals("value", entries.get(0).getLmResourceId().get("key"));
+        assertEquals(Map.of(LogEventAdapter.LM_RESOURCE_PROPERTY, "/r/1"),
+            entries.get(1).getLmResourceId());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class RingBufferTest {
+
+    @ParameterizedTest
+    @CsvSource({
+        "0,    2",
+        "1,    2",
+        "2,    2",
+        "3,    4",
+        "1000, 1024",
+        "1024, 1024",
+    })
+    public void testCapacity(int capacity, int expected) {
+        RingBuffer<Integer> buffer = new RingBuffer<>(capacity);
+        assertEquals(expected, buffer.getCapacity());
+        for (int i = 0; i < expected; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(expected));
+        assertEquals(expected, buffer.size());
+    }
+
+    @Test
+    public void testOrderAcrossLaps() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        assertNull(buffer.poll());
+        int next = 0;
+        for (int i = 0; i < 100; i++) {
+            assertTrue(buffer.offer(i));
+            if (i % 3 == 2) {
+                while (!buffer.isEmpty()) {
+                    assertEquals(Integer.valueOf(next++), buffer.poll());
+                }
+            }
+        }
+        while (!buffer.isEmpty()) {
+            assertEquals(Integer.valueOf(next++), buffer.poll());
+        }
+        assertEquals(100, next);
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        int producers = 4;
+        int perProducer = 10_000;
+        RingBuffer<int[]> buffer = new RingBuffer<>(64);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(new int[] {producer, i})) {
+                        Thread.yield();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        List<Integer> last = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            last.add(-1);
+        }
+        int received = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (received < producers * perProducer && System.nanoTime() < deadline) {
+            int[] element = buffer.poll();
+            if (element != null) {
+                // the elements of each producer keep their order
+                assertEquals(last.get(element[0]) + 1, element[1]);
+                last.set(element[0], element[1]);
+                received++;
+            }
+        }
+        executor.shutdown();
+        assertEquals(producers * perProducer, received);
+        assertTrue(buffer.isEmpty());
+    }
+}
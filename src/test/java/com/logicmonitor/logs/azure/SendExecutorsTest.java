@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class SendExecutorsTest {
+
+    @ParameterizedTest
+    @CsvSource({
+        "1, false",
+        "2, false",
+        "2, true",
+    })
+    public void testConcurrency(int concurrency, boolean virtualThreads) throws Exception {
+        int tasks = 16;
+        ExecutorService executor = SendExecutors.newSendExecutor("lm-test", concurrency,
+            virtualThreads);
+        CountDownLatch started = new CountDownLatch(tasks);
+        CountDownLatch release = new CountDownLatch(1);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(() -> {
+                threads.add(Thread.currentThread().getName());
+                assertTrue(Thread.currentThread().isDaemon());
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        // the virtual threads don't limit the number of blocked tasks
+        boolean unbounded = virtualThreads && SendExecutors.isVirtualThreadsSupported();
+        assertEquals(unbounded, started.await(unbounded ? 10000 : 200, TimeUnit.MILLISECONDS));
+        assertEquals(unbounded ? tasks : concurrency, threads.size());
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(threads.stream().allMatch(name -> name.startsWith("lm-test-")));
+    }
+}
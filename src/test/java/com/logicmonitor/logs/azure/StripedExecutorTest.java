@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+public class StripedExecutorTest {
+
+    @ParameterizedTest
+    @CsvSource({
+        "1,  1",
+        "4,  8",
+        "16, 4",
+    })
+    public void testLaneOrder(int laneCount, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        StripedExecutor striped = new StripedExecutor(laneCount, executor);
+        List<List<Integer>> executed = new ArrayList<>();
+        for (int i = 0; i < laneCount; i++) {
+            executed.add(Collections.synchronizedList(new ArrayList<>()));
+        }
+        for (int i = 0; i < 1000; i++) {
+            int lane = i % laneCount;
+            int task = i;
+            striped.execute(lane, () -> executed.get(lane).add(task));
+        }
+        assertTrue(striped.awaitEmpty(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        for (int lane = 0; lane < laneCount; lane++) {
+            List<Integer> tasks = executed.get(lane);
+            assertEquals(1000 / laneCount + (lane < 1000 % laneCount ? 1 : 0), tasks.size());
+            for (int i = 1; i < tasks.size(); i++) {
+                assertTrue(tasks.get(i - 1) < tasks.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testQueueDepth() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        StripedExecutor striped = new StripedExecutor(2, executor);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 3; i++) {
+            striped.execute(1, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        assertEquals(0, striped.getQueueDepth(0));
+        assertEquals(3, striped.getQueueDepth(1));
+        assertFalse(striped.awaitEmpty(10, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(striped.awaitEmpty(10, TimeUnit.SECONDS));
+        assertEquals(0, striped.getQueueDepths()[1]);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testHotLane() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        StripedExecutor striped = new StripedExecutor(16, executor);
+        AtomicBoolean feeding = new AtomicBoolean(true);
+        // a lane fed continuously, on the only thread
+        feed(striped, 0, feeding);
+        CountDownLatch others = new CountDownLatch(15);
+        for (int lane = 1; lane < 16; lane++) {
+            striped.execute(lane, others::countDown);
+        }
+        try {
+            assertTrue(others.await(10, TimeUnit.SECONDS), "starved lanes " + others.getCount());
+        } finally {
+            feeding.set(false);
+        }
+        assertTrue(striped.awaitEmpty(10, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    private static void feed(StripedExecutor striped, int lane, AtomicBoolean feeding) {
+        striped.execute(lane, () -> {
+            if (feeding.get()) {
+                // the next task is queued before this one completes
+                feed(striped, lane, feeding);
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testLaneOfKey() {
+        StripedExecutor striped = new StripedExecutor(16, Runnable::run);
+        assertEquals(0, striped.laneOf(null));
+        assertEquals(striped.laneOf("resource"), striped.laneOf(new String("resource")));
+        for (int i = 0; i < 100; i++) {
+            int lane = striped.laneOf("resource-" + i);
+            assertTrue(lane >= 0 && lane < 16);
+        }
+    }
+}
@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -78,6 +79,40 @@ public class TestJsonUtils {
         return GSON.toJson(element);
     }
 
+    /**
+     * Decodes a payload of the ingestion format: the properties other than the message, the
+     * timestamp and the resource ID are the metadata.
+     */
+    public static List<LogEntry> parseLogEntries(String json) {
+        return StreamSupport.stream(GSON.fromJson(json, JsonArray.class).spliterator(), false)
+            .map(JsonElement::getAsJsonObject)
+            .map(TestJsonUtils::toLogEntry)
+            .collect(Collectors.toList());
+    }
+
+    private static LogEntry toLogEntry(JsonObject object) {
+        LogEntry entry = new LogEntry();
+        for (Map.Entry<String, JsonElement> property : object.entrySet()) {
+            JsonElement value = property.getValue();
+            switch (property.getKey()) {
+                case LogEntry.JSON_PROPERTY_MESSAGE:
+                    entry.setMessage(value.isJsonNull() ? null : value.getAsString());
+                    break;
+                case LogEntry.JSON_PROPERTY_TIMESTAMP:
+                    entry.setTimestamp(value.getAsLong());
+                    break;
+                case LogEntry.JSON_PROPERTY_LM_RESOURCE_ID:
+                    value.getAsJsonObject().entrySet().forEach(id ->
+                        entry.putLmResourceIdItem(id.getKey(), id.getValue().getAsString()));
+                    break;
+                default:
+                    entry.getMetadata().put(property.getKey(),
+                        value.isJsonNull() ? null : value.getAsString());
+            }
+        }
+        return entry;
+    }
+
     public static List<String> mergeJsonStringList(String... resourceNames) {
         return Stream.of(resourceNames)
             .map(TestJsonUtils::getJsonStringList)
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2020 LogicMonitor, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.logicmonitor.logs.azure;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.logicmonitor.logs.azure.Quarantine.ErrorType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class WarmupTest {
+
+    @Test
+    public void testLoadEvents() {
+        List<String> events = Warmup.loadEvents();
+        assertEquals(4, events.size());
+        LogEventAdapter adapter = new LogEventAdapter(null, "clientId", null, null);
+        assertEquals(6, events.stream().mapToInt(event -> adapter.apply(event).size()).sum());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 10})
+    public void testExercise(int iterations) {
+        Quarantine quarantine = new Quarantine(10);
+        LogEventAdapter adapter = new LogEventAdapter("\\d", "clientId", null, "level, tags.*",
+            new MetadataFlattener(), quarantine);
+        int entries = Warmup.exercise(new LogPipeline(adapter, LogPipeline.DEFAULT_BUFFER_SIZE),
+            client(), Warmup.loadEvents(), iterations, () -> false);
+        assertEquals(6 * iterations, entries);
+        for (ErrorType type : ErrorType.values()) {
+            assertEquals(0, quarantine.getCount(type));
+        }
+    }
+
+    @Test
+    public void testStopped() {
+        LogEventAdapter adapter = new LogEventAdapter(null, "clientId", null, null);
+        AtomicInteger checks = new AtomicInteger();
+        // stopped by an invocation during the second iteration
+        int entries = Warmup.exercise(new LogPipeline(adapter, LogPipeline.DEFAULT_BUFFER_SIZE),
+            client(), Warmup.loadEvents(), 100, () -> checks.incrementAndGet() > 2);
+        assertEquals(6 * 2, entries);
+    }
+
+    protected static LogIngestClient client() {
+        return new LogIngestClient("https://localhost/rest", "id", "key", null,
+            LogIngestClient.createHttpClient(1000, 1000, false), 0);
+    }
+
+    @Test
+    public void testNotStartedOutsideHost() {
+        // the tests don't run in the Functions host
+        Warmup.start();
+        assertTrue(Thread.getAllStackTraces().keySet().stream()
+            .noneMatch(thread -> "lm-logs-warmup".equals(thread.getName())));
+    }
+}